@@ -1,12 +1,12 @@
 package imageCreation;
 
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.WritableImage;
+import ptmCreation.NormalStore;
 import ptmCreation.PTMObjectLRGB;
 import ptmCreation.PTMObjectRGB;
 import ptmCreation.RTIObject;
 import ptmCreation.RTIObjectHSH;
 import toolWindow.RTIViewer;
+import utils.ComputePool;
 import utils.Utils;
 
 import javax.imageio.ImageIO;
@@ -18,6 +18,12 @@ import java.io.IOException;
  * This class provides static methods to save a snapshot of an {@link RTIObject} with the current rendering parameters
  * of the viewer. It also contains methods used in multiple subclasses for calculation of certain RTIFilters, and
  * methods to save greyscale images.
+ * <p>
+ * Snapshots are rendered with {@link ImageCreator#renderImage(int, int, TileRenderer)}, which splits the image into
+ * square tiles of {@link ImageCreator#TILE_SIZE} pixels and renders rows of tiles on all the cores at once with the
+ * {@link ComputePool}. Each pixel of a snapshot only depends on the coefficients and normals of the pixels around it,
+ * so the tiles can be rendered in any order.
+ * </p>
  *
  * @see RTIObject
  * @see ImageCreatorHSH
@@ -26,12 +32,40 @@ import java.io.IOException;
  */
 public class ImageCreator {
 
+    /** Width and height of the tiles snapshots are rendered in, so the rows of a tile stay in the CPU's cache */
+    static final int TILE_SIZE = 64;
+
+    /** Distance from the pixel to the edge of the block whose luminance is averaged for image unsharp masking */
+    static final int UNSHARP_MASK_RADIUS = 2;
+
+
+    /**
+     * Renders the pixels of one tile of a snapshot. Implementations are called from many threads at once, each with a
+     * different tile, so any scratch arrays must be made inside {@link TileRenderer#renderTile}, not shared.
+     */
+    interface TileRenderer {
+
+        /**
+         * Renders the pixels from (startX, startY) up to, but not including, (endX, endY) into pixels as opaque ARGB
+         * ints, where pixel (x, y) is at y * width + x of the whole image.
+         *
+         * @param startX    x position of the left column of the tile
+         * @param startY    y position of the top row of the tile
+         * @param endX      the column after the right column of the tile
+         * @param endY      the row after the bottom row of the tile
+         * @param pixels    the ARGB pixels of the whole image
+         */
+        void renderTile(int startX, int startY, int endX, int endY, int[] pixels);
+    }
+
 
     /**
      * Saves an image to disk using the passed rendering parameters, on a new thread. Uses the subclasses for the
-     * relevant {@link RTIObject} type to process the actual images, and then writes this output image.
+     * relevant {@link RTIObject} type to process the actual images, and then writes this output image. The image is
+     * rendered straight into an RGB BufferedImage from the {@link RasterPool}, which ImageIO encodes as it is.
      *
      * @param rtiObject         object to save a snapshot of
+     * @param mipLevel          the mip mapping level of the object to save, that of the window it's shown in
      * @param lightX            x position of the light int the snapshot
      * @param lightY            y position of the light int the snapshot
      * @param shaderProgram     current image filter type to save the snapshot of
@@ -43,36 +77,48 @@ public class ImageCreator {
      * @param shaderParams      parameters of the specific shader= program used
      * @param isGreyscale       whether the image should be converted to greyscale or not
      */
-    public static void saveImage(RTIObject rtiObject, float lightX, float lightY, RTIViewer.ShaderProgram shaderProgram,
-                                    boolean red, boolean green, boolean blue, String format, File destination,
-                                    float[] shaderParams, boolean isGreyscale){
+    public static void saveImage(RTIObject rtiObject, int mipLevel, float lightX, float lightY,
+                                    RTIViewer.ShaderProgram shaderProgram, boolean red, boolean green, boolean blue,
+                                    String format, File destination, float[] shaderParams, boolean isGreyscale){
+
+        //the rtiObject's buffers can't be freed while the image is made, even if its window is closed
+        rtiObject.retain();
+
+        //the whole image is made from this one level, even if the window changes level while it's being made
+        final RTIObject.Level level = rtiObject.getLevel(mipLevel);
 
         //write this sucker on a new thread
         Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                WritableImage createdImage;
+                BufferedImage createdImage;
 
                 //use the relevant image creator for the RTIObject type to create the image
-                if(rtiObject instanceof PTMObjectRGB){
-                    createdImage = ImageCreatorPTM_RGB.createImage(rtiObject, lightX, lightY,
-                                                                    shaderProgram, red, green, blue, shaderParams);
-                }else if(rtiObject instanceof PTMObjectLRGB){
-                    createdImage = ImageCreatorPTM_LRGB.createImage(rtiObject, lightX, lightY,
-                            shaderProgram, red, green, blue, shaderParams);
-                }else if(rtiObject instanceof RTIObjectHSH){
-                    createdImage = ImageCreatorHSH.createImage(rtiObject, lightX, lightY,
-                                                                shaderProgram, red, green, blue, shaderParams);
-                }else{
-                    return;
+                try{
+                    if(rtiObject instanceof PTMObjectRGB){
+                        createdImage = ImageCreatorPTM_RGB.createImage(rtiObject, level, lightX, lightY,
+                                                    shaderProgram, red, green, blue, shaderParams, isGreyscale);
+                    }else if(rtiObject instanceof PTMObjectLRGB){
+                        createdImage = ImageCreatorPTM_LRGB.createImage(rtiObject, level, lightX, lightY,
+                                shaderProgram, red, green, blue, shaderParams, isGreyscale);
+                    }else if(rtiObject instanceof RTIObjectHSH){
+                        createdImage = ImageCreatorHSH.createImage(rtiObject, level, lightX, lightY,
+                                                    shaderProgram, red, green, blue, shaderParams, isGreyscale);
+                    }else{
+                        return;
+                    }
+                }finally{
+                    rtiObject.close();
                 }
 
-                //try and write it to the disk
+                //try and write it to the disk, then give its pixels back for the next snapshot
                 try{
-                    saveImage(createdImage, format, destination, isGreyscale);
+                    ImageIO.write(createdImage, format.toUpperCase(), destination);
                 }catch (IOException e){
                     e.printStackTrace();
 
+                }finally{
+                    RasterPool.release(createdImage);
                 }
             }
         });
@@ -84,43 +130,6 @@ public class ImageCreator {
 
 
 
-    /**
-     * Writes the passed WritableImage to the disk, to the destination File. Will convert the image to greyscale
-     * before writing if isGreyscale is true.
-     *
-     * @param writableImage     image to write to disk
-     * @param format            format to write in: 'jpg' or 'png'
-     * @param destination       path of the image file to write
-     * @param isGreyScale       whether the image should be greyscale or not
-     * @throws IOException      if there is an error writing to disk
-     */
-    private static void saveImage(WritableImage writableImage, String format,
-                                  File destination, boolean isGreyScale) throws IOException{
-        //the image needs to be turned into a BufferedImage so we can use ImageIO to easily write it to disk
-        BufferedImage image = SwingFXUtils.fromFXImage(writableImage, null);
-
-
-        //there is a bug in ImageIO where saving a jpeg to file gives weird colours, because the API thinks
-        //that the BufferedImage is in MYK instead of RGB, so this is the workaround
-        BufferedImage newImg = new BufferedImage(image.getWidth(),
-                                            image.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-        int rgb;
-        for(int x = 0; x < image.getWidth(); x++){
-            for(int y = 0; y < image.getHeight(); y++){
-                rgb = image.getRGB(x, y);
-
-                //this is a convenient place to convert the image to greyscale, os let's do it here
-                if(isGreyScale){rgb = convertToGreyscale(rgb);}
-
-                newImg.setRGB(x, y, rgb);
-            }
-        }
-        //woooo we can finally write it to the disk
-        ImageIO.write(newImg, format.toUpperCase(), destination);
-    }
-
-
     /**
      * Converts the passed colour to greyscale.
      *
@@ -141,51 +150,108 @@ public class ImageCreator {
 
 
     /**
-     * Creates a normals map of the RTIObject. The z component of the normals are shown as blue (255 = z pointing
-     * out of the screen, 0 away), the y component shown as green (255 = up, 0 = down), and the x component as
+     * Creates a normals map of a level of an RTIObject. The z component of the normals are shown as blue (255 = z
+     * pointing out of the screen, 0 away), the y component shown as green (255 = up, 0 = down), and the x component as
      * red (355 = right, 0 = left).
      *
-     * @param rtiObject     object to create the normals image of
+     * @param level         the level of the object to create the normals image of
      * @param red           whether the red channel should be saved
      * @param green         whether the green channel should be saved
      * @param blue          whether the blue channel should be saved
-     * @return              the normals visualisation as a WritableImage
+     * @param isGreyscale   whether the image should be converted to greyscale
+     * @return              the normals visualisation as an image
      */
-    public static WritableImage createNormalsImage(RTIObject rtiObject, boolean red, boolean green, boolean blue){
-        WritableImage writableImage = new WritableImage(rtiObject.getWidth(), rtiObject.getHeight());
-
-        //loop through all the pixels in the RTIObject, and
-        int position, r, g, b;
-        for(int x = 0; x < rtiObject.getWidth(); x++) {
-            for (int y = 0; y < rtiObject.getHeight(); y++) {
-                //convert the 2D position to a location in the 1D arrays of coefficients, (* 3 as it's a
-                //flattened array of x,y,z vectors)
-                position = ((y * rtiObject.getWidth()) + x) * 3;
-
-                //x = red
-                if(red){
-                    r = Utils.convertNormalCoordToColour(rtiObject.getNormals().get(position));
-                }else{r = 0;}
-
-                //y = green
-                if(green) {
-                    g = Utils.convertNormalCoordToColour(rtiObject.getNormals().get(position + 1));
-                }else{g = 0;}
-
-                //z = blue
-                if(blue){
-                    b = Utils.convertNormalCoordToColour(rtiObject.getNormals().get(position + 2));
-                }else{b = 0;}
-
-                writableImage.getPixelWriter().setColor(x, y, javafx.scene.paint.Color.rgb(r, g, b));
+    public static BufferedImage createNormalsImage(RTIObject.Level level, final boolean red, final boolean green,
+                                                   final boolean blue, boolean isGreyscale){
+        final int width = level.getWidth();
+        final NormalStore normals = level.getNormals();
+
+        return renderImage(width, level.getHeight(), isGreyscale, new TileRenderer() {
+            @Override
+            public void renderTile(int startX, int startY, int endX, int endY, int[] pixels) {
+                //the normals of the tile are read a row at a time, (* 3 as it's a flattened array of x,y,z vectors)
+                float[] row = new float[(endX - startX) * 3];
+
+                //loop through all the pixels in the tile, and convert their normals to colours
+                int position, r, g, b;
+                for(int y = startY; y < endY; y++){
+                    normals.readRow(y, startX, endX - startX, row, 0);
+                    for(int x = startX; x < endX; x++){
+                        //convert the 2D position to a location in the row of normals
+                        position = (x - startX) * 3;
+
+                        //x = red
+                        if(red){
+                            r = Utils.convertNormalCoordToColour(row[position]);
+                        }else{r = 0;}
+
+                        //y = green
+                        if(green) {
+                            g = Utils.convertNormalCoordToColour(row[position + 1]);
+                        }else{g = 0;}
+
+                        //z = blue
+                        if(blue){
+                            b = Utils.convertNormalCoordToColour(row[position + 2]);
+                        }else{b = 0;}
+
+                        pixels[y * width + x] = Utils.toArgb(r, g, b);
+                    }
+                }
             }
-        }
+        });
+    }
 
-        return writableImage;
+
+
+
+    /**
+     * Renders a snapshot of the given size a tile at a time on the {@link ComputePool}, straight into the pixels of an
+     * RGB image from the {@link RasterPool}. The image is split into square tiles of {@link ImageCreator#TILE_SIZE}
+     * pixels, and each thread is given a band of rows of tiles, which it renders left to right, a row of pixels at a
+     * time. If the image is greyscale, each tile is converted as soon as it's rendered, while it's still in the cache.
+     *
+     * @param width         width of the snapshot
+     * @param height        height of the snapshot
+     * @param isGreyscale   whether the image should be converted to greyscale
+     * @param renderer      renders the pixels of each tile
+     * @return              the rendered snapshot
+     */
+    static BufferedImage renderImage(final int width, final int height, final boolean isGreyscale,
+                                     final TileRenderer renderer){
+        BufferedImage image = RasterPool.acquire(width, height);
+        final int[] pixels = RasterPool.getPixels(image);
+        int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        ComputePool.processRows(tilesDown, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int tileY = startRow; tileY < endRow; tileY++){
+                    int startY = tileY * TILE_SIZE;
+                    int endY = Math.min(startY + TILE_SIZE, height);
+
+                    for(int startX = 0; startX < width; startX += TILE_SIZE){
+                        int endX = Math.min(startX + TILE_SIZE, width);
+                        renderer.renderTile(startX, startY, endX, endY, pixels);
+
+                        if(isGreyscale){
+                            for(int y = startY; y < endY; y++){
+                                for(int i = y * width + startX; i < y * width + endX; i++){
+                                    pixels[i] = convertToGreyscale(pixels[i]);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+
+        return image;
     }
 
 
 
+
     /**
      * Used in HSH images to calculate the luminance of pixel. The specific numbers for this come from the
      * original CHI viewer. The reverse of {@link ImageCreator#getRGB(float, float, float)}.
@@ -224,4 +290,100 @@ public class ImageCreator {
 
         return new float[]{r, g, b};
     }
+
+
+
+
+    /**
+     * Calculates the enhanced luminance of a pixel for the image unsharp masking enhancement, from its luminance and
+     * the average luminance of the block around it. This bit comes from the original RTIViewer.
+     *
+     * @param lum               luminance of the pixel
+     * @param averageLum        average luminance of the block around the pixel, see
+     *                          {@link ImageCreator#boxFilter(float[], int, int, int)}
+     * @param imgUnMaskGain     gain value for the enhanced luminance
+     * @return                  the enhanced luminance of the pixel
+     */
+    static float calcEnhancedLum(float lum, float averageLum, float imgUnMaskGain){
+        return lum + imgUnMaskGain * (lum - averageLum);
+    }
+
+
+
+
+    /**
+     * Replaces every value of the plane with the average of the values in the square of side 2 * radius + 1 around
+     * it, counting the values outside the plane as 0. The filter is done in place as two passes on the
+     * {@link ComputePool}: first each row is replaced with running sums along it, then each strip of columns with
+     * running sums down it. Each value is added to and taken off the sums once per pass, so the time taken doesn't
+     * depend on the radius.
+     *
+     * @param plane     the values of the plane, row by row, with (x, y) at y * width + x
+     * @param width     width of the plane
+     * @param height    height of the plane
+     * @param radius    distance from the centre of the square to its edges
+     */
+    static void boxFilter(final float[] plane, final int width, final int height, final int radius){
+        final int side = 2 * radius + 1;
+
+        //sum the values along each row, each band copying its current row so the sums can be written over it
+        ComputePool.processRows(height, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                float[] row = new float[width];
+                for(int y = startRow; y < endRow; y++){
+                    System.arraycopy(plane, y * width, row, 0, width);
+
+                    double sum = 0;
+                    for(int x = 0; x <= radius && x < width; x++){sum += row[x];}
+
+                    for(int x = 0; x < width; x++){
+                        plane[y * width + x] = (float) sum;
+
+                        //slide the window one to the right
+                        if(x + radius + 1 < width){sum += row[x + radius + 1];}
+                        if(x - radius >= 0){sum -= row[x - radius];}
+                    }
+                }
+            }
+        });
+
+        //sum the row sums down each strip of columns, keeping the rows in the window before they're written over
+        int numStrips = (width + TILE_SIZE - 1) / TILE_SIZE;
+        ComputePool.processRows(numStrips, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startStrip, int endStrip) {
+                for(int strip = startStrip; strip < endStrip; strip++){
+                    int startX = strip * TILE_SIZE;
+                    int stripWidth = Math.min(TILE_SIZE, width - startX);
+
+                    //the window's rows are kept in a ring, row y in slot y % side
+                    float[] window = new float[side * stripWidth];
+                    double[] sums = new double[stripWidth];
+                    for(int y = 0; y <= radius && y < height; y++){
+                        System.arraycopy(plane, y * width + startX, window, (y % side) * stripWidth, stripWidth);
+                        for(int i = 0; i < stripWidth; i++){
+                            sums[i] += window[(y % side) * stripWidth + i];
+                        }
+                    }
+
+                    for(int y = 0; y < height; y++){
+                        for(int i = 0; i < stripWidth; i++){
+                            plane[y * width + startX + i] = (float) (sums[i] / (side * side));
+                        }
+
+                        //slide the window down one, row y - radius leaves from the slot that row y + radius + 1 uses
+                        int slot = ((y + radius + 1) % side) * stripWidth;
+                        if(y - radius >= 0){
+                            for(int i = 0; i < stripWidth; i++){sums[i] -= window[slot + i];}
+                        }
+                        if(y + radius + 1 < height){
+                            System.arraycopy(plane, (y + radius + 1) * width + startX, window, slot, stripWidth);
+                            for(int i = 0; i < stripWidth; i++){sums[i] += window[slot + i];}
+                        }
+                    }
+                }
+            }
+        });
+    }
 }
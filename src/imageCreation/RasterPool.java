@@ -0,0 +1,133 @@
+package imageCreation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Keeps the pixel arrays of snapshots that have been written to the disk, so that the next snapshot can be rendered
+ * into one of them instead of allocating a new array of hundreds of megabytes for a big capture. The arrays are held
+ * by soft references, so if the JVM is short of memory it can still free them.
+ * </p>
+ * <p>
+ * The snapshots are {@link BufferedImage#TYPE_INT_RGB} images made straight on top of the arrays, so the renderers
+ * write into the image's own pixels and ImageIO encodes them without any copying. They have no alpha, as ImageIO
+ * writes jpegs of images with alpha with weird colours, thinking they're CMYK.
+ * </p>
+ * <p>
+ * All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @see ImageCreator
+ *
+ * @author Jed Mills
+ */
+public class RasterPool {
+
+    /** The most arrays kept in the pool at once */
+    private static final int MAX_POOLED = 2;
+
+    /** Red, green and blue masks of the RGB pixels, the same as {@link BufferedImage#TYPE_INT_RGB} */
+    private static final DirectColorModel COLOR_MODEL = new DirectColorModel(24, 0x00FF0000, 0x0000FF00, 0x000000FF);
+
+    /** The arrays that aren't being used, oldest first */
+    private static final ArrayList<SoftReference<int[]>> pool = new ArrayList<>();
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private RasterPool(){}
+
+
+
+
+    /**
+     * Creates a new RGB image of the given size whose pixels are an array from the pool, if there is one big enough,
+     * otherwise a new array. The pixels aren't cleared, so they must all be written before the image is used. The
+     * array can be got with {@link RasterPool#getPixels(BufferedImage)}, and should be given back with
+     * {@link RasterPool#release(BufferedImage)} once the image has been written.
+     *
+     * @param width     width of the image
+     * @param height    height of the image
+     * @return          the image
+     */
+    public static BufferedImage acquire(int width, int height){
+        int[] pixels = take(width * height);
+
+        DataBufferInt dataBuffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+                                                          COLOR_MODEL.getMasks(), null);
+
+        return new BufferedImage(COLOR_MODEL, raster, false, null);
+    }
+
+
+
+
+    /**
+     * Takes the smallest array from the pool that holds at least the given number of pixels, removing any arrays
+     * that the JVM has freed.
+     *
+     * @param size      the number of pixels needed
+     * @return          the array from the pool, or a new array if none is big enough
+     */
+    private static synchronized int[] take(int size){
+        int[] best = null;
+        SoftReference<int[]> bestReference = null;
+
+        Iterator<SoftReference<int[]>> iterator = pool.iterator();
+        while(iterator.hasNext()){
+            SoftReference<int[]> reference = iterator.next();
+            int[] pixels = reference.get();
+            if(pixels == null){
+                iterator.remove();
+            }else if(pixels.length >= size && (best == null || pixels.length < best.length)){
+                best = pixels;
+                bestReference = reference;
+            }
+        }
+
+        if(best == null){return new int[size];}
+
+        pool.remove(bestReference);
+        return best;
+    }
+
+
+
+
+    /**
+     * Gives the pixels of an image made by {@link RasterPool#acquire(int, int)} back to the pool. The image mustn't be
+     * used after this. If the pool is full, the oldest array in it is dropped.
+     *
+     * @param image     the image to give back
+     */
+    public static synchronized void release(BufferedImage image){
+        pool.add(new SoftReference<>(getPixels(image)));
+
+        while(pool.size() > MAX_POOLED){
+            pool.remove(0);
+        }
+    }
+
+
+
+
+    /**
+     * Gets the array holding the pixels of an image made by {@link RasterPool#acquire(int, int)}. Pixel (x, y) is at
+     * y * width + x, and the array may be longer than the image.
+     *
+     * @param image     the image
+     * @return          the image's pixels as RGB ints
+     */
+    public static int[] getPixels(BufferedImage image){
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
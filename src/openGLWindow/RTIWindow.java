@@ -9,11 +9,15 @@ import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.stb.STBImage;
 import org.lwjgl.system.MemoryStack;
+import ptmCreation.CoefficientStore;
+import ptmCreation.NormalStore;
 import ptmCreation.RTIObject;
+import ptmCreation.RTIObjectCache;
 import toolWindow.RTIViewer;
 import utils.Utils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
@@ -27,6 +31,7 @@ import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL30.GL_RGB32F;
 import static org.lwjgl.opengl.GL30.GL_RGB32I;
+import static org.lwjgl.opengl.GL30.GL_RGB8UI;
 import static org.lwjgl.opengl.GL30.GL_RGB_INTEGER;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.NULL;
@@ -56,13 +61,22 @@ import static org.lwjgl.system.MemoryUtil.memAllocInt;
  */
 public abstract class RTIWindow implements Runnable{
 
+    /**Number of rows of coefficients gathered from the store and uploaded into a texture at a time*/
+    private static final int UPLOAD_ROWS = 64;
+
     /**The ptm image that this window will display*/
     public RTIObject rtiObject;
 
-    /**Width of the rtiObject attribute that this window displays*/
+    /**The mip mapping level of the rtiObject this window shows, 0 being the full size image*/
+    private volatile int mipLevel;
+
+    /**The level of the rtiObject the textures were last made from, only used on the window's own thread*/
+    protected RTIObject.Level level;
+
+    /**Width of the level of the rtiObject that this window displays*/
     protected float imageWidth;
 
-    /**Height of the rtiObject attribute that this window displays*/
+    /**Height of the level of the rtiObject that this window displays*/
     protected float imageHeight;
 
     /**OpenGL reference for the window created*/
@@ -182,6 +196,21 @@ public abstract class RTIWindow implements Runnable{
     /** Height / width of the RTI file, used to position the GL viewport in the center of the window*/
     private float imageAspectRatio;
 
+    /** OpenGL references of all the textures made for this window, so they can be deleted when they're replaced */
+    private ArrayList<Integer> textureRefs = new ArrayList<>();
+
+    /**
+     * Set when the mip level of the window is changed, or the rtiObject has had levels added or its normals
+     * calculated, so the textures are remade on the next frame
+     */
+    private volatile boolean mipLevelChanged = false;
+
+    /** Whether the rtiObject's normals had been calculated when the normals texture was last made */
+    private boolean normalsBound = false;
+
+    /** Set while the rtiObject's normals are being calculated in the background for this window */
+    private volatile boolean normalsCalculating = false;
+
     /** Location of the 32 x 32 pixel RTI group icon for the window */
     private static final String ICON_32_LOCATION =  "images/rtiThumbnail-32.png";
 
@@ -192,15 +221,20 @@ public abstract class RTIWindow implements Runnable{
 
     /**
      * Creates a new RTIWindow, setting the passed {@link RTIObject }as this window's rtiObject, which it will
-     * display using the parameters in the RTIViewer window.
+     * display using the parameters in the RTIViewer window. The window retains the rtiObject, and closes it when the
+     * window closes, so its buffers are freed once nothing else is using them. The rtiObject can be shared with other
+     * windows, so the window keeps the mip mapping level it shows the rtiObject at itself.
      *
      * @param rtiObject
+     * @param mipLevel      the mip mapping level to show the rtiObject at, 0 being the full size image
      */
-    public RTIWindow(RTIObject rtiObject){
-        this.rtiObject = rtiObject;
+    public RTIWindow(RTIObject rtiObject, int mipLevel){
+        this.rtiObject = rtiObject.retain();
+        this.mipLevel = Math.min(mipLevel, rtiObject.getNumLevels() - 1);
 
-        imageWidth = rtiObject.getWidth();
-        imageHeight = rtiObject.getHeight();
+        level = rtiObject.getLevel(this.mipLevel);
+        imageWidth = level.getWidth();
+        imageHeight = level.getHeight();
 
         imageAspectRatio = imageHeight / imageWidth;
     }
@@ -226,9 +260,10 @@ public abstract class RTIWindow implements Runnable{
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
         glfwWindowHint(GLFW_REFRESH_RATE, 60);
 
-        //create a new window, of size half image width by half image height, with file location as the title
-        window = glfwCreateWindow((int)(imageWidth * 0.5),
-                                  (int)(imageHeight * 0.5),
+        //create a new window, of size half image width by half image height, with file location as the title, the
+        //image size being that of the level asked for as a coarser level may be shown until it's loaded
+        window = glfwCreateWindow((int)(rtiObject.getLevelWidth(mipLevel) * 0.5),
+                                  (int)(rtiObject.getLevelHeight(mipLevel) * 0.5),
                                    rtiObject.getFilePath(), NULL, NULL);
 
         //allows the user to zoom in and out with the scroll wheel
@@ -524,27 +559,109 @@ public abstract class RTIWindow implements Runnable{
 
 
     /**
-     * Creates a new OpenGL texture for the shader programs to use with the id as the number passed, using
-     * the flattened set of three ptm coefficients (a0-a2 or a3-a5).
+     * Creates a new OpenGL texture for the shader programs to use with the id as the number passed, from three of
+     * the raw ptm coefficients of each pixel in the level's store, such as a0-a2 or a3-a5 of one colour. The texture
+     * is an unsigned byte integer texture, one byte per coefficient, and the shaders apply the scale and bias to the
+     * coefficients. The coefficients are gathered from the store a band of rows at a time, see
+     * {@link RTIWindow#uploadCoefficients(CoefficientStore, int[], int)}.
      *
      * @param textureNum        number of the texture to assign
-     * @param coeffArray        flattened set of 3 ptm coeffs (a0-a2 or a3-a5) to set the texture as
+     * @param coefficients      the coefficients of the level being shown
+     * @param indices           the positions in each pixel's block of the 3 coefficients for the texture
      */
-    protected void setShaderTexture(int textureNum, IntBuffer coeffArray){
+    protected void setShaderTexture(int textureNum, CoefficientStore coefficients, int[] indices){
         //make the active texture the one passed, create this texture and bind it
         GL13.glActiveTexture(GL13.GL_TEXTURE0 + textureNum);
         int textureRef = glGenTextures();
+        textureRefs.add(textureRef);
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureRef);
 
         //GL_NEAREST gives best interpolated image quality
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 
-        //actually create and bind the texture
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB32I, (int)imageWidth, (int)imageHeight,
-                0, GL_RGB_INTEGER, GL_INT, coeffArray);
+        //rows of 3 bytes per texel aren't always a multiple of 4 bytes long
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+
+        //actually create the texture, then fill it in from the store
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB8UI, coefficients.getWidth(), coefficients.getHeight(),
+                0, GL_RGB_INTEGER, GL_UNSIGNED_BYTE, NULL);
+        uploadCoefficients(coefficients, indices, GL_RGB_INTEGER);
+        glBindTexture(GL_TEXTURE_2D, textureRef);
+
+    }
+
+
+
+
+    /**
+     * Creates a new OpenGL texture for the shader programs to use with the id as the number passed, from three or
+     * four of the raw HSH coefficients of each pixel in the level's store, an RGB or an RGBA texture. The texture is
+     * a normalised byte texture, so the shaders get each coefficient as byte / 255, which they then scale and bias.
+     *
+     * @param textureNum        number of the texture to assign
+     * @param coefficients      the coefficients of the level being shown
+     * @param indices           the positions in each pixel's block of the 3 or 4 coefficients for the texture, or
+     *                          -1 for a coefficient that's always 0
+     */
+    protected void setNormalisedTexture(int textureNum, CoefficientStore coefficients, int[] indices){
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + textureNum);
+        int textureRef = glGenTextures();
+        textureRefs.add(textureRef);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureRef);
+        glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        //rows of 3 bytes per texel aren't always a multiple of 4 bytes long
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+
+        int format = indices.length == 4 ? GL_RGBA : GL_RGB;
+        glTexImage2D(GL_TEXTURE_2D, 0, indices.length == 4 ? GL_RGBA8 : GL_RGB8, coefficients.getWidth(),
+                coefficients.getHeight(), 0, format, GL_UNSIGNED_BYTE, NULL);
+        uploadCoefficients(coefficients, indices, format);
         glBindTexture(GL_TEXTURE_2D, textureRef);
+    }
+
+
+
+
+    /**
+     * Fills in the bound texture with some of the coefficients of each pixel in the store. The pixels' blocks are read
+     * from the store {@link RTIWindow#UPLOAD_ROWS} rows at a time, and the coefficients for the texture are picked out
+     * of each block into a small buffer that's uploaded into its rows of the texture, so the whole level is never
+     * copied at once.
+     *
+     * @param coefficients      the coefficients of the level being shown
+     * @param indices           the positions in each pixel's block of the coefficients for each texel, one for each
+     *                          channel of the texture, or -1 for a coefficient that's always 0
+     * @param format            the GL format of the texture's data
+     */
+    private void uploadCoefficients(CoefficientStore coefficients, int[] indices, int format){
+        int width = coefficients.getWidth();
+        int height = coefficients.getHeight();
+        int pixelSize = coefficients.getCoefficientsPerPixel();
+        int channels = indices.length;
+        int bandRows = Math.max(1, Math.min(UPLOAD_ROWS, height));
+
+        byte[] blocks = new byte[width * bandRows * pixelSize];
+        ByteBuffer texels = ByteBuffer.allocateDirect(width * bandRows * channels);
+        int rows, block;
+
+        for(int y = 0; y < height; y += bandRows){
+            rows = Math.min(bandRows, height - y);
+            coefficients.readRegion(0, y, width, rows, blocks, 0);
+
+            texels.clear();
+            for(int pixel = 0; pixel < width * rows; pixel++){
+                block = pixel * pixelSize;
+                for(int i = 0; i < channels; i++){
+                    texels.put(indices[i] < 0 ? 0 : blocks[block + indices[i]]);
+                }
+            }
+            texels.flip();
 
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, y, width, rows, format, GL_UNSIGNED_BYTE, texels);
+        }
     }
 
 
@@ -565,6 +682,7 @@ public abstract class RTIWindow implements Runnable{
         //make the active texture the one passed, create this texture and bind it
         GL13.glActiveTexture(GL13.GL_TEXTURE0 + textureNum);
         int textureRef = glGenTextures();
+        textureRefs.add(textureRef);
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureRef);
 
         //GL_NEAREST gives best interpolated image quality
@@ -583,26 +701,64 @@ public abstract class RTIWindow implements Runnable{
 
     /**
      * Creates a new OpenGL texture for the shader programs to use that contains the values for the normal
-     * vector of each texel.
+     * vector of each texel of the rtiObject. The normals are only calculated once a program that uses them is
+     * picked, so if they haven't been calculated yet the texture is left empty, and it's remade once they have been.
+     *
+     * @see RTIWindow#requestNormals()
      *
      * @param textureNum        number of the texture to set as the normals texture
-     * @param normals           flattened array of xyz vectors to set as this texture
      */
-    protected void setNormalsTexture(int textureNum, FloatBuffer normals){
+    protected void setNormalsTexture(int textureNum){
+        normalsBound = level.hasNormals();
+
         GL13.glActiveTexture(GL13.GL_TEXTURE0 + textureNum);
         int textureRef = glGenTextures();
+        textureRefs.add(textureRef);
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureRef);
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 
+        //create the texture empty, then fill it in from the normals a band at a time if they've been calculated
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB32F, (int)imageWidth, (int)imageHeight,
-                0, GL_RGB, GL_FLOAT, normals);
+                0, GL_RGB, GL_FLOAT, NULL);
+        if(normalsBound){uploadNormals(level.getNormals());}
         glBindTexture(GL_TEXTURE_2D, textureRef);
     }
 
 
 
 
+    /**
+     * Fills in the bound normals texture from the level's normals, {@link RTIWindow#UPLOAD_ROWS} rows at a time, the
+     * same as {@link RTIWindow#uploadCoefficients(CoefficientStore, int[], int)}, so normals paged from the disk are
+     * never all read into memory at once.
+     *
+     * @param normals       the normals of the level being shown
+     */
+    private void uploadNormals(NormalStore normals){
+        int width = normals.getWidth();
+        int height = normals.getHeight();
+        int bandRows = Math.max(1, Math.min(UPLOAD_ROWS, height));
+
+        float[] band = new float[width * bandRows * 3];
+        FloatBuffer texels = ByteBuffer.allocateDirect(band.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int rows;
+
+        for(int y = 0; y < height; y += bandRows){
+            rows = Math.min(bandRows, height - y);
+            normals.readRegion(0, y, width, rows, band, 0);
+
+            texels.clear();
+            texels.put(band, 0, width * rows * 3);
+            texels.flip();
+
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, y, width, rows, GL_RGB, GL_FLOAT, texels);
+        }
+    }
+
+
+
+
     /**
      * Sets up GLFW, creates all the shaders and displays the gl window. While the windowShouldClose glfw attribute
      * is false for this window, the window will set the parameters for the shaders based on the values on the
@@ -614,9 +770,15 @@ public abstract class RTIWindow implements Runnable{
         //set everything up ready to show the RTI file in the window
         setupGLFW();
         try{
+            //the finer levels may have been loaded since the window was made, the textures are made from this level
+            level = rtiObject.getLevel(mipLevel);
+            imageWidth = level.getWidth();
+            imageHeight = level.getHeight();
+            imageAspectRatio = imageHeight / imageWidth;
             createShaders();
         }catch (Exception e){
             e.printStackTrace();
+            rtiObject.close();
             return;
         }
 
@@ -633,6 +795,9 @@ public abstract class RTIWindow implements Runnable{
             //resets OpenGl colour buffers so they don't all just immediately overflow and everything crashes
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 
+            //the textures can only be remade on this thread, so a new mip level is picked up here
+            if(mipLevelChanged){reloadTextures();}
+
             //set the values in the shaders used to draw image as the values from the RTIViewer window
             setShaderParams();
 
@@ -688,6 +853,12 @@ public abstract class RTIWindow implements Runnable{
             program = imgUnsharpMaskProgram;
         }
 
+        //the image is shown with the default program until the normals the program needs have been calculated
+        if(usesNormals(currentProgram) && !normalsBound){
+            requestNormals();
+            program = defaultProgram;
+        }
+
         //use this program and rebind all the references otherwise OpenGL seems to forget about them
         GL20.glUseProgram(program);
         bindShaderReferences(program, false);
@@ -711,6 +882,45 @@ public abstract class RTIWindow implements Runnable{
 
 
 
+    /**
+     * Whether the shader program uses the normals texture, and so needs the rtiObject's normals to be calculated.
+     *
+     * @param program       the filter program
+     * @return              true if the program uses the normals
+     */
+    private static boolean usesNormals(RTIViewer.ShaderProgram program){
+        return program.equals(RTIViewer.ShaderProgram.NORMALS) ||
+                program.equals(RTIViewer.ShaderProgram.DIFF_GAIN) ||
+                program.equals(RTIViewer.ShaderProgram.SPEC_ENHANCE) ||
+                program.equals(RTIViewer.ShaderProgram.NORM_UNSHARP_MASK);
+    }
+
+
+
+
+    /**
+     * Gets the rtiObject to calculate the normals of the level shown in the background, if it isn't already, and
+     * remakes the textures once they've been calculated so the programs that use the normals can be shown. Nothing
+     * waits for the normals, so the window keeps drawing while they're calculated.
+     *
+     * @see RTIObject#calculateNormalsInBackground(int, Runnable)
+     */
+    private void requestNormals(){
+        if(normalsCalculating){return;}
+        normalsCalculating = true;
+
+        rtiObject.calculateNormalsInBackground(level.getLevel(), new Runnable() {
+            @Override
+            public void run() {
+                normalsCalculating = false;
+                mipLevelChanged = true;
+            }
+        });
+    }
+
+
+
+
     /**
      * Normalises the value passed between the min and max values. Used to map the values the user chooses on the s
      * sliders to appropriate values in the shader programs to make the rendering look good.
@@ -728,9 +938,53 @@ public abstract class RTIWindow implements Runnable{
 
 
     /**
-     * Delete all the shader programs and destroy the window.
+     * Remakes the textures of all the shader programs from a new snapshot of the rtiObject at the window's mip level,
+     * and deletes the old textures. The snapshot doesn't change while its data is being uploaded, even if the level is
+     * changed or the rtiObject has levels added on another thread, in which case the textures are just remade again.
+     *
+     * @see RTIWindow#setMipLevel(int)
+     */
+    private void reloadTextures(){
+        mipLevelChanged = false;
+
+        //the textures for the old level aren't used by any of the programs once they've been remade
+        for(int textureRef : textureRefs){
+            glDeleteTextures(textureRef);
+        }
+        textureRefs.clear();
+
+        level = rtiObject.getLevel(mipLevel);
+        imageWidth = level.getWidth();
+        imageHeight = level.getHeight();
+        imageAspectRatio = imageHeight / imageWidth;
+
+        int[] programs = new int[]{defaultProgram, normalsProgram, diffGainProgram, specEnhanceProgram,
+                                    normUnsharpMaskProgram, imgUnsharpMaskProgram};
+        for(int program : programs){
+            if(program == 0){continue;}
+
+            //bind the textures and uniforms for the new level to each program, as when they were created
+            GL20.glUseProgram(program);
+            bindShaderReferences(program, true);
+            bindShaderVals();
+        }
+        GL20.glUseProgram(0);
+    }
+
+
+
+
+    /**
+     * Delete all the shader programs and textures and destroy the window, then close the rtiObject as this window
+     * doesn't need its buffers any more. The rtiObject may still be kept in the {@link RTIObjectCache}, which is
+     * trimmed in case this was the last window using it.
      */
     private void cleanUp(){
+        for(int textureRef : textureRefs){
+            glDeleteTextures(textureRef);
+        }
+        textureRefs.clear();
+
         GL20.glDeleteProgram(defaultProgram);
         GL20.glDeleteProgram(normalsProgram);
         GL20.glDeleteProgram(diffGainProgram);
@@ -741,6 +995,9 @@ public abstract class RTIWindow implements Runnable{
 
         glfwFreeCallbacks(window);
         glfwDestroyWindow(window);
+
+        rtiObject.close();
+        RTIObjectCache.trim();
     }
 
 
@@ -848,6 +1105,48 @@ public abstract class RTIWindow implements Runnable{
 
 
 
+    /**
+     * Sets the mip mapping level the rtiObject is shown at in this window. Other windows showing the same rtiObject
+     * aren't changed. The window takes the new level and remakes its textures from it on its own thread on the next
+     * frame, so this can be called from any thread. Levels past the smallest one in the pyramid are clamped to the
+     * smallest level.
+     *
+     * @see RTIObject#getLevel(int)
+     *
+     * @param mipLevel      the mip mapping level, 0 being the full size image
+     */
+    public void setMipLevel(int mipLevel){
+        if(mipLevel < 0){
+            throw new IllegalArgumentException("Mip mapping level can't be negative: " + mipLevel);
+        }
+        this.mipLevel = Math.min(mipLevel, rtiObject.getNumLevels() - 1);
+        mipLevelChanged = true;
+    }
+
+
+
+
+    /**
+     * @return {@link RTIWindow#mipLevel}
+     */
+    public int getMipLevel(){
+        return mipLevel;
+    }
+
+
+
+
+    /**
+     * Gets the window to take its level of the rtiObject again and remake its textures on the next frame, called when
+     * the rtiObject has had its finer levels loaded, so the window can show the level it was asked for.
+     */
+    public void updateMipLevel(){
+        mipLevelChanged = true;
+    }
+
+
+
+
     /**
      * Sets the glfw attribute windowShouldClose
      *
@@ -1,6 +1,7 @@
 package openGLWindow;
 
 import org.lwjgl.BufferUtils;
+import ptmCreation.CoefficientStore;
 import ptmCreation.RTIObject;
 import ptmCreation.RTIObjectHSH;
 import toolWindow.RTIViewer;
@@ -10,6 +11,7 @@ import java.nio.IntBuffer;
 import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glUniform1f;
 import static org.lwjgl.opengl.GL20.glUniform1i;
+import static org.lwjgl.opengl.GL20.glUniform4f;
 
 /**
  * This class represents the {@link RTIWindow} used for displaying {@link RTIObjectHSH}s. It contains the shader
@@ -30,44 +32,60 @@ public class RTIWindowHSH extends RTIWindow {
     /** OpenGL reference for the dataTexture */
     private int dataTextureRef;
 
-    /** Reference for texture containing the terms 0 - 2 HSH terms for the red component of each pixel */
+    /** Reference for texture containing the HSH terms 0 - 3 for the red component of each pixel */
     private int redCoeffs1Ref;
 
-    /** Reference for texture containing the terms 3 - 5 HSH terms for the red component of each pixel */
+    /** Reference for texture containing the HSH terms 4 - 7 for the red component of each pixel */
     private int redCoeffs2Ref;
 
-    /** Reference for texture containing the terms 6 - 8 HSH terms for the red component of each pixel */
+    /** Reference for texture containing the HSH terms 8 - 11 for the red component of each pixel */
     private int redCoeffs3Ref;
 
-    /** Reference for texture containing the first 3 HSH terms for the green component of each pixel */
+    /** Reference for texture containing the HSH terms 12 - 15 for the red component of each pixel */
+    private int redCoeffs4Ref;
+
+    /** Reference for texture containing the HSH terms 0 - 3 for the green component of each pixel */
     private int greenCoeffs1Ref;
 
-    /** Reference for texture containing the terms 3 - 5 HSH terms for the green component of each pixel */
+    /** Reference for texture containing the HSH terms 4 - 7 for the green component of each pixel */
     private int greenCoeffs2Ref;
 
-    /** Reference for texture containing the terms 6 - 8 HSH terms for the green component of each pixel */
+    /** Reference for texture containing the HSH terms 8 - 11 for the green component of each pixel */
     private int greenCoeffs3Ref;
 
-    /** Reference for texture containing the first 3 HSH terms for the blue component of each pixel */
+    /** Reference for texture containing the HSH terms 12 - 15 for the green component of each pixel */
+    private int greenCoeffs4Ref;
+
+    /** Reference for texture containing the HSH terms 0 - 3 for the blue component of each pixel */
     private int blueCoeffs1Ref;
 
-    /** Reference for texture containing the terms 3 - 5 HSH terms for the blue component of each pixel */
+    /** Reference for texture containing the HSH terms 4 - 7 for the blue component of each pixel */
     private int blueCoeffs2Ref;
 
-    /** Reference for texture containing the terms 6 - 8 HSH terms for the blue component of each pixel */
+    /** Reference for texture containing the HSH terms 8 - 11 for the blue component of each pixel */
     private int blueCoeffs3Ref;
 
+    /** Reference for texture containing the HSH terms 12 - 15 for the blue component of each pixel */
+    private int blueCoeffs4Ref;
+
+    /** References for the vec4s containing the scale for the raw HSH terms 0 - 3, 4 - 7, 8 - 11 and 12 - 15 */
+    private int[] scaleRefs = new int[4];
+
+    /** References for the vec4s containing the bias for the raw HSH terms 0 - 3, 4 - 7, 8 - 11 and 12 - 15 */
+    private int[] biasRefs = new int[4];
+
 
     /**
      * Creates a new RTIWindowHSH to display the passed RTIObjectHSH. Creates the data texture and stores the
      * RTIObjectHSH's basis terms in it so OpenGL can be fed this value.
      *
-     * @see RTIWindow#RTIWindow(RTIObject)
+     * @see RTIWindow#RTIWindow(RTIObject, int)
      *
      * @param ptmObject     the RTIObjectHSH to show in this window
+     * @param mipLevel      the mip mapping level to show it at, 0 being the full size image
      */
-    public RTIWindowHSH(RTIObjectHSH ptmObject) {
-        super(ptmObject);
+    public RTIWindowHSH(RTIObjectHSH ptmObject, int mipLevel) {
+        super(ptmObject, mipLevel);
         rtiObjectHSH = ptmObject;
         basisTerms = ptmObject.getBasisTerms();
         dataTexture = BufferUtils.createIntBuffer(3);
@@ -130,6 +148,16 @@ public class RTIWindowHSH extends RTIWindow {
         redCoeffs3Ref = glGetUniformLocation(programID, "redCoeffs3");
         greenCoeffs3Ref = glGetUniformLocation(programID, "greenCoeffs3");
         blueCoeffs3Ref = glGetUniformLocation(programID, "blueCoeffs3");
+
+        redCoeffs4Ref = glGetUniformLocation(programID, "redCoeffs4");
+        greenCoeffs4Ref = glGetUniformLocation(programID, "greenCoeffs4");
+        blueCoeffs4Ref = glGetUniformLocation(programID, "blueCoeffs4");
+
+        //the scale and bias for each group of 4 terms, called scale1, bias1, scale2 etc. in the shaders
+        for(int i = 0; i < 4; i++){
+            scaleRefs[i] = glGetUniformLocation(programID, "scale" + (i + 1));
+            biasRefs[i] = glGetUniformLocation(programID, "bias" + (i + 1));
+        }
     }
 
 
@@ -155,37 +183,83 @@ public class RTIWindowHSH extends RTIWindow {
         setShaderTexture(0, dataTexture, 1, 1);
 
         glUniform1i(normalsRef, 1);
-        setNormalsTexture(1, rtiObjectHSH.getNormals());
+        setNormalsTexture(1);
 
         glUniform1i(redCoeffs1Ref, 2);
         glUniform1i(greenCoeffs1Ref, 3);
         glUniform1i(blueCoeffs1Ref, 4);
 
-        //we're using setNormalsTexture here as it's a quick way to set a texture of floats, which is
-        //needed for HSH, as opposed to PTM, which can use ints
-        setNormalsTexture(2, rtiObjectHSH.getRedVals1());
-        setNormalsTexture(3, rtiObjectHSH.getGreenVals1());
-        setNormalsTexture(4, rtiObjectHSH.getBlueVals1());
+        //the HSH coeffs are raw bytes that the shaders read as 0.0 - 1.0, then scale and bias into the real values
+        //each pixel's block has all the red terms, then the green, then the blue, and each texture has 4 of them
+        CoefficientStore coefficients = level.getCoefficients();
+        setNormalisedTexture(2, coefficients, termIndices(0, 0));
+        setNormalisedTexture(3, coefficients, termIndices(1, 0));
+        setNormalisedTexture(4, coefficients, termIndices(2, 0));
 
         glUniform1i(redCoeffs2Ref, 5);
         glUniform1i(greenCoeffs2Ref, 6);
         glUniform1i(blueCoeffs2Ref, 7);
 
         //these textures only need to be set if the RTIObjectHSH has enough basis terms
-        if(basisTerms > 3){
-            setNormalsTexture(5, rtiObjectHSH.getRedVals2());
-            setNormalsTexture(6, rtiObjectHSH.getGreenVals2());
-            setNormalsTexture(7, rtiObjectHSH.getBlueVals2());
+        if(basisTerms > 4){
+            setNormalisedTexture(5, coefficients, termIndices(0, 1));
+            setNormalisedTexture(6, coefficients, termIndices(1, 1));
+            setNormalisedTexture(7, coefficients, termIndices(2, 1));
         }
 
         glUniform1i(redCoeffs3Ref, 8);
         glUniform1i(greenCoeffs3Ref, 9);
         glUniform1i(blueCoeffs3Ref, 10);
 
-        if(basisTerms > 6){
-            setNormalsTexture(8, rtiObjectHSH.getRedVals3());
-            setNormalsTexture(9, rtiObjectHSH.getGreenVals3());
-            setNormalsTexture(10, rtiObjectHSH.getBlueVals3());
+        if(basisTerms > 8){
+            setNormalisedTexture(8, coefficients, termIndices(0, 2));
+            setNormalisedTexture(9, coefficients, termIndices(1, 2));
+            setNormalisedTexture(10, coefficients, termIndices(2, 2));
+        }
+
+        glUniform1i(redCoeffs4Ref, 11);
+        glUniform1i(greenCoeffs4Ref, 12);
+        glUniform1i(blueCoeffs4Ref, 13);
+
+        if(basisTerms > 12){
+            setNormalisedTexture(11, coefficients, termIndices(0, 3));
+            setNormalisedTexture(12, coefficients, termIndices(1, 3));
+            setNormalisedTexture(13, coefficients, termIndices(2, 3));
+        }
+
+        //the scale and bias for each group of 4 terms, with any terms past the basis terms left as 0
+        float[] scale = rtiObjectHSH.getScale();
+        float[] bias = rtiObjectHSH.getBias();
+        float[] groupScale = new float[4];
+        float[] groupBias = new float[4];
+        for(int i = 0; i < 4; i++){
+            for(int k = 0; k < 4; k++){
+                groupScale[k] = (i * 4) + k < basisTerms ? scale[(i * 4) + k] : 0.0f;
+                groupBias[k] = (i * 4) + k < basisTerms ? bias[(i * 4) + k] : 0.0f;
+            }
+            glUniform4f(scaleRefs[i], groupScale[0], groupScale[1], groupScale[2], groupScale[3]);
+            glUniform4f(biasRefs[i], groupBias[0], groupBias[1], groupBias[2], groupBias[3]);
+        }
+    }
+
+
+
+
+    /**
+     * Gets the positions in each pixel's block of coefficients of the 4 terms of a group for a colour, which make one
+     * of the coefficient textures. Terms past the basis terms are -1, so they're always 0 in the texture.
+     *
+     * @param colour    the colour, 0 for red, 1 for green and 2 for blue
+     * @param group     the group of 4 terms, 0 for terms 0-3, 1 for 4-7, 2 for 8-11 and 3 for 12-15
+     * @return          the positions of the 4 terms in the pixels' blocks
+     */
+    private int[] termIndices(int colour, int group){
+        int[] indices = new int[4];
+        int term;
+        for(int k = 0; k < 4; k++){
+            term = (group * 4) + k;
+            indices[k] = term < basisTerms ? (colour * basisTerms) + term : -1;
         }
+        return indices;
     }
 }
@@ -1,5 +1,6 @@
 package openGLWindow;
 
+import ptmCreation.CoefficientStore;
 import ptmCreation.PTMObjectLRGB;
 import ptmCreation.RTIObject;
 import toolWindow.RTIViewer;
@@ -7,6 +8,8 @@ import toolWindow.RTIViewer;
 import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glUniform1f;
 import static org.lwjgl.opengl.GL20.glUniform1i;
+import static org.lwjgl.opengl.GL20.glUniform3f;
+import static org.lwjgl.opengl.GL20.glUniform3i;
 
 /**
  * This class represents the {@link RTIWindow} used for displaying {@link PTMObjectLRGB}s. It contains the shader
@@ -27,16 +30,29 @@ public class RTIWindowLRGB extends RTIWindow {
     /** The reference for the texture containing the 3 rgb values for this PTM object */
     private int rgbCoeffsRef;
 
+    /** The reference for the vec3 containing the scale for the first 3 raw luminance coeffs */
+    private int scale1Ref;
+
+    /** The reference for the vec3 containing the scale for the last 3 raw luminance coeffs */
+    private int scale2Ref;
+
+    /** The reference for the ivec3 containing the bias for the first 3 raw luminance coeffs */
+    private int bias1Ref;
+
+    /** The reference for the ivec3 containing the bias for the last 3 raw luminance coeffs */
+    private int bias2Ref;
+
 
     /**
      * Creates a new RTIWindowLRGB and sets the {@link RTIWindowLRGB#ptmObject} to the given object;
      *
-     * @see {@link RTIWindow#RTIWindow(RTIObject)}
+     * @see {@link RTIWindow#RTIWindow(RTIObject, int)}
      *
      * @param ptmObject     the PTMObjectLRGB to show in this window
+     * @param mipLevel      the mip mapping level to show it at, 0 being the full size image
      */
-    public RTIWindowLRGB(PTMObjectLRGB ptmObject) {
-        super(ptmObject);
+    public RTIWindowLRGB(PTMObjectLRGB ptmObject, int mipLevel) {
+        super(ptmObject, mipLevel);
 
         this.ptmObject = ptmObject;
     }
@@ -58,6 +74,11 @@ public class RTIWindowLRGB extends RTIWindow {
         lumCoeffs2Ref = glGetUniformLocation(programID, "lumCoeffs2");
         rgbCoeffsRef = glGetUniformLocation(programID, "rgbCoeffs");
         normalsRef = glGetUniformLocation(programID, "normals");
+
+        scale1Ref = glGetUniformLocation(programID, "scale1");
+        scale2Ref = glGetUniformLocation(programID, "scale2");
+        bias1Ref = glGetUniformLocation(programID, "bias1");
+        bias2Ref = glGetUniformLocation(programID, "bias2");
     }
 
 
@@ -85,11 +106,22 @@ public class RTIWindowLRGB extends RTIWindow {
         glUniform1i(rgbCoeffsRef, 2);
         glUniform1i(normalsRef, 3);
 
+        //the lum coeff textures are the raw bytes from the file, so the shaders need the scale and bias for them
+        float[] scale = ptmObject.getScaleCoeffs();
+        int[] bias = ptmObject.getBiasCoeffs();
+        glUniform3f(scale1Ref, scale[0], scale[1], scale[2]);
+        glUniform3f(scale2Ref, scale[3], scale[4], scale[5]);
+        glUniform3i(bias1Ref, bias[0], bias[1], bias[2]);
+        glUniform3i(bias2Ref, bias[3], bias[4], bias[5]);
+
         //actually set the textures
-        setShaderTexture(0, ptmObject.getLumCoeffs1());
-        setShaderTexture(1, ptmObject.getLumCoeffs2());
-        setShaderTexture(2, ptmObject.getRgbCoeffs());
-        setNormalsTexture(3, ptmObject.getNormals());
+        //the textures are in the same order as the texture units, luminance then rgb, which is the order of the
+        //coeffs in each pixel's block
+        CoefficientStore coefficients = level.getCoefficients();
+        for(int i = 0; i < 3; i++){
+            setShaderTexture(i, coefficients, new int[]{i * 3, (i * 3) + 1, (i * 3) + 2});
+        }
+        setNormalsTexture(3);
     }
 
 
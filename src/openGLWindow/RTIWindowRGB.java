@@ -1,5 +1,6 @@
 package openGLWindow;
 
+import ptmCreation.CoefficientStore;
 import ptmCreation.PTMObjectRGB;
 import ptmCreation.RTIObject;
 import toolWindow.RTIViewer;
@@ -7,6 +8,8 @@ import toolWindow.RTIViewer;
 import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glUniform1f;
 import static org.lwjgl.opengl.GL20.glUniform1i;
+import static org.lwjgl.opengl.GL20.glUniform3f;
+import static org.lwjgl.opengl.GL20.glUniform3i;
 
 /**
  * Created by Jed on 12-Jun-17.
@@ -16,34 +19,47 @@ public class RTIWindowRGB extends RTIWindow {
     /** The PTM object that this window will display */
     private PTMObjectRGB ptmObjectRGB;
 
-    /**OpenGL reference for the GLSL isampler2D texture "rVals1", used for passing rVals1 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "rVals1", used for passing rVals1 attr to shaders */
     private int rVals1Ref;
 
-    /**OpenGL reference for the GLSL isampler2D texture "rVals2", used for passing rVals2 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "rVals2", used for passing rVals2 attr to shaders */
     private int rVals2Ref;
 
-    /**OpenGL reference for the GLSL isampler2D texture "gVals1", used for passing gVals1 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "gVals1", used for passing gVals1 attr to shaders */
     private int gVals1Ref;
 
-    /**OpenGL reference for the GLSL isampler2D texture "gVals2", used for passing gVals2 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "gVals2", used for passing gVals2 attr to shaders */
     private int gVals2Ref;
 
-    /**OpenGL reference for the GLSL isampler2D texture "bVals1", used for passing bVals1 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "bVals1", used for passing bVals1 attr to shaders */
     private int bVals1Ref;
 
-    /**OpenGL reference for the GLSL isampler2D texture "gVals2", used for passing gVals2 attr to shaders */
+    /**OpenGL reference for the GLSL usampler2D texture "gVals2", used for passing gVals2 attr to shaders */
     private int bVals2Ref;
 
+    /** OpenGL reference for the GLSL vec3 "scale1", the scale for the first 3 raw coeffs of each colour */
+    private int scale1Ref;
+
+    /** OpenGL reference for the GLSL vec3 "scale2", the scale for the last 3 raw coeffs of each colour */
+    private int scale2Ref;
+
+    /** OpenGL reference for the GLSL ivec3 "bias1", the bias for the first 3 raw coeffs of each colour */
+    private int bias1Ref;
+
+    /** OpenGL reference for the GLSL ivec3 "bias2", the bias for the last 3 raw coeffs of each colour */
+    private int bias2Ref;
+
 
     /**
      * Creates a new RTIWindowLRGB and sets the {@link RTIWindowLRGB#ptmObject} to the given object;
      *
-     * @see {@link RTIWindow#RTIWindow(RTIObject)}
+     * @see {@link RTIWindow#RTIWindow(RTIObject, int)}
      *
      * @param ptmObject     the PTMObjectRGB to show in this window
+     * @param mipLevel      the mip mapping level to show it at, 0 being the full size image
      */
-    public RTIWindowRGB(PTMObjectRGB ptmObject) {
-        super(ptmObject);
+    public RTIWindowRGB(PTMObjectRGB ptmObject, int mipLevel) {
+        super(ptmObject, mipLevel);
 
         ptmObjectRGB = ptmObject;
     }
@@ -102,6 +118,11 @@ public class RTIWindowRGB extends RTIWindow {
         bVals2Ref = glGetUniformLocation(programID, "bVals2");
 
         normalsRef = glGetUniformLocation(programID, "normals");
+
+        scale1Ref = glGetUniformLocation(programID, "scale1");
+        scale2Ref = glGetUniformLocation(programID, "scale2");
+        bias1Ref = glGetUniformLocation(programID, "bias1");
+        bias2Ref = glGetUniformLocation(programID, "bias2");
     }
 
 
@@ -131,13 +152,23 @@ public class RTIWindowRGB extends RTIWindow {
         glUniform1i(bVals2Ref, 5);
         glUniform1i(normalsRef, 6);
 
+        //the coeff textures are the raw bytes from the file, so the shaders need the scale and bias for them
+        float[] scale = ptmObjectRGB.getScaleCoeffs();
+        int[] bias = ptmObjectRGB.getBiasCoeffs();
+        glUniform3f(scale1Ref, scale[0], scale[1], scale[2]);
+        glUniform3f(scale2Ref, scale[3], scale[4], scale[5]);
+        glUniform3i(bias1Ref, bias[0], bias[1], bias[2]);
+        glUniform3i(bias2Ref, bias[3], bias[4], bias[5]);
+
         //actually set the textures
-        setShaderTexture(0, ptmObjectRGB.getRedVals1());
-        setShaderTexture(1, ptmObjectRGB.getRedVals2());
-        setShaderTexture(2, ptmObjectRGB.getGreenVals1());
-        setShaderTexture(3, ptmObjectRGB.getGreenVals2());
-        setShaderTexture(4, ptmObjectRGB.getBlueVals1());
-        setShaderTexture(5, ptmObjectRGB.getBlueVals2());
-        setNormalsTexture(6, rtiObject.getNormals());
+        //the textures are in the same order as the texture units, red, green then blue, and each pixel's block has
+        //the 6 coeffs of each colour in the same order, so texture i is 3 coeffs from the start of colour i / 2
+        CoefficientStore coefficients = level.getCoefficients();
+        int first;
+        for(int i = 0; i < 6; i++){
+            first = ((i / 2) * 6) + ((i % 2) * 3);
+            setShaderTexture(i, coefficients, new int[]{first, first + 1, first + 2});
+        }
+        setNormalsTexture(6);
     }
 }
@@ -0,0 +1,100 @@
+package ptmCreation;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A {@link NormalStore} that holds the normals of a level in memory as a single flattened buffer, with the normal of
+ * pixel (x, y) at (y * width + x) * 3. This is how the normals are kept when they're calculated for a level that's
+ * in memory, or mapped from the {@link DecodedCache}. The buffer isn't copied, and it's only read through duplicates,
+ * so several threads can read it at once.
+ *
+ * @see NormalStore
+ *
+ * @author Jed Mills
+ */
+public class BufferNormalStore implements NormalStore {
+
+    /** Width of the level in pixels */
+    private final int width;
+
+    /** Height of the level in pixels */
+    private final int height;
+
+    /** The normals of every pixel, flattened so the normal of pixel (x, y) is at (y * width + x) * 3 */
+    private final FloatBuffer normals;
+
+
+    /**
+     * Creates a new store for the flattened normals of a level.
+     *
+     * @param width         width of the level in pixels
+     * @param height        height of the level in pixels
+     * @param normals       the normals, width * height * 3 long
+     */
+    public BufferNormalStore(int width, int height, FloatBuffer normals){
+        if(normals.capacity() != (long) width * height * 3){
+            throw new IllegalArgumentException("Expected " + ((long) width * height * 3) +
+                                               " floats for the normals of the level, got " + normals.capacity());
+        }
+        this.width = width;
+        this.height = height;
+        this.normals = normals;
+    }
+
+
+
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+
+
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+
+
+
+    @Override
+    public void readRow(int y, int startX, int count, float[] dest, int offset) {
+        FloatBuffer duplicate = normals.duplicate();
+        duplicate.position(((y * width) + startX) * 3);
+        duplicate.get(dest, offset, count * 3);
+    }
+
+
+
+
+    @Override
+    public void readRegion(int x, int y, int width, int height, float[] dest, int offset) {
+        FloatBuffer duplicate = normals.duplicate();
+
+        if(x == 0 && width == this.width){
+            //whole rows are already one after another in the buffer
+            duplicate.position(y * width * 3);
+            duplicate.get(dest, offset, width * height * 3);
+            return;
+        }
+
+        int rowLength = width * 3;
+        for(int row = 0; row < height; row++){
+            duplicate.position((((y + row) * this.width) + x) * 3);
+            duplicate.get(dest, offset + (row * rowLength), rowLength);
+        }
+    }
+
+
+
+
+    /**
+     * @return {@link BufferNormalStore#normals}
+     */
+    public FloatBuffer getNormals() {
+        return normals;
+    }
+}
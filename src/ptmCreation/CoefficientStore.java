@@ -0,0 +1,80 @@
+package ptmCreation;
+
+/**
+ * <p>
+ * Holds the raw coefficient bytes of one level of an {@link RTIObject}, whatever its format. This is the one way the
+ * rest of the app gets at the coefficients, so how the coefficients of a level are held can be changed here without
+ * changing the windows and image creators that use them.
+ * </p>
+ * <p>
+ * The coefficients are interleaved: each pixel has a block of {@link CoefficientStore#getCoefficientsPerPixel()}
+ * bytes, next to the blocks of its neighbours in the row, in the order given by the format:
+ * </p>
+ * <ul>
+ *     <li>RGB PTMs: the 6 red PTM coefficients a0-a5, then the 6 green, then the 6 blue, 18 per pixel</li>
+ *     <li>LRGB PTMs: the 6 luminance PTM coefficients a0-a5, then the red, green and blue coefficients, 9 per
+ *     pixel</li>
+ *     <li>HSH: the red coefficients for each basis term, then the green, then the blue, 3 * basisTerms per pixel, up
+ *     to 48 for 16 terms</li>
+ * </ul>
+ * <p>
+ * The coefficients are read a run of pixels at a time with {@link CoefficientStore#readRow} and
+ * {@link CoefficientStore#readRegion}, into an array the caller keeps, so everything that relights a pixel has all of
+ * its coefficients next to each other, and the windows can gather whichever coefficients they need for each shader
+ * texture from the blocks.
+ * </p>
+ * <p>
+ * The values are the raw bytes from the file, the scale and bias for each term are applied by the RTIObject's
+ * coefficient lookup. A store can be read by several threads at once.
+ * </p>
+ *
+ * @see InterleavedCoefficientStore
+ *
+ * @author Jed Mills
+ */
+public interface CoefficientStore {
+
+    /**
+     * @return the width of the level in pixels
+     */
+    int getWidth();
+
+
+    /**
+     * @return the height of the level in pixels
+     */
+    int getHeight();
+
+
+    /**
+     * @return the number of coefficients each pixel has, the length of each pixel's block
+     */
+    int getCoefficientsPerPixel();
+
+
+    /**
+     * Reads the blocks of coefficients of a run of pixels in a row into the array, one after another, so the
+     * coefficients of pixel startX + i start at offset + (i * {@link CoefficientStore#getCoefficientsPerPixel()}).
+     *
+     * @param y             the row to read from
+     * @param startX        x position of the first pixel to read
+     * @param count         number of pixels to read
+     * @param dest          the array to read the blocks into
+     * @param offset        position in the array to read the first block to
+     */
+    void readRow(int y, int startX, int count, byte[] dest, int offset);
+
+
+    /**
+     * Reads the blocks of coefficients of a rectangle of pixels into the array, a row at a time, so the rows of the
+     * region are one after another with no gaps between them.
+     *
+     * @param x             x position of the top left pixel of the region
+     * @param y             y position of the top left pixel of the region
+     * @param width         width of the region in pixels
+     * @param height        height of the region in pixels
+     * @param dest          the array to read the blocks into
+     * @param offset        position in the array to read the first block to
+     */
+    void readRegion(int x, int y, int width, int height, byte[] dest, int offset);
+}
@@ -0,0 +1,575 @@
+package ptmCreation;
+
+import utils.NativeBuffers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * Keeps the decoded coefficients and normals of every level of the mip pyramid of RTIObjects that have been loaded
+ * in files on the disk, so that opening the same file again doesn't have to decode it and calculate the normals
+ * again. Each cache file holds one RTIObject, with a header followed by the raw interleaved coefficients of each
+ * level and the floats of each level's normals, so when it's opened again the buffers are just memory mapped from
+ * the cache file.
+ * Only the preview image is made again. The normals are only calculated when a rendering mode needs them, so a
+ * level's normals are only kept if they had been calculated when the cache file was written, otherwise they're
+ * calculated again when they're next needed.
+ * </p>
+ * <p>
+ * Cache files are named from the path of the file they were made from, and store its size, last modified time and a
+ * fingerprint of its contents, which all have to match for the cache file to be used. The fingerprint is a hash of
+ * {@link DecodedCache#FINGERPRINT_SAMPLES} evenly spaced blocks of the file rather than the whole file, so checking
+ * it doesn't mean reading the whole file. The cache is kept under {@link DecodedCache#maxBytes}, by deleting the
+ * least recently used cache files when a new one is added.
+ * </p>
+ * <p>
+ * Nothing goes wrong if the cache can't be used, the file is just decoded as normal, so errors reading or writing the
+ * cache aren't passed on. All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @see RTICreator
+ *
+ * @author Jed Mills
+ */
+public class DecodedCache {
+
+    /** Marks the start of a cache file */
+    private static final byte[] MAGIC = "RTICACHE".getBytes(StandardCharsets.US_ASCII);
+
+    /** Version of the cache file layout, cache files with a different version are ignored */
+    private static final int VERSION = 3;
+
+    /** File extension of the cache files */
+    private static final String EXTENSION = ".rticache";
+
+    /** Number of blocks of the file that are hashed for the fingerprint */
+    private static final int FINGERPRINT_SAMPLES = 16;
+
+    /** Size of each block of the file that is hashed for the fingerprint, 64KB */
+    private static final int FINGERPRINT_BLOCK_SIZE = 1 << 16;
+
+    /** Size of the buffer normals are copied through to be written, 1MB */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /** The directory the cache files are kept in */
+    private static volatile File cacheDirectory = new File(System.getProperty("user.home"),
+                                                            ".rtiviewer" + File.separator + "cache");
+
+    /** The total size the cache files can take up on the disk, 4GB by default */
+    private static volatile long maxBytes = 4L << 30;
+
+    /** Whether RTIObjects are loaded from and saved to the cache */
+    private static volatile boolean enabled = true;
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private DecodedCache(){}
+
+
+
+
+    /**
+     * Loads the RTIObject made from the source file from the cache, if there is a cache file for it that matches the
+     * source file as it is now. The texel data and normals are memory mapped from the cache file, and any normals that
+     * are calculated later are allocated in the RTIObject's own {@link NativeBuffers}. The caller owns the RTIObject.
+     *
+     * @param sourceFile        the .ptm / .rti file the RTIObject was made from
+     * @return                  the RTIObject, or null if it isn't in the cache
+     */
+    public static RTIObject load(File sourceFile){
+        if(!enabled){return null;}
+
+        File cacheFile = getCacheFile(sourceFile);
+        if(!cacheFile.isFile()){return null;}
+
+        try(RandomAccessFile cache = new RandomAccessFile(cacheFile, "r")){
+            //check the cache file is for the source file as it is now
+            byte[] magic = new byte[MAGIC.length];
+            cache.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC) || cache.readInt() != VERSION){return null;}
+
+            if(!cache.readUTF().equals(sourceFile.getAbsolutePath())
+                    || cache.readLong() != sourceFile.length()
+                    || cache.readLong() != sourceFile.lastModified()
+                    || !cache.readUTF().equals(fingerprint(sourceFile))){
+                return null;
+            }
+
+            //the normals are written in the byte order of the machine that wrote them
+            if(cache.readBoolean() != (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN)){return null;}
+
+            String type = cache.readUTF();
+            int width = cache.readInt();
+            int height = cache.readInt();
+            int basisTerms = cache.readInt();
+            float[] scale = readFloats(cache);
+            float[] bias = readFloats(cache);
+
+            //map each level's coefficients and normals straight from the cache file
+            FileChannel channel = cache.getChannel();
+            int numLevels = cache.readInt();
+            ByteBuffer[] texelLevels = new ByteBuffer[numLevels];
+            FloatBuffer[] normalLevels = new FloatBuffer[numLevels];
+
+            for(int level = 0; level < numLevels; level++){
+                long offset = cache.readLong();
+                int length = cache.readInt();
+                texelLevels[level] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+                //levels with no normals kept are left null, so their normals are calculated when they're needed
+                offset = cache.readLong();
+                int numFloats = cache.readInt();
+                if(numFloats > 0){
+                    normalLevels[level] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) numFloats * 4)
+                                                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                }
+            }
+
+            RTIObject rtiObject = createRTIObject(type, sourceFile.getAbsolutePath(), width, height, basisTerms,
+                                                  texelLevels, normalLevels, scale, bias);
+
+            //the cache files are evicted in order of last use
+            cacheFile.setLastModified(System.currentTimeMillis());
+
+            return rtiObject;
+        }catch(IOException | RuntimeException e){
+            //a bad cache file just means the source file is decoded again
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+
+
+    /**
+     * Saves the RTIObject made from the source file to the cache, replacing any cache file there already was for it.
+     * The RTIObject must have all the levels of its mip pyramid loaded, otherwise it isn't saved. The least recently
+     * used cache files are deleted afterwards if the cache has gone over {@link DecodedCache#maxBytes}.
+     *
+     * @param sourceFile        the .ptm / .rti file the RTIObject was made from
+     * @param rtiObject         the RTIObject made from the file
+     */
+    public static void store(File sourceFile, RTIObject rtiObject){
+        if(!enabled){return;}
+
+        String type;
+        int basisTerms;
+        float[] scale;
+        float[] bias;
+        if(rtiObject instanceof PTMObjectRGB){
+            type = "RGB";
+            basisTerms = 6;
+            scale = ((PTMObjectRGB) rtiObject).getScaleCoeffs();
+            bias = toFloats(((PTMObjectRGB) rtiObject).getBiasCoeffs());
+        }else if(rtiObject instanceof PTMObjectLRGB){
+            type = "LRGB";
+            basisTerms = 6;
+            scale = ((PTMObjectLRGB) rtiObject).getScaleCoeffs();
+            bias = toFloats(((PTMObjectLRGB) rtiObject).getBiasCoeffs());
+        }else if(rtiObject instanceof RTIObjectHSH){
+            type = "HSH";
+            basisTerms = ((RTIObjectHSH) rtiObject).getBasisTerms();
+            scale = ((RTIObjectHSH) rtiObject).getScale();
+            bias = ((RTIObjectHSH) rtiObject).getBias();
+        }else{
+            return;
+        }
+
+        int numLevels = rtiObject.getNumLevels();
+        ByteBuffer[] texelLevels = new ByteBuffer[numLevels];
+        FloatBuffer[] normalLevels = new FloatBuffer[numLevels];
+        long dataBytes = 0;
+        for(int level = 0; level < numLevels; level++){
+            texelLevels[level] = rtiObject.getLevelTexels(level);
+            normalLevels[level] = rtiObject.getLevelNormals(level);
+
+            //only whole pyramids are cached, but the normals are only kept for levels they've been calculated for
+            if(texelLevels[level] == null){return;}
+
+            dataBytes += texelLevels[level].capacity();
+            if(normalLevels[level] != null){dataBytes += (long) normalLevels[level].capacity() * 4;}
+        }
+
+        //don't throw the whole cache away for one file that won't fit in it
+        if(dataBytes > maxBytes){return;}
+
+        File directory = cacheDirectory;
+        File tempFile = null;
+        try{
+            if(!directory.isDirectory() && !directory.mkdirs()){return;}
+
+            //write to a temp file then move it into place, so a half written cache file is never read
+            tempFile = File.createTempFile("rti", ".tmp", directory);
+            try(RandomAccessFile cache = new RandomAccessFile(tempFile, "rw")){
+                cache.write(MAGIC);
+                cache.writeInt(VERSION);
+                cache.writeUTF(sourceFile.getAbsolutePath());
+                cache.writeLong(sourceFile.length());
+                cache.writeLong(sourceFile.lastModified());
+                cache.writeUTF(fingerprint(sourceFile));
+                cache.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+
+                cache.writeUTF(type);
+                cache.writeInt(rtiObject.getLevelWidth(0));
+                cache.writeInt(rtiObject.getLevelHeight(0));
+                cache.writeInt(basisTerms);
+                writeFloats(cache, scale);
+                writeFloats(cache, bias);
+
+                //the table of where each level's coefficients and normals are, which is filled in once they've been
+                //written
+                cache.writeInt(numLevels);
+                long tablePos = cache.getFilePointer();
+                cache.write(new byte[numLevels * 2 * 12]);
+
+                FileChannel channel = cache.getChannel();
+                long[][] offsets = new long[numLevels][2];
+                for(int level = 0; level < numLevels; level++){
+                    offsets[level][0] = channel.size();
+                    writeBytes(channel, texelLevels[level]);
+
+                    offsets[level][1] = channel.size();
+                    if(normalLevels[level] != null){writeFloats(channel, normalLevels[level]);}
+                }
+
+                cache.seek(tablePos);
+                for(int level = 0; level < numLevels; level++){
+                    cache.writeLong(offsets[level][0]);
+                    cache.writeInt(texelLevels[level].capacity());
+                    cache.writeLong(offsets[level][1]);
+                    cache.writeInt(normalLevels[level] == null ? 0 : normalLevels[level].capacity());
+                }
+            }
+
+            File cacheFile = getCacheFile(sourceFile);
+            try{
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                                                  StandardCopyOption.ATOMIC_MOVE);
+            }catch(AtomicMoveNotSupportedException e){
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            evict(directory);
+        }catch(IOException | RuntimeException e){
+            //the file will just be decoded again next time
+            e.printStackTrace();
+            if(tempFile != null){tempFile.delete();}
+        }
+    }
+
+
+
+
+    /**
+     * Deletes the least recently used cache files until the cache files in the directory take up no more than
+     * {@link DecodedCache#maxBytes}.
+     *
+     * @param directory     the directory containing the cache files
+     */
+    private static synchronized void evict(File directory){
+        File[] cacheFiles = directory.listFiles();
+        if(cacheFiles == null){return;}
+
+        long totalBytes = 0;
+        for(File cacheFile : cacheFiles){
+            if(cacheFile.getName().endsWith(EXTENSION)){totalBytes += cacheFile.length();}
+        }
+
+        //oldest first, as a cache file's last modified time is updated whenever it's used
+        Arrays.sort(cacheFiles, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+
+        for(File cacheFile : cacheFiles){
+            if(totalBytes <= maxBytes){break;}
+            if(!cacheFile.getName().endsWith(EXTENSION)){continue;}
+
+            long length = cacheFile.length();
+            if(cacheFile.delete()){
+                totalBytes -= length;
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Creates the right type of RTIObject for the type stored in the cache file.
+     *
+     * @param type              the type of the RTIObject, RGB, LRGB or HSH
+     * @param filePath          path of the .ptm / .rti file the RTIObject was made from
+     * @param width             the full width of the RTIObject
+     * @param height            the full height of the RTIObject
+     * @param basisTerms        number of basis terms of HSH RTIObjects
+     * @param texelLevels       the texel data for each mip level
+     * @param normalLevels      the normals for each mip level, null for levels that have none kept
+     * @param scale             the scale for each term
+     * @param bias              the bias for each term
+     * @return                  the new RTIObject
+     * @throws IOException      if the type isn't known
+     */
+    private static RTIObject createRTIObject(String type, String filePath, int width, int height, int basisTerms,
+                                             ByteBuffer[] texelLevels, FloatBuffer[] normalLevels,
+                                             float[] scale, float[] bias) throws IOException {
+        if(type.equals("RGB")){
+            return new PTMObjectRGB(filePath, width, height, texelLevels, normalLevels, new NativeBuffers(),
+                                    scale, toInts(bias));
+        }else if(type.equals("LRGB")){
+            return new PTMObjectLRGB(filePath, width, height, texelLevels, normalLevels, new NativeBuffers(),
+                                     scale, toInts(bias));
+        }else if(type.equals("HSH")){
+            //the colour channels and basis type aren't used by RTIObjectHSH, so aren't cached
+            return new RTIObjectHSH(filePath, width, height, 3, basisTerms, 0, texelLevels, normalLevels,
+                                    new NativeBuffers(), scale, bias);
+        }
+
+        throw new IOException("Unknown RTIObject type in cache file: " + type);
+    }
+
+
+
+
+    /**
+     * Gets the cache file for the source file, which is named from a hash of the source file's path.
+     *
+     * @param sourceFile    the .ptm / .rti file
+     * @return              the cache file for it, which may not exist
+     */
+    private static File getCacheFile(File sourceFile){
+        MessageDigest digest = createDigest();
+        byte[] hash = digest.digest(sourceFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+
+        return new File(cacheDirectory, toHex(hash) + EXTENSION);
+    }
+
+
+
+
+    /**
+     * Makes a fingerprint of the contents of the file, from a hash of its length and
+     * {@link DecodedCache#FINGERPRINT_SAMPLES} evenly spaced blocks of it, including the first and last blocks.
+     *
+     * @param file              the file to fingerprint
+     * @return                  the fingerprint as a hex string
+     * @throws IOException      if the file can't be read
+     */
+    private static String fingerprint(File file) throws IOException {
+        MessageDigest digest = createDigest();
+
+        try(RandomAccessFile source = new RandomAccessFile(file, "r")){
+            long length = source.length();
+            digest.update(ByteBuffer.allocate(8).putLong(0, length));
+
+            byte[] block = new byte[FINGERPRINT_BLOCK_SIZE];
+            long lastBlockPos = Math.max(0, length - FINGERPRINT_BLOCK_SIZE);
+            for(int i = 0; i < FINGERPRINT_SAMPLES; i++){
+                long blockPos = lastBlockPos * i / (FINGERPRINT_SAMPLES - 1);
+                int blockLength = (int) Math.min(FINGERPRINT_BLOCK_SIZE, length - blockPos);
+
+                source.seek(blockPos);
+                source.readFully(block, 0, blockLength);
+                digest.update(block, 0, blockLength);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+
+
+
+    /**
+     * @return a new SHA-256 MessageDigest
+     */
+    private static MessageDigest createDigest(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            //every Java platform has to have SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+
+
+    /**
+     * @param bytes     the bytes to convert
+     * @return          the bytes as a lower case hex string
+     */
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+
+
+
+    /**
+     * Writes the whole of the buffer to the end of the channel, without changing the buffer's position, as the buffer
+     * may be being read by another thread.
+     *
+     * @param channel           the channel to write to
+     * @param buffer            the buffer to write
+     * @throws IOException      if there's an error writing
+     */
+    private static void writeBytes(FileChannel channel, ByteBuffer buffer) throws IOException {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.clear();
+
+        long position = channel.size();
+        while(duplicate.hasRemaining()){
+            position += channel.write(duplicate, position);
+        }
+    }
+
+
+
+
+    /**
+     * Writes the whole of the float buffer to the end of the channel in native byte order, without changing the
+     * buffer's position.
+     *
+     * @param channel           the channel to write to
+     * @param floats            the buffer to write
+     * @throws IOException      if there's an error writing
+     */
+    private static void writeFloats(FileChannel channel, FloatBuffer floats) throws IOException {
+        FloatBuffer duplicate = floats.duplicate();
+        duplicate.clear();
+
+        //float buffers can't be written straight to a channel, so they're copied through a byte buffer
+        ByteBuffer bytes = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        FloatBuffer view = bytes.asFloatBuffer();
+        while(duplicate.hasRemaining()){
+            view.clear();
+            int numFloats = Math.min(view.capacity(), duplicate.remaining());
+            FloatBuffer chunk = duplicate.duplicate();
+            chunk.limit(chunk.position() + numFloats);
+            view.put(chunk);
+            duplicate.position(duplicate.position() + numFloats);
+
+            bytes.clear();
+            bytes.limit(numFloats * 4);
+            writeBytes(channel, bytes.slice());
+        }
+    }
+
+
+
+
+    /**
+     * Writes the length of the array, then each of the floats in it.
+     *
+     * @param cache             the file to write to
+     * @param floats            the floats to write
+     * @throws IOException      if there's an error writing
+     */
+    private static void writeFloats(RandomAccessFile cache, float[] floats) throws IOException {
+        cache.writeInt(floats.length);
+        for(float f : floats){cache.writeFloat(f);}
+    }
+
+
+
+
+    /**
+     * Reads an array of floats written by {@link DecodedCache#writeFloats(RandomAccessFile, float[])}.
+     *
+     * @param cache             the file to read from
+     * @return                  the floats
+     * @throws IOException      if there's an error reading
+     */
+    private static float[] readFloats(RandomAccessFile cache) throws IOException {
+        float[] floats = new float[cache.readInt()];
+        for(int i = 0; i < floats.length; i++){floats[i] = cache.readFloat();}
+        return floats;
+    }
+
+
+
+
+    /**
+     * @param ints      the ints to convert
+     * @return          the ints as floats
+     */
+    private static float[] toFloats(int[] ints){
+        float[] floats = new float[ints.length];
+        for(int i = 0; i < ints.length; i++){floats[i] = ints[i];}
+        return floats;
+    }
+
+
+
+
+    /**
+     * @param floats    the floats to convert, which must all be whole numbers
+     * @return          the floats as ints
+     */
+    private static int[] toInts(float[] floats){
+        int[] ints = new int[floats.length];
+        for(int i = 0; i < floats.length; i++){ints[i] = (int) floats[i];}
+        return ints;
+    }
+
+
+
+
+    /**
+     * Sets the directory the cache files are kept in. Cache files in the old directory are left where they are.
+     *
+     * @param directory     the directory to keep the cache files in
+     */
+    public static void setCacheDirectory(File directory){
+        cacheDirectory = directory;
+    }
+
+
+
+
+    /**
+     * Sets the total size the cache files can take up on the disk. The cache is only shrunk to this size when the
+     * next cache file is added.
+     *
+     * @param bytes     the maximum size of the cache in bytes
+     */
+    public static void setMaxBytes(long bytes){
+        maxBytes = bytes;
+    }
+
+
+
+
+    /**
+     * Sets whether RTIObjects are loaded from and saved to the cache.
+     *
+     * @param useCache      whether to use the cache
+     */
+    public static void setEnabled(boolean useCache){
+        enabled = useCache;
+    }
+}
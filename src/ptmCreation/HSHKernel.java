@@ -0,0 +1,434 @@
+package ptmCreation;
+
+/**
+ * <p>
+ * Evaluates the HSH polynomial for a pixel of an {@link RTIObjectHSH}, specialised for the number of basis terms, so
+ * that the loop over the terms is not done for every pixel. There is a kernel for 4 terms (second order), one for 9
+ * terms (third order), one for 16 terms (fourth order), and a general one for anything else, so every term of the
+ * file is evaluated.
+ * </p>
+ * <p>
+ * The coefficients for a pixel are first loaded into a block of floats with {@link HSHKernel#loadBlock}, scaled and
+ * biased using the object's coefficient lookup, from the pixel's interleaved coefficients read from its
+ * {@link CoefficientStore}. The block has the terms used for red, then for green, then for blue, so it is
+ * {@link HSHKernel#getBlockSize()} long, and one block can be used for several sets of hWeights without reading the
+ * coefficients again. Each term is added in the same order and with the same precision as the original loops, so the
+ * results are exactly the same.
+ * </p>
+ * <p>
+ * The kernels don't hold any state so they can be shared between threads, but each thread needs its own block. A
+ * whole row of pixels can be evaluated at once with {@link RelightKernel#evaluateHSH}.
+ * </p>
+ *
+ * @see RTIObjectHSH
+ *
+ * @author Jed Mills
+ */
+public abstract class HSHKernel {
+
+    /** The most terms that are evaluated for each colour, the number of hWeights there are */
+    public static final int MAX_TERMS = 16;
+
+    /** Length of the longest block of coefficients for a pixel, enough for any kernel */
+    public static final int BLOCK_SIZE = MAX_TERMS * 3;
+
+    /** The kernel for HSH objects with 4 basis terms */
+    private static final HSHKernel FOUR_TERMS = new FourTermKernel();
+
+    /** The kernel for HSH objects with 9 basis terms */
+    private static final HSHKernel NINE_TERMS = new NineTermKernel();
+
+    /** The kernel for HSH objects with 16 basis terms */
+    private static final HSHKernel SIXTEEN_TERMS = new SixteenTermKernel();
+
+    /** Number of basis terms each colour has in a pixel's interleaved coefficients */
+    protected final int basisTerms;
+
+    /** Number of terms that are used for each colour, at most {@link HSHKernel#MAX_TERMS} */
+    protected final int terms;
+
+
+    /**
+     * @param basisTerms    number of basis terms each colour has in a pixel's interleaved coefficients
+     */
+    private HSHKernel(int basisTerms){
+        this.basisTerms = basisTerms;
+        this.terms = Math.min(basisTerms, MAX_TERMS);
+    }
+
+
+    /**
+     * Gets the kernel to use for HSH objects with the given number of basis terms.
+     *
+     * @param basisTerms        number of basis terms of the HSH object
+     * @return                  the kernel for that number of terms
+     */
+    public static HSHKernel forBasisTerms(int basisTerms){
+        if(basisTerms == 4){
+            return FOUR_TERMS;
+        }else if(basisTerms == 9){
+            return NINE_TERMS;
+        }else if(basisTerms == 16){
+            return SIXTEEN_TERMS;
+        }else{
+            return new GeneralKernel(basisTerms);
+        }
+    }
+
+
+
+
+    /**
+     * Loads the coefficients for a pixel into the block, scaled and biased with the lookup.
+     *
+     * @param coeffs        interleaved coefficients read from a {@link CoefficientStore}
+     * @param offset        position in coeffs of the pixel's coefficients, basisTerms for red, green then blue
+     * @param lookup        scaled and biased value of every byte for each basis term
+     * @param block         the array to load the coefficients into
+     * @param blockOffset   position in the array to load the block to, with {@link HSHKernel#getBlockSize()} after it
+     */
+    public abstract void loadBlock(byte[] coeffs, int offset, float[][] lookup, float[] block, int blockOffset);
+
+
+
+
+    /**
+     * Calculates the red, green and blue for the coefficients in the block with the hWeights.
+     *
+     * @param block         the coefficients for the pixel, from {@link HSHKernel#loadBlock}
+     * @param blockOffset   position of the pixel's block in the array
+     * @param hWeights      the hWeights for the light direction
+     * @param rgb           the array to write the red, green and blue to
+     */
+    public abstract void evaluate(float[] block, int blockOffset, double[] hWeights, float[] rgb);
+
+
+
+
+    /**
+     * Calculates the sum of the red, green and blue for the coefficients in the block with the hWeights, added up
+     * red terms first, then green, then blue. This is used when calculating the normals.
+     *
+     * @param block         the coefficients for the pixel, from {@link HSHKernel#loadBlock}
+     * @param blockOffset   position of the pixel's block in the array
+     * @param hWeights      the hWeights for the light direction
+     * @return              the sum of the red, green and blue
+     */
+    public abstract float sum(float[] block, int blockOffset, double[] hWeights);
+
+
+
+
+    /**
+     * @return {@link HSHKernel#terms}
+     */
+    public int getTerms() {
+        return terms;
+    }
+
+
+
+
+    /**
+     * @return {@link HSHKernel#basisTerms}
+     */
+    public int getBasisTerms() {
+        return basisTerms;
+    }
+
+
+
+
+    /**
+     * @return the length of the block of coefficients for a pixel, the terms used for each of the 3 colours
+     */
+    public int getBlockSize() {
+        return terms * 3;
+    }
+
+
+
+
+    /**
+     * The kernel for 4 basis terms, with red at 0-3 of the block, green at 4-7 and blue at 8-11.
+     */
+    private static class FourTermKernel extends HSHKernel{
+
+        private FourTermKernel(){
+            super(4);
+        }
+
+
+        @Override
+        public void loadBlock(byte[] coeffs, int offset, float[][] lookup, float[] block, int blockOffset) {
+            float[] l0 = lookup[0], l1 = lookup[1], l2 = lookup[2], l3 = lookup[3];
+            int o = offset, b = blockOffset;
+
+            block[b] = l0[coeffs[o] & 0xFF]; block[b + 1] = l1[coeffs[o + 1] & 0xFF];
+            block[b + 2] = l2[coeffs[o + 2] & 0xFF]; block[b + 3] = l3[coeffs[o + 3] & 0xFF];
+
+            block[b + 4] = l0[coeffs[o + 4] & 0xFF]; block[b + 5] = l1[coeffs[o + 5] & 0xFF];
+            block[b + 6] = l2[coeffs[o + 6] & 0xFF]; block[b + 7] = l3[coeffs[o + 7] & 0xFF];
+
+            block[b + 8] = l0[coeffs[o + 8] & 0xFF]; block[b + 9] = l1[coeffs[o + 9] & 0xFF];
+            block[b + 10] = l2[coeffs[o + 10] & 0xFF]; block[b + 11] = l3[coeffs[o + 11] & 0xFF];
+        }
+
+
+        @Override
+        public void evaluate(float[] block, int blockOffset, double[] hWeights, float[] rgb) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2], h3 = hWeights[3];
+            int b = blockOffset;
+            float r = 0.0f, g = 0.0f, bl = 0.0f;
+
+            r += block[b] * h0; r += block[b + 1] * h1; r += block[b + 2] * h2; r += block[b + 3] * h3;
+            g += block[b + 4] * h0; g += block[b + 5] * h1; g += block[b + 6] * h2; g += block[b + 7] * h3;
+            bl += block[b + 8] * h0; bl += block[b + 9] * h1; bl += block[b + 10] * h2; bl += block[b + 11] * h3;
+
+            rgb[0] = r;
+            rgb[1] = g;
+            rgb[2] = bl;
+        }
+
+
+        @Override
+        public float sum(float[] block, int blockOffset, double[] hWeights) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2], h3 = hWeights[3];
+            int b = blockOffset;
+            float s = 0.0f;
+
+            s += block[b] * h0; s += block[b + 1] * h1; s += block[b + 2] * h2; s += block[b + 3] * h3;
+            s += block[b + 4] * h0; s += block[b + 5] * h1; s += block[b + 6] * h2; s += block[b + 7] * h3;
+            s += block[b + 8] * h0; s += block[b + 9] * h1; s += block[b + 10] * h2; s += block[b + 11] * h3;
+
+            return s;
+        }
+    }
+
+
+
+
+    /**
+     * The kernel for 9 basis terms, with red at 0-8 of the block, green at 9-17 and blue at 18-26.
+     */
+    private static class NineTermKernel extends HSHKernel{
+
+        private NineTermKernel(){
+            super(9);
+        }
+
+
+        @Override
+        public void loadBlock(byte[] coeffs, int offset, float[][] lookup, float[] block, int blockOffset) {
+            //the pixel's coefficients are in the same order as the block, so it's a straight run through them
+            for(int c = 0; c < 27; c += 9){
+                int o = offset + c, b = blockOffset + c;
+                block[b] = lookup[0][coeffs[o] & 0xFF];
+                block[b + 1] = lookup[1][coeffs[o + 1] & 0xFF];
+                block[b + 2] = lookup[2][coeffs[o + 2] & 0xFF];
+                block[b + 3] = lookup[3][coeffs[o + 3] & 0xFF];
+                block[b + 4] = lookup[4][coeffs[o + 4] & 0xFF];
+                block[b + 5] = lookup[5][coeffs[o + 5] & 0xFF];
+                block[b + 6] = lookup[6][coeffs[o + 6] & 0xFF];
+                block[b + 7] = lookup[7][coeffs[o + 7] & 0xFF];
+                block[b + 8] = lookup[8][coeffs[o + 8] & 0xFF];
+            }
+        }
+
+
+        @Override
+        public void evaluate(float[] block, int blockOffset, double[] hWeights, float[] rgb) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2];
+            double h3 = hWeights[3], h4 = hWeights[4], h5 = hWeights[5];
+            double h6 = hWeights[6], h7 = hWeights[7], h8 = hWeights[8];
+            int b = blockOffset;
+            float r = 0.0f, g = 0.0f, bl = 0.0f;
+
+            r += block[b] * h0; r += block[b + 1] * h1; r += block[b + 2] * h2;
+            r += block[b + 3] * h3; r += block[b + 4] * h4; r += block[b + 5] * h5;
+            r += block[b + 6] * h6; r += block[b + 7] * h7; r += block[b + 8] * h8;
+
+            g += block[b + 9] * h0; g += block[b + 10] * h1; g += block[b + 11] * h2;
+            g += block[b + 12] * h3; g += block[b + 13] * h4; g += block[b + 14] * h5;
+            g += block[b + 15] * h6; g += block[b + 16] * h7; g += block[b + 17] * h8;
+
+            bl += block[b + 18] * h0; bl += block[b + 19] * h1; bl += block[b + 20] * h2;
+            bl += block[b + 21] * h3; bl += block[b + 22] * h4; bl += block[b + 23] * h5;
+            bl += block[b + 24] * h6; bl += block[b + 25] * h7; bl += block[b + 26] * h8;
+
+            rgb[0] = r;
+            rgb[1] = g;
+            rgb[2] = bl;
+        }
+
+
+        @Override
+        public float sum(float[] block, int blockOffset, double[] hWeights) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2];
+            double h3 = hWeights[3], h4 = hWeights[4], h5 = hWeights[5];
+            double h6 = hWeights[6], h7 = hWeights[7], h8 = hWeights[8];
+            int b = blockOffset;
+            float s = 0.0f;
+
+            s += block[b] * h0; s += block[b + 1] * h1; s += block[b + 2] * h2;
+            s += block[b + 3] * h3; s += block[b + 4] * h4; s += block[b + 5] * h5;
+            s += block[b + 6] * h6; s += block[b + 7] * h7; s += block[b + 8] * h8;
+
+            s += block[b + 9] * h0; s += block[b + 10] * h1; s += block[b + 11] * h2;
+            s += block[b + 12] * h3; s += block[b + 13] * h4; s += block[b + 14] * h5;
+            s += block[b + 15] * h6; s += block[b + 16] * h7; s += block[b + 17] * h8;
+
+            s += block[b + 18] * h0; s += block[b + 19] * h1; s += block[b + 20] * h2;
+            s += block[b + 21] * h3; s += block[b + 22] * h4; s += block[b + 23] * h5;
+            s += block[b + 24] * h6; s += block[b + 25] * h7; s += block[b + 26] * h8;
+
+            return s;
+        }
+    }
+
+
+
+
+    /**
+     * The kernel for 16 basis terms, with red at 0-15 of the block, green at 16-31 and blue at 32-47.
+     */
+    private static class SixteenTermKernel extends HSHKernel{
+
+        private SixteenTermKernel(){
+            super(16);
+        }
+
+
+        @Override
+        public void loadBlock(byte[] coeffs, int offset, float[][] lookup, float[] block, int blockOffset) {
+            //the pixel's coefficients are in the same order as the block, so it's a straight run through them
+            for(int c = 0; c < 48; c += 16){
+                int o = offset + c, b = blockOffset + c;
+                block[b] = lookup[0][coeffs[o] & 0xFF];
+                block[b + 1] = lookup[1][coeffs[o + 1] & 0xFF];
+                block[b + 2] = lookup[2][coeffs[o + 2] & 0xFF];
+                block[b + 3] = lookup[3][coeffs[o + 3] & 0xFF];
+                block[b + 4] = lookup[4][coeffs[o + 4] & 0xFF];
+                block[b + 5] = lookup[5][coeffs[o + 5] & 0xFF];
+                block[b + 6] = lookup[6][coeffs[o + 6] & 0xFF];
+                block[b + 7] = lookup[7][coeffs[o + 7] & 0xFF];
+                block[b + 8] = lookup[8][coeffs[o + 8] & 0xFF];
+                block[b + 9] = lookup[9][coeffs[o + 9] & 0xFF];
+                block[b + 10] = lookup[10][coeffs[o + 10] & 0xFF];
+                block[b + 11] = lookup[11][coeffs[o + 11] & 0xFF];
+                block[b + 12] = lookup[12][coeffs[o + 12] & 0xFF];
+                block[b + 13] = lookup[13][coeffs[o + 13] & 0xFF];
+                block[b + 14] = lookup[14][coeffs[o + 14] & 0xFF];
+                block[b + 15] = lookup[15][coeffs[o + 15] & 0xFF];
+            }
+        }
+
+
+        @Override
+        public void evaluate(float[] block, int blockOffset, double[] hWeights, float[] rgb) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2], h3 = hWeights[3];
+            double h4 = hWeights[4], h5 = hWeights[5], h6 = hWeights[6], h7 = hWeights[7];
+            double h8 = hWeights[8], h9 = hWeights[9], h10 = hWeights[10], h11 = hWeights[11];
+            double h12 = hWeights[12], h13 = hWeights[13], h14 = hWeights[14], h15 = hWeights[15];
+            int b = blockOffset;
+            float r = 0.0f, g = 0.0f, bl = 0.0f;
+
+            r += block[b] * h0; r += block[b + 1] * h1; r += block[b + 2] * h2; r += block[b + 3] * h3;
+            r += block[b + 4] * h4; r += block[b + 5] * h5; r += block[b + 6] * h6; r += block[b + 7] * h7;
+            r += block[b + 8] * h8; r += block[b + 9] * h9; r += block[b + 10] * h10; r += block[b + 11] * h11;
+            r += block[b + 12] * h12; r += block[b + 13] * h13; r += block[b + 14] * h14; r += block[b + 15] * h15;
+
+            g += block[b + 16] * h0; g += block[b + 17] * h1; g += block[b + 18] * h2; g += block[b + 19] * h3;
+            g += block[b + 20] * h4; g += block[b + 21] * h5; g += block[b + 22] * h6; g += block[b + 23] * h7;
+            g += block[b + 24] * h8; g += block[b + 25] * h9; g += block[b + 26] * h10; g += block[b + 27] * h11;
+            g += block[b + 28] * h12; g += block[b + 29] * h13; g += block[b + 30] * h14; g += block[b + 31] * h15;
+
+            bl += block[b + 32] * h0; bl += block[b + 33] * h1; bl += block[b + 34] * h2; bl += block[b + 35] * h3;
+            bl += block[b + 36] * h4; bl += block[b + 37] * h5; bl += block[b + 38] * h6; bl += block[b + 39] * h7;
+            bl += block[b + 40] * h8; bl += block[b + 41] * h9; bl += block[b + 42] * h10; bl += block[b + 43] * h11;
+            bl += block[b + 44] * h12; bl += block[b + 45] * h13; bl += block[b + 46] * h14; bl += block[b + 47] * h15;
+
+            rgb[0] = r;
+            rgb[1] = g;
+            rgb[2] = bl;
+        }
+
+
+        @Override
+        public float sum(float[] block, int blockOffset, double[] hWeights) {
+            double h0 = hWeights[0], h1 = hWeights[1], h2 = hWeights[2], h3 = hWeights[3];
+            double h4 = hWeights[4], h5 = hWeights[5], h6 = hWeights[6], h7 = hWeights[7];
+            double h8 = hWeights[8], h9 = hWeights[9], h10 = hWeights[10], h11 = hWeights[11];
+            double h12 = hWeights[12], h13 = hWeights[13], h14 = hWeights[14], h15 = hWeights[15];
+            int b = blockOffset;
+            float s = 0.0f;
+
+            s += block[b] * h0; s += block[b + 1] * h1; s += block[b + 2] * h2; s += block[b + 3] * h3;
+            s += block[b + 4] * h4; s += block[b + 5] * h5; s += block[b + 6] * h6; s += block[b + 7] * h7;
+            s += block[b + 8] * h8; s += block[b + 9] * h9; s += block[b + 10] * h10; s += block[b + 11] * h11;
+            s += block[b + 12] * h12; s += block[b + 13] * h13; s += block[b + 14] * h14; s += block[b + 15] * h15;
+
+            s += block[b + 16] * h0; s += block[b + 17] * h1; s += block[b + 18] * h2; s += block[b + 19] * h3;
+            s += block[b + 20] * h4; s += block[b + 21] * h5; s += block[b + 22] * h6; s += block[b + 23] * h7;
+            s += block[b + 24] * h8; s += block[b + 25] * h9; s += block[b + 26] * h10; s += block[b + 27] * h11;
+            s += block[b + 28] * h12; s += block[b + 29] * h13; s += block[b + 30] * h14; s += block[b + 31] * h15;
+
+            s += block[b + 32] * h0; s += block[b + 33] * h1; s += block[b + 34] * h2; s += block[b + 35] * h3;
+            s += block[b + 36] * h4; s += block[b + 37] * h5; s += block[b + 38] * h6; s += block[b + 39] * h7;
+            s += block[b + 40] * h8; s += block[b + 41] * h9; s += block[b + 42] * h10; s += block[b + 43] * h11;
+            s += block[b + 44] * h12; s += block[b + 45] * h13; s += block[b + 46] * h14; s += block[b + 47] * h15;
+
+            return s;
+        }
+    }
+
+
+
+
+    /**
+     * The kernel for any other number of basis terms, which loops over the terms.
+     */
+    private static class GeneralKernel extends HSHKernel{
+
+        /**
+         * @param basisTerms        number of basis terms of the HSH object
+         */
+        private GeneralKernel(int basisTerms){
+            super(basisTerms);
+        }
+
+
+        @Override
+        public void loadBlock(byte[] coeffs, int offset, float[][] lookup, float[] block, int blockOffset) {
+            for(int c = 0; c < 3; c++){
+                for(int k = 0; k < terms; k++){
+                    block[blockOffset + c * terms + k] = lookup[k][coeffs[offset + c * basisTerms + k] & 0xFF];
+                }
+            }
+        }
+
+
+        @Override
+        public void evaluate(float[] block, int blockOffset, double[] hWeights, float[] rgb) {
+            for(int c = 0; c < 3; c++){
+                float colour = 0.0f;
+                for(int k = 0; k < terms; k++){
+                    colour += block[blockOffset + c * terms + k] * hWeights[k];
+                }
+                rgb[c] = colour;
+            }
+        }
+
+
+        @Override
+        public float sum(float[] block, int blockOffset, double[] hWeights) {
+            float s = 0.0f;
+            for(int c = 0; c < 3; c++){
+                for(int k = 0; k < terms; k++){
+                    s += block[blockOffset + c * terms + k] * hWeights[k];
+                }
+            }
+            return s;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ptmCreation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CoefficientStore} that holds the coefficients of a level in memory as a single buffer, with each pixel's
+ * block of coefficients next to the blocks of its neighbours, a row at a time. This is how the coefficients are kept
+ * when a file is parsed, or mapped from the {@link DecodedCache}. The buffer isn't copied, so making one of these is
+ * cheap, and it's only read through duplicates, so several threads can read it at once.
+ *
+ * @see CoefficientStore
+ *
+ * @author Jed Mills
+ */
+public class InterleavedCoefficientStore implements CoefficientStore {
+
+    /** Width of the level in pixels */
+    private final int width;
+
+    /** Height of the level in pixels */
+    private final int height;
+
+    /** The number of coefficients each pixel has */
+    private final int coefficientsPerPixel;
+
+    /** The blocks of coefficients of every pixel, flattened so pixel (x, y) is at (y * width + x) * blockSize */
+    private final ByteBuffer coefficients;
+
+
+    /**
+     * Creates a new store for the interleaved coefficients of a level.
+     *
+     * @param width                     width of the level in pixels
+     * @param height                    height of the level in pixels
+     * @param coefficientsPerPixel      the number of coefficients each pixel has
+     * @param coefficients              the raw coefficients, width * height * coefficientsPerPixel long
+     */
+    public InterleavedCoefficientStore(int width, int height, int coefficientsPerPixel, ByteBuffer coefficients){
+        if(coefficients.capacity() != (long) width * height * coefficientsPerPixel){
+            throw new IllegalArgumentException("Expected " + ((long) width * height * coefficientsPerPixel) +
+                                               " coefficients for the level, got " + coefficients.capacity());
+        }
+        this.width = width;
+        this.height = height;
+        this.coefficientsPerPixel = coefficientsPerPixel;
+        this.coefficients = coefficients;
+    }
+
+
+
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+
+
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+
+
+
+    @Override
+    public int getCoefficientsPerPixel() {
+        return coefficientsPerPixel;
+    }
+
+
+
+
+    @Override
+    public void readRow(int y, int startX, int count, byte[] dest, int offset) {
+        ByteBuffer duplicate = coefficients.duplicate();
+        duplicate.position(((y * width) + startX) * coefficientsPerPixel);
+        duplicate.get(dest, offset, count * coefficientsPerPixel);
+    }
+
+
+
+
+    @Override
+    public void readRegion(int x, int y, int width, int height, byte[] dest, int offset) {
+        ByteBuffer duplicate = coefficients.duplicate();
+
+        if(x == 0 && width == this.width){
+            //whole rows are already one after another in the buffer
+            duplicate.position(y * width * coefficientsPerPixel);
+            duplicate.get(dest, offset, width * height * coefficientsPerPixel);
+            return;
+        }
+
+        int rowLength = width * coefficientsPerPixel;
+        for(int row = 0; row < height; row++){
+            duplicate.position((((y + row) * this.width) + x) * coefficientsPerPixel);
+            duplicate.get(dest, offset + (row * rowLength), rowLength);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ptmCreation;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Gives read access to a .ptm / .rti file that is memory mapped once using {@link FileChannel#map}. The
+ * {@link RTIParser} reads the plain-text header lines and the binary texel data through the same mapping, so the file
+ * is only opened once and is never copied onto the heap in one go; the OS pages the data in as it is read.
+ * </p>
+ * <p>
+ * A single MappedByteBuffer can't be bigger than Integer.MAX_VALUE bytes, so large captures are mapped as a series of
+ * consecutive chunks, and reads that cross the boundary between two chunks are split between them. The reader has a
+ * current position used by the relative reads, like a stream, and also has absolute reads which don't touch the
+ * position and can be called from several threads at once.
+ * </p>
+ *
+ * @see RTIParser
+ * @author Jed Mills
+ */
+public class MappedFileReader implements Closeable {
+
+    /** The size of each mapped section of the file, 1GB */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    /** The file that is mapped */
+    private RandomAccessFile file;
+
+    /** The mapped sections of the file, each {@link MappedFileReader#CHUNK_SIZE} long except the last */
+    private MappedByteBuffer[] chunks;
+
+    /** Total length of the file in bytes */
+    private long size;
+
+    /** Current position in the file for the relative read methods */
+    private long position;
+
+
+
+    /**
+     * Opens the file at the given path and maps the whole of it into memory, read only.
+     *
+     * @param fileName          path to the file to map
+     * @throws IOException      if the file can't be opened or mapped
+     */
+    public MappedFileReader(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        FileChannel channel = file.getChannel();
+        size = channel.size();
+
+        int numChunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        chunks = new MappedByteBuffer[Math.max(numChunks, 1)];
+
+        if(numChunks == 0){
+            //an empty file still needs a buffer to read (nothing) from
+            chunks[0] = channel.map(FileChannel.MapMode.READ_ONLY, 0, 0);
+        }
+        for(int i = 0; i < numChunks; i++){
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+        position = 0;
+    }
+
+
+
+
+    /**
+     * @return {@link MappedFileReader#size}
+     */
+    public long size() {
+        return size;
+    }
+
+
+    /**
+     * @return {@link MappedFileReader#position}
+     */
+    public long position() {
+        return position;
+    }
+
+
+    /**
+     * Sets the position that the next relative read will start from.
+     *
+     * @param position      new position in the file
+     */
+    public void position(long position) {
+        this.position = position;
+    }
+
+
+    /**
+     * Skips the position forward by the given number of bytes.
+     *
+     * @param numBytes      number of bytes to skip
+     */
+    public void skip(long numBytes) {
+        position += numBytes;
+    }
+
+
+
+
+    /**
+     * Reads the next line of text from the current position, ending at a '\n'. Any trailing '\r' is removed, so files
+     * with either line ending are read correctly, and the position is left at the first byte after the '\n'. Returns
+     * null if the position is already at the end of the file.
+     *
+     * @return  the next line of text, or null if at the end of the file
+     */
+    public String readLine() {
+        if(position >= size){return null;}
+
+        StringBuilder line = new StringBuilder();
+        int next;
+        while(position < size){
+            next = getByte(position++);
+            if(next == '\n'){break;}
+            line.append((char) next);
+        }
+
+        //remove the carriage return from windows style line endings
+        int length = line.length();
+        if(length > 0 && line.charAt(length - 1) == '\r'){
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+
+    /**
+     * Reads the next byte as an unsigned value 0 - 255 and moves the position forward by one.
+     *
+     * @return                  the unsigned value of the next byte
+     * @throws EOFException     if the position is at the end of the file
+     */
+    public int read() throws EOFException {
+        if(position >= size){throw new EOFException("Tried to read past the end of the file");}
+        return getByte(position++);
+    }
+
+
+    /**
+     * Reads the next four bytes as a little endian float, and moves the position forward by four.
+     *
+     * @return                  the float read from the file
+     * @throws EOFException     if there aren't four bytes left in the file
+     */
+    public float readFloatLE() throws EOFException {
+        byte[] bytes = new byte[4];
+        read(bytes, 0, 4);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+    }
+
+
+    /**
+     * Bulk reads length bytes from the current position into dest, starting at offset in dest, then moves the
+     * position forward by length.
+     *
+     * @param dest              array to copy the bytes into
+     * @param offset            position in dest to start writing to
+     * @param length            number of bytes to read
+     * @throws EOFException     if there aren't length bytes left in the file
+     */
+    public void read(byte[] dest, int offset, int length) throws EOFException {
+        read(position, dest, offset, length);
+        position += length;
+    }
+
+
+    /**
+     * Bulk reads length bytes from the given absolute position in the file into dest, starting at offset in dest. This
+     * doesn't use or change the reader's current position, so it's safe to call from multiple threads at once as long
+     * as they write to different arrays.
+     *
+     * @param filePos           absolute position in the file to start reading from
+     * @param dest              array to copy the bytes into
+     * @param offset            position in dest to start writing to
+     * @param length            number of bytes to read
+     * @throws EOFException     if there aren't length bytes in the file after filePos
+     */
+    public void read(long filePos, byte[] dest, int offset, int length) throws EOFException {
+        if(filePos < 0 || filePos + length > size){
+            throw new EOFException("Tried to read past the end of the file");
+        }
+
+        while(length > 0){
+            int chunkIndex = (int) (filePos / CHUNK_SIZE);
+            int chunkPos = (int) (filePos % CHUNK_SIZE);
+
+            //a duplicate has its own position, so other threads using the same chunk aren't affected
+            ByteBuffer chunk = chunks[chunkIndex].duplicate();
+            chunk.position(chunkPos);
+
+            //the read might go over the end of this chunk into the next one
+            int toRead = Math.min(length, chunk.remaining());
+            chunk.get(dest, offset, toRead);
+
+            filePos += toRead;
+            offset += toRead;
+            length -= toRead;
+        }
+    }
+
+
+    /**
+     * Returns the unsigned value of the byte at the absolute position in the file.
+     *
+     * @param filePos   absolute position of the byte
+     * @return          unsigned value of the byte, 0 - 255
+     */
+    private int getByte(long filePos) {
+        return chunks[(int) (filePos / CHUNK_SIZE)].get((int) (filePos % CHUNK_SIZE)) & 0xFF;
+    }
+
+
+
+
+    /**
+     * Closes the underlying file. The mapped buffers are released by the garbage collector once nothing references
+     * this reader any more.
+     *
+     * @throws IOException  if there's an error closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,162 @@
+package ptmCreation;
+
+import utils.NativeBuffers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * Picks the finest mip level a file can be opened at without running out of memory, from the size and number of
+ * basis terms in its header, see {@link RTIFileInfo#getLoadedBytes(int)}. The coefficients and normals of RTIObjects
+ * are all held in native memory by their {@link NativeBuffers}, so opening a very big file at full size, like an HSH
+ * file of hundreds of megapixels, can use up all of the machine's memory before anything is shown. Instead, the file is
+ * opened at the finest level that fits in what's left of {@link MemoryBudget#maxBytes} once the RTIObjects that are
+ * already open have been taken off, and the levels finer than that aren't loaded until they're wanted, when as many
+ * of them are added as there's then memory for, see {@link MemoryBudget#chooseFinerLevel(RTIFileInfo, int, int)}.
+ * </p>
+ * <p>
+ * All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @see RTICreator
+ *
+ * @author Jed Mills
+ */
+public class MemoryBudget {
+
+    /** The budget used if the size of the machine's memory can't be found, 2GB */
+    private static final long DEFAULT_MAX_BYTES = 2L << 30;
+
+    /** The total native memory all the open RTIObjects can take up, half the machine's memory by default */
+    private static volatile long maxBytes = defaultMaxBytes();
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private MemoryBudget(){}
+
+
+
+
+    /**
+     * Finds the finest level of the mip pyramid of the file that can be loaded, with all the levels below it, in the
+     * memory that's left.
+     *
+     * @param fileInfo          the header of the file to open
+     * @return                  the finest level that fits, or -1 if not even the coarsest level fits
+     */
+    public static int chooseFinestLevel(RTIFileInfo fileInfo){
+        int numLevels = RTIObject.getNumLevels(fileInfo.getWidth(), fileInfo.getHeight());
+        long headroom = getHeadroom();
+
+        for(int level = 0; level < numLevels; level++){
+            if(fileInfo.getLoadedBytes(level) <= headroom){return level;}
+        }
+
+        return -1;
+    }
+
+
+
+
+    /**
+     * Finds the finest level of the mip pyramid of a file, no finer than the wanted level, whose levels can be added to
+     * an RTIObject that already has the levels from loadedLevel down, in the memory that's left. Only the levels that
+     * aren't loaded yet, and the normals of the finest one, need more memory.
+     *
+     * @param fileInfo          the header of the file the RTIObject was made from
+     * @param loadedLevel       the finest level the RTIObject already has loaded
+     * @param wantedLevel       the level that is going to be shown, 0 being the full size
+     * @return                  the finest level that fits, or loadedLevel if no finer levels fit
+     */
+    public static int chooseFinerLevel(RTIFileInfo fileInfo, int loadedLevel, int wantedLevel){
+        long headroom = getHeadroom();
+        long loadedBytes = fileInfo.getLoadedBytes(loadedLevel);
+
+        for(int level = Math.max(0, wantedLevel); level < loadedLevel; level++){
+            if(fileInfo.getLoadedBytes(level) - loadedBytes <= headroom){return level;}
+        }
+
+        return loadedLevel;
+    }
+
+
+
+
+    /**
+     * @return the number of bytes of native memory that can still be used by RTIObjects that are opened
+     */
+    public static long getHeadroom(){
+        return maxBytes - NativeBuffers.getProcessBytes();
+    }
+
+
+
+
+    /**
+     * Gets the default budget, half the machine's physical memory, leaving the rest for the OS, the graphics driver
+     * and the JVM's heap.
+     *
+     * @return      the default for {@link MemoryBudget#maxBytes}
+     */
+    private static long defaultMaxBytes(){
+        long physicalBytes = getPhysicalBytes();
+        if(physicalBytes > 0){return physicalBytes / 2;}
+
+        return DEFAULT_MAX_BYTES;
+    }
+
+
+
+
+    /**
+     * Gets the machine's physical memory from the JVM's operating system bean. Java 14 renamed the method for this to
+     * getTotalMemorySize and deprecated the old getTotalPhysicalMemorySize, which is the only one there is in Java 8,
+     * so the methods are looked up by name, the new one first.
+     *
+     * @return      the machine's physical memory in bytes, or 0 if the JVM can't tell
+     */
+    private static long getPhysicalBytes(){
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if(!(osBean instanceof com.sun.management.OperatingSystemMXBean)){return 0;}
+
+        for(String methodName : new String[]{"getTotalMemorySize", "getTotalPhysicalMemorySize"}){
+            try{
+                Method method = com.sun.management.OperatingSystemMXBean.class.getMethod(methodName);
+                return (Long) method.invoke(osBean);
+            }catch(NoSuchMethodException e){
+                //this JVM doesn't have this method, try the next one
+            }catch(ReflectiveOperationException e){
+                e.printStackTrace();
+            }
+        }
+
+        return 0;
+    }
+
+
+
+
+    /**
+     * @return {@link MemoryBudget#maxBytes}
+     */
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+
+
+
+    /**
+     * Sets the total native memory all the open RTIObjects can take up. This only changes the levels files are
+     * opened at from now on.
+     *
+     * @param bytes     the budget in bytes
+     */
+    public static void setMaxBytes(long bytes){
+        maxBytes = bytes;
+    }
+}
@@ -0,0 +1,59 @@
+package ptmCreation;
+
+/**
+ * <p>
+ * Holds the normals of one level of an {@link RTIObject}, the x, y and z of each pixel's normal vector as 3 floats
+ * next to each other. This is how the rest of the app gets at the normals, like the {@link CoefficientStore} is for
+ * the coefficients, so the windows and image creators don't need to know whether a level's normals are in memory or
+ * paged in from the disk.
+ * </p>
+ * <p>
+ * The normals are read a run of pixels at a time with {@link NormalStore#readRow} and {@link NormalStore#readRegion},
+ * into an array the caller keeps. A store can be read by several threads at once.
+ * </p>
+ *
+ * @see BufferNormalStore
+ * @see TiledNormalStore
+ *
+ * @author Jed Mills
+ */
+public interface NormalStore {
+
+    /**
+     * @return the width of the level in pixels
+     */
+    int getWidth();
+
+
+    /**
+     * @return the height of the level in pixels
+     */
+    int getHeight();
+
+
+    /**
+     * Reads the normals of a run of pixels in a row into the array, one after another, so the x of the normal of
+     * pixel startX + i is at offset + (i * 3).
+     *
+     * @param y             the row to read from
+     * @param startX        x position of the first pixel to read
+     * @param count         number of pixels to read
+     * @param dest          the array to read the normals into
+     * @param offset        position in the array to read the first normal to
+     */
+    void readRow(int y, int startX, int count, float[] dest, int offset);
+
+
+    /**
+     * Reads the normals of a rectangle of pixels into the array, a row at a time, so the rows of the region are one
+     * after another with no gaps between them.
+     *
+     * @param x             x position of the top left pixel of the region
+     * @param y             y position of the top left pixel of the region
+     * @param width         width of the region in pixels
+     * @param height        height of the region in pixels
+     * @param dest          the array to read the normals into
+     * @param offset        position in the array to read the first normal to
+     */
+    void readRegion(int x, int y, int width, int height, float[] dest, int offset);
+}
@@ -1,11 +1,10 @@
 package ptmCreation;
 
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-import org.lwjgl.BufferUtils;
+import utils.NativeBuffers;
 import utils.Utils;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
  * This class represents a PTM object with LRGB format that is loaded from a .ptm file on the disk. PTM LRGB objects
@@ -13,52 +12,83 @@ import java.nio.IntBuffer;
  * of. It also has 3 RGB coefficients per pixel, which are multiplied by the calculated luminance to find the colour of
  * each pixel. This is the LRGB PTM format. See the user guide for a link to the original PTM paper.
  *
+ * All the coefficients are kept as the raw bytes from the file. The 6 scale and bias coefficients from the header are
+ * applied to the luminance coefficients when they're used, through the {@link PTMObjectLRGB#coeffLookup} table here
+ * and the scale1/2 and bias1/2 uniforms in the shaders. The rgb coefficients aren't scaled or biased.
+ *
  * @see RTIObject
  *
  * @author Jed Mills
  */
 public class PTMObjectLRGB extends RTIObject {
 
-    /** The first 3 luminance coefficients per pixel, flattened into a 1D array*/
-    private IntBuffer lumCoeffs1;
+    /** Number of coefficients each pixel has, the 6 luminance coefficients then the red, green and blue ones */
+    public static final int COEFFS_PER_PIXEL = 9;
+
+    /** Index in a pixel's block of coefficients of the red coefficient, followed by the green and blue */
+    public static final int RGB_OFFSET = 6;
 
-    /** The last 3 luminance coefficients per pixel, flattened into a 1D array*/
-    private IntBuffer lumCoeffs2;
+    /** The 6 scale coefficients from the file header, one per PTM luminance term */
+    private float[] scaleCoeffs;
 
-    /** The rgb coefficients per pixel, flattened into a 1D array*/
-    private IntBuffer rgbCoeffs;
+    /** The 6 bias coefficients from the file header, one per PTM luminance term */
+    private int[] biasCoeffs;
+
+    /** Scaled and biased value of every byte for each of the 6 PTM terms, see {@link Utils#createScaleBiasLookup} */
+    private int[][] coeffLookup;
 
 
 
 
     /**
-     * Create a new PTM LRGB object width given width and height from the given texel data.
-     * The texel data should be in the order of:
-     * <ol>
-     *     <li>an IntBuffer containing the first 3 luminance coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *     <li>an IntBuffer containing the last 3 luminance coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *     <li>an IntBuffer containing the 3 rgb coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     * </ol>
+     * Create a new PTM LRGB object width given width and height from the given texel data for each level of its mip
+     * pyramid, where level 0 is the full width and height, and each level after is half the size of the one before.
+     * The texel data for each level is a ByteBuffer with a block of {@link PTMObjectLRGB#COEFFS_PER_PIXEL} raw
+     * coefficients for each pixel, the 6 luminance coefficients a0-a5, then the red, green and blue coefficients,
+     * flattened so its length is width * height * 9.
      *
      * @param fileName          name of the the file containing the PTM object
      * @param width             width of the PTM
      * @param height            height of the PTM
-     * @param texelData         see the above for the details of this argument
+     * @param texelLevels       texel data for each mip level, null for levels added later, see the above for each
+     * @param normalLevels      normals for each mip level if they're already known, otherwise null
+     * @param buffers           allocated the texel data, and allocates the normals, see {@link RTIObject#buffers}
+     * @param scaleCoeffs       the 6 scale coefficients from the file header
+     * @param biasCoeffs        the 6 bias coefficients from the file header
      */
-    public PTMObjectLRGB(String fileName, int width, int height, IntBuffer[] texelData) {
+    public PTMObjectLRGB(String fileName, int width, int height, ByteBuffer[] texelLevels,
+                         FloatBuffer[] normalLevels, NativeBuffers buffers, float[] scaleCoeffs,
+                         int[] biasCoeffs) {
         super(fileName, width, height);
 
-        lumCoeffs1 = texelData[0];
-        lumCoeffs2 = texelData[1];
-        rgbCoeffs = texelData[2];
+        this.texelLevels = texelLevels;
+        this.buffers = buffers;
+
+        this.scaleCoeffs = scaleCoeffs;
+        this.biasCoeffs = biasCoeffs;
+        coeffLookup = Utils.createScaleBiasLookup(scaleCoeffs, biasCoeffs);
 
-        //calculate the normals and store them in the normals attribute
-        calculateNormals();
-        //create the preview image to show in the preview tab of the viewer
-        createPreviewImage();
+        //set up each level of the pyramid and create the preview image
+        createLevels(normalLevels);
+    }
+
+
+
+
+    /**
+     * Makes a store for the interleaved coefficients of a level, the 6 luminance coefficients then the rgb ones for
+     * each pixel.
+     *
+     * @see RTIObject#createCoefficientStore(ByteBuffer, int, int)
+     *
+     * @param texelData     the interleaved coefficients of the level
+     * @param width         width of the level
+     * @param height        height of the level
+     * @return              the coefficients of the level
+     */
+    @Override
+    protected CoefficientStore createCoefficientStore(ByteBuffer texelData, int width, int height) {
+        return new InterleavedCoefficientStore(width, height, COEFFS_PER_PIXEL, texelData);
     }
 
 
@@ -68,90 +98,107 @@ public class PTMObjectLRGB extends RTIObject {
      * Calculates the normals vector for each texel using  the 6 luminance coefficients per pixel, as these are
      * the coefficients that are responsive to the light direction on this form of PTM.
      *
-     * @see RTIObject#calculateNormals()
-     * @see RTIObject#calculateNormal(int[])
+     * @see RTIObject#calculateNormals(byte[], int, float[])
+     * @see RTIObject#calculateNormal(int[], Utils.NormalScratch)
+     *
+     * @param coeffs        the blocks of coefficients of the texels one after another
+     * @param count         the number of texels
+     * @param normals       the array to write the normal of each texel to
      */
     @Override
-    protected void calculateNormals() {
-        //create the normals array, the length is *3 as it is  a flattened array of (x,y,z) vectors
-        normals = BufferUtils.createFloatBuffer(width * height * 3);
-
-        Utils.Vector3f temp;
+    protected void calculateNormals(byte[] coeffs, int count, float[] normals) {
+        //the working arrays are reused for every pixel in the run, so nothing is allocated per pixel
+        Utils.NormalScratch scratch = new Utils.NormalScratch();
+        float[] temp = scratch.lengths;
         int[] tempCoeffs = new int[6];
-        for(int i = 0; i < width * height; i++){
-            //get the 6 luminance coefficients for each pixel, which are split across two arrays with 3 each
-            tempCoeffs[0] = lumCoeffs1.get(i * 3);
-            tempCoeffs[1] = lumCoeffs1.get((i * 3) + 1);
-            tempCoeffs[2] = lumCoeffs1.get((i * 3) + 2);
-            tempCoeffs[3] = lumCoeffs2.get(i * 3);
-            tempCoeffs[4] = lumCoeffs2.get((i * 3) + 1);
-            tempCoeffs[5] = lumCoeffs2.get((i * 3) + 2);
-
-            temp = calculateNormal(tempCoeffs);
-
-            //store the normal in the normals attribute
-            normals.put((i * 3), temp.x);
-            normals.put((i * 3) + 1, temp.y);
-            normals.put((i * 3) + 2, temp.z);
+        int block;
+        for(int i = 0; i < count; i++){
+            block = i * COEFFS_PER_PIXEL;
+
+            //get the 6 luminance coefficients for each pixel, which are at the start of its block
+            for(int k = 0; k < 6; k++){
+                tempCoeffs[k] = coeffLookup[k][coeffs[block + k] & 0xFF];
+            }
+
+            calculateNormal(tempCoeffs, scratch);
+
+            //store the normal in the normals array
+            normals[i * 3] = temp[0];
+            normals[(i * 3) + 1] = temp[1];
+            normals[(i * 3) + 2] = temp[2];
         }
     }
 
 
     /**
-     * Creates the preview image used for showing in the preview tab, using default rendering and light at position
-     * (0, 0), and stores it in the {@link RTIObject#previewImage} attribute. Uses the process described in the
-     * documentation for this class to calculate the colour of each pixel
+     * Calculates the colours of the pixels of the preview image shown in the preview tab, using default rendering and
+     * light at position (0, 0). Uses the process described in the documentation for this class to calculate the
+     * colour of each pixel
      *
      * @see RTIObject#previewImage
-     * @see RTIObject#createPreviewImage()
+     * @see RTIObject#calculatePreviewPixels(CoefficientStore, int[], int[])
+     *
+     * @param coefficients  the coefficients of the level
+     * @param positions     index of each pixel in the level, y * width + x
+     * @param pixels        the array to write the ARGB colour of each pixel to
      */
     @Override
-    protected void createPreviewImage() {
-        //create the image to write the pixels to
-        previewImage = new WritableImage(width, height);
-
-        int position;
+    protected void calculatePreviewPixels(CoefficientStore coefficients, int[] positions, int[] pixels) {
+        int width = coefficients.getWidth();
+        byte[] block = new byte[COEFFS_PER_PIXEL];
         float lum, red, green, blue;
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                //position in 1D array
-                position = ((y * width) + x) * 3;
+        for(int i = 0; i < positions.length; i++){
+            //the block of coefficients for the pixel
+            coefficients.readRow(positions[i] / width, positions[i] % width, 1, block, 0);
 
-                //calculate the luminance for this pixel using the 6 luminance coeffs and the PTM equation
-                lum = Utils.calcIntensity(lumCoeffs1, lumCoeffs2, position, 0, 0) / 255.0f;
+            //calculate the luminance for this pixel using the 6 luminance coeffs and the PTM equation
+            lum = Utils.calcIntensity(block, 0, coeffLookup, 0, 0) / 255.0f;
 
-                //calculate the colour by multiplying the luminance by the colour coeffs.
-                //divided by 255 as we want colours in range 0.0 - 1.0
-                red = rgbCoeffs.get(position) * lum / 255.0f;
-                green = rgbCoeffs.get(position + 1) * lum / 255.0f;
-                blue = rgbCoeffs.get(position + 2) * lum / 255.0f;
+            //calculate the colour by multiplying the luminance by the colour coeffs.
+            //divided by 255 as we want colours in range 0.0 - 1.0
+            red = getRgbCoeff(block, RGB_OFFSET) * lum / 255.0f;
+            green = getRgbCoeff(block, RGB_OFFSET + 1) * lum / 255.0f;
+            blue = getRgbCoeff(block, RGB_OFFSET + 2) * lum / 255.0f;
 
-                previewImage.getPixelWriter().setColor(x, y, Color.color(red, green, blue));
-            }
+            pixels[i] = Utils.toArgb(red, green, blue);
         }
     }
 
 
     /**
-     * @return  {@link PTMObjectLRGB#lumCoeffs1}
+     * Returns the unsigned value of the rgb coefficient at the position in coefficients read from a level's
+     * {@link CoefficientStore}, where the red, green and blue ones are {@link PTMObjectLRGB#RGB_OFFSET} into each
+     * pixel's block.
+     *
+     * @param coeffs        the coefficients read from the level
+     * @param position      position of the coefficient in the array
+     * @return              the rgb coefficient, 0 - 255
+     */
+    public static int getRgbCoeff(byte[] coeffs, int position) {
+        return coeffs[position] & 0xFF;
+    }
+
+
+    /**
+     * @return {@link PTMObjectLRGB#scaleCoeffs}
      */
-    public IntBuffer getLumCoeffs1() {
-        return lumCoeffs1;
+    public float[] getScaleCoeffs() {
+        return scaleCoeffs;
     }
 
 
     /**
-     * @return {@link PTMObjectLRGB#lumCoeffs2}
+     * @return {@link PTMObjectLRGB#biasCoeffs}
      */
-    public IntBuffer getLumCoeffs2() {
-        return lumCoeffs2;
+    public int[] getBiasCoeffs() {
+        return biasCoeffs;
     }
 
 
     /**
-     * @return {@link PTMObjectLRGB#rgbCoeffs}
+     * @return {@link PTMObjectLRGB#coeffLookup}
      */
-    public IntBuffer getRgbCoeffs() {
-        return rgbCoeffs;
+    public int[][] getCoeffLookup() {
+        return coeffLookup;
     }
 }
@@ -1,84 +1,86 @@
 package ptmCreation;
 
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-import org.lwjgl.BufferUtils;
+import utils.NativeBuffers;
 import utils.Utils;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
 * This class represents a PTM object with RGB format that is loaded from a .ptm file on the disk. PTM RGB objects
 * have 6 coefficients per pixel, which the PTM equation is used to calculate the colour for each pixel
 * of. This is the LRGB PTM format. See the user guide for a link to the original PTM paper.
 *
+* The coefficients are kept as the raw bytes from the file, a quarter of the size of the scaled and biased ints, and
+* the 6 scale and bias coefficients from the header are applied when they're used, through the
+* {@link PTMObjectRGB#coeffLookup} table here and the scale1/2 and bias1/2 uniforms in the shaders.
+*
 * @see RTIObject
 *
 * @author Jed Mills
 */
 public class PTMObjectRGB extends RTIObject {
 
-    /** Flattened array of of the first 3 red coefficients per pixel for the PTM object */
-    private IntBuffer redVals1;
-
-    /** Flattened array of of the last 3 red coefficients per pixel for the PTM object */
-    private IntBuffer redVals2;
-
-    /** Flattened array of of the first 3 green coefficients per pixel for the PTM object */
-    private IntBuffer greenVals1;
+    /** Number of coefficients each pixel has, 6 for each of red, green and blue */
+    public static final int COEFFS_PER_PIXEL = 18;
 
-    /** Flattened array of of the last 3 green coefficients per pixel for the PTM object */
-    private IntBuffer greenVals2;
+    /** The 6 scale coefficients from the file header, one per PTM term */
+    private float[] scaleCoeffs;
 
-    /** Flattened array of of the first 3 blue coefficients per pixel for the PTM object */
-    private IntBuffer blueVals1;
+    /** The 6 bias coefficients from the file header, one per PTM term */
+    private int[] biasCoeffs;
 
-    /** Flattened array of of the last 3 blue coefficients per pixel for the PTM object */
-    private IntBuffer blueVals2;
+    /** Scaled and biased value of every byte for each of the 6 PTM terms, see {@link Utils#createScaleBiasLookup} */
+    private int[][] coeffLookup;
 
 
     /**
-     * Create a new PTM LRGB object width given width and height from the given texel data.
-     * The texel data should be in the order of:
-     * <ol>
-     *     <li>an IntBuffer containing the first 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the last 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the first 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *    <li>an IntBuffer containing the last 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *    <li>an IntBuffer containing the first 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *    <li>an IntBuffer containing the last 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     * </ol>
+     * Create a new PTM RGB object width given width and height from the given texel data for each level of its mip
+     * pyramid, where level 0 is the full width and height, and each level after is half the size of the one before.
+     * The texel data for each level is a ByteBuffer with a block of {@link PTMObjectRGB#COEFFS_PER_PIXEL} raw
+     * coefficients for each pixel, the 6 red coefficients a0-a5, then the 6 green, then the 6 blue, flattened so
+     * its length is width * height * 18.
      *
      * @param fileName          name of the the file containing the PTM object
      * @param width             width of the PTM
      * @param height            height of the PTM
-     * @param texelData         see above for the details of this argument
+     * @param texelLevels       texel data for each mip level, null for levels added later, see above for each
+     * @param normalLevels      normals for each mip level if they're already known, otherwise null
+     * @param buffers           allocated the texel data, and allocates the normals, see {@link RTIObject#buffers}
+     * @param scaleCoeffs       the 6 scale coefficients from the file header
+     * @param biasCoeffs        the 6 bias coefficients from the file header
      */
-    public PTMObjectRGB(String fileName, int width, int height, IntBuffer[] texelData) {
+    public PTMObjectRGB(String fileName, int width, int height, ByteBuffer[] texelLevels,
+                        FloatBuffer[] normalLevels, NativeBuffers buffers, float[] scaleCoeffs, int[] biasCoeffs) {
         super(fileName, width, height);
 
-        redVals1 = texelData[0];
-        redVals2 = texelData[1];
-        greenVals1 = texelData[2];
-        greenVals2 = texelData[3];
-        blueVals1 = texelData[4];
-        blueVals2 = texelData[5];
-
-        //calculate the normals and store them in the normals attribute
-        calculateNormals();
-        //create the preview image to show in the preview tab of the viewer
-        createPreviewImage();
+        this.texelLevels = texelLevels;
+        this.buffers = buffers;
+
+        this.scaleCoeffs = scaleCoeffs;
+        this.biasCoeffs = biasCoeffs;
+        coeffLookup = Utils.createScaleBiasLookup(scaleCoeffs, biasCoeffs);
+
+        //set up each level of the pyramid and create the preview image
+        createLevels(normalLevels);
+    }
+
+
+
+
+    /**
+     * Makes a store for the interleaved coefficients of a level, with the 18 PTM coefficients of each pixel.
+     *
+     * @see RTIObject#createCoefficientStore(ByteBuffer, int, int)
+     *
+     * @param texelData     the interleaved coefficients of the level
+     * @param width         width of the level
+     * @param height        height of the level
+     * @return              the coefficients of the level
+     */
+    @Override
+    protected CoefficientStore createCoefficientStore(ByteBuffer texelData, int width, int height) {
+        return new InterleavedCoefficientStore(width, height, COEFFS_PER_PIXEL, texelData);
     }
 
 
@@ -87,123 +89,105 @@ public class PTMObjectRGB extends RTIObject {
      * method comes from the original RTI viewer, which in turn comes from the original PTM paper, which there is a
      * link to in the use guide for this app.
      *
-     * @see RTIObject#calculateNormals()
-     * @see RTIObject#calculateNormal(int[])
+     * @see RTIObject#calculateNormals(byte[], int, float[])
+     * @see RTIObject#calculateNormal(int[], Utils.NormalScratch)
+     *
+     * @param coeffs        the blocks of coefficients of the texels one after another
+     * @param count         the number of texels
+     * @param normals       the array to write the normal of each texel to
      */
-    protected void calculateNormals(){
-        //create the normals array, the length is *3 as it is  a flattened array of (x,y,z) vectors
-        normals = BufferUtils.createFloatBuffer(width * height * 3);
-        //put these inhere so we can easily loop over them
-        IntBuffer[] channels = new IntBuffer[]{redVals1, redVals2, greenVals1, greenVals2, blueVals1, blueVals2};
-
-        Utils.Vector3f temp;
+    @Override
+    protected void calculateNormals(byte[] coeffs, int count, float[] normals){
+        //the working arrays are reused for every pixel in the run, so nothing is allocated per pixel
+        Utils.NormalScratch scratch = new Utils.NormalScratch();
+        float[] temp = scratch.lengths;
         int[] tempCoeffs = new int[6];
-        for(int i = 0; i < width * height; i++){
+        float x, y, z;
+        int block;
+        for(int i = 0; i < count; i++){
+            block = i * COEFFS_PER_PIXEL;
+
+            x = 0.0f;
+            y = 0.0f;
+            z = 0.0f;
             for(int j = 0 ; j < 3; j ++) {
-                //get the 6 coefficients per colour for each pixel, which are split across two arrays with 3 each
-                tempCoeffs[0] = channels[j * 2].get((i * 3));
-                tempCoeffs[1] = channels[j * 2].get((i * 3) + 1);
-                tempCoeffs[2] = channels[j * 2].get((i * 3) + 2);
-                tempCoeffs[3] = channels[(j * 2) + 1].get((i * 3));
-                tempCoeffs[4] = channels[(j * 2) + 1].get((i * 3) + 1);
-                tempCoeffs[5] = channels[(j * 2) + 1].get((i * 3) + 2);
-
-                temp = calculateNormal(tempCoeffs);
-
-                //add the normal calculated in the normals attribute
-                normals.put((i * 3), normals.get((i * 3)) + temp.x);
-                normals.put((i * 3) + 1, normals.get((i * 3) + 1) + temp.y);
-                normals.put((i * 3) + 2, normals.get((i * 3) + 2) + temp.z);
-            }
+                //get the 6 coefficients for each colour of the pixel, which are next to each other
+                for(int k = 0; k < 6; k++){
+                    tempCoeffs[k] = coeffLookup[k][coeffs[block + (j * 6) + k] & 0xFF];
+                }
 
-            //find the average value for the normal oif the normals calculated from the red, green and blue coeffs
-            normals.put((i * 3), normals.get(i * 3) / 3);
-            normals.put((i * 3) + 1, normals.get((i * 3) + 1) / 3);
-            normals.put((i * 3) + 2, normals.get((i * 3) + 2) / 3);
+                calculateNormal(tempCoeffs, scratch);
 
-            //normalise it
-            temp = new Utils.Vector3f(normals.get(i * 3), normals.get(i* 3 + 1), normals.get(i * 3 + 2));
-            temp.normalise();
+                //add up the normals calculated for each colour
+                x += temp[0];
+                y += temp[1];
+                z += temp[2];
+            }
+
+            //find the average value for the normal oif the normals calculated from the red, green and blue
+            //coeffs
+            x /= 3;
+            y /= 3;
+            z /= 3;
 
-            normals.put(i * 3, temp.getX());
-            normals.put(i * 3 + 1, temp.getY());
-            normals.put(i * 3 + 2, temp.getZ());
+            //store it in the normals once it's finished
+            normals[i * 3] = x;
+            normals[i * 3 + 1] = y;
+            normals[i * 3 + 2] = z;
         }
     }
 
 
 
     /**
-     * Creates the preview image used for showing in the preview tab, using default rendering and light at position
-     * (0, 0), and stores it in the {@link RTIObject#previewImage} attribute. Uses the process described in the
-     * documentation for this class to calculate the colour of each pixel
+     * Calculates the colours of the pixels of the preview image shown in the preview tab, using default rendering and
+     * light at position (0, 0). Uses the process described in the documentation for this class to calculate the
+     * colour of each pixel
      *
      * @see RTIObject#previewImage
-     * @see RTIObject#createPreviewImage()
+     * @see RTIObject#calculatePreviewPixels(CoefficientStore, int[], int[])
+     *
+     * @param coefficients  the coefficients of the level
+     * @param positions     index of each pixel in the level, y * width + x
+     * @param pixels        the array to write the ARGB colour of each pixel to
      */
     @Override
-    protected void createPreviewImage(){
-        //create the image to write the pixels to
-        previewImage = new WritableImage(width, height);
-
-        int position;
+    protected void calculatePreviewPixels(CoefficientStore coefficients, int[] positions, int[] pixels){
+        int width = coefficients.getWidth();
+        byte[] block = new byte[COEFFS_PER_PIXEL];
         float red, green, blue;
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                //position in 1D array
-                position = ((y * width) + x) * 3;
-
-                //calculate the red, green and blue value for each pixel using the PTM equation
-                red = Utils.calcIntensity(redVals1, redVals2, position, 0, 0) / 255.0f;
-                green = Utils.calcIntensity(greenVals1, greenVals2, position, 0, 0) / 255.0f;
-                blue = Utils.calcIntensity(blueVals1, blueVals2, position, 0, 0) / 255.0f;
+        for(int i = 0; i < positions.length; i++){
+            //the block of coefficients for the pixel
+            coefficients.readRow(positions[i] / width, positions[i] % width, 1, block, 0);
 
+            //calculate the red, green and blue value for each pixel using the PTM equation
+            red = Utils.calcIntensity(block, 0, coeffLookup, 0, 0) / 255.0f;
+            green = Utils.calcIntensity(block, 6, coeffLookup, 0, 0) / 255.0f;
+            blue = Utils.calcIntensity(block, 12, coeffLookup, 0, 0) / 255.0f;
 
-                previewImage.getPixelWriter().setColor(x, y, Color.color(red, green, blue));
-            }
+            pixels[i] = Utils.toArgb(red, green, blue);
         }
     }
 
 
     /**
-     * @return {@link PTMObjectRGB#redVals1}
-     */
-    public IntBuffer getRedVals1() {
-        return redVals1;
-    }
-
-    /**
-     * @return {@link PTMObjectRGB#redVals2}
-     */
-    public IntBuffer getRedVals2() {
-        return redVals2;
-    }
-
-    /**
-     * @return {@link PTMObjectRGB#greenVals1}
-     */
-    public IntBuffer getGreenVals1() {
-        return greenVals1;
-    }
-
-    /**
-     * @return {@link PTMObjectRGB#greenVals2}
+     * @return {@link PTMObjectRGB#scaleCoeffs}
      */
-    public IntBuffer getGreenVals2() {
-        return greenVals2;
+    public float[] getScaleCoeffs() {
+        return scaleCoeffs;
     }
 
     /**
-     * @return {@link PTMObjectRGB#blueVals1}
+     * @return {@link PTMObjectRGB#biasCoeffs}
      */
-    public IntBuffer getBlueVals1() {
-        return blueVals1;
+    public int[] getBiasCoeffs() {
+        return biasCoeffs;
     }
 
     /**
-     * @return {@link PTMObjectRGB#blueVals2}
+     * @return {@link PTMObjectRGB#coeffLookup}
      */
-    public IntBuffer getBlueVals2() {
-        return blueVals2;
+    public int[][] getCoeffLookup() {
+        return coeffLookup;
     }
 }
@@ -16,12 +16,16 @@ import toolWindow.RTIViewer;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
 /**
  * This class is basically the runnable that gets started when the user wants to open an {@link RTIObject} from a file
  * on the disk. This class uses the RTIParse to parse the file and determine what type of RTIObject to create, and
  * is responsible for displaying error message sif there is an error reading the .ptm / .rti file.  This class is
- * also responsible for creating the {@link openGLWindow.RTIWindow} that shows the RTIObject.
+ * also responsible for creating the {@link openGLWindow.RTIWindow} that shows the RTIObject. RTICreators are run on
+ * the {@link RTILoaderPool}, so several can be loading files at the same time. Files are loaded progressively, so
+ * the window is opened as soon as the coarsest mip level of the RTIObject is ready, and the finer levels are shown in
+ * it once they've been decoded.
  *
  * @see RTIObject
  * @see openGLWindow.RTIWindow
@@ -35,7 +39,13 @@ public class RTICreator implements Runnable {
     /** The target file to read the RTIObject from */
     private File sourceFile;
 
-    /** Dialog that shows when the RTICreator is reading the file and creating the RTIObject */
+    /** Whether the window for the RTIObject has been opened yet, which can be before the whole file is loaded */
+    private boolean windowOpened = false;
+
+    /** The RTIObjects that are having their finer levels loaded, by identity, so each is only loaded once at a time */
+    private static final IdentityHashMap<RTIObject, Boolean> loadingLevels = new IdentityHashMap<>();
+
+    /** Dialog that shows when any RTICreator is reading the file and creating the RTIObject */
     private static LoadingDialog loadingDialog  = new LoadingDialog();
 
 
@@ -55,8 +65,15 @@ public class RTICreator implements Runnable {
     /**
      * Shows the loading dialog to show that the creator is running. Uses the RTIParser to read the
      * {@link RTICreator#sourceFile} and create an {@link RTIObject} in memory, which gets stored in the
-     * {@link RTICreator#targetObject} attribute. Will show relevant error dialogs if there is a problem reading the
-     * file.
+     * {@link RTICreator#targetObject} attribute. The window is opened once a rough coarsest level of the RTIObject
+     * has been sampled, and is updated when the file has been decoded. If the file is already open, or was opened
+     * recently, its RTIObject is shared from the {@link RTIObjectCache}, and files that have been opened before are
+     * loaded from the {@link DecodedCache}. The file is decoded straight to the selected mip level, so the levels finer
+     * than it aren't held in memory until they're wanted, see {@link RTICreator#loadFinerLevels(RTIObject, int)}.
+     * Files too big to open at the selected mip level are loaded at the finest level that fits in the
+     * {@link MemoryBudget}, and the user is told. The finer levels of those are then paged from the disk, see
+     * {@link RTIParser#loadTiledLevels(RTIObject, int)}, or if the file is compressed so they can't be, it's opened
+     * at the coarser level. Will show relevant error dialogs if there is a problem reading the file.
      *
      * @see RTIParser
      * @see RTIObject
@@ -71,21 +88,63 @@ public class RTICreator implements Runnable {
                     loadingDialog.show();
                 }
             });
-            //parse the file and create the RTIObject from it
-            targetObject = RTIParser.createPtmFromFile(sourceFile, RTIViewer.getMipMapping());
-            //see if there is a bookmarks XML file in the same directory, and get them as objects if there is
-            ArrayList<Bookmark> bookmarks = getBookmarksFromXML(sourceFile);
-
-            //if there was a XML bookmarks file and it was parsed succesfully, set the objects bookmarks as them
-            if(bookmarks.size() > 0){
-                targetObject.setBookmarks(bookmarks);
+            //if the file is already in memory, the new window can share its RTIObject
+            int mipLevel = RTIViewer.getMipMapping();
+            targetObject = RTIObjectCache.get(sourceFile, mipLevel);
+            if(targetObject != null){
+                openWindow(targetObject, mipLevel);
+                return;
+            }
+
+            //only load as much of the file as there's memory for, it may already be in memory at that level, the
+            //finer levels are paged from the disk if the file can be, otherwise it's opened at the coarser level
+            RTIFileInfo fileInfo = RTIParser.probe(sourceFile);
+            int loadLevel = Math.max(chooseFinestLevel(fileInfo, mipLevel), mipLevel);
+            if(loadLevel > mipLevel){
+                if(!fileInfo.canBePaged()){
+                    mipLevel = loadLevel;
+                }
+                targetObject = RTIObjectCache.get(sourceFile, loadLevel);
+                if(targetObject != null){
+                    openWindow(targetObject, mipLevel);
+                    loadFinerLevels(targetObject, mipLevel);
+                    return;
+                }
+            }
+
+            //if the file has been opened before, its decoded data can just be mapped from the cache
+            targetObject = DecodedCache.load(sourceFile);
+            if(targetObject != null){
+                RTIObjectCache.put(sourceFile, targetObject);
+                openWindow(targetObject, mipLevel);
+                return;
+            }
+
+            //parse the file and create the RTIObject from it, opening its window as soon as its coarsest level is ready,
+            //the file is decoded straight to the finest level that will be held in memory, and the finer levels are
+            //only loaded if the user changes to one of them later, or paged if they don't fit, see loadFinerLevels()
+            final int windowLevel = mipLevel;
+            targetObject = RTIParser.createPtmFromFile(sourceFile, loadLevel, new RTIParser.ProgressListener() {
+                @Override
+                public void coarseLevelLoaded(RTIObject rtiObject) {
+                    openWindow(rtiObject, windowLevel);
+                }
+            });
+
+            if(windowOpened){
+                //the window is already showing the rough coarse level, so get it to show the decoded ones
+                RTIViewer.updateMipLevels(targetObject);
+            }else{
+                //the file was too small to load progressively
+                openWindow(targetObject, mipLevel);
             }
 
-            //create a new window to shoe the RTIObject
-            RTIViewer.createNewPTMWindow(targetObject);
+            //keep the decoded data so the file opens quicker next time
+            RTIObjectCache.put(sourceFile, targetObject);
+            DecodedCache.store(sourceFile, targetObject);
 
-            //add to the recent files menu
-            RTIViewer.addRecentFile(sourceFile.getAbsolutePath());
+            //the levels too big to load are paged from the disk while the window shows the coarser ones
+            loadFinerLevels(targetObject, mipLevel);
 
         }catch(IOException e){
             //there was an error even getting to the file, it probably does't exist
@@ -111,17 +170,190 @@ public class RTICreator implements Runnable {
             showFileReadingAlert();
 
         }finally{
-            //hide the dialog whether we were successful reading the file or not
+            //hide the dialog whether we were successful reading the file or not, if it wasn't when the window opened
+            if(!windowOpened){
+                hideLoadingDialog();
+            }
+
+            //the window has its own hold on the RTIObject, so it's freed once the window has closed
+            if(targetObject != null){
+                targetObject.close();
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Starts loading the levels of the RTIObject's mip pyramid that are finer than the ones it has, down to the given
+     * level, on the {@link RTILoaderPool}, if it doesn't have that level loaded yet. This is used when the user changes
+     * to a finer mip level than the file was opened at. Only as many levels are loaded into memory as there is room
+     * for in the {@link MemoryBudget}, and the rest are paged from the disk, see
+     * {@link RTIParser#loadTiledLevels(RTIObject, int)}, if the file isn't compressed. Once they've been added, the
+     * windows showing the RTIObject are updated to show them, and the RTIObject is saved to the {@link DecodedCache}
+     * if it now has every level in memory. The RTIObject is held while it's being loaded, so its window can be closed
+     * at any time.
+     *
+     * @param rtiObject     the RTIObject to load the finer levels of
+     * @param level         the mip mapping level that is going to be shown, 0 being the full size image
+     */
+    public static void loadFinerLevels(final RTIObject rtiObject, final int level){
+        if(level >= rtiObject.getFinestLoadedLevel()){return;}
+
+        synchronized (loadingLevels){
+            //the levels are only loaded once, however many windows or menu changes ask for them
+            if(loadingLevels.containsKey(rtiObject)){return;}
+            loadingLevels.put(rtiObject, Boolean.TRUE);
+        }
+
+        rtiObject.retain();
+        RTILoaderPool.getLoaders().execute(new Runnable() {
+            @Override
+            public void run() {
+                File sourceFile = new File(rtiObject.getFilePath());
+                try{
+                    RTIFileInfo fileInfo = RTIParser.probe(sourceFile);
+                    int loadedLevel = rtiObject.getFinestLoadedLevel();
+                    int finestLevel = MemoryBudget.chooseFinerLevel(fileInfo, loadedLevel, level);
+                    if(finestLevel < loadedLevel){
+                        RTIParser.loadFinerLevels(rtiObject, finestLevel);
+                        RTIViewer.updateMipLevels(rtiObject);
+
+                        if(finestLevel == 0){
+                            DecodedCache.store(sourceFile, rtiObject);
+                        }
+                    }
+
+                    //the levels there isn't room for are paged from the disk, a tile at a time
+                    if(level < finestLevel && fileInfo.canBePaged()){
+                        RTIParser.loadTiledLevels(rtiObject, level);
+                        RTIViewer.updateMipLevels(rtiObject);
+                    }
+                }catch(IOException | RTIFileException | RuntimeException e){
+                    //the window just carries on showing the levels it has
+                    e.printStackTrace();
+                    RTIViewer.fileReadingAlert.setContentText("Error when loading the finer mip levels of: " +
+                                                                sourceFile.getPath() + ": " + e.getMessage());
+                    showFileReadingAlert();
+                }finally{
+                    synchronized (loadingLevels){
+                        loadingLevels.remove(rtiObject);
+                    }
+                    rtiObject.close();
+                }
+            }
+        });
+    }
+
+
+
+
+    /**
+     * Sets the bookmarks of the RTIObject from its bookmarks file, if it has one, and opens a new window to show it.
+     * The loading dialog is hidden now that there is something to look at, even if the finer levels of the RTIObject
+     * haven't been loaded yet.
+     *
+     * @param rtiObject     the RTIObject to show
+     * @param mipLevel      the mip mapping level to show it at
+     */
+    private void openWindow(RTIObject rtiObject, int mipLevel){
+        //see if there is a bookmarks XML file in the same directory, and get them as objects if there is
+        ArrayList<Bookmark> bookmarks = getBookmarksFromXML(sourceFile);
+
+        //if there was a XML bookmarks file and it was parsed succesfully, set the objects bookmarks as them
+        if(bookmarks.size() > 0){
+            rtiObject.setBookmarks(bookmarks);
+        }
+
+        //create a new window to shoe the RTIObject
+        RTIViewer.createNewPTMWindow(rtiObject, mipLevel);
+
+        //add to the recent files menu
+        RTIViewer.addRecentFile(sourceFile.getAbsolutePath());
+
+        windowOpened = true;
+        hideLoadingDialog();
+    }
+
+
+
+
+    /**
+     * Hides the {@link RTICreator#loadingDialog} on the JavaFX thread, for this RTICreator's file.
+     */
+    private static void hideLoadingDialog(){
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                loadingDialog.hide();
+            }
+        });
+    }
+
+
+    /**
+     * Finds the finest level of the mip pyramid of the {@link RTICreator#sourceFile} that there's enough memory to
+     * load, using only the file's header, see {@link MemoryBudget#chooseFinestLevel(RTIFileInfo)}. If it's coarser
+     * than the mip level selected in the menu, the user is told the finer levels will be paged from the disk, or that
+     * the file will be opened at the coarser level if it's compressed so they can't be.
+     *
+     * @param fileInfo                      the header of the file, see {@link RTIParser#probe(File)}
+     * @param selectedLevel                 the mip mapping level selected in the menu
+     * @return                              the finest level of the pyramid to load into memory
+     * @throws RTIFileException             if even the coarsest level won't fit
+     */
+    private int chooseFinestLevel(RTIFileInfo fileInfo, int selectedLevel) throws RTIFileException{
+        int finestLevel = MemoryBudget.chooseFinestLevel(fileInfo);
+
+        if(finestLevel == -1){
+            int coarsestLevel = RTIObject.getNumLevels(fileInfo.getWidth(), fileInfo.getHeight()) - 1;
+            throw new RTIFileException("Not enough memory to open the file, it needs " +
+                                        toMegabytes(fileInfo.getLoadedBytes(coarsestLevel)) + "MB but only " +
+                                        toMegabytes(MemoryBudget.getHeadroom()) + "MB is free.");
+        }
+
+        if(finestLevel > selectedLevel){
+            String message = sourceFile.getName() + " needs " +
+                                    toMegabytes(fileInfo.getLoadedBytes(selectedLevel)) + "MB to open at mip level " +
+                                    selectedLevel + ", but only " + toMegabytes(MemoryBudget.getHeadroom()) +
+                                    "MB is free, ";
+            String finestSize = "mip level " + finestLevel + " (" + (fileInfo.getWidth() >> finestLevel) + "x" +
+                                    (fileInfo.getHeight() >> finestLevel) + ")";
+            if(fileInfo.canBePaged()){
+                message += "so it will be shown at " + finestSize + " while the finer levels are paged from the " +
+                           "disk, which is slower.";
+            }else{
+                message += "so it has been opened at " + finestSize + ".";
+            }
+
+            final String alertMessage = message;
             Platform.runLater(new Runnable() {
                 @Override
                 public void run() {
-                    loadingDialog.hide();
+                    RTIViewer.mipLevelAlert.setContentText(alertMessage);
+                    RTIViewer.mipLevelAlert.showAndWait();
                 }
             });
         }
+
+        return finestLevel;
     }
 
 
+
+
+    /**
+     * @param bytes     a number of bytes
+     * @return          the number of megabytes, rounded down
+     */
+    private static long toMegabytes(long bytes){
+        return Math.max(0, bytes) >> 20;
+    }
+
+
+
+
     /**
      * Shows the {@link RTIViewer#fileReadingAlert} on the JavaFX thread
      */
@@ -191,7 +423,9 @@ public class RTICreator implements Runnable {
 
     /**
      * This is the dialog box that appears when the {@link RTICreator} is reading a .ptm/.rti file, and creating
-     * an RTIObject in memory. It has a blue circle of dots that light up in a wheel.
+     * an RTIObject in memory. It has a blue circle of dots that light up in a wheel. As there can be several
+     * RTICreators loading at once, the dialog keeps count of them and only hides when the last one has finished.
+     * Its methods must only be called from the JavaFX thread.
      */
     private static class LoadingDialog{
 
@@ -210,6 +444,9 @@ public class RTICreator implements Runnable {
         /** The label that si updated with a message for what is happening */
         private Label label;
 
+        /** The number of files currently being loaded */
+        private int filesLoading = 0;
+
         /**
          * Creates a new LoadingDialog with a label saying  'Loading File...' and a blue ProgressIndicator.
          * The dialog is 200 x 150 pixels and has no minimise/maximise/close buttons.
@@ -239,18 +476,38 @@ public class RTICreator implements Runnable {
         }
 
         /**
-         * Shows the dialog box.
+         * Shows the dialog box, for another file that has started loading.
          */
         public void show(){
+            filesLoading++;
+            updateLabel();
             stage.show();
         }
 
 
         /**
-         * Hides the dialog box.
+         * Hides the dialog box if there are no files left loading.
          */
         public void hide(){
-            stage.hide();
+            filesLoading--;
+            if(filesLoading <= 0){
+                filesLoading = 0;
+                stage.hide();
+            }else{
+                updateLabel();
+            }
+        }
+
+
+        /**
+         * Sets the label to say how many files are loading.
+         */
+        private void updateLabel(){
+            if(filesLoading > 1){
+                label.setText("Loading " + filesLoading + " files...");
+            }else{
+                label.setText("Loading file...");
+            }
         }
 
     }
@@ -262,6 +519,8 @@ public class RTICreator implements Runnable {
      */
     public static class RTIFileException extends Exception {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * Creates a new RTIFileException
      *
@@ -272,5 +531,16 @@ public class RTICreator implements Runnable {
     }
 
 
+    /**
+     * Creates a new RTIFileException caused by another exception, such as one thrown while decoding the texels
+     *
+     * @param s         message for why this error was created
+     * @param cause     the exception that caused this error
+     */
+    public RTIFileException(String s, Throwable cause) {
+        super(s, cause);
+    }
+
+
     }
 }
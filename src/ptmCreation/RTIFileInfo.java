@@ -0,0 +1,212 @@
+package ptmCreation;
+
+/**
+ * <p>
+ * Describes a .ptm / .rti file using only the information in its header, as found by {@link RTIParser#probe}. None of
+ * the texel data is read to make one, so they can be made for lots of files quickly, to show the size and format of
+ * files before they're opened, or to work out how much memory opening them would need.
+ * </p>
+ * <p>
+ * RTIFileInfos can't be changed once they're made, and the arrays returned by the getters are copies, so they can be
+ * shared between threads.
+ * </p>
+ *
+ * @see RTIParser
+ *
+ * @author Jed Mills
+ */
+public final class RTIFileInfo {
+
+    /** Path of the file */
+    private final String filePath;
+
+    /** Format of the file, one of PTM_FORMAT_RGB, PTM_FORMAT_LRGB, PTM_FORMAT_JPEG_LRGB or HSH */
+    private final String format;
+
+    /** Width of the image */
+    private final int width;
+
+    /** Height of the image */
+    private final int height;
+
+    /** Number of coefficients per colour per pixel, 6 for PTMs, the number of HSH basis terms for HSH files */
+    private final int basisTerms;
+
+    /** The scale for each basis term from the file header */
+    private final float[] scale;
+
+    /** The bias for each basis term from the file header, the PTM integer biases are stored as floats */
+    private final float[] bias;
+
+
+    /**
+     * Creates a new RTIFileInfo. The scale and bias arrays are copied.
+     *
+     * @param filePath          path of the file
+     * @param format            format of the file
+     * @param width             width of the image
+     * @param height            height of the image
+     * @param basisTerms        number of coefficients per colour per pixel
+     * @param scale             the scale for each basis term from the file header
+     * @param bias              the bias for each basis term from the file header
+     */
+    RTIFileInfo(String filePath, String format, int width, int height, int basisTerms, float[] scale, float[] bias){
+        this.filePath = filePath;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.basisTerms = basisTerms;
+        this.scale = scale.clone();
+        this.bias = bias.clone();
+    }
+
+
+
+
+    /**
+     * Gets the number of bytes of coefficients the {@link RTIObject} made from this file holds for its full size mip
+     * level. This is one byte per coefficient per pixel, with 18 coefficients for RGB PTMs, 9 for LRGB PTMs, and 3 for
+     * every basis term of HSH files, see {@link CoefficientStore}. The whole mip pyramid is about 4/3 of this.
+     *
+     * @return      the number of bytes of coefficients at full size
+     */
+    public long getCoefficientBytes(){
+        return (long) width * height * getCoefficientsPerPixel();
+    }
+
+
+
+
+    /**
+     * Gets the number of bytes of native memory the {@link RTIObject} made from this file would need if the levels of
+     * its mip pyramid from finestLevel down were loaded. This is the coefficients of each of those levels, and the
+     * normals of the finest one, which are 3 floats per pixel, as they're calculated for the level being shown when a
+     * rendering mode needs them.
+     *
+     * @param finestLevel   the finest level of the mip pyramid that is loaded, 0 being the full size
+     * @return              the number of bytes the loaded levels would need
+     */
+    public long getLoadedBytes(int finestLevel){
+        int coefficients = getCoefficientsPerPixel();
+        int numLevels = RTIObject.getNumLevels(width, height);
+
+        long bytes = 0;
+        for(int level = finestLevel; level < numLevels; level++){
+            bytes += (long) (width >> level) * (height >> level) * coefficients;
+        }
+
+        //the normals are 3 floats per pixel
+        bytes += (long) (width >> finestLevel) * (height >> finestLevel) * 3 * 4;
+
+        return bytes;
+    }
+
+
+
+
+    /**
+     * Checks whether the levels of the file's mip pyramid can be paged from the disk when they're too big to load,
+     * see {@link RTIParser#loadTiledLevels(RTIObject, int)}. The JPEG planes of compressed files can only be decoded
+     * whole, so they can't be.
+     *
+     * @return      whether the file's levels can be paged from the disk
+     */
+    public boolean canBePaged(){
+        return !format.equals("PTM_FORMAT_JPEG_LRGB");
+    }
+
+
+
+
+    /**
+     * @return the number of coefficients per pixel the RTIObject made from this file has
+     */
+    private int getCoefficientsPerPixel(){
+        if(format.equals("PTM_FORMAT_RGB")){
+            return PTMObjectRGB.COEFFS_PER_PIXEL;
+        }else if(format.equals("HSH")){
+            //a coefficient per colour for every basis term
+            return 3 * basisTerms;
+        }else{
+            return PTMObjectLRGB.COEFFS_PER_PIXEL;
+        }
+    }
+
+
+
+
+    /**
+     * @return {@link RTIFileInfo#filePath}
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+
+
+
+    /**
+     * @return {@link RTIFileInfo#format}
+     */
+    public String getFormat() {
+        return format;
+    }
+
+
+
+
+    /**
+     * @return {@link RTIFileInfo#width}
+     */
+    public int getWidth() {
+        return width;
+    }
+
+
+
+
+    /**
+     * @return {@link RTIFileInfo#height}
+     */
+    public int getHeight() {
+        return height;
+    }
+
+
+
+
+    /**
+     * @return {@link RTIFileInfo#basisTerms}
+     */
+    public int getBasisTerms() {
+        return basisTerms;
+    }
+
+
+
+
+    /**
+     * @return a copy of {@link RTIFileInfo#scale}
+     */
+    public float[] getScale() {
+        return scale.clone();
+    }
+
+
+
+
+    /**
+     * @return a copy of {@link RTIFileInfo#bias}
+     */
+    public float[] getBias() {
+        return bias.clone();
+    }
+
+
+
+
+    @Override
+    public String toString() {
+        return format + " " + width + "x" + height + " (" + basisTerms + " terms): " + filePath;
+    }
+}
@@ -0,0 +1,80 @@
+package ptmCreation;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Runs the {@link RTICreator}s that load RTIObjects from the disk. The pool has one loader thread per core, so several
+ * files can be decoded at once. The files are memory mapped by the {@link RTIParser}, and are never paged in all at
+ * once; each row is paged in by the OS as it's read. Only a couple of rows can be read from the disk at a time across
+ * all the loaders, which the parser limits with a semaphore, so opening lots of files at once runs at the speed of
+ * the disk, while the rows that have been read are decoded in parallel.
+ * </p>
+ * <p>
+ * The loaders also run the other slow jobs that are started in the background for an RTIObject, such as calculating
+ * its normals when a window first needs them, so that no extra threads are made for them.
+ * </p>
+ *
+ * @see RTICreator
+ * @see RTIParser
+ */
+public class RTILoaderPool {
+
+    /** The threads that the RTICreators are run on */
+    private static final ExecutorService loaders = Executors.newFixedThreadPool(
+                                                        Runtime.getRuntime().availableProcessors(),
+                                                        new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            //daemon threads so a half loaded file doesn't stop the app closing
+            Thread thread = new Thread(runnable, "RTI loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private RTILoaderPool(){}
+
+
+
+
+    /**
+     * @return {@link RTILoaderPool#loaders}
+     */
+    public static ExecutorService getLoaders() {
+        return loaders;
+    }
+
+
+
+
+    /**
+     * Starts loading the RTIObject in the file on one of the loader threads, which will create a new
+     * {@link openGLWindow.RTIWindow} for it when it's done.
+     *
+     * @param file      the .ptm / .rti file to load
+     */
+    public static void loadFile(File file){
+        loaders.execute(new RTICreator(file));
+    }
+
+
+    /**
+     * Starts loading all the files passed, each on one of the loader threads.
+     *
+     * @param files     the .ptm / .rti files to load
+     */
+    public static void loadFiles(List<File> files){
+        for(File file : files){
+            loadFile(file);
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package ptmCreation;
 
 import bookmarks.Bookmark;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import toolWindow.RTIViewer;
+import utils.ComputePool;
+import utils.NativeBuffers;
 import utils.Utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
@@ -18,33 +23,96 @@ import java.util.ArrayList;
  * is rendered.
  * </p>
  * <p>
- * RTIObjects use flattened IntBuffers /FloatBuffers to store their coefficients as these are required to
- * pass this data to OpenGL as textures. The 1D arrays are remade into 3D textures of width * height * 3, which are
- * then used to calculate the colour for each pixel.
+ * RTIObjects store the coefficients of each level in a single flattened ByteBuffer, with every coefficient of a
+ * pixel in one block next to the blocks of its neighbours, so relighting a pixel reads one run of bytes rather than
+ * one from each of several textures. The bytes are the raw values from the file, and the scale and bias from the
+ * file's header are applied when the coefficients are used, so they take a quarter of the memory that scaled ints or
+ * floats would. Everything outside the RTIObject gets at the coefficients through the {@link CoefficientStore} of a
+ * {@link Level}, whatever the format, and the windows gather the textures for their shaders from it.
+ * </p>
+ * <p>
+ * Every RTIObject holds a mip pyramid of its coefficients and normals, from the full size image at level 0
+ * down to {@link RTIObject#MIP_LEVELS} - 1, which are all made once when the file is loaded. The RTIObject itself
+ * has no current level, as the same object can be open in several windows at different levels: each window and
+ * image export keeps the level it wants, and takes a {@link Level} snapshot of it with
+ * {@link RTIObject#getLevel(int)}, so the level shown can be changed without going back to the disk. When a file is
+ * loaded progressively, the RTIObject is made with only a rough coarsest level, and the decoded levels are added using
+ * {@link RTIObject#addLevels(RTIObject)} once the file has been decoded.
+ * </p>
+ * <p>
+ * Levels too big to hold in memory are paged from the disk instead: their coefficients are written to a
+ * {@link TiledCoefficientStore} by the {@link RTIParser} and added with
+ * {@link RTIObject#addTiledLevel(int, TiledCoefficientStore)}, and their normals are written to a
+ * {@link TiledNormalStore} when they're calculated. The rest of the app reads every level the same way, through the
+ * {@link CoefficientStore} and {@link NormalStore} of its {@link Level}, whichever way it's held.
+ * </p>
+ * <p>
+ * Only some of the rendering modes use the normals, so they aren't calculated when the object is made. They're
+ * calculated for a level the first time {@link Level#getNormals()} is called for it, or in the background using
+ * {@link RTIObject#calculateNormalsInBackground(int, Runnable)} when the window is changed to a mode that needs them.
+ * </p>
+ * <p>
+ * The preview image is only ever shown as a thumbnail in the preview tab, so there is one for all the levels, no
+ * bigger than {@link RTIObject#PREVIEW_SIZE}. It's sampled from the coarsest level that is still at least that big,
+ * so it doesn't need a pass over the full size image.
+ * </p>
+ * <p>
+ * The coefficients and normals are held in native buffers from the object's {@link NativeBuffers}, which are freed as
+ * soon as the object is closed by everything that uses it, rather than whenever the garbage collector collects them.
+ * Whoever creates an RTIObject owns it, and anything else that uses its buffers on another thread, like a window or an
+ * image export, calls {@link RTIObject#retain()} first and {@link RTIObject#close()} when it has finished. Texel data
+ * memory mapped from the {@link DecodedCache} isn't allocated by the NativeBuffers, and is unmapped by the JVM.
  * </p>
  *
  * @author Jed Mills
  */
-public abstract class RTIObject {
+public abstract class RTIObject implements AutoCloseable {
+
+    /** The number of mip mapping levels in the pyramid, the same as the levels that can be chosen in the menu */
+    public static final int MIP_LEVELS = 3;
+
+    /** The longest side of the preview image in pixels, the widest the tool window with the preview tab can be */
+    public static final int PREVIEW_SIZE = 600;
 
     /** Path of the file */
     protected String filePath;
 
-    /** Width of the image */
-    protected int width;
-
-    /** Height of the image */
-    protected int height;
+    /** Width of the full size image */
+    protected final int width;
 
-    /** Contains the surface normals calculated from the PTM file */
-    protected FloatBuffer normals;
+    /** Height of the full size image */
+    protected final int height;
 
-    /** The image chown in the preview window that is created when the RTIObject si loaded */
+    /** The image shown in the preview tab that is created when the RTIObject is loaded, the same for every level */
     public WritableImage previewImage;
 
     /** List of bookmarks fo rthis RTIObject, managed by the{@link bookmarks.BookmarkManager} */
     private ArrayList<Bookmark> bookmarks;
 
+    /** The interleaved coefficients of each level of the mip pyramid, null for levels that haven't been loaded yet */
+    protected ByteBuffer[] texelLevels;
+
+    /** Allocates the normals of this object, and frees them and the texel data it allocated when it's closed */
+    protected NativeBuffers buffers;
+
+    /** The width of each level of the mip pyramid */
+    private int[] levelWidths;
+
+    /** The height of each level of the mip pyramid */
+    private int[] levelHeights;
+
+    /** The coefficients of each level of the mip pyramid that is paged from the disk, null for the others */
+    private TiledCoefficientStore[] tiledLevels;
+
+    /** The normals of each level of the mip pyramid, null for levels they haven't been calculated for yet */
+    private NormalStore[] levelNormals;
+
+    /** The level of the mip pyramid the preview image was sampled from */
+    private int previewLevel;
+
+    /** Held while normals are being calculated, so each level's normals are only calculated once */
+    private final Object normalsLock = new Object();
+
 
     /**
      * Creates a new RTIObject with the specified width and height.
@@ -82,14 +150,16 @@ public abstract class RTIObject {
 
     /**
      * Calculates a normal vector from the 6 PTM coefficients. The maths for this methods comes from the original
-     * viewer.
+     * viewer. Nothing is allocated, so that it can be called for every pixel of huge images without making garbage:
+     * all the working is done in the scratch, and the normalised vector is left in {@link Utils.NormalScratch#lengths}.
+     * Each thread calling this needs its own scratch.
      *
      * @param coeffs    the six PTM coefficients, a0-a5
-     * @return          the normalised vector3f
+     * @param scratch   the arrays to work in, the normal is written to its lengths
      */
-    protected Utils.Vector3f calculateNormal(int[] coeffs){
+    protected static void calculateNormal(int[] coeffs, Utils.NormalScratch scratch){
         float zeroTol = Utils.ZEROTOL;
-        float[] a = new float[6];
+        float[] a = scratch.a;
         //convert the coeffs (basically a byte array) to floats
         for(int i = 0; i < 6; i++){
             a[i] = (float) (coeffs[i] /256.0);
@@ -97,27 +167,28 @@ public abstract class RTIObject {
 
         //the following maths comes from the original viewer: I'm not sure how it works, but it does! The creators
         //of the original viewer used the original PTM paper, a reference for which can be found in the user guide
-        Utils.Vector3f lengths = new Utils.Vector3f(0f, 0f, 0f);
+        float[] lengths = scratch.lengths;
+        lengths[2] = 0.0f;
         if(Math.abs(4 * a[1] * a[0] - a[2] * a[2]) < zeroTol){
-            lengths.x = 0.0f;
-            lengths.y = 0.0f;
+            lengths[0] = 0.0f;
+            lengths[1] = 0.0f;
         }else{
             if(Math.abs(a[2]) < zeroTol){
-                lengths.x = (float) (-a[3] / (2.0 * a[0]));
-                lengths.y = (float) (-a[4] / (2.0 * a[1]));
+                lengths[0] = (float) (-a[3] / (2.0 * a[0]));
+                lengths[1] = (float) (-a[4] / (2.0 * a[1]));
             }else{
-                lengths.x = (float) ((a[2]*a[4] - 2.0*a[1]*a[3])/(4.0*a[0]*a[1] - a[2]*a[2]));
-                lengths.y = (float) ((a[2]*a[3] - 2.0*a[0]*a[4])/(4.0*a[0]*a[1] - a[2]*a[2]));
+                lengths[0] = (float) ((a[2]*a[4] - 2.0*a[1]*a[3])/(4.0*a[0]*a[1] - a[2]*a[2]));
+                lengths[1] = (float) ((a[2]*a[3] - 2.0*a[0]*a[4])/(4.0*a[0]*a[1] - a[2]*a[2]));
             }
         }
 
         if(Math.abs(a[0]) < zeroTol && Math.abs(a[1]) < zeroTol && Math.abs(a[2]) < zeroTol &&
                 Math.abs(a[3]) < zeroTol && Math.abs(a[4]) < zeroTol){
-            lengths.x = 0.0f;
-            lengths.y = 0.0f;
-            lengths.z = 1.0f;
+            lengths[0] = 0.0f;
+            lengths[1] = 0.0f;
+            lengths[2] = 1.0f;
         }else{
-            float length2d = (lengths.x * lengths.x) + (lengths.y * lengths.y);
+            float length2d = (lengths[0] * lengths[0]) + (lengths[1] * lengths[1]);
 
             int maxFound;
             if((4 * a[0] * a[1] - a[2] * a[2]) > zeroTol && a[0] < -zeroTol){
@@ -127,43 +198,488 @@ public abstract class RTIObject {
             }
 
             if(length2d > 1 - zeroTol || maxFound == 0){
-                int stat = Utils.computeMaximumOnCircle(a, lengths);
+                int stat = Utils.computeMaximumOnCircle(scratch);
                 if(stat == -1){
                     length2d = (float) Math.sqrt(length2d);
                     if(length2d > zeroTol){
-                        lengths.x /= length2d;
-                        lengths.y /= length2d;
+                        lengths[0] /= length2d;
+                        lengths[1] /= length2d;
                     }
                 }
             }
-            float disc = (float) (1.0 - (lengths.x * lengths.x) - (lengths.y * lengths.y));
+            float disc = (float) (1.0 - (lengths[0] * lengths[0]) - (lengths[1] * lengths[1]));
             if(disc < 0.0){
-                lengths.z = 0.0f;
+                lengths[2] = 0.0f;
             }else{
-                lengths.z = (float) Math.sqrt(disc);
+                lengths[2] = (float) Math.sqrt(disc);
+            }
+        }
+
+        //normalise it in place
+        float length = (float) Math.sqrt(lengths[0] * lengths[0] + lengths[1] * lengths[1] + lengths[2] * lengths[2]);
+        if(length != 0){
+            lengths[0] = lengths[0] / length;
+            lengths[1] = lengths[1] / length;
+            lengths[2] = lengths[2] / length;
+        }else{
+            lengths[0] = 0.0f;
+            lengths[1] = 0.0f;
+            lengths[2] = 0.0f;
+        }
+    }
+
+
+
+
+    /**
+     * Gets the number of levels of the mip pyramid for an image of the given size. This is
+     * {@link RTIObject#MIP_LEVELS}, unless the image is so small that the smaller levels would have no pixels.
+     *
+     * @param width         width of the full size image
+     * @param height        height of the full size image
+     * @return              the number of levels, at least 1
+     */
+    public static int getNumLevels(int width, int height){
+        int numLevels = 1;
+        while(numLevels < MIP_LEVELS && (width >> numLevels) > 0 && (height >> numLevels) > 0){
+            numLevels++;
+        }
+        return numLevels;
+    }
+
+
+
+
+    /**
+     * Sets up every level of the mip pyramid that has texel data in the {@link RTIObject#texelLevels} and creates the
+     * preview image. The subclasses call this at the end of their constructors, once they have set the texel levels.
+     * The normals aren't calculated here, as they're only needed by some of the rendering modes, but normals that are
+     * already known, such as those from the {@link DecodedCache}, are kept for their levels.
+     *
+     * @param normalLevels      the normals for each level if they're already known, otherwise null
+     */
+    protected void createLevels(FloatBuffer[] normalLevels){
+        int numLevels = texelLevels.length;
+        levelWidths = new int[numLevels];
+        levelHeights = new int[numLevels];
+        tiledLevels = new TiledCoefficientStore[numLevels];
+        levelNormals = new NormalStore[numLevels];
+
+        for(int level = 0; level < numLevels; level++){
+            //each level is half the width and height of the level above, rounded down
+            levelWidths[level] = width >> level;
+            levelHeights[level] = height >> level;
+
+            //levels that haven't been decoded yet are made when they're added, and the normals when they're first used
+            if(texelLevels[level] != null && normalLevels != null && normalLevels[level] != null){
+                levelNormals[level] = new BufferNormalStore(levelWidths[level], levelHeights[level],
+                                                            normalLevels[level]);
+            }
+        }
+
+        createPreview(previewSourceLevel());
+    }
+
+
+
+
+    /**
+     * Adds the levels of the mip pyramid that the given RTIObject has to this one, replacing the levels this one
+     * already has, such as the rough coarsest level that is sampled from the file to show while it's decoded, see
+     * {@link RTIParser}. The given RTIObject must have been made from the same file with the same
+     * {@link NativeBuffers}, and already has its preview image, which replaces this one's if it was sampled from the
+     * level this one's would now be, so this is quick. Any normals it has calculated for the levels are added too, and
+     * any this one had calculated for the levels that are replaced are dropped. The replaced texel data is freed with
+     * the rest of the buffers when this object is closed. Levels taken with {@link RTIObject#getLevel(int)} before
+     * this was called don't change, so the windows showing this object take their levels again to show the new ones.
+     *
+     * @param finerLevels   an RTIObject from the same file with the levels to add
+     */
+    public synchronized void addLevels(RTIObject finerLevels){
+        //the added levels are freed with this object's buffers, so they have to have been allocated by them
+        if(finerLevels.buffers != buffers){
+            throw new IllegalArgumentException("Levels can only be added from an RTIObject with the same buffers");
+        }
+
+        for(int level = 0; level < texelLevels.length; level++){
+            if(finerLevels.texelLevels[level] != null){
+                texelLevels[level] = finerLevels.texelLevels[level];
+                levelNormals[level] = finerLevels.getLevelNormalStore(level);
+            }
+        }
+
+        //the given object's preview was sampled from its own levels, which are now this one's
+        int bestLevel = previewSourceLevel();
+        if(finerLevels.previewLevel == bestLevel){
+            previewImage = finerLevels.previewImage;
+            previewLevel = bestLevel;
+        }
+    }
+
+
+
+
+    /**
+     * Takes a snapshot of the given level of the mip pyramid, all read under this object's lock, so nothing in the
+     * snapshot changes if finer levels are added while it's being used. Levels past the smallest one in the pyramid
+     * are clamped to the smallest level. If the level hasn't been loaded yet, the closest level that has been is used
+     * instead, see {@link Level#getLevel()}. As the levels are made when the object is loaded, this just wraps the
+     * level's data, so it's cheap enough to call from the UI thread whenever a window changes level. Anything that
+     * reads a level on another thread, like a window or an image export, takes one of these and uses it for
+     * everything, rather than asking this object as it goes.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the level, or the closest one to it that has been loaded
+     */
+    public synchronized Level getLevel(int level){
+        if(level < 0){
+            throw new IllegalArgumentException("Mip mapping level can't be negative: " + level);
+        }
+        int loaded = closestLoadedLevel(Math.min(level, texelLevels.length - 1));
+
+        return new Level(loaded, levelWidths[loaded], levelHeights[loaded], getCoefficientStore(loaded),
+                         levelNormals[loaded]);
+    }
+
+
+
+
+    /**
+     * Adds a level of the mip pyramid that is too big to hold in memory, so its coefficients are paged from a tiled
+     * file on the disk. The store is closed, and its file deleted, with the rest of this object's buffers. If the
+     * level has been loaded into memory as well, the level in memory is still used, as it's quicker to read.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @param store     the coefficients of the level
+     * @throws IllegalStateException    if this object has already been closed by everything using it
+     */
+    public synchronized void addTiledLevel(int level, TiledCoefficientStore store){
+        if(store.getWidth() != levelWidths[level] || store.getHeight() != levelHeights[level]){
+            throw new IllegalArgumentException("Expected a " + levelWidths[level] + "x" + levelHeights[level] +
+                                               " store for level " + level + ", got " + store.getWidth() + "x" +
+                                               store.getHeight());
+        }
+        buffers.closeOnRelease(store);
+
+        tiledLevels[level] = store;
+        if(texelLevels[level] == null){levelNormals[level] = null;}
+    }
+
+
+
+
+    /**
+     * Gets the coefficients of a loaded level of the mip pyramid, from memory if it's there, otherwise from the
+     * disk. The caller must hold this object's lock.
+     *
+     * @param level     the mip mapping level, which must have been loaded
+     * @return          the coefficients of the level
+     */
+    private CoefficientStore getCoefficientStore(int level){
+        if(texelLevels[level] != null){
+            return createCoefficientStore(texelLevels[level], levelWidths[level], levelHeights[level]);
+        }
+        return tiledLevels[level];
+    }
+
+
+
+
+    /**
+     * Finds the loaded level of the mip pyramid to sample the preview image from: the coarsest level that is at least
+     * {@link RTIObject#PREVIEW_SIZE} on its longest side, or the finest loaded level if none of them are that big.
+     *
+     * @return          the level to sample the preview image from
+     */
+    private int previewSourceLevel(){
+        int best = -1;
+        for(int level = 0; level < texelLevels.length; level++){
+            if(texelLevels[level] == null){continue;}
+
+            if(best == -1 || Math.max(levelWidths[level], levelHeights[level]) >= PREVIEW_SIZE){
+                best = level;
+            }
+        }
+
+        if(best == -1){
+            throw new IllegalStateException("No mip mapping levels have been loaded for " + filePath);
+        }
+        return best;
+    }
+
+
+
+
+    /**
+     * Creates the {@link RTIObject#previewImage} from the given level, scaled down so its longest side is no more than
+     * {@link RTIObject#PREVIEW_SIZE}. Each pixel of the preview is the nearest pixel of the level, and the colours are
+     * calculated by the subclass into an ARGB array, which is written to the image all at once rather than a pixel at
+     * a time.
+     *
+     * @param level     the level to sample the preview from
+     */
+    private void createPreview(int level){
+        int width = levelWidths[level];
+        int height = levelHeights[level];
+
+        //keep the aspect ratio of the level, but with the longest side no more than the preview size
+        float scale = Math.min(1.0f, (float) PREVIEW_SIZE / Math.max(width, height));
+        int previewWidth = Math.max(1, Math.round(width * scale));
+        int previewHeight = Math.max(1, Math.round(height * scale));
+
+        //index in the level, y * width + x, of the pixel each preview pixel is sampled from
+        int[] positions = new int[previewWidth * previewHeight];
+        for(int y = 0; y < previewHeight; y++){
+            int levelY = (int) ((long) y * height / previewHeight);
+            for(int x = 0; x < previewWidth; x++){
+                int levelX = (int) ((long) x * width / previewWidth);
+                positions[y * previewWidth + x] = levelY * width + levelX;
+            }
+        }
+
+        int[] pixels = new int[positions.length];
+        calculatePreviewPixels(createCoefficientStore(texelLevels[level], width, height), positions, pixels);
+
+        previewImage = new WritableImage(previewWidth, previewHeight);
+        previewImage.getPixelWriter().setPixels(0, 0, previewWidth, previewHeight, PixelFormat.getIntArgbInstance(),
+                                                pixels, 0, previewWidth);
+        previewLevel = level;
+    }
+
+
+
+
+    /**
+     * Finds the loaded level of the mip pyramid closest to the given level, preferring finer levels to coarser ones.
+     *
+     * @param level     the level wanted
+     * @return          the closest level that has texel data
+     */
+    private int closestLoadedLevel(int level){
+        for(int finer = level; finer >= 0; finer--){
+            if(isLevelLoaded(finer)){return finer;}
+        }
+        for(int coarser = level + 1; coarser < texelLevels.length; coarser++){
+            if(isLevelLoaded(coarser)){return coarser;}
+        }
+
+        throw new IllegalStateException("No mip mapping levels have been loaded for " + filePath);
+    }
+
+
+
+
+    /**
+     * Makes the {@link CoefficientStore} for a level of the mip pyramid from its interleaved coefficients. The
+     * coefficients aren't copied, so this is cheap enough to call whenever a level is taken.
+     *
+     * @param texelData     the interleaved coefficients of the level, in the order given by the format
+     * @param width         width of the level
+     * @param height        height of the level
+     * @return              the coefficients of the level
+     */
+    protected abstract CoefficientStore createCoefficientStore(ByteBuffer texelData, int width, int height);
+
+
+
+
+    /**
+     * Calculates the normal vector for each of a run of texels using the RTI coefficients from each texel.
+     * Calculating the normals for RGB and LRGB PTMs, and HSH is a different procedure, so this is implemented
+     * differently in the subclasses. It's called with a row or a tile of a level at a time, from several threads at
+     * once, and each pixel's normal only depends on its own coefficients, so it comes out the same whichever way the
+     * level is split up.
+     *
+     * @param coeffs        the blocks of coefficients of the texels one after another, see {@link CoefficientStore}
+     * @param count         the number of texels
+     * @param normals       the array to write the (x, y, z) normal vector of each texel to, one after another
+     */
+    protected abstract void calculateNormals(byte[] coeffs, int count, float[] normals);
+
+
+
+
+    /**
+     * Calculates the normals of every pixel of a level, a row at a time for each band of rows on the
+     * {@link ComputePool}. Levels in memory get their normals in a native buffer from {@link RTIObject#buffers}, and
+     * levels paged from the disk get them in a {@link TiledNormalStore}, calculated a tile at a time, so the normals
+     * of a level are never held in memory when its coefficients aren't. This only uses the level data passed to it,
+     * so it can be called without holding this object's lock while levels are taken and added on other threads.
+     *
+     * @param coefficients  the coefficients of the level
+     * @return              the normals of the level
+     */
+    private NormalStore calculateNormals(final CoefficientStore coefficients){
+        final int width = coefficients.getWidth();
+        int height = coefficients.getHeight();
+        final int pixelSize = coefficients.getCoefficientsPerPixel();
+
+        if(coefficients instanceof TiledCoefficientStore){
+            try{
+                TiledNormalStore normals = TiledNormalStore.create(width, height, new TiledNormalStore.RegionSource() {
+                    @Override
+                    public void readRegion(int x, int y, int width, int height, float[] out) {
+                        byte[] coeffs = new byte[width * height * pixelSize];
+                        coefficients.readRegion(x, y, width, height, coeffs, 0);
+                        calculateNormals(coeffs, width * height, out);
+                    }
+                });
+                buffers.closeOnRelease(normals);
+                return normals;
+            }catch(IOException e){
+                throw new IllegalStateException("Couldn't write the normals of " + filePath + " to the disk", e);
             }
         }
-        return lengths.normalise();
+
+        //create the normals array, the length is *3 as it is  a flattened array of (x,y,z) vectors
+        final FloatBuffer normals = buffers.allocateFloats(width * height * 3);
+
+        //each band of rows is done on a different core, and only writes to its own rows of the normals
+        ComputePool.processRows(height, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                byte[] row = new byte[width * pixelSize];
+                float[] rowNormals = new float[width * 3];
+                FloatBuffer band = normals.duplicate();
+                band.position(startRow * width * 3);
+                for(int y = startRow; y < endRow; y++){
+                    coefficients.readRow(y, 0, width, row, 0);
+                    calculateNormals(row, width, rowNormals);
+                    band.put(rowNormals);
+                }
+            }
+        });
+
+        return new BufferNormalStore(width, height, normals);
+    }
+
+
+
+
+    /**
+     * Gets the normals of the given level of the mip pyramid, calculating them if they haven't been calculated yet.
+     * This blocks until the normals have been calculated, and if another thread is already calculating normals, it
+     * waits for that thread to finish first rather than calculating the same normals twice.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the normals of the level, or null if the level hasn't been loaded yet
+     */
+    public NormalStore calculateLevelNormals(int level){
+        synchronized (normalsLock){
+            CoefficientStore coefficients;
+            Object source;
+            synchronized (this){
+                if(levelNormals[level] != null){return levelNormals[level];}
+                if(!isLevelLoaded(level)){return null;}
+                coefficients = getCoefficientStore(level);
+                source = texelLevels[level] != null ? texelLevels[level] : tiledLevels[level];
+            }
+
+            //this object's lock isn't held while calculating, so the windows can still change level and render
+            NormalStore calculated = calculateNormals(coefficients);
+
+            synchronized (this){
+                //the level may have been replaced while its normals were being calculated, then they're not kept
+                Object current = texelLevels[level] != null ? texelLevels[level] : tiledLevels[level];
+                if(current == source){levelNormals[level] = calculated;}
+            }
+            return calculated;
+        }
+    }
+
+
+
+
+    /**
+     * Calculates the normals of the given level on one of the {@link RTILoaderPool}'s threads if they haven't been
+     * calculated yet, then runs the callback on that thread. This is used by the windows when they change to a
+     * rendering mode that uses the normals, so that the normals are only calculated when they're needed, without
+     * stopping the window drawing. The loader threads are used rather than the {@link ComputePool}, as the normals
+     * are calculated in bands on the ComputePool, which mustn't have its threads blocked waiting for them.
+     *
+     * @param level             the mip mapping level, 0 being the full size image
+     * @param onCalculated      run once the normals have been calculated
+     */
+    public void calculateNormalsInBackground(final int level, final Runnable onCalculated){
+        //the texel data can't be freed while the normals are calculated from it
+        retain();
+        RTILoaderPool.getLoaders().execute(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    calculateLevelNormals(level);
+                }finally{
+                    close();
+                    onCalculated.run();
+                }
+            }
+        });
+    }
+
+
+
+
+    /**
+     * Calculates the colours of pixels of a level using the default rendering and a light at position
+     * (0, 0), for the {@link RTIObject#previewImage}. The colours are written as opaque ARGB ints, see
+     * {@link Utils#toArgb(float, float, float)}.
+     *
+     * @param coefficients  the coefficients of the level
+     * @param positions     index of each pixel in the level, y * width + x
+     * @param pixels        the array to write the ARGB colour of each pixel to, the same length as positions
+     */
+    protected abstract void calculatePreviewPixels(CoefficientStore coefficients, int[] positions, int[] pixels);
+
+
+
+
+    /**
+     * Adds another user of this object, so its native buffers aren't freed until it has called
+     * {@link RTIObject#close()} as well.
+     *
+     * @see NativeBuffers#retain()
+     *
+     * @return  this object
+     * @throws IllegalStateException    if this object has already been closed by everything using it
+     */
+    public RTIObject retain(){
+        buffers.retain();
+        return this;
     }
 
 
 
 
     /**
-     * Calculates the normal vector for each texel using the RTI coefficients from each texel, and stores the values
-     * of the normals in the {@link RTIObject#normals} FloatBuffer. Calculating the normals for RGB and LRGB PTMs, and
-     * HSH is a different procedure, so this is implemented differently in the subclasses.
+     * Removes a user of this object. Once the creator and everything that retained it have closed it, its native
+     * buffers are freed straight away, and the object can't be used any more.
+     *
+     * @see NativeBuffers#release()
      */
-    protected abstract void calculateNormals();
+    @Override
+    public void close(){
+        buffers.release();
+    }
 
 
 
 
     /**
-     * Creates an image of the RTIObject suing the deafult rendering and a light at position (0, 0), and stores this in
-     * the {@link RTIObject#previewImage} attribute.
+     * @return the number of bytes of native memory this object has allocated that haven't been freed yet
      */
-    protected abstract void createPreviewImage();
+    public long getNativeBytes(){
+        return buffers.getLiveBytes();
+    }
+
+
+
+
+    /**
+     * @return the number of users of this object that haven't closed it yet, 0 once its buffers have been freed
+     */
+    public int getReferences(){
+        return buffers.getReferences();
+    }
 
 
 
@@ -199,10 +715,115 @@ public abstract class RTIObject {
 
 
     /**
-     * @return {@link RTIObject#normals}
+     * @return the number of levels in the mip pyramid of this RTIObject
+     */
+    public int getNumLevels() {
+        return levelWidths.length;
+    }
+
+
+
+
+    /**
+     * Gets the width of the given level of the mip pyramid, whether it has been loaded yet or not.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the width of the level
+     */
+    public int getLevelWidth(int level) {
+        return levelWidths[level];
+    }
+
+
+
+
+    /**
+     * Gets the height of the given level of the mip pyramid, whether it has been loaded yet or not.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the height of the level
+     */
+    public int getLevelHeight(int level) {
+        return levelHeights[level];
+    }
+
+
+
+
+    /**
+     * Gets the interleaved coefficients of the given level of the mip pyramid, see {@link CoefficientStore}.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the coefficients of the level, or null if it hasn't been loaded yet
+     */
+    public synchronized ByteBuffer getLevelTexels(int level) {
+        return texelLevels[level];
+    }
+
+
+
+
+    /**
+     * Checks whether the given level of the mip pyramid has been loaded, either into memory or paged from the disk.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          whether the level's coefficients can be read
+     */
+    public synchronized boolean isLevelLoaded(int level) {
+        return texelLevels[level] != null || tiledLevels[level] != null;
+    }
+
+
+
+
+    /**
+     * Checks whether the given level of the mip pyramid is paged from the disk rather than held in memory.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          whether the level's coefficients are only in a tiled file on the disk
+     */
+    public synchronized boolean isLevelTiled(int level) {
+        return texelLevels[level] == null && tiledLevels[level] != null;
+    }
+
+
+
+
+    /**
+     * @return the finest level of the mip pyramid that has been loaded, 0 being the full size image
+     */
+    public synchronized int getFinestLoadedLevel() {
+        return closestLoadedLevel(0);
+    }
+
+
+
+
+    /**
+     * Gets the normals of the given level of the mip pyramid if they have been calculated in memory, without
+     * calculating them. This is for the {@link DecodedCache}, which only stores levels held in memory.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the normals of the level, or null if they haven't been calculated yet, or are on the disk
+     */
+    public synchronized FloatBuffer getLevelNormals(int level) {
+        if(levelNormals[level] instanceof BufferNormalStore){
+            return ((BufferNormalStore) levelNormals[level]).getNormals();
+        }
+        return null;
+    }
+
+
+
+
+    /**
+     * Gets the normals of the given level of the mip pyramid if they have been calculated, without calculating them.
+     *
+     * @param level     the mip mapping level, 0 being the full size image
+     * @return          the normals of the level, or null if they haven't been calculated yet
      */
-    public FloatBuffer getNormals() {
-        return normals;
+    private synchronized NormalStore getLevelNormalStore(int level) {
+        return levelNormals[level];
     }
 
 
@@ -310,4 +931,109 @@ public abstract class RTIObject {
         //otherwise return null
         return null;
     }
+
+
+
+
+    /**
+     * A snapshot of one level of the mip pyramid of an {@link RTIObject}, see {@link RTIObject#getLevel(int)}.
+     * The width, height and coefficients are fixed when the snapshot is taken. The normals are the level's own, so
+     * if they hadn't been calculated when the snapshot was taken, they're calculated the first time they're asked for.
+     */
+    public final class Level {
+
+        /** The mip mapping level, 0 being the full size image */
+        private final int level;
+
+        /** Width of the level */
+        private final int width;
+
+        /** Height of the level */
+        private final int height;
+
+        /** The coefficients of the level */
+        private final CoefficientStore coefficients;
+
+        /** The normals of the level if they had been calculated when the snapshot was taken, otherwise null */
+        private final NormalStore normals;
+
+
+        /**
+         * Creates a new snapshot of the level with the given data.
+         *
+         * @param level             the mip mapping level, 0 being the full size image
+         * @param width             width of the level
+         * @param height            height of the level
+         * @param coefficients      the coefficients of the level
+         * @param normals           the normals of the level, or null if they haven't been calculated yet
+         */
+        private Level(int level, int width, int height, CoefficientStore coefficients, NormalStore normals){
+            this.level = level;
+            this.width = width;
+            this.height = height;
+            this.coefficients = coefficients;
+            this.normals = normals;
+        }
+
+
+        /**
+         * @return {@link Level#level}
+         */
+        public int getLevel() {
+            return level;
+        }
+
+
+        /**
+         * @return {@link Level#width}
+         */
+        public int getWidth() {
+            return width;
+        }
+
+
+        /**
+         * @return {@link Level#height}
+         */
+        public int getHeight() {
+            return height;
+        }
+
+
+        /**
+         * @return {@link Level#coefficients}
+         */
+        public CoefficientStore getCoefficients() {
+            return coefficients;
+        }
+
+
+        /**
+         * Gets the normals of the level, calculating them first if they haven't been calculated yet, see
+         * {@link RTIObject#calculateLevelNormals(int)}.
+         *
+         * @return  the normals of the level
+         */
+        public NormalStore getNormals() {
+            if(normals != null){return normals;}
+
+            return calculateLevelNormals(level);
+        }
+
+
+        /**
+         * @return whether the normals of the level have been calculated yet
+         */
+        public boolean hasNormals() {
+            return normals != null || getLevelNormalStore(level) != null;
+        }
+
+
+        /**
+         * @return whether the level is paged from the disk rather than held in memory
+         */
+        public boolean isTiled() {
+            return coefficients instanceof TiledCoefficientStore;
+        }
+    }
 }
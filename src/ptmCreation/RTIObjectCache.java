@@ -0,0 +1,219 @@
+package ptmCreation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <p>
+ * Keeps the RTIObjects that have been opened in memory, so that opening the same file again, to compare two views of
+ * it, or after its window has been closed, uses the RTIObject that's already been loaded rather than decoding the
+ * file again and holding a second copy of its coefficients and normals. RTIObjects are kept by the canonical path of
+ * the file they were made from, and only one is kept for each file. The level an RTIObject is shown at is kept by
+ * each window, not the RTIObject, so windows showing the file at different mip levels share the same RTIObject. The
+ * one thing that stops an RTIObject being shared is a file too big to load at full size, see {@link MemoryBudget},
+ * as the RTIObject won't have the finer levels, so it's only given out for levels at least as coarse as its finest.
+ * </p>
+ * <p>
+ * The cache holds its own reference to each RTIObject, see {@link RTIObject#retain()}, and gives a new one to
+ * everything that gets an RTIObject from it, so an RTIObject is only freed once it has been removed from the cache
+ * and every window and image export using it has closed it. The cache is kept under {@link RTIObjectCache#maxBytes}
+ * of native memory by removing the least recently used RTIObjects that nothing else is using, as removing those is
+ * what actually frees memory. RTIObjects that are still being shown count towards the total but are never removed,
+ * so the cache can go over its budget while lots of windows are open, and is trimmed again once they close. Texel
+ * data memory mapped from the {@link DecodedCache} isn't counted, as the OS can page it out whenever it needs to.
+ * </p>
+ * <p>
+ * All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @see RTICreator
+ *
+ * @author Jed Mills
+ */
+public class RTIObjectCache {
+
+    /** The RTIObjects in the cache by their key, in order of when they were last used, least recent first */
+    private static final LinkedHashMap<String, RTIObject> rtiObjects = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total native memory the RTIObjects in the cache can take up before idle ones are removed, 1GB by default */
+    private static long maxBytes = 1L << 30;
+
+    /** Whether RTIObjects are kept in the cache */
+    private static boolean enabled = true;
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private RTIObjectCache(){}
+
+
+
+
+    /**
+     * Gets the RTIObject made from the source file, if it's in the cache and has the given mip level or a finer one
+     * loaded. The RTIObject is retained for the caller, so the caller owns the returned reference, and closes it when
+     * it has finished with it.
+     *
+     * @param sourceFile        the .ptm / .rti file the RTIObject was made from
+     * @param mipLevel          the mip mapping level the RTIObject is going to be shown at
+     * @return                  the RTIObject, or null if it isn't in the cache
+     */
+    public static synchronized RTIObject get(File sourceFile, int mipLevel){
+        if(!enabled){return null;}
+
+        RTIObject rtiObject = rtiObjects.get(getKey(sourceFile));
+        if(rtiObject == null || !hasLevel(rtiObject, mipLevel)){return null;}
+
+        //the cache still holds its reference, so the object can't have been freed
+        return rtiObject.retain();
+    }
+
+
+
+
+    /**
+     * Adds the RTIObject made from the source file to the cache, retaining it so the cache has its own reference, then
+     * removes the least recently used idle RTIObjects if the cache has gone over {@link RTIObjectCache#maxBytes}. If
+     * there's already an RTIObject for the file, such as one without the finer levels, it's replaced and the cache's
+     * reference to it is closed, so the cache only ever holds one reference to one RTIObject for each file. Windows
+     * still showing the replaced RTIObject keep it until they close.
+     *
+     * @param sourceFile        the .ptm / .rti file the RTIObject was made from
+     * @param rtiObject         the RTIObject to keep
+     */
+    public static synchronized void put(File sourceFile, RTIObject rtiObject){
+        if(!enabled){return;}
+
+        RTIObject replaced = rtiObjects.put(getKey(sourceFile), rtiObject.retain());
+        if(replaced != null){
+            replaced.close();
+        }
+
+        trim();
+    }
+
+
+
+
+    /**
+     * Removes the least recently used RTIObjects that nothing but the cache is using until the native memory of the
+     * RTIObjects in the cache is under {@link RTIObjectCache#maxBytes}, closing the cache's references to them so
+     * they're freed. This is called whenever an RTIObject is added, and when a window closes, as that may have left
+     * its RTIObject idle.
+     */
+    public static synchronized void trim(){
+        long totalBytes = getCachedBytes();
+
+        //go through the least recently used first, the objects still in use are kept whatever happens
+        Iterator<RTIObject> iterator = rtiObjects.values().iterator();
+        while(totalBytes > maxBytes && iterator.hasNext()){
+            RTIObject rtiObject = iterator.next();
+            if(rtiObject.getReferences() > 1){continue;}
+
+            totalBytes -= rtiObject.getNativeBytes();
+            iterator.remove();
+            rtiObject.close();
+        }
+    }
+
+
+
+
+    /**
+     * Removes every RTIObject from the cache, closing the cache's references to them. The ones that are still
+     * being shown are freed once their windows have closed.
+     */
+    public static synchronized void clear(){
+        ArrayList<RTIObject> removed = new ArrayList<>(rtiObjects.values());
+        rtiObjects.clear();
+
+        for(RTIObject rtiObject : removed){
+            rtiObject.close();
+        }
+    }
+
+
+
+
+    /**
+     * Gets the key for the file, its canonical path, so the same file opened through different paths is only kept
+     * once. If the canonical path can't be found, the absolute path is used instead.
+     *
+     * @param sourceFile        the .ptm / .rti file the RTIObject was made from
+     * @return                  the key for the RTIObject in the cache
+     */
+    private static String getKey(File sourceFile){
+        String path;
+        try{
+            path = sourceFile.getCanonicalPath();
+        }catch(IOException e){
+            e.printStackTrace();
+            path = sourceFile.getAbsolutePath();
+        }
+
+        return path;
+    }
+
+
+
+
+    /**
+     * Checks whether the RTIObject has the given level of its mip pyramid, or a finer one, loaded, so it can be shown
+     * at that level without falling back to a coarser one.
+     *
+     * @param rtiObject         the RTIObject to check
+     * @param mipLevel          the mip mapping level, 0 being the full size image
+     * @return                  whether the level or a finer one is loaded
+     */
+    private static boolean hasLevel(RTIObject rtiObject, int mipLevel){
+        int coarsest = Math.min(mipLevel, rtiObject.getNumLevels() - 1);
+        for(int level = 0; level <= coarsest; level++){
+            if(rtiObject.isLevelLoaded(level)){return true;}
+        }
+        return false;
+    }
+
+
+
+
+    /**
+     * @return the total native memory, in bytes, of the RTIObjects in the cache, including the ones still in use
+     */
+    public static synchronized long getCachedBytes(){
+        long totalBytes = 0;
+        for(RTIObject rtiObject : rtiObjects.values()){
+            totalBytes += rtiObject.getNativeBytes();
+        }
+        return totalBytes;
+    }
+
+
+
+
+    /**
+     * Sets the total native memory the RTIObjects in the cache can take up, and trims the cache to it straight away.
+     *
+     * @param bytes     the maximum size of the cache in bytes
+     */
+    public static synchronized void setMaxBytes(long bytes){
+        maxBytes = bytes;
+        trim();
+    }
+
+
+
+
+    /**
+     * Sets whether RTIObjects are kept in the cache. Turning the cache off empties it.
+     *
+     * @param useCache      whether to use the cache
+     */
+    public static synchronized void setEnabled(boolean useCache){
+        enabled = useCache;
+        if(!enabled){clear();}
+    }
+}
@@ -1,10 +1,11 @@
 package ptmCreation;
 
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-import org.lwjgl.BufferUtils;
+import utils.ComputePool;
+import utils.NativeBuffers;
 import utils.Utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
 import static java.lang.Math.*;
@@ -15,106 +16,110 @@ import static java.lang.Math.*;
  * colour for each pixel of an HSH object is calculated by determining HSH 'hWeights' depending on the angle of
  * light. There is a link to the original HSH paper in the user guide for this app.
  *
+ * The coefficients are kept as the raw bytes from the file, a quarter of the size of floats, and the scale and bias
+ * for each basis term from the header are applied when they're used, through the {@link RTIObjectHSH#coeffLookup}
+ * table here and the scale1-4 and bias1-4 uniforms in the shaders. Every basis term of the file is kept and
+ * evaluated, up to the 16 of a fourth order file, by the {@link HSHKernel} and the shaders.
+ *
  * @see RTIObject
  *
  * @author Jed Mills
  */
 public class RTIObjectHSH extends RTIObject {
 
-    /** Number of HSH terms that this HSH objetc uses to simulate colour, num terms terms = order squared*/
-    private int basisTerms;
+    /** Distance from a pixel to the edge of the block of normals that are averaged for its smoothed normal */
+    public static final int SMOOTHING_RADIUS = 5;
 
-    /** Flattened array containing up to the first 3 HSH coefficients per pixel for the red channel*/
-    private FloatBuffer redVals1;
+    /** Width of the strips of columns the smoothed normals are summed down, so a strip's rows stay in the cache */
+    private static final int STRIP_WIDTH = 64;
 
-    /** Flattened array containing up to the second 3 HSH coefficients per pixel for the red channel*/
-    private FloatBuffer redVals2;
+    /** This inverse matrix comes from the original HSH paper, it turns the 3 sums for the normals into a vector */
+    private static final float[][] L_INVERSE = {{0.816498f, -0.816498f, 0.0f},
+                                                {0.471407f, 0.47140847f, -0.942815416f},
+                                                {0.47140227f, 0.4714038113f, 0.471407041f}};
+
+    /** Number of HSH terms that this HSH objetc uses to simulate colour, num terms terms = order squared*/
+    private int basisTerms;
 
-    /** Flattened array containing up to the third 3 HSH coefficients per pixel for the red channel*/
-    private FloatBuffer redVals3;
+    /** The scale for each basis term from the file header */
+    private float[] scale;
 
-    /** Flattened array containing up to the first 3 HSH coefficients per pixel for the green channel*/
-    private FloatBuffer greenVals1;
+    /** The bias for each basis term from the file header */
+    private float[] bias;
 
-    /** Flattened array containing up to the second 3 HSH coefficients per pixel for the green channel*/
-    private FloatBuffer greenVals2;
+    /** Scaled and biased value of every byte for each basis term, see {@link Utils#createScaleBiasLookup} */
+    private float[][] coeffLookup;
 
-    /** Flattened array containing up to the third 3 HSH coefficients per pixel for the green channel*/
-    private FloatBuffer greenVals3;
+    /** Evaluates the HSH polynomial for this object's number of basis terms, see {@link HSHKernel} */
+    private HSHKernel kernel;
 
-    /** Flattened array containing up to the first 3 HSH coefficients per pixel for the blue channel*/
-    private FloatBuffer blueVals1;
+    /** The hWeights for the three lights at different azimuths the normals are calculated from */
+    private double[][] normalWeights;
 
-    /** Flattened array containing up to the second 3 HSH coefficients per pixel for the blue channel*/
-    private FloatBuffer blueVals2;
+    /** The smoothed normals of each level, null until they've been calculated, see {@link #getSmoothedNormals} */
+    private NormalStore[] levelSmoothedNormals;
 
-    /** Flattened array containing up to the third 3 HSH coefficients per pixel for the blue channel*/
-    private FloatBuffer blueVals3;
+    /** Held while smoothed normals are being calculated, so each level's are only calculated once */
+    private final Object smoothedNormalsLock = new Object();
 
 
 
     /**
-     * Create a new HSH object width given width and height from the given texel data. If an HSH object has
-     * <= 3 coefficients per pixel, the FloatBuffers in the textData attribute marked with a * or ** below can
-     * be of length 3, with 3 zeros in, as these textures won't be used by the OpenGl shaders to render, but still
-     * need to be bound, even is they have one element in. If the HSH object ahs <= 6 terms, FloatBuffers marked with
-     * ** can be of length 3 with 3 zeros.
-     *
-     * The texel data should be in the order of:
-     * <ol>
-     *     <li>an IntBuffer containing the first 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
-     *
-     *     <li>an IntBuffer containing the third 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     *
-     *     <li>an IntBuffer containing the first 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
-     *
-     *     <li>an IntBuffer containing the third 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     *
-     *     <li>an IntBuffer containing the first 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
-     *
-     *     <li>an IntBuffer containing the third 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     * </ol>
+     * Create a new HSH object width given width and height from the given texel data. The texel data is given for each
+     * level of the mip pyramid, where level 0 is the full width and height, and each level after is half the size of
+     * the one before. The texel data for each level is a ByteBuffer with a block of 3 * basisTerms raw coefficients
+     * for each pixel, the red coefficient for each basis term, then the green, then the blue, the same order as they
+     * are in the file, flattened so its length is width * height * basisTerms * 3.
      *
      * @param fileName          name of the the file containing the PTM object
      * @param width             width of the PTM
      * @param height            height of the PTM
-     * @param texelData         see above for the details of this argument
+     * @param texelLevels       texel data for each mip level, null for levels added later, see above for each
+     * @param normalLevels      normals for each mip level if they're already known, otherwise null
+     * @param buffers           allocated the texel data, and allocates the normals, see {@link RTIObject#buffers}
+     * @param scale             the scale for each basis term from the file header
+     * @param bias              the bias for each basis term from the file header
      */
     public RTIObjectHSH(String fileName, int width, int height, int numColourChannels,
-                        int basisTerms, int basisType, FloatBuffer[] texelData) {
+                        int basisTerms, int basisType, ByteBuffer[] texelLevels, FloatBuffer[] normalLevels,
+                        NativeBuffers buffers, float[] scale, float[] bias) {
         super(fileName, width, height);
 
         this.basisTerms = basisTerms;
+        this.texelLevels = texelLevels;
+        this.buffers = buffers;
+
+        this.scale = scale;
+        this.bias = bias;
+        coeffLookup = Utils.createScaleBiasLookup(scale, bias);
+        kernel = HSHKernel.forBasisTerms(basisTerms);
+
+        //calcuating three different sets of hWeigths for lights at different azimuths, used for all the normals
+        normalWeights = new double[][]{Utils.createHWeights((float)PI / 4, (float)PI / 6, basisTerms),
+                                       Utils.createHWeights((float)PI / 4, 5 * (float)PI / 6, basisTerms),
+                                       Utils.createHWeights((float)PI / 4, 3 * (float)PI / 2, basisTerms)};
+
+        //set up each level of the pyramid and create the preview image
+        createLevels(normalLevels);
+        levelSmoothedNormals = new NormalStore[getNumLevels()];
+    }
 
-        redVals1 = texelData[0];
-        redVals2 = texelData[1];
-        redVals3 = texelData[2];
 
-        greenVals1 = texelData[3];
-        greenVals2 = texelData[4];
-        greenVals3 = texelData[5];
 
-        blueVals1 = texelData[6];
-        blueVals2 = texelData[7];
-        blueVals3 = texelData[8];
 
-        calculateNormals();
-        createPreviewImage();
+    /**
+     * Makes a store for the interleaved coefficients of a level, with 3 * basisTerms coefficients for each pixel.
+     *
+     * @see RTIObject#createCoefficientStore(ByteBuffer, int, int)
+     *
+     * @param texelData     the interleaved coefficients of the level
+     * @param width         width of the level
+     * @param height        height of the level
+     * @return              the coefficients of the level
+     */
+    @Override
+    protected CoefficientStore createCoefficientStore(ByteBuffer texelData, int width, int height) {
+        return new InterleavedCoefficientStore(width, height, basisTerms * 3, texelData);
     }
 
 
@@ -125,95 +130,50 @@ public class RTIObjectHSH extends RTIObject {
      * method comes from the original RTI viewer, which in turn comes from the original HSH paper, which there is
      * a link to in the user guide for this app.
      *
-     * @see RTIObject#calculateNormals()
-     * @see RTIObject#calculateNormal(int[])
+     * @see RTIObject#calculateNormals(byte[], int, float[])
+     *
+     * @param coeffs        the blocks of coefficients of the texels one after another
+     * @param count         the number of texels
+     * @param normals       the array to write the normal of each texel to
      */
     @Override
-    protected void calculateNormals() {
-        //calcuating three different sets of hWeigths for lights at different azimuths
-        double[] hWeights1 = Utils.createHWeights((float)PI / 4, (float)PI / 6, basisTerms);
-        double[] hWeights2 = Utils.createHWeights((float)PI / 4, 5 * (float)PI / 6, basisTerms);
-        double[] hWeights3 = Utils.createHWeights((float)PI / 4, 3 * (float)PI / 2, basisTerms);
-
-        //this inverse matrix comes from the original HSH paper
-        float[][] lInverse = new float[3][3];
-        lInverse[0][0] = 0.816498f;
-        lInverse[0][1] = -0.816498f;
-        lInverse[0][2] = 0.0f;
-
-        lInverse[1][0] = 0.471407f;
-        lInverse[1][1] = 0.47140847f;
-        lInverse[1][2] = -0.942815416f;
-
-        lInverse[2][0] = 0.47140227f;
-        lInverse[2][1] = 0.4714038113f;
-        lInverse[2][2] = 0.471407041f;
-
-        normals = BufferUtils.createFloatBuffer(width * height * 3);
-
-        int offset;
-        Utils.Vector3f temp = new Utils.Vector3f(0, 0, 0);
-        Utils.Vector3f normal;
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                //offset in the 1D arrays from the 2D position
-                offset = (y * width + x) * 3;
-                temp.setX(0.0f);
-                temp.setY(0.0f);
-                temp.setZ(0.0f);
-
-                //apply this multiplication of certain hWeights to the coefficients for red green and blue.
-                //don't really know how this works to be honest
-                for(int k = 0; k < basisTerms; k++){
-                    if(k < 3){temp.x += redVals1.get(offset + k) * hWeights1[k];}
-                    else if(k < 6){temp.x += redVals2.get(offset + k - 3) * hWeights1[k];}
-                    else if(k < 9){temp.x += redVals3.get(offset + k - 6) * hWeights1[k];}
-
-                    if(k < 3){temp.y += redVals1.get(offset + k) * hWeights2[k];}
-                    else if(k < 6){temp.y += redVals2.get(offset + k - 3) * hWeights2[k];}
-                    else if(k < 9){temp.y += redVals3.get(offset + k - 6) * hWeights2[k];}
-
-                    if(k < 3){temp.z += redVals1.get(offset + k) * hWeights3[k];}
-                    else if(k < 6){temp.z += redVals2.get(offset + k - 3) * hWeights3[k];}
-                    else if(k < 9){temp.z += redVals3.get(offset + k - 6) * hWeights3[k];}
-                }
-                for(int k = 0; k < basisTerms; k++){
-                    if(k < 3){temp.x += greenVals1.get(offset + k) * hWeights1[k];}
-                    else if(k < 6){temp.x += greenVals2.get(offset + k - 3) * hWeights1[k];}
-                    else if(k < 9){temp.x += greenVals3.get(offset + k - 6) * hWeights1[k];}
-
-                    if(k < 3){temp.y += greenVals1.get(offset + k) * hWeights2[k];}
-                    else if(k < 6){temp.y += greenVals2.get(offset + k - 3) * hWeights2[k];}
-                    else if(k < 9){temp.y += greenVals3.get(offset + k - 6) * hWeights2[k];}
-
-                    if(k < 3){temp.z += greenVals1.get(offset + k) * hWeights3[k];}
-                    else if(k < 6){temp.z += greenVals2.get(offset + k - 3) * hWeights3[k];}
-                    else if(k < 9){temp.z += greenVals3.get(offset + k - 6) * hWeights3[k];}
-                }
-                for(int k = 0; k < basisTerms; k++){
-                    if(k < 3){temp.x += blueVals1.get(offset + k) * hWeights1[k];}
-                    else if(k < 6){temp.x += blueVals2.get(offset + k - 3) * hWeights1[k];}
-                    else if(k < 9){temp.x += blueVals3.get(offset + k - 6) * hWeights1[k];}
-
-                    if(k < 3){temp.y += blueVals1.get(offset + k) * hWeights2[k];}
-                    else if(k < 6){temp.y += blueVals2.get(offset + k - 3) * hWeights2[k];}
-                    else if(k < 9){temp.y += blueVals3.get(offset + k - 6) * hWeights2[k];}
-
-                    if(k < 3){temp.z += blueVals1.get(offset + k) * hWeights3[k];}
-                    else if(k < 6){temp.z += blueVals2.get(offset + k - 3) * hWeights3[k];}
-                    else if(k < 9){temp.z += blueVals3.get(offset + k - 6) * hWeights3[k];}
-                }
-
-                //average and normalise it
-                temp.multiply(0.33333333f);
-                normal = Utils.mat3x3_mul_vec3(lInverse, temp);
-                normal = normal.normalise();
-
-                //store it in the normals array
-                normals.put(offset, normal.getX());
-                normals.put(offset + 1, normal.getY());
-                normals.put(offset + 2, normal.getZ());
+    protected void calculateNormals(byte[] coeffs, int count, float[] normals) {
+        double[] hWeights1 = normalWeights[0];
+        double[] hWeights2 = normalWeights[1];
+        double[] hWeights3 = normalWeights[2];
+        float[][] lInverse = L_INVERSE;
+        int pixelSize = basisTerms * 3;
+
+        //the sums are kept in primitives so that nothing is allocated per pixel
+        float tempX, tempY, tempZ, normalX, normalY, normalZ, length;
+        float[] block = new float[HSHKernel.BLOCK_SIZE];
+        for(int i = 0; i < count; i++){
+            //apply this multiplication of certain hWeights to the coefficients for red green and blue.
+            //don't really know how this works to be honest
+            kernel.loadBlock(coeffs, i * pixelSize, coeffLookup, block, 0);
+            tempX = kernel.sum(block, 0, hWeights1);
+            tempY = kernel.sum(block, 0, hWeights2);
+            tempZ = kernel.sum(block, 0, hWeights3);
+
+            //transform and normalise it, the average isn't needed as the length is normalised anyway
+            normalX = (lInverse[0][0] * tempX) + (lInverse[0][1] * tempY) + (lInverse[0][2] * tempZ);
+            normalY = (lInverse[1][0] * tempX) + (lInverse[1][1] * tempY) + (lInverse[1][2] * tempZ);
+            normalZ = (lInverse[2][0] * tempX) + (lInverse[2][1] * tempY) + (lInverse[2][2] * tempZ);
+            length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            if(length != 0){
+                normalX = normalX / length;
+                normalY = normalY / length;
+                normalZ = normalZ / length;
+            }else{
+                normalX = 0.0f;
+                normalY = 0.0f;
+                normalZ = 0.0f;
             }
+
+            //store it in the normals array
+            normals[i * 3] = normalX;
+            normals[i * 3 + 1] = normalY;
+            normals[i * 3 + 2] = normalZ;
         }
     }
 
@@ -221,18 +181,19 @@ public class RTIObjectHSH extends RTIObject {
 
 
     /**
-     * Creates the preview image used for showing in the preview tab, using default rendering and light at position
-     * (0, 0), and stores it in the {@link RTIObject#previewImage} attribute. Uses the process described in the
-     * documentation for this class to calculate the colour of each pixel
+     * Calculates the colours of the pixels of the preview image shown in the preview tab, using default rendering and
+     * light at position (0, 0). Uses the process described in the documentation for this class to calculate the
+     * colour of each pixel
      *
      * @see RTIObject#previewImage
-     * @see RTIObject#createPreviewImage()
+     * @see RTIObject#calculatePreviewPixels(CoefficientStore, int[], int[])
+     *
+     * @param coefficients  the coefficients of the level
+     * @param positions     index of each pixel in the level, y * width + x
+     * @param pixels        the array to write the ARGB colour of each pixel to
      */
     @Override
-    protected void createPreviewImage() {
-        //create the image to write the pixels to
-        previewImage = new WritableImage(width, height);
-
+    protected void calculatePreviewPixels(CoefficientStore coefficients, int[] positions, int[] pixels) {
         //the light position for the prevew image is (0, 0, 1)
         float lightX = 0.0f;
         float lightY = 0.0f;
@@ -245,126 +206,370 @@ public class RTIObjectHSH extends RTIObject {
         //calculate the mysterious hWeights for this light angle
         double[] hWeights = Utils.createHWeights(theta, phi, basisTerms);
 
-        int offset;
+        int width = coefficients.getWidth();
         float r, g, b;
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                //position in 1D arrays from the 2D pixel location
-                offset = (y * width + x) * 3;
-
-                r = 0.0f;
-                g = 0.0f;
-                b = 0.0f;
-
-                //use the hWeights to calculate the reg, green and blue values for each pixel
-                //the maths for this comes from the original RTIViewer, and I'm not too sure how it workds
-                for(int k = 0; k < basisTerms; k++){
-                    if(k < 3){r += redVals1.get(offset + k) * (hWeights[k]);}
-                    else if(k < 6){r += redVals2.get(offset + k - 3) * (hWeights[k]);}
-                    else if(k < 9){r += redVals3.get(offset + k - 6) * (hWeights[k]);}
-
-                    if(k < 3){g += greenVals1.get(offset + k) * hWeights[k];}
-                    else if(k < 6){g += greenVals2.get(offset + k - 3) * hWeights[k];}
-                    else if(k < 9){g += greenVals3.get(offset + k - 6) * hWeights[k];}
-
-                    if(k < 3){b += blueVals1.get(offset + k) * hWeights[k];}
-                    else if(k < 6){b += blueVals2.get(offset + k - 3) * hWeights[k];}
-                    else if(k < 9){b += blueVals3.get(offset + k - 6) * hWeights[k];}
-                }
-
-                //clamp the values between 0.0 and 1.0
-                if(r > 1.0){r = 1.0f;}
-                else if(r < 0){r = 0;}
-
-                if(g > 1.0){g = 1.0f;}
-                else if(g < 0){g = 0;}
-
-                if(b > 1.0){b = 1.0f;}
-                else if(b < 0){b = 0;}
-
-                //store them in the image
-                previewImage.getPixelWriter().setColor(x, y, Color.color(r, g, b) );
-            }
+        byte[] coeffs = new byte[coefficients.getCoefficientsPerPixel()];
+        float[] block = new float[HSHKernel.BLOCK_SIZE];
+        float[] rgb = new float[3];
+        for(int i = 0; i < positions.length; i++){
+            //the interleaved coefficients of the pixel
+            coefficients.readRow(positions[i] / width, positions[i] % width, 1, coeffs, 0);
+
+            //use the hWeights to calculate the reg, green and blue values for each pixel
+            //the maths for this comes from the original RTIViewer, and I'm not too sure how it workds
+            kernel.loadBlock(coeffs, 0, coeffLookup, block, 0);
+            kernel.evaluate(block, 0, hWeights, rgb);
+            r = rgb[0];
+            g = rgb[1];
+            b = rgb[2];
+
+            //clamp the values between 0.0 and 1.0
+            if(r > 1.0){r = 1.0f;}
+            else if(r < 0){r = 0;}
+
+            if(g > 1.0){g = 1.0f;}
+            else if(g < 0){g = 0;}
+
+            if(b > 1.0){b = 1.0f;}
+            else if(b < 0){b = 0;}
+
+            //store them in the pixels
+            pixels[i] = Utils.toArgb(r, g, b);
         }
     }
 
 
     /**
-     * @return  {@link RTIObjectHSH#basisTerms}
+     * Gets the smoothed normals of a level, used by the normals enhancement, calculating them the first time
+     * they're asked for. Each pixel's smoothed normal is the normalised average of the normals in the block of side
+     * 2 * {@link RTIObjectHSH#SMOOTHING_RADIUS} + 1 around it. They don't depend on the light, so they're kept and
+     * used for every snapshot of the level, and are freed with the rest of the object's native buffers. The smoothed
+     * normals of a level paged from the disk are written to the disk as well, see
+     * {@link RTIObjectHSH#calculateTiledSmoothedNormals(NormalStore)}.
+     *
+     * @param level     the level of this object to get the smoothed normals of, see {@link RTIObject#getLevel(int)}
+     * @return          the smoothed normal vectors for the level
      */
-    public int getBasisTerms() {
-        return basisTerms;
+    public NormalStore getSmoothedNormals(Level level){
+        synchronized (smoothedNormalsLock){
+            int index = level.getLevel();
+            if(levelSmoothedNormals[index] == null){
+                NormalStore normals = level.getNormals();
+                if(normals instanceof BufferNormalStore){
+                    FloatBuffer smoothed = calculateSmoothedNormals(((BufferNormalStore) normals).getNormals(),
+                                                                    level.getWidth(), level.getHeight());
+                    levelSmoothedNormals[index] = new BufferNormalStore(level.getWidth(), level.getHeight(),
+                                                                        smoothed);
+                }else{
+                    levelSmoothedNormals[index] = calculateTiledSmoothedNormals(normals);
+                }
+            }
+            return levelSmoothedNormals[index];
+        }
     }
 
 
+
+
     /**
-     * @return {@link RTIObjectHSH#redVals1}
+     * Averages the normals over the block around each pixel with running sums, so the time taken doesn't depend on
+     * the size of the block. The normals are first summed along the flattened array, then those sums are summed down
+     * strips of columns, each on the {@link ComputePool}. As the first sums run along the flattened array, the block
+     * of a pixel at the left or right edge carries on into the other end of the row above or below, and only the
+     * normals outside the whole array count as 0, the same as the original viewer.
+     *
+     * @param normals       flattened array of (x, y, z) normal vectors for the level
+     * @param width         width of the level
+     * @param height        height of the level
+     * @return              flattened array of (x, y, z) smoothed normal vectors for the level
      */
-    public FloatBuffer getRedVals1() {
-        return redVals1;
+    private FloatBuffer calculateSmoothedNormals(final FloatBuffer normals, final int width, final int height){
+        final int numPixels = width * height;
+        final int side = 2 * SMOOTHING_RADIUS + 1;
+        final FloatBuffer smoothed = buffers.allocateFloats(numPixels * 3);
+
+        //sum the normals along the flattened array, each band starting its window at its first pixel
+        ComputePool.processRows(height, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                int start = startRow * width;
+                double sumX = sumAlongRows(normals, numPixels, start, 0);
+                double sumY = sumAlongRows(normals, numPixels, start, 1);
+                double sumZ = sumAlongRows(normals, numPixels, start, 2);
+
+                for(int pixel = start; pixel < endRow * width; pixel++){
+                    smoothed.put(pixel * 3, (float) sumX);
+                    smoothed.put(pixel * 3 + 1, (float) sumY);
+                    smoothed.put(pixel * 3 + 2, (float) sumZ);
+
+                    //slide the window along one pixel
+                    int added = pixel + SMOOTHING_RADIUS + 1;
+                    if(added < numPixels){
+                        sumX += normals.get(added * 3);
+                        sumY += normals.get(added * 3 + 1);
+                        sumZ += normals.get(added * 3 + 2);
+                    }
+                    int removed = pixel - SMOOTHING_RADIUS;
+                    if(removed >= 0){
+                        sumX -= normals.get(removed * 3);
+                        sumY -= normals.get(removed * 3 + 1);
+                        sumZ -= normals.get(removed * 3 + 2);
+                    }
+                }
+            }
+        });
+
+        //sum those down each strip of columns, keeping the rows in the window before they're written over
+        int numStrips = (width + STRIP_WIDTH - 1) / STRIP_WIDTH;
+        ComputePool.processRows(numStrips, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startStrip, int endStrip) {
+                for(int strip = startStrip; strip < endStrip; strip++){
+                    int startX = strip * STRIP_WIDTH;
+                    int stripFloats = Math.min(STRIP_WIDTH, width - startX) * 3;
+
+                    //the window's rows are kept in a ring, row y in slot y mod side
+                    float[] window = new float[side * stripFloats];
+                    double[] sums = new double[stripFloats];
+                    for(int y = -SMOOTHING_RADIUS; y <= SMOOTHING_RADIUS; y++){
+                        int slot = Math.floorMod(y, side) * stripFloats;
+                        readRowSums(y, startX, window, slot, stripFloats);
+                        for(int i = 0; i < stripFloats; i++){sums[i] += window[slot + i];}
+                    }
+
+                    for(int y = 0; y < height; y++){
+                        for(int i = 0; i < stripFloats; i += 3){
+                            //average the block, 5 seems to be a good number to get good enhancement here
+                            float smoothedX = (float) (5 * sums[i] / (side * side));
+                            float smoothedY = (float) (5 * sums[i + 1] / (side * side));
+                            float smoothedZ = (float) (5 * sums[i + 2] / (side * side));
+
+                            //then normalise it
+                            float length = (float) Math.sqrt(smoothedX * smoothedX + smoothedY * smoothedY +
+                                                             smoothedZ * smoothedZ);
+                            if(length != 0){
+                                smoothedX = smoothedX / length;
+                                smoothedY = smoothedY / length;
+                                smoothedZ = smoothedZ / length;
+                            }
+
+                            int position = (y * width + startX) * 3 + i;
+                            smoothed.put(position, smoothedX);
+                            smoothed.put(position + 1, smoothedY);
+                            smoothed.put(position + 2, smoothedZ);
+                        }
+
+                        //slide the window down one, row y - radius leaves the slot that row y + radius + 1 goes in
+                        int slot = Math.floorMod(y + SMOOTHING_RADIUS + 1, side) * stripFloats;
+                        for(int i = 0; i < stripFloats; i++){sums[i] -= window[slot + i];}
+                        readRowSums(y + SMOOTHING_RADIUS + 1, startX, window, slot, stripFloats);
+                        for(int i = 0; i < stripFloats; i++){sums[i] += window[slot + i];}
+                    }
+                }
+            }
+
+
+
+
+            /**
+             * Reads the sums along the flattened array for part of a row into the window. Rows outside the level
+             * haven't got sums in the smoothed normals, so theirs are summed from the normals, which are only not
+             * 0 near the corners where the flattened array starts and ends.
+             *
+             * @param y             the row, which can be outside the level
+             * @param startX        x position of the first pixel
+             * @param window        the array to read the sums into
+             * @param offset        the position in window to put the first sum
+             * @param numFloats     the number of floats to read, 3 per pixel
+             */
+            private void readRowSums(int y, int startX, float[] window, int offset, int numFloats){
+                int start = y * width + startX;
+                for(int i = 0; i < numFloats; i++){
+                    if(y >= 0 && y < height){
+                        window[offset + i] = smoothed.get(start * 3 + i);
+                    }else{
+                        window[offset + i] = (float) sumAlongRows(normals, numPixels, start + i / 3, i % 3);
+                    }
+                }
+            }
+        });
+
+        return smoothed;
     }
 
 
+
+
     /**
-     * @return {@link RTIObjectHSH#redVals2}
+     * Averages the normals over the block around each pixel for a level paged from the disk, writing the smoothed
+     * normals to a {@link TiledNormalStore} a tile at a time. Each tile reads the normals of its rows and the
+     * {@link RTIObjectHSH#SMOOTHING_RADIUS} rows either side of it, and sums them the same way as
+     * {@link RTIObjectHSH#calculateSmoothedNormals(FloatBuffer, int, int)}: along the flattened array first, so the
+     * blocks at the left and right edges carry on into the rows above and below, then down the columns. The sums for
+     * the rows around each tile are worked out again by the tiles next to it, and are started afresh for each tile
+     * rather than carried on down the whole level, so they can differ from the ones for a level in memory in the last
+     * bits of the float.
+     *
+     * @param normals       the normals of the level
+     * @return              the smoothed normal vectors for the level
      */
-    public FloatBuffer getRedVals2() {
-        return redVals2;
+    private NormalStore calculateTiledSmoothedNormals(final NormalStore normals){
+        final int width = normals.getWidth();
+        final int height = normals.getHeight();
+        final int side = 2 * SMOOTHING_RADIUS + 1;
+
+        try{
+            TiledNormalStore smoothed = TiledNormalStore.create(width, height, new TiledNormalStore.RegionSource() {
+                @Override
+                public void readRegion(int x, int y, int regionWidth, int regionHeight, float[] out) {
+                    int runLength = regionWidth + 2 * SMOOTHING_RADIUS;
+                    int rowFloats = regionWidth * 3;
+                    int numRows = regionHeight + 2 * SMOOTHING_RADIUS;
+                    float[] run = new float[runLength * 3];
+                    float[] rowSums = new float[numRows * rowFloats];
+
+                    //sum each row of the region and the rows around it along the flattened array
+                    for(int row = 0; row < numRows; row++){
+                        long start = (long) (y - SMOOTHING_RADIUS + row) * width + x - SMOOTHING_RADIUS;
+                        readFlattened(normals, start, runLength, run);
+                        for(int component = 0; component < 3; component++){
+                            double sum = 0;
+                            for(int i = 0; i < side - 1; i++){sum += run[i * 3 + component];}
+                            for(int i = 0; i < regionWidth; i++){
+                                sum += run[(i + side - 1) * 3 + component];
+                                rowSums[row * rowFloats + i * 3 + component] = (float) sum;
+                                sum -= run[i * 3 + component];
+                            }
+                        }
+                    }
+
+                    //then sum those down the columns and average the block, 5 seems to be a good number to get good
+                    //enhancement here
+                    for(int i = 0; i < rowFloats; i++){
+                        double sum = 0;
+                        for(int row = 0; row < side - 1; row++){sum += rowSums[row * rowFloats + i];}
+                        for(int row = 0; row < regionHeight; row++){
+                            sum += rowSums[(row + side - 1) * rowFloats + i];
+                            out[row * rowFloats + i] = (float) (5 * sum / (side * side));
+                            sum -= rowSums[row * rowFloats + i];
+                        }
+                    }
+
+                    //then normalise it
+                    for(int i = 0; i < out.length; i += 3){
+                        float length = (float) Math.sqrt(out[i] * out[i] + out[i + 1] * out[i + 1] +
+                                                         out[i + 2] * out[i + 2]);
+                        if(length != 0){
+                            out[i] = out[i] / length;
+                            out[i + 1] = out[i + 1] / length;
+                            out[i + 2] = out[i + 2] / length;
+                        }
+                    }
+                }
+            });
+            buffers.closeOnRelease(smoothed);
+            return smoothed;
+        }catch(IOException e){
+            throw new IllegalStateException("Couldn't write the smoothed normals of " + filePath + " to the disk", e);
+        }
     }
 
 
+
+
     /**
-     * @return {@link RTIObjectHSH#redVals3}
+     * Reads a run of normals along the flattened array of a level into the array, counting the normals outside the
+     * level as 0, so the run can start before the first pixel and carry on past the last one.
+     *
+     * @param normals       the normals of the level
+     * @param start         index in the flattened array of the first pixel of the run, which can be negative
+     * @param count         the number of pixels in the run
+     * @param dest          the array to read the normals into, from 0
      */
-    public FloatBuffer getRedVals3() {
-        return redVals3;
+    private static void readFlattened(NormalStore normals, long start, int count, float[] dest){
+        int width = normals.getWidth();
+        long numPixels = (long) width * normals.getHeight();
+        int i = 0;
+        while(i < count){
+            long pixel = start + i;
+            if(pixel < 0 || pixel >= numPixels){
+                dest[i * 3] = 0;
+                dest[i * 3 + 1] = 0;
+                dest[i * 3 + 2] = 0;
+                i++;
+                continue;
+            }
+
+            //the rest of the run in this row is read in one go
+            int y = (int) (pixel / width);
+            int x = (int) (pixel % width);
+            int length = Math.min(count - i, width - x);
+            normals.readRow(y, x, length, dest, i * 3);
+            i += length;
+        }
     }
 
 
+
+
     /**
-     * @return {@link RTIObjectHSH#greenVals1}
+     * Sums one component of the normals in the window along the flattened array around a pixel, counting the
+     * normals outside the array as 0.
+     *
+     * @param normals       flattened array of (x, y, z) normal vectors
+     * @param numPixels     number of pixels in the array
+     * @param pixel         index of the pixel at the centre of the window, which can be outside the array
+     * @param component     0 for x, 1 for y or 2 for z
+     * @return              the sum of the component over the window
      */
-    public FloatBuffer getGreenVals1() {
-        return greenVals1;
+    private static double sumAlongRows(FloatBuffer normals, int numPixels, int pixel, int component){
+        double sum = 0;
+        int end = Math.min(numPixels - 1, pixel + SMOOTHING_RADIUS);
+        for(int i = Math.max(0, pixel - SMOOTHING_RADIUS); i <= end; i++){
+            sum += normals.get(i * 3 + component);
+        }
+        return sum;
     }
 
 
+
+
     /**
-     * @return {@link RTIObjectHSH#greenVals2}
+     * @return {@link RTIObjectHSH#kernel}
      */
-    public FloatBuffer getGreenVals2() {
-        return greenVals2;
+    public HSHKernel getKernel() {
+        return kernel;
     }
 
 
     /**
-     * @return {@link RTIObjectHSH#greenVals3}
+     * @return  {@link RTIObjectHSH#basisTerms}
      */
-    public FloatBuffer getGreenVals3() {
-        return greenVals3;
+    public int getBasisTerms() {
+        return basisTerms;
     }
 
 
     /**
-     * @return {@link RTIObjectHSH#blueVals1}
+     * @return {@link RTIObjectHSH#scale}
      */
-    public FloatBuffer getBlueVals1() {
-        return blueVals1;
+    public float[] getScale() {
+        return scale;
     }
 
 
     /**
-     * @return {@link RTIObjectHSH#blueVals2}
+     * @return {@link RTIObjectHSH#bias}
      */
-    public FloatBuffer getBlueVals2() {
-        return blueVals2;
+    public float[] getBias() {
+        return bias;
     }
 
 
     /**
-     * @return {@link RTIObjectHSH#blueVals3}
+     * @return {@link RTIObjectHSH#coeffLookup}
      */
-    public FloatBuffer getBlueVals3() {
-        return blueVals3;
+    public float[][] getCoeffLookup() {
+        return coeffLookup;
     }
 }
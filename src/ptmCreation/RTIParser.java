@@ -1,20 +1,23 @@
 package ptmCreation;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.io.*;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-
-import org.lwjgl.BufferUtils;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+
+import utils.ComputePool;
+import utils.NativeBuffers;
 import utils.Utils;
 
-import com.sun.image.codec.jpeg.JPEGCodec;
-import com.sun.image.codec.jpeg.JPEGImageDecoder;
-
-import com.google.common.io.LittleEndianDataInputStream;
-
 /**
  * This class is responsible for parsing pm files and creating PTMObjects from the data. The parser accepts
  * PTM version 1.2, and the following file formats:
@@ -25,6 +28,14 @@ import com.google.common.io.LittleEndianDataInputStream;
  * RTI/PTM files are plain-text files. Links to the documents for the format specification of both files are
  * given in the user guide for this app.
  *
+ * Each file is memory mapped once by a {@link MappedFileReader}, and the header and texel data are both read from
+ * that one mapping, so the file is never copied onto the heap in one go.
+ *
+ * The parser has no static state that changes, everything found out about a file while parsing it is kept in
+ * its own {@link ParseContext}, so any number of files can be parsed at once on different threads. The only thing
+ * the parses share is the {@link RTIParser#diskReads} limiter, which lets a couple of rows be read from the disk at a
+ * time across all the files being loaded, while the rows already read are decoded on every core.
+ *
  *
  * @author Jed Mills
  */
@@ -37,11 +48,12 @@ public class RTIParser {
     private static final String[] acceptedFormats = new String[]{"PTM_FORMAT_RGB", "PTM_FORMAT_LRGB",
                                                                 "PTM_FORMAT_JPEG_LRGB", "#HSH1.2"};
 
-    /**Scaling coefficients used for RGB format found in file header*/
-    private static float[] scaleCoeffs;
+    /**Number of reads from the files' mappings that can page data in from the disk at once*/
+    private static final int MAX_DISK_READS = 2;
 
-    /**Bias coefficients for RGB format found in file header*/
-    private static int[] biasCoeffs;
+    /**Caps the reads from the disk across every file being parsed, so loading several files at once doesn't thrash
+     * the disk with lots of competing reads, the decoding of the rows that have been read isn't limited by it*/
+    private static final Semaphore diskReads = new Semaphore(MAX_DISK_READS, true);
 
 
     /**
@@ -49,84 +61,656 @@ public class RTIParser {
      * scales/biases as appropriate to the file type, creates the new RTIObject and returns that.
      *
      * @param fileName                          the path to the .ptm/.rti file
-     * @param mipMappingLevel                   the mip mapping level to reduce the parsed RTIObject to
      * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
      * @throws IOException                      if there's an error when trying to access the file
      * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
      */
-    public static RTIObject createPtmFromFile(String fileName, int mipMappingLevel) throws IOException,
+    public static RTIObject createPtmFromFile(String fileName) throws IOException,
             RTICreator.RTIFileException, RuntimeException {
+        return createPtmFromFile(fileName, null);
+    }
+
+
+
+
+    /**
+     * Reads the .ptm/.rti file passed in the fileName argument progressively. A rough coarsest level of the
+     * RTIObject's mip pyramid is sampled from the file first, and the RTIObject is given to the listener with only
+     * that level, so it can be shown straight away. The file is then decoded once, and all the levels made from it are
+     * added to the same RTIObject, using {@link RTIObject#addLevels(RTIObject)}, before it's returned. If the listener
+     * is null, or the file is JPEG compressed, the whole pyramid is made before the RTIObject is created. The caller
+     * owns the returned RTIObject, and closes it when it has finished with it so that its native buffers are freed.
+     *
+     * @param fileName                          the path to the .ptm/.rti file
+     * @param listener                          given the RTIObject once its coarsest level is loaded, can be null
+     * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    public static RTIObject createPtmFromFile(String fileName, ProgressListener listener)
+            throws IOException, RTICreator.RTIFileException, RuntimeException {
+        return createPtmFromFile(fileName, 0, listener);
+    }
+
+
+
+
+    /**
+     * Reads the .ptm/.rti file passed in the fileName argument progressively, like
+     * {@link RTIParser#createPtmFromFile(String, ProgressListener)}, but only loads the levels of the mip pyramid
+     * from finestLevel down. The texel data is decoded straight to finestLevel, so the levels finer than it are never
+     * held in memory, and are left unloaded in the RTIObject. This is used to open files at the mip level selected in
+     * the menu, or at a coarser one if they're too big to fit in memory at that level, see {@link MemoryBudget}. The
+     * finer levels can be added later with {@link RTIParser#loadFinerLevels(RTIObject, int)}.
+     *
+     * @param fileName                          the path to the .ptm/.rti file
+     * @param finestLevel                       the finest level of the mip pyramid to load, 0 being the full size
+     * @param listener                          given the RTIObject once its coarsest level is loaded, can be null
+     * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    public static RTIObject createPtmFromFile(String fileName, int finestLevel, ProgressListener listener)
+            throws IOException, RTICreator.RTIFileException, RuntimeException {
         if(!(fileName.endsWith(".ptm") || fileName.endsWith(".rti"))){
             throw new RTICreator.RTIFileException("Only '.rti' and '.ptm' files accepted.");
         }
 
+        //map the file once, everything from here on reads from this, and the OS pages the rows in as they're read
+        MappedFileReader reader = new MappedFileReader(fileName);
+        try {
+            //the buffers decoded so far are freed if the file can't be loaded, unless the listener has kept the
+            //coarsest level, when they're freed once it's finished with it
+            ParseContext context = new ParseContext(reader, fileName);
+            boolean created = false;
+            try{
+                RTIObject rtiObject = createPtmFromContext(context, finestLevel, listener);
+                created = true;
+                return rtiObject;
+            }finally{
+                if(!created){context.buffers.release();}
+            }
+        }finally{
+            reader.close();
+        }
+    }
+
+
+
+    /**
+     * Loads the levels of the mip pyramid from the given level up to the finest level the RTIObject already has, for
+     * an RTIObject that was opened at a coarser level than the full size one, see
+     * {@link RTIParser#createPtmFromFile(String, int, ProgressListener)}. The file is decoded again straight to the
+     * given level, and only the levels the RTIObject is missing are mipped from it, which are added to the RTIObject
+     * using {@link RTIObject#addLevels(RTIObject)}. The new levels are allocated by the RTIObject's own buffers, so
+     * they're freed with the rest of it. The caller must hold a reference to the RTIObject while this runs.
+     *
+     * @param rtiObject                         the RTIObject to add the finer levels to
+     * @param finestLevel                       the finest level of the mip pyramid to load, 0 being the full size
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    public static void loadFinerLevels(RTIObject rtiObject, int finestLevel)
+            throws IOException, RTICreator.RTIFileException, RuntimeException {
+        int loadedLevel = rtiObject.getFinestLoadedLevel();
+        if(finestLevel >= loadedLevel){return;}
+
+        MappedFileReader reader = new MappedFileReader(rtiObject.getFilePath());
+        try {
+            ParseContext context = new ParseContext(reader, rtiObject.getFilePath(), rtiObject.buffers);
+            String format = getFileFormat(context);
+            int[] headerData = getHeaderData(context, format);
+            int width = rtiObject.getWidth();
+            int height = rtiObject.getHeight();
+
+            //decode to the level wanted, and only mip the levels between it and the finest one already loaded
+            ByteBuffer[] levels = createMipLevels(getTexelData(context, format, headerData, finestLevel, false),
+                                                  getPixelSize(format, headerData), width >> finestLevel,
+                                                  height >> finestLevel, loadedLevel - finestLevel, context.buffers);
+            ByteBuffer[] pyramid = new ByteBuffer[rtiObject.getNumLevels()];
+            System.arraycopy(levels, 0, pyramid, finestLevel, levels.length);
+
+            rtiObject.addLevels(createRTIObject(context, format, headerData, width, height, pyramid));
+        }finally{
+            reader.close();
+        }
+    }
+
+
+
+    /**
+     * Pages the levels of the mip pyramid from the given level up to the finest level the RTIObject already has from
+     * the disk, for levels too big to load into memory, see {@link MemoryBudget}. The finest of them is decoded from
+     * the file a tile at a time, straight into a {@link TiledCoefficientStore}, and each coarser one is mipped from
+     * the tiles of the level above it, so only a few tiles of any level are ever held in memory. The coefficients are
+     * averaged the same way as {@link RTIParser#loadFinerLevels(RTIObject, int)}, so a tiled level is exactly what
+     * would have been loaded into memory. The levels are added to the RTIObject using
+     * {@link RTIObject#addTiledLevel(int, TiledCoefficientStore)}, and their tiled files are deleted when it's closed.
+     * The caller must hold a reference to the RTIObject while this runs.
+     *
+     * The JPEG planes of compressed files can only be decoded whole, so their levels can't be paged from the disk.
+     *
+     * @param rtiObject                         the RTIObject to add the finer levels to
+     * @param finestLevel                       the finest level of the mip pyramid to page in, 0 being the full size
+     * @throws IOException                      if there's an error when trying to access the file or the tiles
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file, or it's
+     *                                          compressed
+     */
+    public static void loadTiledLevels(RTIObject rtiObject, int finestLevel)
+            throws IOException, RTICreator.RTIFileException, RuntimeException {
+        int loadedLevel = rtiObject.getFinestLoadedLevel();
+        if(finestLevel >= loadedLevel){return;}
+
+        MappedFileReader reader = new MappedFileReader(rtiObject.getFilePath());
+        try {
+            ParseContext context = new ParseContext(reader, rtiObject.getFilePath(), rtiObject.buffers);
+            String format = getFileFormat(context);
+            int[] headerData = getHeaderData(context, format);
+            TexelRows rows = createTexelRows(context, format, headerData);
+
+            //the finest level is decoded from the file, then each coarser level is mipped from the one above it
+            TiledCoefficientStore above = null;
+            for(int level = finestLevel; level < loadedLevel; level++){
+                TiledCoefficientStore store;
+                try{
+                    if(above == null){
+                        store = decodeTiledLevel(rows, level);
+                    }else{
+                        store = mipTiledLevel(above);
+                    }
+                }catch(RuntimeException e){
+                    throw texelError("Error paging texel data from file", e);
+                }
+
+                rtiObject.addTiledLevel(level, store);
+                above = store;
+            }
+        }finally{
+            reader.close();
+        }
+    }
+
+
+
+
+    /**
+     * Makes the reader for the texel data of the file in its format, see {@link TexelRows}.
+     *
+     * @param context                           the context for parsing this file, with the header read
+     * @param format                            the format of the file
+     * @param headerData                        the header data for the file, see {@link RTIParser#getHeaderData}
+     * @return                                  reads the rows of texel data from the file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if the file is compressed, or the format is unknown
+     */
+    private static TexelRows createTexelRows(ParseContext context, String format, int[] headerData)
+                                                            throws IOException, RTICreator.RTIFileException {
+        if(format.equals("PTM_FORMAT_RGB")) {
+            return new RGBRows(context.reader, headerData[0], headerData[1], headerData[2]);
+
+        }else if(format.equals("PTM_FORMAT_LRGB")){
+            return new LRGBRows(context.reader, headerData[0], headerData[1], headerData[2]);
+
+        }else if(format.equals("PTM_FORMAT_JPEG_LRGB")){
+            throw new RTICreator.RTIFileException("Compressed PTMs can only be decoded whole, so can't be paged " +
+                                                  "from the disk.");
+
+        }else if(format.equals("HSH")){
+            return createHSHRows(context, headerData[0], headerData[1], headerData[3], headerData[6]);
+        }
+
+        throw new RTICreator.RTIFileException("Unknown file format: " + format);
+    }
+
+
+
+
+    /**
+     * Decodes the texel data of the file, averaged down to the given level, into a new tiled file a tile at a time.
+     * Each tile's rows are made from the blocks of rows under it in the file, read for just the tile's columns, and
+     * mipped the same way as {@link RTIParser#decodeTexels}.
+     *
+     * @param rows                  reads the rows of texel data from the file
+     * @param mipMappingLevel       the level of mip mapping to decode the texel data at
+     * @return                      the interleaved coefficients of the level in a tiled file
+     * @throws IOException          if there's an error writing the tiled file
+     */
+    private static TiledCoefficientStore decodeTiledLevel(final TexelRows rows, final int mipMappingLevel)
+                                                                                            throws IOException {
+        final int blockSize = 1 << mipMappingLevel;
+        final int pixelSize = rows.pixelSize;
+
+        return TiledCoefficientStore.create(rows.width / blockSize, rows.height / blockSize, pixelSize,
+                                            new TiledFile.RegionSource() {
+            @Override
+            public void readRegion(int x, int y, int width, int height, byte[] out) {
+                //the block of rows in the file under each row of the tile, just the tile's columns
+                byte[][] block = new byte[blockSize][width * blockSize * pixelSize];
+                byte[] scratch = rows.createScratch(width * blockSize);
+
+                for(int mipY = y; mipY < y + height; mipY++){
+                    for(int s = 0; s < blockSize; s++){
+                        rows.read((mipY * blockSize) + s, x * blockSize, width * blockSize, block[s], scratch);
+                    }
+
+                    mipBlock(block, width, mipMappingLevel, false, pixelSize);
+                    System.arraycopy(block[0], 0, out, (mipY - y) * width * pixelSize, width * pixelSize);
+                }
+            }
+        });
+    }
+
+
+
+
+    /**
+     * Mips a tiled level down to a new tiled level half its width and height, a tile at a time, the same way as
+     * {@link RTIParser#createMipLevels}. Each tile reads the two rows of the level above under each of its rows.
+     *
+     * @param above                 the level to mip
+     * @return                      the mipped level in a tiled file
+     * @throws IOException          if there's an error writing the tiled file
+     */
+    private static TiledCoefficientStore mipTiledLevel(final TiledCoefficientStore above) throws IOException {
+        final int pixelSize = above.getCoefficientsPerPixel();
+
+        return TiledCoefficientStore.create(above.getWidth() / 2, above.getHeight() / 2, pixelSize,
+                                            new TiledFile.RegionSource() {
+            @Override
+            public void readRegion(int x, int y, int width, int height, byte[] out) {
+                //the two rows of the level above that make each row of the tile
+                byte[][] block = new byte[2][width * 2 * pixelSize];
+
+                for(int mipY = y; mipY < y + height; mipY++){
+                    above.readRow(2 * mipY, 2 * x, 2 * width, block[0], 0);
+                    above.readRow((2 * mipY) + 1, 2 * x, 2 * width, block[1], 0);
+                    downsampleBlock(block, width, 1, pixelSize);
+                    System.arraycopy(block[0], 0, out, (mipY - y) * width * pixelSize, width * pixelSize);
+                }
+            }
+        });
+    }
+
+
+
+
+    /**
+     * Parses the header and texel data from the mapped file in the context's reader, and creates the appropriate
+     * RTIObject. The texel data is decoded once at the finest level to load, and the coarser levels of the
+     * RTIObject's mip pyramid are made from that, see
+     * {@link RTIParser#createMipLevels(ByteBuffer, int, int, int, int, NativeBuffers)}. If there is a listener, a rough
+     * coarsest level is sampled from the file first, which only reads one row in every block of rows, and given to
+     * the listener so it can be shown while the file is decoded. It's replaced by the properly mipped coarsest level
+     * once the rest of the levels are added. The JPEG planes of compressed files can only be decoded whole, so those
+     * aren't sampled, and the listener isn't given them.
+     *
+     * @param context                           the context for parsing this file, with the reader at position 0
+     * @param finestLevel                       the finest level of the mip pyramid to load, 0 being the full size
+     * @param listener                          given the RTIObject once its coarsest level is loaded, can be null
+     * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    private static RTIObject createPtmFromContext(ParseContext context, int finestLevel, ProgressListener listener)
+                                                            throws IOException, RTICreator.RTIFileException {
         //check the version and format of the file, and get the file format
-        String format = getFileFormat(fileName);
+        String format = getFileFormat(context);
 
         //get the PTM version, file format, width, height, and coefficients
-        int[] headerData = getHeaderData(fileName, format);
+        int[] headerData = getHeaderData(context, format);
 
 
-        //with mip mapping, the width and height of the RTIObject are halved per mip mapping level
-        int finalWidth;
-        int finalHeight;
+        //the full width and height of the RTIObject, the smaller levels of the pyramid are made from these
+        int width;
+        int height;
 
         if(format.equals("HSH")){
             //the headerDats has a different order out output numbers for HSH files, so get the actual ones here
-            finalWidth = (int)  Math.floor((headerData[0]) / (Math.pow(2, mipMappingLevel)));
-            finalHeight = (int) Math.floor((headerData[1]) / (Math.pow(2, mipMappingLevel)));
+            width = headerData[0];
+            height = headerData[1];
         }else{
-            finalWidth = (int)  Math.floor((headerData[1]) / (Math.pow(2, mipMappingLevel)));
-            finalHeight = (int) Math.floor((headerData[2]) / (Math.pow(2, mipMappingLevel)));
+            width = headerData[1];
+            height = headerData[2];
         }
 
+        int numLevels = RTIObject.getNumLevels(width, height);
+        int coarsestLevel = numLevels - 1;
+        finestLevel = Math.max(0, Math.min(finestLevel, coarsestLevel));
+
+        if(listener == null || finestLevel == coarsestLevel || format.equals("PTM_FORMAT_JPEG_LRGB")){
+            //decode and mip everything before making the RTIObject
+            return createRTIObject(context, format, headerData, width, height,
+                                   decodeLevels(context, format, headerData, width, height, finestLevel));
+        }
+
+        //the coarsest level is sampled from a fraction of the rows of the file so it can be shown before the file has
+        //been decoded, it takes a sixteenth of the memory of the full size level at most, so it's just kept
+        ByteBuffer[] coarseLevels = new ByteBuffer[numLevels];
+        coarseLevels[coarsestLevel] = getTexelData(context, format, headerData, coarsestLevel, true);
+
+        RTIObject rtiObject = createRTIObject(context, format, headerData, width, height, coarseLevels);
+        listener.coarseLevelLoaded(rtiObject);
 
+        //the file is only decoded once, and every level, including the coarsest, is mipped from that
+        rtiObject.addLevels(createRTIObject(context, format, headerData, width, height,
+                                            decodeLevels(context, format, headerData, width, height, finestLevel)));
 
+        return rtiObject;
+    }
+
+
+
+
+    /**
+     * Decodes the texel data of the file once at the finest level to load, and mips every coarser level of the mip
+     * pyramid from it.
+     *
+     * @param context                           the context for parsing this file, with the header read
+     * @param format                            the format of the file
+     * @param headerData                        the header data for the file, see {@link RTIParser#getHeaderData}
+     * @param width                             the full width of the RTIObject
+     * @param height                            the full height of the RTIObject
+     * @param finestLevel                       the finest level of the mip pyramid to load, 0 being the full size
+     * @return                                  the texel data for each level, null for the levels finer than it
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    private static ByteBuffer[] decodeLevels(ParseContext context, String format, int[] headerData, int width,
+                                             int height, int finestLevel)
+                                                            throws IOException, RTICreator.RTIFileException {
+        ByteBuffer[] texelLevels = createMipLevels(getTexelData(context, format, headerData, finestLevel, false),
+                                                   getPixelSize(format, headerData), width >> finestLevel,
+                                                   height >> finestLevel,
+                                                   RTIObject.getNumLevels(width, height) - finestLevel,
+                                                   context.buffers);
+        return fromLevel(texelLevels, finestLevel);
+    }
+
+
+
+
+    /**
+     * Reads the texel data of the file using the reader for its format, mipped to the given level. The texel data
+     * of the uncompressed formats can be sampled rather than averaged, see
+     * {@link RTIParser#mipBlock(byte[][], int, int, boolean, int)}, which only reads one row in every block of rows of
+     * the file. The JPEG planes of compressed files can only be decoded whole, so they're always averaged. Whatever
+     * the format, the texel data is the interleaved coefficients of each pixel, see {@link CoefficientStore}.
+     *
+     * @param context                           the context for parsing this file, with the header read
+     * @param format                            the format of the file
+     * @param headerData                        the header data for the file, see {@link RTIParser#getHeaderData}
+     * @param mipMappingLevel                   the mip mapping level to decode the texel data at
+     * @param sampled                           whether to sample each pixel of the level rather than average it
+     * @return                                  the interleaved coefficients of the file, at the mip level
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    private static ByteBuffer getTexelData(ParseContext context, String format, int[] headerData,
+                                             int mipMappingLevel, boolean sampled)
+                                                            throws IOException, RTICreator.RTIFileException {
         if(format.equals("PTM_FORMAT_RGB")) {
             //get the 6 coefficients per colour per pixel
-            IntBuffer[] texelData = getTexelDataRGB(fileName, format, headerData[0], headerData[1],
-                    headerData[2], mipMappingLevel);
-
-            return new PTMObjectRGB(fileName, finalWidth, finalHeight, texelData);
+            return getTexelDataRGB(context, format, headerData[0], headerData[1], headerData[2], mipMappingLevel,
+                                   sampled);
 
         }else if(format.equals("PTM_FORMAT_LRGB")){
             //get the 6 lum coeffs and 3 rgb coeffs per pixel
-            IntBuffer[] texelData = getTexelDataLRGB(fileName, format, headerData[0], headerData[1],
-                    headerData[2], mipMappingLevel);
-
-            return new PTMObjectLRGB(fileName, finalWidth, finalHeight, texelData);
+            return getTexelDataLRGB(context, format, headerData[0], headerData[1], headerData[2], mipMappingLevel,
+                                    sampled);
 
         }else if(format.equals("PTM_FORMAT_JPEG_LRGB")){
             //decode the jpeg, then get the 6 lum coeffs and 3 rgb coeffs per pixel
-            IntBuffer[] texelData = getTexelDataJPEGLRGB(fileName, headerData, mipMappingLevel);
-
-            return new PTMObjectLRGB(fileName, finalWidth, finalHeight, texelData);
+            return getTexelDataJPEGLRGB(context, headerData, mipMappingLevel);
 
         }else if(format.equals("HSH")){
             //get the varying number (depending on basis terms) of HSH coeffs per pixel for HSH
-            FloatBuffer[] texelData = getTexelDataHSH(fileName, headerData[0], headerData[1],
-                    headerData[3], headerData[6], mipMappingLevel);
+            return getTexelDataHSH(context, headerData[0], headerData[1], headerData[3], headerData[6],
+                                   mipMappingLevel, sampled);
+        }
+
+        throw new RTICreator.RTIFileException("Unknown file format: " + format);
+    }
+
+
+
 
-            return new RTIObjectHSH(fileName, finalWidth, finalHeight, headerData[2],
-                                    headerData[3], headerData[4], texelData);
+    /**
+     * Gets the number of coefficients each pixel of the file's format has in its interleaved texel data, see
+     * {@link CoefficientStore}.
+     *
+     * @param format        the format of the file
+     * @param headerData    the header data for the file, see {@link RTIParser#getHeaderData}
+     * @return              the number of coefficients per pixel
+     */
+    private static int getPixelSize(String format, int[] headerData){
+        if(format.equals("PTM_FORMAT_RGB")){
+            return PTMObjectRGB.COEFFS_PER_PIXEL;
+        }else if(format.equals("HSH")){
+            //a coefficient for each basis term for each colour
+            return headerData[3] * 3;
+        }else{
+            return PTMObjectLRGB.COEFFS_PER_PIXEL;
+        }
+    }
+
+
+
+
+    /**
+     * Creates the right type of RTIObject for the file's format from the texel data for its mip levels.
+     *
+     * @param context               the context for parsing this file, with the header read
+     * @param format                the format of the file
+     * @param headerData            the header data for the file, see {@link RTIParser#getHeaderData}
+     * @param width                 the full width of the RTIObject
+     * @param height                the full height of the RTIObject
+     * @param texelLevels           the texel data for each mip level, null for levels that aren't loaded yet
+     * @return                      the new RTIObject
+     */
+    private static RTIObject createRTIObject(ParseContext context, String format, int[] headerData, int width,
+                                             int height, ByteBuffer[] texelLevels){
+        if(format.equals("PTM_FORMAT_RGB")) {
+            return new PTMObjectRGB(context.fileName, width, height, texelLevels, null, context.buffers,
+                                    context.scaleCoeffs, context.biasCoeffs);
+
+        }else if(format.equals("PTM_FORMAT_LRGB") || format.equals("PTM_FORMAT_JPEG_LRGB")){
+            return new PTMObjectLRGB(context.fileName, width, height, texelLevels, null, context.buffers,
+                                     context.scaleCoeffs, context.biasCoeffs);
+
+        }else if(format.equals("HSH")){
+            return new RTIObjectHSH(context.fileName, width, height, headerData[2],
+                                    headerData[3], headerData[4], texelLevels, null, context.buffers,
+                                    context.scaleCoeffs, context.hshBiasCoeffs);
         }
 
         return null;
     }
 
 
+
+
+    /**
+     * Moves the levels of a mip pyramid made from the given level down by that many places, so each level is at its
+     * index in the RTIObject's pyramid. The levels finer than the given one are left null, as they aren't loaded.
+     *
+     * @param levels        the levels made by {@link RTIParser#createMipLevels}, starting with the given level
+     * @param finestLevel   the level of the RTIObject's pyramid that the first of the levels is
+     * @return              the levels at their place in the pyramid
+     */
+    private static ByteBuffer[] fromLevel(ByteBuffer[] levels, int finestLevel){
+        if(finestLevel == 0){return levels;}
+
+        ByteBuffer[] pyramid = new ByteBuffer[finestLevel + levels.length];
+        System.arraycopy(levels, 0, pyramid, finestLevel, levels.length);
+        return pyramid;
+    }
+
+
+
+
+    /**
+     * Makes the mip pyramid for an RTIObject from the texel data of the finest level that's loaded, usually the full
+     * size level. Each level is made from the level above it, so every level is only mipped once, and the rows of each
+     * level are made in parallel on the {@link ComputePool}. Level 0 of the returned array is the texel data that was
+     * passed. Each coefficient of a pixel's block is averaged on its own, so the interleaved blocks are mipped whole.
+     *
+     * @see RTIObject#getNumLevels(int, int)
+     *
+     * @param texelData     the interleaved coefficients of the finest level
+     * @param pixelSize     the number of coefficients each pixel has
+     * @param width         width of the texel data
+     * @param height        height of the texel data
+     * @param numLevels     the number of levels to make, including the finest level
+     * @param buffers       allocates the buffers for the mipped levels
+     * @return              the texel data for each level of the pyramid
+     */
+    private static ByteBuffer[] createMipLevels(ByteBuffer texelData, final int pixelSize, int width, int height,
+                                                int numLevels, NativeBuffers buffers){
+        ByteBuffer[] levels = new ByteBuffer[numLevels];
+        levels[0] = texelData;
+
+        for(int level = 1; level < levels.length; level++){
+            final ByteBuffer above = levels[level - 1];
+            final int aboveWidth = width >> (level - 1);
+            final int levelWidth = width >> level;
+            final int levelHeight = height >> level;
+            final ByteBuffer mipped = buffers.allocateBytes(levelWidth * levelHeight * pixelSize);
+
+            ComputePool.processRows(levelHeight, new ComputePool.RowProcessor() {
+                @Override
+                public void processRows(int startRow, int endRow) {
+                    //the two rows of the level above that make each row of this level
+                    byte[][] block = new byte[2][aboveWidth * pixelSize];
+
+                    for(int y = startRow; y < endRow; y++){
+                        getRow(above, (2 * y) * aboveWidth * pixelSize, block[0]);
+                        getRow(above, ((2 * y) + 1) * aboveWidth * pixelSize, block[1]);
+                        downsampleBlock(block, levelWidth, 1, pixelSize);
+                        putRow(mipped, y * levelWidth * pixelSize, block[0], levelWidth * pixelSize);
+                    }
+                }
+            });
+
+            levels[level] = mipped;
+        }
+
+        return levels;
+    }
+
+
+
+
     /**
      * Reads the .ptm/.rti file passed in the fileName argument, checks the header etc., reads the data and
      * scales/biases as appropriate to the file type, creates the new RTIObject and returns that.
      *
      * @param file                              the .ptm/.rti file
-     * @param mipMappingLevel                   the mip mapping level to reduce the parsed RTIObject to
      * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
      * @throws IOException                      if there's an error when trying to access the file
      * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
      */
-    public static RTIObject createPtmFromFile(File file, int mipMappingLevel) throws IOException, RTICreator.RTIFileException {
-        return createPtmFromFile(file.getAbsolutePath(), mipMappingLevel);
+    public static RTIObject createPtmFromFile(File file) throws IOException, RTICreator.RTIFileException {
+        return createPtmFromFile(file.getAbsolutePath());
+    }
+
+
+
+
+    /**
+     * Reads the .ptm/.rti file progressively, see {@link RTIParser#createPtmFromFile(String, ProgressListener)}.
+     *
+     * @param file                              the .ptm/.rti file
+     * @param listener                          given the RTIObject once its coarsest level is loaded, can be null
+     * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    public static RTIObject createPtmFromFile(File file, ProgressListener listener)
+                                                        throws IOException, RTICreator.RTIFileException {
+        return createPtmFromFile(file.getAbsolutePath(), listener);
+    }
+
+
+
+
+    /**
+     * Reads only the levels of the mip pyramid of the .ptm/.rti file from finestLevel down, see
+     * {@link RTIParser#createPtmFromFile(String, int, ProgressListener)}.
+     *
+     * @param file                              the .ptm/.rti file
+     * @param finestLevel                       the finest level of the mip pyramid to load, 0 being the full size
+     * @param listener                          given the RTIObject once its coarsest level is loaded, can be null
+     * @return                                  a new ptmCreation.RTIObject using the data in he .ptm file
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the file
+     */
+    public static RTIObject createPtmFromFile(File file, int finestLevel, ProgressListener listener)
+                                                        throws IOException, RTICreator.RTIFileException {
+        return createPtmFromFile(file.getAbsolutePath(), finestLevel, listener);
+    }
+
+
+
+
+    /**
+     * Reads only the header of the .ptm/.rti file, and returns a description of the file from it. None of the texel
+     * data is read, and the file isn't paged into memory, so this is quick enough to call on lots of files at once.
+     * Like the other parsing methods, this can be called from several threads at once.
+     *
+     * @param file                              the .ptm/.rti file
+     * @return                                  the description of the file from its header
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error in file type/format/parsing the header
+     */
+    public static RTIFileInfo probe(File file) throws IOException, RTICreator.RTIFileException {
+        String fileName = file.getAbsolutePath();
+        if(!(fileName.endsWith(".ptm") || fileName.endsWith(".rti"))){
+            throw new RTICreator.RTIFileException("Only '.rti' and '.ptm' files accepted.");
+        }
+
+        //the file is mapped but not loaded, so only the pages with the header in are read from the disk
+        MappedFileReader reader = new MappedFileReader(fileName);
+        try {
+            ParseContext context = new ParseContext(reader, fileName);
+            String format = getFileFormat(context);
+            int[] headerData = getHeaderData(context, format);
+
+            if(format.equals("HSH")){
+                //the HSH scale and bias are just after the header, rather than in it
+                readHSHScaleBias(context, headerData[3], headerData[6]);
+
+                return new RTIFileInfo(fileName, format, headerData[0], headerData[1], headerData[3],
+                                       context.scaleCoeffs, context.hshBiasCoeffs);
+            }else{
+                float[] bias = new float[context.biasCoeffs.length];
+                for(int i = 0; i < bias.length; i++){bias[i] = context.biasCoeffs[i];}
+
+                return new RTIFileInfo(fileName, format, headerData[1], headerData[2], 6,
+                                       context.scaleCoeffs, bias);
+            }
+        }finally{
+            reader.close();
+        }
+    }
+
+
+
+
+    /**
+     * Is told when the coarsest level of an RTIObject that is being loaded progressively is ready, so that it can be
+     * shown while the finer levels are still being decoded.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the loading thread when the RTIObject has been made with a rough coarsest mip level, sampled from
+         * the file. The properly decoded levels are added to it on the same thread after this returns. This isn't
+         * called for files that can't be sampled, which are returned with all their levels. The listener has to
+         * {@link RTIObject#retain()} the RTIObject to keep it, as it's closed if the finer levels can't be loaded.
+         *
+         * @param rtiObject     the RTIObject, with only its coarsest level loaded
+         */
+        void coarseLevelLoaded(RTIObject rtiObject);
     }
 
 
@@ -136,13 +720,14 @@ public class RTIParser {
      * Checks that the PTM version and format type are in the accepted lists (see attributes), and throws
      * a ptmCreation.RTICreator.RTIFileException if they aren't. Returns the file format if everything ok.
      *
-     * @param fileName              path to the .ptm file
+     * @param context               the context for parsing this file, with the reader at position 0
      * @return                      the file format,sound on line 2 in a ptm file
      * @throws IOException          if there's an error trying to access the file
      * @throws RTICreator.RTIFileException     if the PTM version or format are not in the accepted types
      */
-    private static String getFileFormat(String fileName) throws IOException, RTICreator.RTIFileException {
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+    private static String getFileFormat(ParseContext context) throws IOException, RTICreator.RTIFileException {
+        MappedFileReader reader = context.reader;
+        String fileName = context.fileName;
 
         String version = reader.readLine();
 
@@ -160,7 +745,6 @@ public class RTIParser {
                 if (!Utils.checkIn(fileFormat, acceptedFormats)) {
                     throw new RTICreator.RTIFileException("File does nor contain accepted format on line 2");
                 }
-                reader.close();
                 return fileFormat;
             }
         }else if(fileName.endsWith(".rti")){
@@ -169,14 +753,12 @@ public class RTIParser {
             }
             if(version.equals("3")){
                 //great! let's get the data from the file
-                reader.close();
                 return "HSH";
             }else{
                 //we can only accept version 3
                 throw new RTICreator.RTIFileException("File contain unaccepted RTI type: " + version);
             }
         }
-        reader.close();
 
         return null;
     }
@@ -212,28 +794,28 @@ public class RTIParser {
      *
      * Throws a ptmCreation.RTICreator.RTIFileException if there's some parsing error.
      *
-     * @param fileName              the path to the .ptm file
+     * @param context               the context for parsing this file
      * @param format                the format of the .ptm file, see acceptedFormats
      * @return                      an array containing {dataStartPosition, width, height}
      * @throws IOException          if there's an error trying to access the file
      * @throws RTICreator.RTIFileException     if there's an error parsing the .ptm file
      */
-    private static int[] getHeaderData(String fileName, String format) throws IOException, RTICreator.RTIFileException {
-        //make a read to read in the header section of the .ptm file
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+    private static int[] getHeaderData(ParseContext context, String format) throws IOException,
+                                                                            RTICreator.RTIFileException {
+        MappedFileReader reader = context.reader;
 
+        //the header is read from the start of the mapped file again, it's already in memory so this is cheap
+        reader.position(0);
 
         if(format.equals("PTM_FORMAT_RGB") || format.equals("PTM_FORMAT_LRGB")){
-            int[] data = getStandardPTMHeader(reader);
-            reader.close();
-            return data;
+            return getStandardPTMHeader(context);
         }else if(format.equals("PTM_FORMAT_JPEG_LRGB")){
-            int[] standardHeaderData = getStandardPTMHeader(reader);
+            int[] standardHeaderData = getStandardPTMHeader(context);
             int[][] jpegHeaderData = getJPEGLRGBHeader(reader);
 
-            int dataStartPos = standardHeaderData[0] + jpegHeaderData[0][0];
+            //the compressed data starts straight after the compression header
+            int dataStartPos = jpegHeaderData[0][0];
 
-            reader.close();
             //all the header data in total, flattened
             int[] totalHeaderData = new int[49];
             //the start position of the compressed texel data
@@ -257,16 +839,13 @@ public class RTIParser {
 
             //read through all the comments at the start of the file starting with '#'
             String line = reader.readLine();
-            int startPos = line.length() + 2;
 
             while(line.startsWith("#")){
                 line = reader.readLine();
-                startPos += line.length() + 2;
             }
 
             //contains the width, height, colour channel fo the HSH image
             String firstLine = reader.readLine();
-            startPos += firstLine.length() + 2;
 
             String[] data = firstLine.split("\\s");
             int width = Integer.parseInt(data[0]);
@@ -275,7 +854,9 @@ public class RTIParser {
 
             //contains the basisTerms, basisType, element size for the HSH image
             String secondLine = reader.readLine();
-            startPos += secondLine.length() + 2;
+
+            //the scale, bias and texel data come straight after the header lines
+            int startPos = (int) reader.position();
 
             data = secondLine.split("\\s");
             int basisTerms = Integer.parseInt(data[0]);
@@ -300,28 +881,31 @@ public class RTIParser {
      *     <li>height (height of image)</li>
      * </ol>
      *
-     * Stores the six bias and scale coeffs in the {@link RTIParser#biasCoeffs} and {@link RTIParser#scaleCoeffs}
-     * attributes.
+     * Stores the six bias and scale coeffs in the {@link ParseContext#biasCoeffs} and
+     * {@link ParseContext#scaleCoeffs} attributes of the context.
      *
-     * @param reader                            reader containing the read file data
+     * @param context                           the context for parsing this file, reader at the start of the file
      * @return                                  the header data in the format specified above
      * @throws IOException                      if there's an error accessing the file
      * @throws RTICreator.RTIFileException      if there's an error parsing the file, usually from a malformed file
      */
-    private static int[] getStandardPTMHeader(BufferedReader reader) throws IOException, RTICreator.RTIFileException {
+    private static int[] getStandardPTMHeader(ParseContext context) throws IOException,
+                                                                        RTICreator.RTIFileException {
+        MappedFileReader reader = context.reader;
         String header = "";
         for (int i = 0; i < 6; i++) {
             header += reader.readLine() + " ";
         }
-        int dataStartPos = header.length();
+        //the reader is left at the first byte after the header, whatever line endings the file uses
+        int dataStartPos = (int) reader.position();
 
         //split the header into each item in it
         String[] items = header.split("(\\s+)|(\\n+)");
 
         //get RTI type, file type, image width, image height
         int width, height;
-        scaleCoeffs = new float[6];
-        biasCoeffs = new int[6];
+        float[] scaleCoeffs = new float[6];
+        int[] biasCoeffs = new int[6];
         try {
             width = Integer.parseInt(items[2]);
             height = Integer.parseInt(items[3]);
@@ -337,15 +921,18 @@ public class RTIParser {
         } catch (NumberFormatException e) {
             throw new RTICreator.RTIFileException("Error parsing the header data from file");
         }
+        context.scaleCoeffs = scaleCoeffs;
+        context.biasCoeffs = biasCoeffs;
 
         return new int[]{dataStartPos, width, height};
     }
 
 
     /**
-     * Reads the header data about the compression factor from the BufferedReader. The reader must already be set
+     * Reads the header data about the compression factor from the reader. The reader must already be set
      * at the position for the start of the compression header, ie. it must have already read pas the standard header
-     * at the start of the file.
+     * at the start of the file. The first element of the returned array holds the position of the compressed data
+     * which comes straight after this header, followed by:
      * <ol>
      *     <li>9 JPEG transform value</li>
      *     <li>9 JPEG order values</li>
@@ -359,61 +946,52 @@ public class RTIParser {
      * @throws IOException                  if there's an error accessing the file
      * @throws RTICreator.RTIFileException  if there's an error parsing the file
      */
-    private static int[][] getJPEGLRGBHeader(BufferedReader reader) throws IOException, RTICreator.RTIFileException {
-        String header = "";
+    private static int[][] getJPEGLRGBHeader(MappedFileReader reader) throws IOException,
+                                                                        RTICreator.RTIFileException {
         int[][] data = new int[7][];
 
         String line;
         try {
             //get the compression parameter
             line = reader.readLine();
-            header += line + " ";
             int compressParam = Integer.parseInt(line);
             data[1] = new int[]{compressParam};
 
             //read and parse the 9 JPEG transforms on next line
             line = reader.readLine();
-            header += line + " ";
             String[] items = line.split("(\\s+)");
             int[] transforms = Utils.intsFromStrings(items, 9);
             data[2] = transforms;
 
             //read the motion vector lines 1 and 2, not needed here
             line = reader.readLine();
-            header += line + " ";
             line = reader.readLine();
-            header += line + " ";
 
             //read and parse the 9 order nums
             line = reader.readLine();
-            header += line + " ";
             items = line.split("(\\s+)");
             int[] orders = Utils.intsFromStrings(items, 9);
             data[3] = orders;
 
             //read and parse the 9 reference plane nums
             line = reader.readLine();
-            header += line + " ";
             items = line.split("(\\s+)");
             int[] refPlanes = Utils.intsFromStrings(items, 9);
             data[4] = refPlanes;
 
             //read and parse the 9 compressed sizes
             line = reader.readLine();
-            header += line + " ";
             items = line.split("(\\s+)");
             int[] compressedSizes = Utils.intsFromStrings(items, 9);
             data[5] = compressedSizes;
 
             //read and parse the 9 side data nums
             line = reader.readLine();
-            header += line + " ";
             items = line.split("(\\s+)");
             int[] sideData = Utils.intsFromStrings(items, 9);
             data[6] = sideData;
 
-            int headerLength = header.length();
-            data[0] = new int[]{headerLength};
+            data[0] = new int[]{(int) reader.position()};
 
             return data;
         }catch (Exception e){
@@ -425,613 +1003,847 @@ public class RTIParser {
 
 
     /**
-     * Reads the texel portion of the RGB .ptm file, starting at startPos. The returned IntBuffer array has 6
-     * elements:
-     * <ol>
-     *     <li>IntBuffer containing the first 3 values for the red channel for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the second 3 values for the red channel for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the first 3 values for the green channel for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the second 3 values for the green channel for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the first 3 values for the blue channel for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the second 3 values for the blue channel for each pixel, 2D flattened to 1D</li>
-     * </ol>
+     * Reads the texel portion of the RGB .ptm file, starting at startPos. The returned ByteBuffer has a block of
+     * {@link PTMObjectRGB#COEFFS_PER_PIXEL} raw coefficients for each pixel, the 6 red coefficients a0-a5, then the 6
+     * green, then the 6 blue, 2D flattened to 1D, see {@link CoefficientStore}.
+     *
+     * The width and height of the returned ByteBuffer are those of the mip mapping level, width / (2 ^ mipMapping)
+     * and height / (2 ^ mipMapping). Each row of the mip level is made from a block of rows in the file, which are
+     * mipped as soon as they are read, see {@link RTIParser#downsampleBlock(byte[][], int, int, int)}, so the full
+     * size data is never held in memory.
      *
-     * The length of the returned IntBuffers will be (width * height * 3) / (2 ^ mipMapping), as this will also mip
-     * map the data for you.
+     * In the file each colour is a block of rows, and each row is width * 6 bytes, so every row is at a known
+     * position, and the row of each colour is read into its place in the pixels' blocks. The rows of the mip level are
+     * decoded in bands in parallel on the {@link ComputePool}, each band straight into its part of the buffer.
      *
-     * @param fileName              the path to the .ptm file
+     * @param context               the context for parsing this file, with the scale and bias coeffs set
      * @param format                the format of the .ptm file, see acceptedFormats
      * @param startPos              position in file to start reading texel data from
      * @param width                 width of image
      * @param height                height of image
      * @param mipMapping            the level of mip mapping the RTIObject data should be mipped to
-     * @return                      3D texel data array
+     * @param sampled               whether to sample the rows rather than average them, see {@link RTIParser#mipBlock}
+     * @return                      the interleaved coefficients of each pixel
      * @throws IOException          if there's an error trying to access the file
      * @throws RTICreator.RTIFileException     if there's an error parsing the .ptm file
      */
-    private static IntBuffer[] getTexelDataRGB(String fileName, String format, int startPos, int width,
-                                               int height, int mipMapping) throws IOException, RTICreator.RTIFileException {
-        //arrays to store coefficients for each colour, all file types will eventually return these
-        IntBuffer redVals1 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer redVals2 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer greenVals1 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer greenVals2 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer blueVals1 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer blueVals2 = BufferUtils.createIntBuffer(width * height * 3);
-
-        //make a scanner to scan in all the data as characters
-        ByteArrayInputStream stream = new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
-        stream.skip(startPos);
-
-        //for RGB files, there are 6 basis for each texel
-        int basisTerm = 6;
-
-        try {
-            int offset;
-            int nextCharValue;
-            //loop through the colours
-            for (int j = 0; j < 3; j++) {
-                //loop through y positions backwards
-                for (int y = height - 1; y >= 0; y--) {
-                    //loop through x positions
-                    for (int x = 0; x < width; x++) {
-                        offset = ((y * width) + x) * 3;
-                        for (int i = 0; i < basisTerm; i++) {
-                            //read the next character and convert it as per the bias
-                            nextCharValue = stream.read();
-                            nextCharValue = (int) ((nextCharValue - biasCoeffs[i]) * scaleCoeffs[i]);
-                            //store the value in the correct array
-                            if (j == 0) {
-                                if(i < 3){redVals1.put(offset + i, nextCharValue);}
-                                else{redVals2.put(offset + i - 3, nextCharValue);}
-                            } else if (j == 1) {
-                                if(i < 3){greenVals1.put(offset + i, nextCharValue);}
-                                else{greenVals2.put(offset + i - 3, nextCharValue);}
-                            } else {
-                                if(i < 3){blueVals1.put(offset + i, nextCharValue);}
-                                else{blueVals2.put(offset + i - 3, nextCharValue);}
-                            }
-                        }
-                    }
-                }
-            }
-        }catch(Exception e){
-            throw new RTICreator.RTIFileException("Error reading in texel data from file");
-        }
-        stream.close();
-
-        //if the mip mapping level is 0, there's no mip mapping, other mip that map
-        if(mipMapping > 0){
-            redVals1 = calcMipMapping(redVals1, width, height, mipMapping);
-            redVals2 = calcMipMapping(redVals2, width, height, mipMapping);
-            greenVals1 = calcMipMapping(greenVals1, width, height, mipMapping);
-            greenVals2 = calcMipMapping(greenVals2, width, height, mipMapping);
-            blueVals1 = calcMipMapping(blueVals1, width, height, mipMapping);
-            blueVals2 = calcMipMapping(blueVals2, width, height, mipMapping);
-        }
-
-        return new IntBuffer[]{redVals1, redVals2, greenVals1, greenVals2, blueVals1, blueVals2};
+    private static ByteBuffer getTexelDataRGB(ParseContext context, String format, final int startPos,
+                                              final int width, final int height, final int mipMapping,
+                                              final boolean sampled)
+                                                            throws IOException, RTICreator.RTIFileException {
+        return decodeTexels(context, new RGBRows(context.reader, startPos, width, height), mipMapping, sampled);
     }
 
 
 
 
     /**
-     * Mip maps a flattened IntBuffer of data, for a RTIObject of the given width and height. The mip mapping
-     * averages blocks of 4 coefficients' values  so that the returned IntBuffer is one quarter of the size
-     * of the passed IntBuffer, representing an RTIObject of width / 2, height / 2. The mipMapLevel is the desired
-     * level of mapping, 1 being the first mip map, 2 being the second mip map etc..
+     * Mip maps a block of rows of raw coefficients, pixelSize per pixel, down to a single row of the mip level, in
+     * place, either by averaging the block, see {@link RTIParser#downsampleBlock(byte[][], int, int, int)}, or by
+     * sampling it. A sampled block only needs its first row to have been read, and each pixel of the mipped row is the
+     * first pixel of its square in that row. Sampling only reads a fraction of the file, so it's used to make a rough
+     * level to show quickly while the file is decoded properly. Either way the mipped row is left at the start of the
+     * first row of the block.
      *
-     * @param data          flattened data of RTIObject with width and height to mip
-     * @param width         width of the data that is flattened in the data arg
-     * @param height        height of the data that is flattened in the data arg
-     * @param mapLevel      level of mip mapping desired
-     * @return              the data, mipped
+     * @param block             the rows to mip, each at least mipWidth * (2 ^ mipMapLevel) * pixelSize long
+     * @param mipWidth          width of the row at the mip level
+     * @param mipMapLevel       level of mip mapping desired
+     * @param sampled           whether to sample the first row of the block rather than average the whole block
+     * @param pixelSize         the number of coefficients each pixel has
      */
-    private static IntBuffer calcMipMapping(IntBuffer data, int width, int height, int mapLevel){
-        if(mapLevel <= 0){return data;}
-
-        //the next mip mapping level will have height and width  half of the last level
-        int newWidth = (int) (Math.floor(width / 2.0f));
-        int newHeight = (int) (Math.floor(height) / 2.0f);
-
-        //the flattened data array of the next mip map
-        IntBuffer mipMap = BufferUtils.createIntBuffer((int)Math.ceil(data.capacity() / 4.0f));
-
-        //go through every other x and every other y pixel in the last map level
-        int[] avgCoeffs;
-        int offset;
-        for(int y = 0; y < height - 1; y += 2){
-            for(int x = 0; x < width - 1; x += 2){
-                //get the position to set the block in the new mip level
-                offset = (((y / 2) * newWidth) + (x / 2)) * 3;
-                //average the block of 4 in the last mip level
-                avgCoeffs = averageAroundPixel(data, width, height, x, y);
-                //and store it in the single pixel of the next level
-                for(int i = 0; i < 3; i ++){mipMap.put(offset + i, avgCoeffs[i]);}
-            }
+    private static void mipBlock(byte[][] block, int mipWidth, int mipMapLevel, boolean sampled, int pixelSize){
+        if(!sampled){
+            downsampleBlock(block, mipWidth, mipMapLevel, pixelSize);
+            return;
         }
 
-        //if we've reached the end of the mipping of the maps return it
-        if(mapLevel == 1){
-            return mipMap;
-        }else{
-            //otherwise we need to go deeper
-            return calcMipMapping(mipMap, newWidth, newHeight, mapLevel - 1);
+        //each pixel is copied back to its place in the mipped row, which is never after where it was copied from
+        int blockSize = 1 << mipMapLevel;
+        byte[] row = block[0];
+        for(int x = 0; x < mipWidth; x++){
+            System.arraycopy(row, x * blockSize * pixelSize, row, x * pixelSize, pixelSize);
         }
     }
 
 
-
     /**
-     * Returns the average values of the 3 coefficients in the data buffer at position (x, y). The average is
-     * found by averaging pixel coeffs in a block of 2x2 around the pixel (right and down).
+     * Mip maps a block of rows of raw coefficients, pixelSize per pixel, down to a single row of the mip level, in
+     * place. The mip mapping averages squares of 4 pixels' coeffs so that each level is half the width and half the
+     * height of the one above, and goes down a level at a time, so the result is the same as mipping the whole image
+     * level by level, but only the rows in the block are ever held. Each coefficient of a pixel's block is averaged
+     * with the same coefficient of the other 3 pixels. The block must have 2 ^ mipMapLevel rows, and the mipped row is
+     * left at the start of the first row of the block.
      *
-     * @param data      data array to average at point (x, y)
-     * @param width     width of the RTIObject that the data buffer is for
-     * @param height    height of the RTIObject that the data bufferis for
-     * @param x         x position to average around
-     * @param y         y position to average around
-     * @return          the averaged 3 coefficients in the block around point (x, y)
+     * @param block             the rows to mip, each at least mipWidth * (2 ^ mipMapLevel) * pixelSize long
+     * @param mipWidth          width of the row at the mip level
+     * @param mipMapLevel       level of mip mapping desired
+     * @param pixelSize         the number of coefficients each pixel has
      */
-    private static int[] averageAroundPixel(IntBuffer data, int width, int height, int x, int y){
-        int offset;
-        int[] averages = {0, 0, 0};
-        for(int dy = 0; dy < 2; dy ++){
-            for(int dx = 0; dx < 2; dx++){
-                //get the 1D position in the flattened array
-                offset = (((y + dy) * width) + (x + dx)) * 3;
-                for(int i = 0; i < 3; i++){averages[i] += data.get(offset + i);}
+    private static void downsampleBlock(byte[][] block, int mipWidth, int mipMapLevel, int pixelSize){
+        int levelWidth = mipWidth << mipMapLevel;
+        int levelRows = block.length;
+        byte[] top, bottom, out;
+        int left, right, sum;
+
+        for(int level = 0; level < mipMapLevel; level++){
+            //the next level has half the width and half the rows of the last level
+            levelWidth /= 2;
+            levelRows /= 2;
+
+            for(int r = 0; r < levelRows; r++){
+                top = block[2 * r];
+                bottom = block[(2 * r) + 1];
+                out = block[r];
+
+                for(int x = 0; x < levelWidth * pixelSize; x += pixelSize){
+                    //the 2x2 pixels to average are the next two in the top and bottom rows
+                    left = x * 2;
+                    right = left + pixelSize;
+                    for(int i = 0; i < pixelSize; i++){
+                        sum = (top[left + i] & 0xFF) + (top[right + i] & 0xFF)
+                                + (bottom[left + i] & 0xFF) + (bottom[right + i] & 0xFF);
+
+                        //this only overwrites coeffs that have already been averaged
+                        out[x + i] = (byte) (sum / 4);
+                    }
+                }
             }
         }
-        //divide by the block of 4 we've added up to find average
-        averages[0] /= 4;
-        averages[1] /= 4;
-        averages[2] /= 4;
-
-        return averages;
     }
 
 
     /**
-     * Reads the texel portion of the RGB .ptm file, starting at startPos. The returned IntBuffer array has 6
-     * elements:
-     * <ol>
-     *     <li>IntBuffer containing the first 3 values for the luminance for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the second 3 values for the luminance for each pixel, 2D flattened to 1D</li>
-     *     <li>IntBuffer containing the 3 rgb values for each pixel, 2D flattened to 1D</li>
-     * </ol>
+     * Reads the texel portion of the LRGB .ptm file, starting at startPos. The returned ByteBuffer has a block of
+     * {@link PTMObjectLRGB#COEFFS_PER_PIXEL} raw coefficients for each pixel, the 6 luminance coefficients a0-a5, then
+     * the red, green and blue coefficients, 2D flattened to 1D, see {@link CoefficientStore}.
      *
-     * The length of the returned IntBuffers will be (width * height * 3) / (2 ^ mipMapping), as this will also mip
-     * map the data for you.
+     * The width and height of the returned ByteBuffer are those of the mip mapping level, width / (2 ^ mipMapping)
+     * and height / (2 ^ mipMapping), as the rows are mipped as they are read, see
+     * {@link RTIParser#downsampleBlock(byte[][], int, int, int)}.
      *
-     * @param fileName              the path to the .ptm file
+     * The file has a block of rows of luminance coeffs followed by a block of rows of rgb coeffs, so each row of
+     * both is at a known position. The rows of the mip level are decoded in bands in parallel on the
+     * {@link ComputePool}.
+     *
+     * @param context               the context for parsing this file, with the scale and bias coeffs set
      * @param format                the format of the .ptm file, see acceptedFormats
      * @param startPos              position in file to start reading texel data from
      * @param width                 width of image
      * @param height                height of image
      * @param mipMappingLevel       the level of mip mapping the RTIObject data should be mipped to
-     * @return                      3D texel data array
+     * @param sampled               whether to sample the rows rather than average them, see {@link RTIParser#mipBlock}
+     * @return                      the interleaved coefficients of each pixel
      * @throws IOException          if there's an error trying to access the file
      * @throws RTICreator.RTIFileException     if there's an error parsing the .ptm file
      */
-    private static IntBuffer[] getTexelDataLRGB(String fileName, String format, int startPos, int width,
-                                                int height, int mipMappingLevel) throws IOException, RTICreator.RTIFileException {
-        IntBuffer ptmCoeffs1 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer ptmCoeffs2 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer rgbCoeffs = BufferUtils.createIntBuffer(width * height * 3);
-
+    private static ByteBuffer getTexelDataLRGB(ParseContext context, String format, final int startPos,
+                                               final int width, final int height, final int mipMappingLevel,
+                                               final boolean sampled)
+                                                            throws IOException, RTICreator.RTIFileException {
+        return decodeTexels(context, new LRGBRows(context.reader, startPos, width, height), mipMappingLevel,
+                            sampled);
+    }
 
-        //make a scanner to scan in all the data as characters
-        ByteArrayInputStream stream = new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
-        stream.skip(startPos);
 
 
-        try{
-            int offset;
-            int nextCharValue;
-            //loop through y positions backwards
-            for(int y = height - 1; y >= 0; y--){
-                //loop through x positions
-                for(int x = 0; x < width; x++){
-                    offset = ((y * width) + x) * 3;
-
-                    for(int i = 0; i < 6; i++){
-                        //read the next character and convert it as per the bias
-                        nextCharValue = stream.read();
-                        nextCharValue = (int) ((nextCharValue - biasCoeffs[i]) * scaleCoeffs[i]);
-
-                        //all the luminance coefficients come in a block before the rgb coeffs
-                        if(i < 3){ptmCoeffs1.put(offset + i, nextCharValue);}
-                        else{ptmCoeffs2.put(offset + i - 3, nextCharValue);}
-                    }
-                }
-            }
-            //now for the rgb coeffs
-            for(int y = height - 1; y >= 0; y--){
-                for(int x = 0; x < width; x++){
-                    offset = ((y * width) + x) * 3;
-
-                    for(int i = 0; i < 3; i++){
-                        nextCharValue = stream.read();
 
-                        rgbCoeffs.put(offset + i, nextCharValue);
-                    }
-                }
+    /**
+     * Reads a row of bytes from the absolute position in the file, so it can be used by more than one thread at once.
+     * Only the copy out of the mapping, which is where the OS pages the row in from the disk, holds one of the
+     * {@link RTIParser#diskReads} permits; the caller decodes the row after the permit has been given back. An
+     * EOFException is rethrown unchecked so it can get out of a {@link ComputePool.RowProcessor}.
+     *
+     * @param reader        reader for the mapped file
+     * @param filePos       position in the file the row starts at
+     * @param row           array to read the row into
+     * @param offset        position in the array to read the row to
+     * @param length        number of bytes in the row
+     */
+    private static void readRow(MappedFileReader reader, long filePos, byte[] row, int offset, int length){
+        try {
+            diskReads.acquireUninterruptibly();
+            try{
+                reader.read(filePos, row, offset, length);
+            }finally{
+                diskReads.release();
             }
-        }catch(Exception e){
-            throw new RTICreator.RTIFileException("Error reading in texel data from file");
+        }catch(EOFException e){
+            throw new UncheckedIOException(e);
         }
-
-        stream.close();
+    }
 
 
-        //if the mip mapping level is 0, there's no mip mapping, other mip that map
-        if(mipMappingLevel > 0){
-            ptmCoeffs1 = calcMipMapping(ptmCoeffs1, width, height, mipMappingLevel);
-            ptmCoeffs2 = calcMipMapping(ptmCoeffs2, width, height, mipMappingLevel);
-            rgbCoeffs = calcMipMapping(rgbCoeffs, width, height, mipMappingLevel);
+    /**
+     * Makes the exception for an error thrown while the texels were being read or decoded on other threads. The
+     * {@link CompletionException} or {@link ExecutionException} the worker's error was wrapped in is unwrapped, so
+     * that the cause and its stack trace are of the error itself.
+     *
+     * @param message       message for why the texels couldn't be read
+     * @param e             the exception that was thrown
+     * @return              the exception to throw, caused by the worker's error
+     */
+    private static RTICreator.RTIFileException texelError(String message, Throwable e){
+        Throwable cause = e;
+        while((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+                cause.getCause() != null){
+            cause = cause.getCause();
         }
 
-        return new IntBuffer[]{ptmCoeffs1, ptmCoeffs2, rgbCoeffs};
+        return new RTICreator.RTIFileException(message + ": " + cause, cause);
     }
 
 
-
     /**
-     * Mip maps a flattened FloatBuffer of data, for a RTIObject of the given width and height. The mip mapping
-     * averages blocks of 4 coefficients' values  so that the returned IntBuffer is one quarter of the size
-     * of the passed IntBuffer, representing an RTIObject of width / 2, height / 2. The mipMapLevel is the desired
-     * level of mapping, 1 being the first mip map, 2 being the second mip map etc..
+     * Bulk puts the first length coeffs in the row into the buffer at the given position. A duplicate of the buffer
+     * is used so that the buffer's position isn't changed, so several threads can put rows into the same buffer at
+     * once.
      *
-     * @param data          flattened data of RTIObject with width and height to mip
-     * @param width         width of the data that is flattened in the data arg
-     * @param height        height of the data that is flattened in the data arg
-     * @param mapLevel      level of mip mapping desired
-     * @return              the data, mipped
+     * @param buffer        the buffer to put the row into
+     * @param position      the position in the buffer the row starts at
+     * @param row           the coeffs to put
+     * @param length        the number of coeffs from the start of the row to put
      */
-    private static FloatBuffer calcMipMapping(FloatBuffer data, int width, int height, int mapLevel){
-        //the next mip mapping level will have height and width  half of the last level
-        int newWidth = (int) (Math.floor(width / 2.0f));
-        int newHeight = (int) (Math.floor(height) / 2.0f);
-
-        //the flattened data array of the next mip map
-        FloatBuffer mipMap = BufferUtils.createFloatBuffer((int)Math.ceil(data.capacity() / 4.0f));
-
-        //go through every other x and every other y pixel in the last map level
-        float[] avgCoeffs;
-        int offset;
-        for(int y = 0; y < height - 1; y += 2){
-            for(int x = 0; x < width - 1; x += 2){
-                //get the position to set the block in the new mip level
-                offset = (((y / 2) * newWidth) + (x / 2)) * 3;
-                //average the block of 4 in the last mip level
-                avgCoeffs = averageAroundPixel(data, width, height, x, y);
-                //and store it in the single pixel of the next level
-                for(int i = 0; i < 3; i ++){mipMap.put(offset + i, avgCoeffs[i]);}
-            }
-        }
-
-        //if we've reached the end of the mipping of the maps return it
-        if(mapLevel == 1){
-            return mipMap;
-        }else{
-            //otherwise we need to go deeper
-            return calcMipMapping(mipMap, newWidth, newHeight, mapLevel - 1);
-        }
+    private static void putRow(ByteBuffer buffer, int position, byte[] row, int length){
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.put(row, 0, length);
     }
 
 
+
+
     /**
-     * Returns the average values of the 3 coefficients in the data buffer at position (x, y). The average is
-     * found by averaging pixel coeffs in a block of 2x2 around the pixel (right and down).
+     * Bulk gets a row of coeffs from the buffer at the given position, filling the row. A duplicate of the buffer
+     * is used so that the buffer's position isn't changed, so several threads can get rows from the same buffer at
+     * once.
      *
-     * @param data      data array to average at point (x, y)
-     * @param width     width of the RTIObject that the data buffer is for
-     * @param height    height of the RTIObject that the data bufferis for
-     * @param x         x position to average around
-     * @param y         y position to average around
-     * @return          the averaged 3 coefficients in the block around point (x, y)
+     * @param buffer        the buffer to get the row from
+     * @param position      the position in the buffer the row starts at
+     * @param row           the array to fill with the coeffs
      */
-    private static float[] averageAroundPixel(FloatBuffer data, int width, int height, int x, int y){
-        int offset;
-        float[] averages = {0, 0, 0};
-        for (int dy = 0; dy < 2; dy++) {
-            for (int dx = 0; dx < 2; dx++) {
-                //get the 1D position in the flattened array
-                offset = (((y + dy) * width) + (x + dx)) * 3;
-                for (int i = 0; i < 3; i++) {
-                    averages[i] += data.get(offset + i);
-                }
-            }
-        }
-        //divide by the block of 4 we've added up to find average
-        averages[0] /= 4.0f;
-        averages[1] /= 4.0f;
-        averages[2] /= 4.0f;
-
-        return averages;
+    private static void getRow(ByteBuffer buffer, int position, byte[] row){
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(row);
     }
 
 
+
     /**
-     * Reads the texel portion of the HSH .rti file, starting at startPos. The returned FloatBuffer array has 9
-     * elements. If the basisTerms arg is <= 3 , the FloatBuffers in the textData attribute marked with a * or ** below
-     * will be of length 3, with 3 zeros in, as these textures won't be used by the OpenGl shaders to render, but still
-     * need to be bound, even is they have one element in. If basisTerms is <= 6 terms, FloatBuffers marked with
-     * ** will be of length 3 with 3 zeros.
-     *
-     * <ol>
-     *     <li>an IntBuffer containing the first 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
-     *
-     *     <li>an IntBuffer containing the third 3 red coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     *
-     *     <li>an IntBuffer containing the first 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
+     * Reads the scale and bias for each basis term of an HSH file, which are little endian floats straight after the
+     * header lines, and stores them in the context. Leaves the reader at the start of the texel data.
      *
-     *     <li>an IntBuffer containing the third 3 green coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     *
-     *     <li>an IntBuffer containing the first 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3</li>
-     *
-     *     <li>an IntBuffer containing the second 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3. *</li>
-     *
-     *     <li>an IntBuffer containing the third 3 blue coefficients per pixel, flattened, so its length
-     *     is width * height * 3. **</li>
-     * </ol>
-     *
-     * The length of the returned IntBuffers will be (width * height * 3) / (2 ^ mipMapping), as this will also mip
-     * map the data for you.
-     *
-     * @param fileName                          the path to the .ptm file
-     * @param startPos                          position in file to start reading texel data from
-     * @param width                             width of image
-     * @param height                            height of image
-     * @param basisTerms                        number of HSH basis terms per pixel
-     * @param mipMappingLevel                   the level of mip mapping the RTIObject data should be mipped to
-     * @return                                  3D texel data array
-     * @throws IOException                      if there's an error trying to access the file
-     * @throws RTICreator.RTIFileException      if there's an error parsing the .ptm file
+     * @param context           the context for parsing this file
+     * @param basisTerms        number of basis terms in the file
+     * @param startPos          position in the file of the scale and bias, straight after the header
+     * @throws EOFException     if the file ends before the scale and bias have been read
      */
-    private static FloatBuffer[] getTexelDataHSH(String fileName, int width, int height,
-                     int basisTerms, int startPos, int mipMappingLevel) throws IOException{
-
-        //need a little endian stream to read the floats for the scale and bias values
-        LittleEndianDataInputStream leStream = new LittleEndianDataInputStream(new FileInputStream(fileName));
+    private static void readHSHScaleBias(ParseContext context, int basisTerms, int startPos) throws EOFException {
+        MappedFileReader reader = context.reader;
 
         //skip the header to the start of the data
-        leStream.skip(startPos);
+        reader.position(startPos);
         float[] scale = new float[basisTerms];
         float[] bias = new float[basisTerms];
 
-        //read the scale coeffs
-        for(int i = 0; i < basisTerms; i++){scale[i] = leStream.readFloat();}
+        //read the scale coeffs, these are little endian floats
+        for(int i = 0; i < basisTerms; i++){scale[i] = reader.readFloatLE();}
 
         //read the bias coeffs
-        for(int i = 0; i < basisTerms; i++){bias[i] = leStream.readFloat();}
-
-        //the rest of the data has no endianness and the little endian reader is really slow so we'll
-        //use a standard reader for the rest of the data
-        leStream.close();
+        for(int i = 0; i < basisTerms; i++){bias[i] = reader.readFloatLE();}
 
-        //ready to read the bulk of data
-        ByteArrayInputStream stream = new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
-        stream.skip(startPos + (2 * 4 * basisTerms));
+        context.scaleCoeffs = scale;
+        context.hshBiasCoeffs = bias;
+    }
 
-        int capacity = width * height * 3;
 
-        FloatBuffer redCoeffs1 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer greenCoeffs1 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer blueCoeffs1 = BufferUtils.createFloatBuffer(capacity);
 
-        //if there are 3 or less coeffs per pixel, we don't need the next buffers for data, but we'll make them
-        //of size 3 because OpenGL has to have a texture with at least one 3D element in it
-        if(basisTerms < 4){capacity = 3;}
 
-        FloatBuffer redCoeffs2 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer greenCoeffs2 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer blueCoeffs2 = BufferUtils.createFloatBuffer(capacity);
+    /**
+     * Reads the texel portion of the HSH .rti file, starting at startPos. The returned ByteBuffer has a block of
+     * basisTerms * 3 raw coefficients for each pixel, the red coefficient for each basis term, then the green, then
+     * the blue, 2D flattened to 1D, see {@link CoefficientStore}. This is the order the coefficients are in the file,
+     * so every basis term is kept, whether the file has 1, 4, 9 or 16 of them. The coefficients are the raw bytes from
+     * the file, and the scale and bias for each term are stored in the context for the {@link RTIObjectHSH} to apply.
+     *
+     * The width and height of the returned ByteBuffer are those of the mip mapping level, width / (2 ^ mipMapping)
+     * and height / (2 ^ mipMapping), as the rows are mipped as they are read, see
+     * {@link RTIParser#downsampleBlock(byte[][], int, int, int)}.
+     *
+     * Each row of the file is width * basisTerms * 3 bytes, so every row is at a known position, and the rows of the
+     * mip level are decoded in bands in parallel on the {@link ComputePool}.
+     *
+     * @param context                           the context for parsing this file, the scale and bias are put in it
+     * @param startPos                          position in file to start reading texel data from
+     * @param width                             width of image
+     * @param height                            height of image
+     * @param basisTerms                        number of HSH basis terms per pixel
+     * @param mipMappingLevel                   the level of mip mapping the RTIObject data should be mipped to
+     * @param sampled                           whether to sample the rows rather than average them, see
+     *                                          {@link RTIParser#mipBlock}
+     * @return                                  the interleaved coefficients of each pixel
+     * @throws IOException                      if there's an error when trying to access the file
+     * @throws RTICreator.RTIFileException      if there's an error parsing the .ptm file
+     */
+    private static ByteBuffer getTexelDataHSH(ParseContext context, final int width, int height,
+                     final int basisTerms, int startPos, final int mipMappingLevel, final boolean sampled)
+                                                            throws IOException, RTICreator.RTIFileException {
+        return decodeTexels(context, createHSHRows(context, width, height, basisTerms, startPos), mipMappingLevel,
+                            sampled);
+    }
 
-        //same thing for 6 or less coeffs
-        if(basisTerms < 7){capacity = 3;}
 
-        FloatBuffer redCoeffs3 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer greenCoeffs3 = BufferUtils.createFloatBuffer(capacity);
-        FloatBuffer blueCoeffs3 = BufferUtils.createFloatBuffer(capacity);
 
 
-        //loopthrough all the stuff an read it into the relevant buffer
-        int offset;
-        float nextCharValue;
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                offset = (y * width + x) * 3;
+    /**
+     * Reads the scale and bias of an HSH file into the context, then makes the reader for its texel data, which is
+     * single bytes, basisTerms per colour per pixel, straight after the scale and bias.
+     *
+     * @param context               the context for parsing this file, the scale and bias are put in it
+     * @param width                 width of image
+     * @param height                height of image
+     * @param basisTerms            number of HSH basis terms per pixel
+     * @param startPos              position in file of the scale and bias, straight after the header
+     * @return                      reads the rows of texel data from the file
+     * @throws EOFException         if the file ends before the scale and bias have been read
+     */
+    private static TexelRows createHSHRows(ParseContext context, int width, int height, int basisTerms,
+                                           int startPos) throws EOFException {
+        //the scale and bias are applied to the coeffs when they're used
+        readHSHScaleBias(context, basisTerms, startPos);
 
-                for(int k = 0; k < basisTerms; k++){
-                    nextCharValue = (stream.read() / 255.0f) * scale[k] + bias[k];
-                    if(k < 3){redCoeffs1.put(offset + k, nextCharValue);}
-                    else if(k < 6){redCoeffs2.put(offset + k - 3, nextCharValue);}
-                    else if(k < 9){redCoeffs3.put(offset + k - 6, nextCharValue);}
-                }
+        return new HSHRows(context.reader, context.reader.position(), width, height, basisTerms);
+    }
 
-                for(int k = 0; k < basisTerms; k++){
-                    nextCharValue = (stream.read() / 255.0f) * scale[k] + bias[k];
-                    if(k < 3){greenCoeffs1.put(offset + k, nextCharValue);}
-                    else if(k < 6){greenCoeffs2.put(offset + k - 3, nextCharValue);}
-                    else if(k < 9){greenCoeffs3.put(offset + k - 6, nextCharValue);}
-                }
 
-                for(int k = 0; k < basisTerms; k++){
-                    nextCharValue = (stream.read() / 255.0f) * scale[k] + bias[k];
-                    if(k < 3){blueCoeffs1.put(offset + k, nextCharValue);}
-                    else if(k < 6){blueCoeffs2.put(offset + k - 3, nextCharValue);}
-                    else if(k < 9){blueCoeffs3.put(offset + k - 6, nextCharValue);}
-                }
-            }
-        }
-        stream.close();
 
 
-        //only mip map the buffers we've actually put stuff in
-        if(mipMappingLevel > 0){
-            redCoeffs1 = calcMipMapping(redCoeffs1, width, height, mipMappingLevel);
-            greenCoeffs1 = calcMipMapping(greenCoeffs1, width, height, mipMappingLevel);
-            blueCoeffs1 = calcMipMapping(blueCoeffs1, width, height, mipMappingLevel);
+    /**
+     * Decodes the texel data of an uncompressed file, mipped to the given level, into a new buffer of interleaved
+     * coefficients, see {@link CoefficientStore}. Each row of the mip level is made from a block of rows in the file,
+     * which are mipped as soon as they are read, see {@link RTIParser#mipBlock}, so the full size data is never held
+     * in memory. The rows of the mip level are decoded in bands in parallel on the {@link ComputePool}, each band
+     * straight into its part of the buffer.
+     *
+     * @param context                           the context for parsing this file, with the header read
+     * @param rows                              reads the rows of texel data from the file in its format
+     * @param mipMappingLevel                   the level of mip mapping the RTIObject data should be mipped to
+     * @param sampled                           whether to sample the rows rather than average them, see
+     *                                          {@link RTIParser#mipBlock}
+     * @return                                  the interleaved coefficients of each pixel
+     * @throws RTICreator.RTIFileException      if there's an error reading the texel data
+     */
+    private static ByteBuffer decodeTexels(ParseContext context, final TexelRows rows, final int mipMappingLevel,
+                                           final boolean sampled) throws RTICreator.RTIFileException {
+        //each pixel of the mip level is made from a square block of blockSize * blockSize pixels in the file
+        final int blockSize = 1 << mipMappingLevel;
+        //only the first row of each block is read when the level is sampled
+        final int blockRows = sampled ? 1 : blockSize;
+        final int mipWidth = rows.width / blockSize;
+        final int mipHeight = rows.height / blockSize;
+        final int pixelSize = rows.pixelSize;
+
+        final ByteBuffer texels = context.buffers.allocateBytes(mipWidth * mipHeight * pixelSize);
 
-            if(basisTerms > 3){
-                redCoeffs2 = calcMipMapping(redCoeffs2, width, height, mipMappingLevel);
-                greenCoeffs2 = calcMipMapping(greenCoeffs2, width, height, mipMappingLevel);
-                blueCoeffs2 = calcMipMapping(blueCoeffs2, width, height, mipMappingLevel);
-            }
+        try{
+            ComputePool.processRows(mipHeight, new ComputePool.RowProcessor() {
+                @Override
+                public void processRows(int startRow, int endRow) {
+                    byte[][] block = new byte[blockSize][rows.width * pixelSize];
+                    byte[] scratch = rows.createScratch(rows.width);
+
+                    for(int mipY = startRow; mipY < endRow; mipY++){
+                        //read all the rows in the block that is mipped into this row, or the first if sampled
+                        for(int s = 0; s < blockRows; s++){
+                            rows.read((mipY * blockSize) + s, 0, mipWidth * blockSize, block[s], scratch);
+                        }
 
-            if(basisTerms > 6){
-                redCoeffs3 = calcMipMapping(redCoeffs3, width, height, mipMappingLevel);
-                greenCoeffs3 = calcMipMapping(greenCoeffs3, width, height, mipMappingLevel);
-                blueCoeffs3 = calcMipMapping(blueCoeffs3, width, height, mipMappingLevel);
-            }
+                        //mip the block down to the single row of the mip level
+                        mipBlock(block, mipWidth, mipMappingLevel, sampled, pixelSize);
+                        putRow(texels, mipY * mipWidth * pixelSize, block[0], mipWidth * pixelSize);
+                    }
+                }
+            });
+        }catch(RuntimeException e){
+            throw texelError("Error reading in texel data from file", e);
         }
 
-
-        //finally done!
-        return new FloatBuffer[]{redCoeffs1,    redCoeffs2,     redCoeffs3,
-                                 greenCoeffs1,  greenCoeffs2,   greenCoeffs3,
-                                 blueCoeffs1,   blueCoeffs2,    blueCoeffs3};
-
+        return texels;
     }
 
 
     /**
      * Reads the texel portion of the compressed LRGB .ptm file, starting at startPos, decompresses it, and
-     * returns the standard, uncompressed LRGB coeff arrays. The length of the returned IntBuffers will be
-     * (width * height * 3) / (2 ^ mipMapping), as this will also mip map the data for you.
+     * returns the standard, uncompressed LRGB coeffs of raw bytes, interleaved in the same way as
+     * {@link RTIParser#getTexelDataLRGB}. The width and height of the returned ByteBuffer are those of the mip mapping
+     * level, as the decoded planes are mipped straight into it.
      *
-     * @param fileName              the path to the .ptm file
-     * @param headerData            header data in the specified order given in {@link RTIParser#getHeaderData(String, String)}
+     * The nine JPEG planes are decoded with ImageIO in parallel on the {@link ComputePool}. Planes that are stored
+     * relative to a reference plane are combined with it as soon as both are ready, in the order given by the
+     * orderParams in the header, so a plane never waits for planes it doesn't depend on.
+     *
+     * @param context               the context for parsing this file, with the scale and bias coeffs set
+     * @param headerData            header data in the specified order given in
+     *                              {@link RTIParser#getHeaderData(ParseContext, String)}
      * @param mipMappingLevel       the level of mip mapping the RTIObject data should be mipped to
-     * @return                      3D texel data array
+     * @return                      the interleaved coefficients of each pixel
      * @throws IOException          if there's an error trying to access the file
      * @throws RTICreator.RTIFileException     if there's an error parsing the .ptm file
      */
-    private static IntBuffer[] getTexelDataJPEGLRGB(String fileName, int[] headerData, int mipMappingLevel)
+    private static ByteBuffer getTexelDataJPEGLRGB(ParseContext context, int[] headerData,
+                                                   final int mipMappingLevel)
                                                         throws IOException, RTICreator.RTIFileException, RuntimeException{
+        MappedFileReader reader = context.reader;
+
         //all this is important jpeg stuff I think
         int dataStartPos = headerData[0];
-        int width = headerData[1];
-        int height = headerData[2];
+        final int width = headerData[1];
+        final int height = headerData[2];
         int[] compressionTransforms = Utils.sliceArray(headerData, 4, 13);
         int[] orderParams = Utils.sliceArray(headerData, 13, 22);
         int[] referencePlane = Utils.sliceArray(headerData, 22, 31);
         int[] compressedSizes = Utils.sliceArray(headerData, 31, 40);
-        int[] sideData = Utils.sliceArray(headerData, 40, 49);
-
-
-        //make a scanner to scan in all the data as characters
-        ByteArrayInputStream stream = new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName)));
-        stream.skip(dataStartPos);
+        final int[] sideData = Utils.sliceArray(headerData, 40, 49);
 
-        int[][] plane = new int[9][];
-        int[] planeLength = new int[9];
-        byte[][] info = new byte[9][];
-        byte[] compressedPlane;
+        reader.position(dataStartPos);
 
+        //start decoding each plane as soon as it's been read, they don't depend on each other
+        final byte[][] info = new byte[9][];
+        CompletableFuture<int[]>[] planes = newFutureArray(9);
         for(int i = 0; i < 9; i++){
-            //read the compressed plane
-            compressedPlane = new byte[compressedSizes[i]];
-            for(int j = 0; j < compressedSizes[i]; j ++){
-                int nextVal = stream.read();
-                compressedPlane[j] = (byte)nextVal;
-            }
-
-            //read the side info
+            //read the compressed plane and its side info, taking one of the disk permits for the reads only
+            byte[] compressedPlane = new byte[compressedSizes[i]];
             info[i] = new byte[sideData[i]];
-            for(int j = 0; j < sideData[i]; j++){
-                info[i][j] = (byte)stream.read();
+            diskReads.acquireUninterruptibly();
+            try{
+                reader.read(compressedPlane, 0, compressedSizes[i]);
+                reader.read(info[i], 0, sideData[i]);
+            }finally{
+                diskReads.release();
             }
 
-            //here's where the actual decoding happens of the 9 planes
-            JPEGImageDecoder decoder = JPEGCodec.createJPEGDecoder(new ByteArrayInputStream(compressedPlane));
-            BufferedImage image = decoder.decodeAsBufferedImage();
-            Utils.flip(image);
-            planeLength[i] = image.getHeight() * image.getWidth();
-            plane[i] = new int[planeLength[i]];
-            for(int j = 0; j < planeLength[i]; j++){
-                plane[i][j] = image.getRaster().getDataBuffer().getElem(j);
-            }
+            planes[i] = CompletableFuture.supplyAsync(new JPEGPlaneDecoder(compressedPlane), ComputePool.getPool());
         }
 
         //now go through the 9 decompressed planes and do some more jpeg stuff to turn them into the
-        //actual coefficients
-        int[][] coeffs = new int[9][];
+        //actual coefficients, each plane's coeffs depend on its reference plane's coeffs if it has one
+        CompletableFuture<int[]>[] coeffs = newFutureArray(9);
         int index;
         for(int i = 0; i < 9; i++){
             index = Utils.indexOf(orderParams, i, 9);
             if(index == -1){
                 throw new RTICreator.RTIFileException("Error parsing compressed texel data from file.");
             }
+
             if(referencePlane[index] < 0){
-                coeffs[index] = new int[planeLength[index]];
-                for(int j = 0; j < planeLength[index]; j++){
-                    coeffs[index][j] = plane[index][j];
+                coeffs[index] = planes[index];
+
+            }else{
+                //the reference plane has to come earlier in the order than the plane that uses it
+                CompletableFuture<int[]> reference = coeffs[referencePlane[index]];
+                if(reference == null || compressionTransforms[index] < 0 || compressionTransforms[index] > 1){
+                    throw new RTICreator.RTIFileException("Error parsing compressed texel data from file.");
                 }
+                final boolean invert = compressionTransforms[index] == 1;
 
-            }else if(compressionTransforms[index] == 0){
-                coeffs[index] = Utils.combine(coeffs[referencePlane[index]], plane[index], planeLength[index]);
+                coeffs[index] = reference.thenCombine(planes[index], new BiFunction<int[], int[], int[]>() {
+                    @Override
+                    public int[] apply(int[] referenceCoeffs, int[] plane) {
+                        if(invert){
+                            referenceCoeffs = Utils.invert(referenceCoeffs, referenceCoeffs.length);
+                        }
+                        return Utils.combine(referenceCoeffs, plane, plane.length);
+                    }
+                });
+            }
 
-            }else if(compressionTransforms[index] == 1){
-                int[] inverse = Utils.invert(coeffs[referencePlane[index]], planeLength[referencePlane[index]]);
-                coeffs[index] = Utils.combine(inverse, plane[index], planeLength[index]);
+            if(sideData[index] > 0){
+                final int planeIndex = index;
+                coeffs[index] = coeffs[index].thenApply(new Function<int[], int[]>() {
+                    @Override
+                    public int[] apply(int[] planeCoeffs) {
+                        Utils.correctCoeff(planeCoeffs, info[planeIndex], sideData[planeIndex], width, height);
+                        return planeCoeffs;
+                    }
+                });
+            }
+        }
 
+        //wait for all the chains of planes to finish
+        final int[][] finalCoeffs = new int[9][];
+        try{
+            for(int i = 0; i < 9; i++){
+                finalCoeffs[i] = coeffs[i].join();
             }
-            if(sideData[index] > 0){
-                Utils.correctCoeff(coeffs[index], info[index], sideData[index], width, height);
+        }catch(RuntimeException e){
+            throw texelError("Error decoding compressed texel data from file.", e);
+        }
+
+        //each pixel of the mip level is made from a square block of blockSize * blockSize decoded pixels
+        final int blockSize = 1 << mipMappingLevel;
+        final int mipWidth = width / blockSize;
+        final int mipHeight = height / blockSize;
+
+        //now we have the actual coefficients from the file, we canput them into the standard LRGB blocks, which
+        //are only ever the size of the mip level
+        final int pixelSize = PTMObjectLRGB.COEFFS_PER_PIXEL;
+        final ByteBuffer texels = context.buffers.allocateBytes(mipWidth * mipHeight * pixelSize);
+
+        ComputePool.processRows(mipHeight, new ComputePool.RowProcessor() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                //a block of rows of the 6 lum coeffs then the 3 rgb coeffs of each pixel
+                byte[][] block = new byte[blockSize][width * pixelSize];
+                int offset;
+
+                for(int mipY = startRow; mipY < endRow; mipY++){
+                    for(int s = 0; s < blockSize; s++){
+                        offset = ((mipY * blockSize) + s) * width;
+
+                        //keep the coeffs as bytes like the ones read straight from the file, the scale and
+                        //bias are applied when they're used
+                        for(int x = 0; x < mipWidth * blockSize; x++){
+                            for(int i = 0; i < pixelSize; i++){
+                                block[s][(x * pixelSize) + i] = (byte) finalCoeffs[i][offset + x];
+                            }
+                        }
+                    }
+
+                    //mip the block down to the single row of the mip level
+                    downsampleBlock(block, mipWidth, mipMappingLevel, pixelSize);
+                    putRow(texels, mipY * mipWidth * pixelSize, block[0], mipWidth * pixelSize);
+                }
+            }
+        });
+
+        return texels;
+    }
+
+
+    /**
+     * Makes an array of CompletableFutures of the given length. Java can't make generic arrays directly, hence this.
+     *
+     * @param length    length of the array
+     * @return          an empty array of futures
+     */
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<int[]>[] newFutureArray(int length){
+        return (CompletableFuture<int[]>[]) new CompletableFuture<?>[length];
+    }
+
+
+
+
+    /**
+     * Decodes a single compressed plane of a PTM_FORMAT_JPEG_LRGB file using ImageIO. The plane is stored upside down
+     * in the JPEG, so the rows are flipped as they're read out of the decoded image.
+     */
+    private static class JPEGPlaneDecoder implements Supplier<int[]> {
+
+        /** The JPEG data for this plane */
+        private final byte[] compressedPlane;
+
+
+        /**
+         * Creates a new decoder for the compressed plane.
+         *
+         * @param compressedPlane   the JPEG data for the plane
+         */
+        private JPEGPlaneDecoder(byte[] compressedPlane){
+            this.compressedPlane = compressedPlane;
+        }
+
+
+        /**
+         * Decodes the plane, and returns the value of each pixel flattened to 1D, with the rows flipped vertically.
+         *
+         * @return  the decoded plane
+         */
+        @Override
+        public int[] get() {
+            BufferedImage image;
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(compressedPlane));
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            if(image == null){
+                throw new IllegalStateException("Compressed plane is not a readable JPEG");
+            }
+
+            int planeWidth = image.getWidth();
+            int planeHeight = image.getHeight();
+            int[] plane = new int[planeWidth * planeHeight];
 
+            //read the rows bottom to top, as the plane is upside down
+            Raster raster = image.getRaster();
+            int[] row = new int[planeWidth];
+            for(int y = 0; y < planeHeight; y++){
+                raster.getSamples(0, planeHeight - 1 - y, planeWidth, 1, 0, row);
+                System.arraycopy(row, 0, plane, y * planeWidth, planeWidth);
             }
+            return plane;
+        }
+    }
+
+
+    /**
+     * Reads the texel data of an uncompressed file a run of pixels of a row at a time, turning the file's layout into
+     * the interleaved coefficients of each pixel, see {@link CoefficientStore}. Every row of every format is at a
+     * known position in the file, so any run of any row can be read without reading the rows before it, which lets
+     * the whole file be decoded a band of rows at a time, or a level too big for memory be decoded a tile at a time.
+     * The rows can be read by several threads at once, each with its own scratch.
+     */
+    private abstract static class TexelRows {
+
+        /** Reader for the mapped file */
+        final MappedFileReader reader;
+
+        /** Width of the image in the file */
+        final int width;
+
+        /** Height of the image in the file */
+        final int height;
+
+        /** The number of coefficients each pixel has once they're interleaved */
+        final int pixelSize;
+
+
+        /**
+         * Creates a new reader for the texel data of a file.
+         *
+         * @param reader        reader for the mapped file
+         * @param width         width of image
+         * @param height        height of image
+         * @param pixelSize     the number of coefficients each pixel has once they're interleaved
+         */
+        TexelRows(MappedFileReader reader, int width, int height, int pixelSize){
+            this.reader = reader;
+            this.width = width;
+            this.height = height;
+            this.pixelSize = pixelSize;
         }
 
-        //now we have the actual coefficients from the file, we canput them into the standard LRGB arrays
-        IntBuffer ptmCoeffs1 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer ptmCoeffs2 = BufferUtils.createIntBuffer(width * height * 3);
-        IntBuffer rgbCoeffs = BufferUtils.createIntBuffer(width * height * 3);
 
-        int offset;
-        int offset3;
-        int nextVal;
+        /**
+         * Makes the scratch array for reading runs of up to count pixels, which each thread reading keeps for itself.
+         *
+         * @param count     the most pixels that will be read at once
+         * @return          the scratch array
+         */
+        byte[] createScratch(int count){
+            return new byte[count * 6];
+        }
+
+
+        /**
+         * Reads the interleaved coefficients of a run of pixels in a row of the file into dest, from the start.
+         *
+         * @param y             the row of the image, counting down from the top
+         * @param startX        x position of the first pixel
+         * @param count         number of pixels to read
+         * @param dest          the array to read the pixels' blocks into
+         * @param scratch       the scratch for the file's rows, see {@link TexelRows#createScratch(int)}
+         */
+        abstract void read(int y, int startX, int count, byte[] dest, byte[] scratch);
+    }
+
+
+    /**
+     * Reads the texel data of RGB PTMs. In the file each colour is a block of rows, and each row is width * 6 bytes,
+     * and the row of each colour is read into its place in the pixels' blocks.
+     */
+    private static class RGBRows extends TexelRows {
+
+        /** Position in the file the texel data starts at */
+        private final long startPos;
+
+
+        /**
+         * Creates a new reader for the texel data of an RGB PTM.
+         *
+         * @param reader        reader for the mapped file
+         * @param startPos      position in file to start reading texel data from
+         * @param width         width of image
+         * @param height        height of image
+         */
+        RGBRows(MappedFileReader reader, long startPos, int width, int height){
+            super(reader, width, height, PTMObjectRGB.COEFFS_PER_PIXEL);
+            this.startPos = startPos;
+        }
 
-        for(int y = height - 1; y >= 0; y--){
-            for(int x = 0; x < width; x++){
-                offset = (y * width) + x;
-                offset3 = offset * 3;
 
-                for(int i = 0; i < 6; i++){
-                    nextVal = (int)((coeffs[i][offset] - biasCoeffs[i]) * scaleCoeffs[i]);
-                    if(i < 3){ptmCoeffs1.put(offset3 + i, nextVal);}
-                    else{ptmCoeffs2.put(offset3 + i - 3, nextVal);}
+        @Override
+        void read(int y, int startX, int count, byte[] dest, byte[] scratch) {
+            //for RGB files, there are 6 basis for each colour of each texel
+            int basisTerm = 6;
+            int fileRow, b, block;
+
+            for(int colour = 0; colour < 3; colour++){
+                //the rows for each colour go through y positions backwards
+                fileRow = (colour * height) + height - 1 - y;
+                readRow(reader, startPos + (((long) fileRow * width) + startX) * basisTerm, scratch, 0,
+                        count * basisTerm);
+
+                //put the 6 raw characters of the colour into each pixel's block, the scale and bias is applied when
+                //they're used
+                b = 0;
+                for(int x = 0; x < count; x++){
+                    block = (x * pixelSize) + (colour * basisTerm);
+                    for(int k = 0; k < basisTerm; k++){
+                        dest[block + k] = scratch[b++];
+                    }
                 }
-                rgbCoeffs.put(offset3, coeffs[6][offset]);
-                rgbCoeffs.put(offset3 + 1, coeffs[7][offset]);
-                rgbCoeffs.put(offset3 + 2, coeffs[8][offset]);
             }
         }
-        stream.close();
+    }
+
+
+    /**
+     * Reads the texel data of LRGB PTMs. The file has a block of rows of luminance coeffs followed by a block of rows
+     * of rgb coeffs, and the 6 lum coeffs then the 3 rgb coeffs make the block for each pixel.
+     */
+    private static class LRGBRows extends TexelRows {
+
+        /** Position in the file the luminance coefficients start at */
+        private final long startPos;
+
+        /** Position in the file the rgb coefficients start at, after all the luminance coefficients */
+        private final long rgbStartPos;
+
+
+        /**
+         * Creates a new reader for the texel data of an LRGB PTM.
+         *
+         * @param reader        reader for the mapped file
+         * @param startPos      position in file to start reading texel data from
+         * @param width         width of image
+         * @param height        height of image
+         */
+        LRGBRows(MappedFileReader reader, long startPos, int width, int height){
+            super(reader, width, height, PTMObjectLRGB.COEFFS_PER_PIXEL);
+            this.startPos = startPos;
+            rgbStartPos = startPos + ((long) width * height * 6);
+        }
+
+
+        @Override
+        byte[] createScratch(int count) {
+            //the lum row, then the rgb row
+            return new byte[count * 9];
+        }
+
+
+        @Override
+        void read(int y, int startX, int count, byte[] dest, byte[] scratch) {
+            //the rows go through y positions backwards
+            long fileRow = height - 1 - y;
+            int rgbOffset = count * 6;
+
+            //read the lum row into the start of the scratch, then the rgb row after it
+            readRow(reader, startPos + ((fileRow * width) + startX) * 6, scratch, 0, rgbOffset);
+            readRow(reader, rgbStartPos + ((fileRow * width) + startX) * 3, scratch, rgbOffset, count * 3);
+
+            //the 6 raw lum characters then the 3 rgb ones make the block for each pixel
+            int block;
+            for(int x = 0; x < count; x++){
+                block = x * pixelSize;
+                System.arraycopy(scratch, x * 6, dest, block, 6);
+                System.arraycopy(scratch, rgbOffset + (x * 3), dest, block + PTMObjectLRGB.RGB_OFFSET, 3);
+            }
+        }
+    }
+
 
-        //dothe usual mip mapping if required
-        if(mipMappingLevel > 0){
-            ptmCoeffs1 = calcMipMapping(ptmCoeffs1, width, height, mipMappingLevel);
-            ptmCoeffs2 = calcMipMapping(ptmCoeffs2, width, height, mipMappingLevel);
-            rgbCoeffs = calcMipMapping(rgbCoeffs, width, height, mipMappingLevel);
+    /**
+     * Reads the texel data of HSH files. Unlike the PTM formats, the rows go through y positions forwards, and are
+     * already interleaved, so they're read straight into the blocks.
+     */
+    private static class HSHRows extends TexelRows {
+
+        /** Position in the file the texel data starts at, straight after the scale and bias */
+        private final long startPos;
+
+
+        /**
+         * Creates a new reader for the texel data of an HSH file.
+         *
+         * @param reader        reader for the mapped file
+         * @param startPos      position in file of the texel data
+         * @param width         width of image
+         * @param height        height of image
+         * @param basisTerms    number of HSH basis terms per pixel
+         */
+        HSHRows(MappedFileReader reader, long startPos, int width, int height, int basisTerms){
+            //a coefficient for each basis term for each colour
+            super(reader, width, height, basisTerms * 3);
+            this.startPos = startPos;
         }
 
-        return new IntBuffer[]{ptmCoeffs1, ptmCoeffs2, rgbCoeffs};
+
+        @Override
+        byte[] createScratch(int count) {
+            return new byte[0];
+        }
+
+
+        @Override
+        void read(int y, int startX, int count, byte[] dest, byte[] scratch) {
+            readRow(reader, startPos + (((long) y * width) + startX) * pixelSize, dest, 0, count * pixelSize);
+        }
     }
 
+
+
+
+    /**
+     * Holds everything about a single file that the parser finds out while parsing it. A new context is made for every
+     * file parsed, so that files being parsed on different threads at the same time can't affect each other.
+     */
+    private static class ParseContext {
+
+        /** Reader for the mapped file being parsed */
+        private final MappedFileReader reader;
+
+        /** Path of the file being parsed */
+        private final String fileName;
+
+        /** Scaling coefficients found in file header, one per term, used for both PTM and HSH formats */
+        private float[] scaleCoeffs;
+
+        /** Bias coefficients for RGB format found in file header */
+        private int[] biasCoeffs;
+
+        /** Bias coefficients for HSH format found in file header, which unlike PTM ones are floats */
+        private float[] hshBiasCoeffs;
+
+        /** Allocates the texel buffers of the RTIObjects made from the file, which they all share */
+        private final NativeBuffers buffers;
+
+
+        /**
+         * Creates a new ParseContext for the file mapped by the reader, with new buffers for its texel data.
+         *
+         * @param reader        reader for the mapped file
+         * @param fileName      path of the file
+         */
+        private ParseContext(MappedFileReader reader, String fileName){
+            this(reader, fileName, new NativeBuffers());
+        }
+
+
+        /**
+         * Creates a new ParseContext for the file mapped by the reader, which allocates its texel data from the given
+         * buffers, so that it can be added to an RTIObject that was already made from the file.
+         *
+         * @param reader        reader for the mapped file
+         * @param fileName      path of the file
+         * @param buffers       allocates the texel data decoded from the file
+         */
+        private ParseContext(MappedFileReader reader, String fileName, NativeBuffers buffers){
+            this.reader = reader;
+            this.fileName = fileName;
+            this.buffers = buffers;
+        }
+    }
 }
@@ -0,0 +1,346 @@
+package ptmCreation;
+
+import utils.Utils;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * <p>
+ * Relights a row of pixels at a time for the snapshots, evaluating the PTM polynomial, the PTM diffuse gain function
+ * and the HSH dot product for a run of neighbouring pixels in one call, rather than one pixel at a time. The pixels'
+ * coefficients are read from the level's {@link CoefficientStore} with {@link CoefficientStore#readRow} first, so
+ * each pixel's coefficients are a block next to the blocks of its neighbours. The results are exactly the same as
+ * {@link Utils#calcIntensity}, {@link Utils#applyDiffGain} and {@link HSHKernel#evaluate} for each of the pixels.
+ * </p>
+ * <p>
+ * There are three versions, which one is used being chosen when the class is loaded. On Java 16 and later, if the JVM
+ * is started with <code>--add-modules jdk.incubator.vector</code>, the Vector API version is used. It's in the Java 16
+ * source set of the multi release jar, so it's found by reflection, see {@link RelightKernel#findVectorKernel()}, and
+ * does the maths for as many pixels at a time as fit in the CPU's vectors. Otherwise the batched version is used,
+ * which first reads the scaled and biased coefficients of the whole row, then does the maths for the row in simple
+ * loops that the JIT can unroll and vectorise. The PTM coefficients are read into an array for each term, and the HSH
+ * coefficients into one interleaved row of floats, with each pixel's block of 27 coefficients for 9 terms, or 48 for
+ * 16, next to the block of the pixel before it, see {@link HSHKernel#loadBlock}. The scalar version just calls the
+ * per pixel methods for each pixel, and is used if the <code>rtiviewer.scalarKernels</code> system property is set to
+ * true, in case the others are ever slower on a machine. The Vector API version can be turned off on its own by
+ * setting the <code>rtiviewer.vectorKernels</code> system property to false.
+ * </p>
+ * <p>
+ * Each kernel keeps the arrays the row is read into, so each thread needs its own kernel.
+ * </p>
+ *
+ * @see HSHKernel
+ *
+ * @author Jed Mills
+ */
+public abstract class RelightKernel {
+
+    /** Whether to use the scalar kernels, rather than the batched ones, set by the rtiviewer.scalarKernels property */
+    public static final boolean SCALAR_KERNELS = Boolean.getBoolean("rtiviewer.scalarKernels");
+
+    /** Whether the Vector API kernels can be used, unless the rtiviewer.vectorKernels property is set to false */
+    public static final boolean VECTOR_KERNELS = Boolean.parseBoolean(System.getProperty("rtiviewer.vectorKernels",
+                                                                                         "true"));
+
+    /** Name of the Vector API kernel class, which is only in the Java 16 source set of the multi release jar */
+    private static final String VECTOR_KERNEL_CLASS = "ptmCreation.VectorKernel";
+
+    /** Constructor of the Vector API kernel, taking the most pixels in a row, or null if it can't be used */
+    private static final Constructor<? extends RelightKernel> VECTOR_KERNEL = findVectorKernel();
+
+
+    /**
+     * Creates a new kernel for rows of up to maxPixels pixels. This is the scalar kernel if
+     * {@link RelightKernel#SCALAR_KERNELS} is set, otherwise the Vector API kernel if this JVM can use it, otherwise
+     * the batched kernel.
+     *
+     * @param maxPixels     the most pixels that will be in a row
+     * @return              the new kernel
+     */
+    public static RelightKernel create(int maxPixels){
+        if(SCALAR_KERNELS){
+            return new ScalarKernel();
+        }else if(VECTOR_KERNEL != null){
+            try{
+                return VECTOR_KERNEL.newInstance(maxPixels);
+            }catch(ReflectiveOperationException e){
+                //it was made fine when the class was loaded, so this shouldn't happen
+                throw new IllegalStateException("Couldn't create the Vector API relighting kernel", e);
+            }
+        }else{
+            return new BatchedKernel(maxPixels);
+        }
+    }
+
+
+
+
+    /**
+     * Finds the constructor of the Vector API kernel by reflection, as it's only in the Java 16 source set of the
+     * multi release jar. A kernel is made and used to relight a pixel, so that the Vector API classes are linked now,
+     * rather than failing when the first snapshot is taken. The class isn't there on Java 8 to 15, and the
+     * jdk.incubator.vector module is only there if the JVM was started with
+     * <code>--add-modules jdk.incubator.vector</code>, so in those cases null is returned and the batched kernel is
+     * used instead.
+     *
+     * @return      the constructor of the Vector API kernel, or null if it can't be used on this JVM
+     */
+    private static Constructor<? extends RelightKernel> findVectorKernel(){
+        if(SCALAR_KERNELS || !VECTOR_KERNELS){return null;}
+
+        try{
+            Class<? extends RelightKernel> kernelClass = Class.forName(VECTOR_KERNEL_CLASS)
+                                                              .asSubclass(RelightKernel.class);
+            Constructor<? extends RelightKernel> constructor = kernelClass.getDeclaredConstructor(int.class);
+
+            RelightKernel kernel = constructor.newInstance(1);
+            kernel.calcIntensities(new byte[6], 0, 6, new int[6][256], 1, 0.0f, 0.0f, new int[1]);
+
+            return constructor;
+        }catch(ReflectiveOperationException | LinkageError e){
+            //the class or the incubator module isn't there, so the vector classes couldn't be loaded
+            return null;
+        }
+    }
+
+
+
+
+    /**
+     * Calculates the intensity of each pixel in a row from the PTM polynomial, the same as
+     * {@link Utils#calcIntensity} for each pixel.
+     *
+     * @param coeffs        interleaved raw coefficients of the row, with a0-a5 next to each other for each pixel
+     * @param offset        position in coeffs of a0 of the first pixel
+     * @param stride        number of coefficients each pixel has, so pixel i's a0 is at offset + (i * stride)
+     * @param lookup        scaled and biased value of every byte for each of the 6 terms
+     * @param count         number of pixels in the row
+     * @param lightX        light vector x pos
+     * @param lightY        light vector y pos
+     * @param intensities   the array to write the intensities to, 0 - 255, one for each pixel starting at 0
+     */
+    public abstract void calcIntensities(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                         float lightX, float lightY, int[] intensities);
+
+
+
+
+    /**
+     * Applies the diffuse gain function to each pixel in a row, the same as {@link Utils#applyDiffGain} for each
+     * pixel.
+     *
+     * @param coeffs        interleaved raw coefficients of the row, with a0-a5 next to each other for each pixel
+     * @param offset        position in coeffs of a0 of the first pixel
+     * @param stride        number of coefficients each pixel has, so pixel i's a0 is at offset + (i * stride)
+     * @param lookup        scaled and biased value of every byte for each of the 6 terms
+     * @param count         number of pixels in the row
+     * @param normals       the (x, y, z) normals of the pixels in the row, one after another
+     * @param position      position of the first pixel's normal in the normals
+     * @param lightX        light x position
+     * @param lightY        light y position
+     * @param gain          diffuse gain to apply
+     * @param colours       the array to write the colours to, one for each pixel starting at 0
+     */
+    public abstract void applyDiffGains(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                        float[] normals, int position, float lightX, float lightY, float gain,
+                                        float[] colours);
+
+
+
+
+    /**
+     * Calculates the red, green and blue of each pixel in a row of an {@link RTIObjectHSH} with the hWeights, the
+     * same as {@link HSHKernel#loadBlock} then {@link HSHKernel#evaluate} for each pixel.
+     *
+     * @param kernel        the HSH kernel for the object's number of basis terms
+     * @param coeffs        interleaved raw coefficients of the row from the start of the array, with
+     *                      3 * {@link HSHKernel#getBasisTerms()} for each pixel
+     * @param lookup        scaled and biased value of every byte for each basis term
+     * @param count         number of pixels in the row
+     * @param hWeights      the hWeights for the light direction
+     * @param red           the array to write the reds to, one for each pixel starting at 0
+     * @param green         the array to write the greens to, one for each pixel starting at 0
+     * @param blue          the array to write the blues to, one for each pixel starting at 0
+     */
+    public abstract void evaluateHSH(HSHKernel kernel, byte[] coeffs, float[][] lookup, int count,
+                                     double[] hWeights, float[] red, float[] green, float[] blue);
+
+
+
+
+    /**
+     * The scalar kernel, which relights each pixel of the row on its own with the per pixel methods.
+     */
+    private static class ScalarKernel extends RelightKernel{
+
+        /** The coefficients of the current HSH pixel */
+        private final float[] block = new float[HSHKernel.BLOCK_SIZE];
+
+        /** The colour of the current HSH pixel */
+        private final float[] rgb = new float[3];
+
+
+        @Override
+        public void calcIntensities(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                    float lightX, float lightY, int[] intensities) {
+            for(int i = 0; i < count; i++){
+                intensities[i] = Utils.calcIntensity(coeffs, offset + i * stride, lookup, lightX, lightY);
+            }
+        }
+
+
+        @Override
+        public void applyDiffGains(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                   float[] normals, int position, float lightX, float lightY, float gain,
+                                   float[] colours) {
+            for(int i = 0; i < count; i++){
+                colours[i] = Utils.applyDiffGain(coeffs, offset + i * stride, lookup, normals, position + i * 3,
+                                                 lightX, lightY, gain);
+            }
+        }
+
+
+        @Override
+        public void evaluateHSH(HSHKernel kernel, byte[] coeffs, float[][] lookup, int count,
+                                double[] hWeights, float[] red, float[] green, float[] blue) {
+            int pixelSize = kernel.getBasisTerms() * 3;
+            for(int i = 0; i < count; i++){
+                kernel.loadBlock(coeffs, i * pixelSize, lookup, block, 0);
+                kernel.evaluate(block, 0, hWeights, rgb);
+                red[i] = rgb[0];
+                green[i] = rgb[1];
+                blue[i] = rgb[2];
+            }
+        }
+    }
+
+
+
+
+    /**
+     * The batched kernel, which reads the scaled and biased coefficients of the whole row first, then does the maths
+     * across all the pixels. The PTM maths is done one term at a time across the row, and the HSH maths a block at a
+     * time along the interleaved row. Each term is added in the same order and with the same precision as the per
+     * pixel methods, so the results are exactly the same.
+     */
+    private static class BatchedKernel extends RelightKernel{
+
+        /** The scaled and biased PTM coefficients of the row, one array for each of the 6 terms */
+        private final int[][] ptmTerms;
+
+        /** The x of the normal of each pixel in the row */
+        private final float[] normalX;
+
+        /** The y of the normal of each pixel in the row */
+        private final float[] normalY;
+
+        /** The scaled and biased HSH coefficients of the row, with pixel i's block at i * the kernel's block size */
+        private final float[] hshBlocks;
+
+        /** The colour of the current HSH pixel */
+        private final float[] rgb = new float[3];
+
+
+        /**
+         * @param maxPixels     the most pixels that will be in a row
+         */
+        private BatchedKernel(int maxPixels){
+            ptmTerms = new int[6][maxPixels];
+            normalX = new float[maxPixels];
+            normalY = new float[maxPixels];
+            hshBlocks = new float[HSHKernel.BLOCK_SIZE * maxPixels];
+        }
+
+
+        /**
+         * Reads the scaled and biased PTM coefficients of each pixel in the row into {@link BatchedKernel#ptmTerms}.
+         *
+         * @param coeffs        interleaved raw coefficients of the row, with a0-a5 next to each other for each pixel
+         * @param offset        position in coeffs of a0 of the first pixel
+         * @param stride        number of coefficients each pixel has
+         * @param lookup        scaled and biased value of every byte for each of the 6 terms
+         * @param count         number of pixels in the row
+         */
+        private void loadPTMTerms(byte[] coeffs, int offset, int stride, int[][] lookup, int count){
+            for(int term = 0; term < 6; term++){
+                int[] termLookup = lookup[term];
+                int[] values = ptmTerms[term];
+                int position = offset + term;
+                for(int i = 0; i < count; i++){
+                    values[i] = termLookup[coeffs[position + i * stride] & 0xFF];
+                }
+            }
+        }
+
+
+        @Override
+        public void calcIntensities(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                    float lightX, float lightY, int[] intensities) {
+            loadPTMTerms(coeffs, offset, stride, lookup, count);
+
+            int[] c0 = ptmTerms[0], c1 = ptmTerms[1], c2 = ptmTerms[2];
+            int[] c3 = ptmTerms[3], c4 = ptmTerms[4], c5 = ptmTerms[5];
+            for(int i = 0; i < count; i++){
+                //i = (a0 * Lu^2) + (a1 * Lv^2) + (a2 * Lu * Lv) + (a3 * Lu) + (a4 * Lv) + a5
+                float intensity = (c0[i] * lightX * lightX) + (c1[i] * lightY * lightY) +
+                                  (c2[i] * lightX * lightY) + (c3[i] * lightX) + (c4[i] * lightY) + c5[i];
+
+                //threshold these to an unsigned byte for RGB
+                intensities[i] = (int) Math.min(Math.max(intensity, 0.0f), 255.0f);
+            }
+        }
+
+
+        @Override
+        public void applyDiffGains(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                   float[] normals, int position, float lightX, float lightY, float gain,
+                                   float[] colours) {
+            loadPTMTerms(coeffs, offset, stride, lookup, count);
+            for(int i = 0; i < count; i++){
+                normalX[i] = normals[position + i * 3];
+                normalY[i] = normals[position + i * 3 + 1];
+            }
+
+            int[] c0 = ptmTerms[0], c1 = ptmTerms[1], c2 = ptmTerms[2];
+            int[] c3 = ptmTerms[3], c4 = ptmTerms[4], c5 = ptmTerms[5];
+            for(int i = 0; i < count; i++){
+                float nx = normalX[i];
+                float ny = normalY[i];
+
+                //calculate the modified PTM polynomial coefficients
+                float a0 = gain * c0[i];
+                float a1 = gain * c1[i];
+                float a2 = gain * c2[i];
+                float a3 = (1.0f - gain) * ((c0[i] << 1) * nx + c2[i] * ny) + c3[i];
+                float a4 = (1.0f - gain) * ((c1[i] << 1) * ny + c2[i] * nx) + c4[i];
+                float a5 = (1.0f - gain) * (c0[i] * nx * nx + c1[i] * ny * ny + c2[i] * nx * ny) +
+                           (c3[i] - a3) * nx + (c4[i] - a4) * ny + c5[i];
+
+                //modified PTM polynomial
+                colours[i] = a0 * lightX * lightX + a1 * lightY * lightY + a2 * lightX * lightY +
+                             a3 * lightX + a4 * lightY + a5;
+            }
+        }
+
+
+        @Override
+        public void evaluateHSH(HSHKernel kernel, byte[] coeffs, float[][] lookup, int count,
+                                double[] hWeights, float[] red, float[] green, float[] blue) {
+            int blockSize = kernel.getBlockSize();
+            int pixelSize = kernel.getBasisTerms() * 3;
+
+            //scale and bias the whole row into the interleaved blocks first
+            for(int i = 0; i < count; i++){
+                kernel.loadBlock(coeffs, i * pixelSize, lookup, hshBlocks, i * blockSize);
+            }
+
+            //then each pixel's terms are read straight along its block
+            for(int i = 0; i < count; i++){
+                kernel.evaluate(hshBlocks, i * blockSize, hWeights, rgb);
+                red[i] = rgb[0];
+                green[i] = rgb[1];
+                blue[i] = rgb[2];
+            }
+        }
+    }
+}
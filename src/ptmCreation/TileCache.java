@@ -0,0 +1,140 @@
+package ptmCreation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Keeps the tiles of {@link TiledFile}s that have been read recently in memory, so that rendering and exporting a
+ * tiled image only reads each tile from the disk once while it's being used. The cache is kept under
+ * {@link TileCache#maxBytes} by removing the least recently used tiles, so however big the tiled images are, only a
+ * fixed amount of memory is used for them. All the tiled files share the one cache, so the tiles of the image that is
+ * being used push out those of images that aren't.
+ * </p>
+ * <p>
+ * All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @see TiledFile
+ *
+ * @author Jed Mills
+ */
+public class TileCache {
+
+    /** The tiles in the cache by their key, in order of when they were last used, least recent first */
+    private static final LinkedHashMap<Long, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** The total size of the tiles in the cache */
+    private static long cachedBytes = 0;
+
+    /** The total size the tiles in the cache can take up, 512MB by default, or a quarter of the heap if that's less */
+    private static long maxBytes = Math.min(512L << 20, Runtime.getRuntime().maxMemory() / 4);
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private TileCache(){}
+
+
+
+
+    /**
+     * Gets a tile of a tiled file from the cache.
+     *
+     * @param fileId        the id of the tiled file
+     * @param tileIndex     the index of the tile in the file
+     * @return              the tile, or null if it isn't in the cache
+     */
+    static synchronized byte[] get(int fileId, int tileIndex){
+        return tiles.get(getKey(fileId, tileIndex));
+    }
+
+
+
+
+    /**
+     * Adds a tile of a tiled file to the cache, then removes the least recently used tiles if the cache has gone over
+     * {@link TileCache#maxBytes}.
+     *
+     * @param fileId        the id of the tiled file
+     * @param tileIndex     the index of the tile in the file
+     * @param tile          the bytes of the tile
+     */
+    static synchronized void put(int fileId, int tileIndex, byte[] tile){
+        byte[] replaced = tiles.put(getKey(fileId, tileIndex), tile);
+        cachedBytes += tile.length;
+        if(replaced != null){cachedBytes -= replaced.length;}
+
+        trim();
+    }
+
+
+
+
+    /**
+     * Removes all the tiles of a tiled file from the cache, when the file is closed.
+     *
+     * @param fileId        the id of the tiled file
+     */
+    static synchronized void remove(int fileId){
+        Iterator<Map.Entry<Long, byte[]>> iterator = tiles.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<Long, byte[]> entry = iterator.next();
+            if((int) (entry.getKey() >>> 32) == fileId){
+                cachedBytes -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Removes the least recently used tiles until the cache is under {@link TileCache#maxBytes}.
+     */
+    private static void trim(){
+        Iterator<byte[]> iterator = tiles.values().iterator();
+        while(cachedBytes > maxBytes && iterator.hasNext()){
+            cachedBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+
+
+
+    /**
+     * @param fileId        the id of the tiled file
+     * @param tileIndex     the index of the tile in the file
+     * @return              the key for the tile in the cache
+     */
+    private static long getKey(int fileId, int tileIndex){
+        return ((long) fileId << 32) | (tileIndex & 0xFFFFFFFFL);
+    }
+
+
+
+
+    /**
+     * @return the total size of the tiles in the cache in bytes
+     */
+    public static synchronized long getCachedBytes(){
+        return cachedBytes;
+    }
+
+
+
+
+    /**
+     * Sets the total size the tiles in the cache can take up, and trims the cache to it straight away.
+     *
+     * @param bytes     the maximum size of the cache in bytes
+     */
+    public static synchronized void setMaxBytes(long bytes){
+        maxBytes = bytes;
+        trim();
+    }
+}
@@ -0,0 +1,107 @@
+package ptmCreation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>
+ * A {@link CoefficientStore} that keeps the coefficients on the disk in a {@link TiledFile}, rather than in memory,
+ * for levels too big to load, like those of stitched captures of several gigapixels. Each pixel's block of
+ * coefficients is stored in the tiles in the same interleaved order it's read in, so reading a run or a rectangle of
+ * pixels only pages in the tiles it covers, through the {@link TileCache}. The windows upload the level a band at a
+ * time and the image creators render it a tile at a time, so only the tiles being worked on are held in memory,
+ * however big the level is.
+ * </p>
+ *
+ * @see TiledFile
+ * @see TiledNormalStore
+ *
+ * @author Jed Mills
+ */
+public class TiledCoefficientStore implements CoefficientStore, Closeable {
+
+    /** The file the coefficients are kept in, with each pixel's coefficients next to each other */
+    private final TiledFile tiledFile;
+
+
+    /**
+     * Creates a new store for the coefficients in the tiled file, which has one byte for each coefficient of a pixel.
+     *
+     * @param tiledFile     the file with the coefficients
+     */
+    public TiledCoefficientStore(TiledFile tiledFile){
+        this.tiledFile = tiledFile;
+    }
+
+
+
+
+    /**
+     * Writes the coefficients of a level to a new tiled file, and opens the store for it. The source is read a tile
+     * at a time on the {@link utils.ComputePool}, so it can be a file that is too big to load.
+     *
+     * @param width                     width of the level in pixels
+     * @param height                    height of the level in pixels
+     * @param coefficientsPerPixel      number of coefficients in each pixel's block
+     * @param source                    reads the blocks of coefficients of each tile
+     * @return                          the store for the coefficients in the tiled file
+     * @throws IOException              if there's an error writing the file
+     */
+    public static TiledCoefficientStore create(int width, int height, int coefficientsPerPixel,
+                                               TiledFile.RegionSource source) throws IOException {
+        return new TiledCoefficientStore(TiledFile.write(width, height, coefficientsPerPixel, source));
+    }
+
+
+
+
+    @Override
+    public int getWidth() {
+        return tiledFile.getWidth();
+    }
+
+
+
+
+    @Override
+    public int getHeight() {
+        return tiledFile.getHeight();
+    }
+
+
+
+
+    @Override
+    public int getCoefficientsPerPixel() {
+        return tiledFile.getBytesPerPixel();
+    }
+
+
+
+
+    @Override
+    public void readRow(int y, int startX, int count, byte[] dest, int offset) {
+        tiledFile.readRegion(startX, y, count, 1, dest, offset);
+    }
+
+
+
+
+    @Override
+    public void readRegion(int x, int y, int width, int height, byte[] dest, int offset) {
+        tiledFile.readRegion(x, y, width, height, dest, offset);
+    }
+
+
+
+
+    /**
+     * Closes and deletes the tiled file.
+     *
+     * @throws IOException      if there's an error closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        tiledFile.close();
+    }
+}
@@ -0,0 +1,379 @@
+package ptmCreation;
+
+import utils.ComputePool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A file on the disk holding a level of an RTIObject that is too big to keep in memory, split into square tiles of
+ * {@link TiledFile#TILE_SIZE} pixels that each have {@link TiledFile#getBytesPerPixel()} bytes per pixel. The pixels
+ * of each tile are stored row by row, and the tiles follow each other a row of tiles at a time, so a tile is one
+ * block of the file. The tiles at the right and bottom edges are padded to the full tile size, so every tile is the
+ * same length and where a tile is in the file can be worked out from its index.
+ * </p>
+ * <p>
+ * The file is memory mapped with a {@link MappedFileReader}, so none of it is read until it's needed, and tiles are
+ * copied out of it into the {@link TileCache} the first time they're read. Only the tiles that have been used recently
+ * are kept in memory, however big the level is. This is what the {@link TiledCoefficientStore} and
+ * {@link TiledNormalStore} are kept in.
+ * </p>
+ * <p>
+ * Tiled files are only scratch space for the RTIObject they were made for, they're written to
+ * {@link TiledFile#directory} and deleted when they're closed. The read methods can be called from several threads at
+ * once.
+ * </p>
+ *
+ * @see TileCache
+ *
+ * @author Jed Mills
+ */
+public class TiledFile implements Closeable {
+
+    /** Width and height of every tile in pixels */
+    public static final int TILE_SIZE = 256;
+
+    /** Number of tiles made at once for each thread of the {@link ComputePool} while a file is written */
+    private static final int TILES_PER_THREAD = 2;
+
+    /** The directory the tiled files are written to */
+    private static volatile File directory = new File(System.getProperty("user.home"),
+                                                       ".rtiviewer" + File.separator + "tiles");
+
+    /** Gives each tiled file that is opened a different id, for its tiles in the {@link TileCache} */
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /** The id of the file's tiles in the {@link TileCache} */
+    private final int id;
+
+    /** The tiled file on the disk */
+    private final File file;
+
+    /** The mapped file */
+    private final MappedFileReader reader;
+
+    /** Width of the level in pixels */
+    private final int width;
+
+    /** Height of the level in pixels */
+    private final int height;
+
+    /** Number of bytes for each pixel */
+    private final int bytesPerPixel;
+
+    /** Number of tiles across the level */
+    private final int tilesAcross;
+
+
+    /**
+     * Makes the pixels of each tile while a tiled file is written. It's called from several threads at once, each
+     * with a different tile.
+     */
+    public interface RegionSource {
+
+        /**
+         * Reads the bytes of a rectangle of pixels into out, starting at 0, row by row, so that the bytes of pixel
+         * (x + i, y + j) start at (j * width + i) * bytesPerPixel.
+         *
+         * @param x         x position of the top left pixel of the rectangle
+         * @param y         y position of the top left pixel of the rectangle
+         * @param width     width of the rectangle
+         * @param height    height of the rectangle
+         * @param out       the array to read the bytes into
+         */
+        void readRegion(int x, int y, int width, int height, byte[] out);
+    }
+
+
+
+
+    /**
+     * Opens a tiled file that has just been written, mapping it into memory.
+     *
+     * @param file              the tiled file
+     * @param width             width of the level in pixels
+     * @param height            height of the level in pixels
+     * @param bytesPerPixel     number of bytes for each pixel
+     * @throws IOException      if the file can't be mapped
+     */
+    private TiledFile(File file, int width, int height, int bytesPerPixel) throws IOException {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = bytesPerPixel;
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        reader = new MappedFileReader(file.getAbsolutePath());
+        id = nextId.getAndIncrement();
+    }
+
+
+
+
+    /**
+     * Writes a level to a new tiled file in {@link TiledFile#directory}, then opens it. The tiles are made by the
+     * source a batch at a time in parallel on the {@link ComputePool}, and each batch is written in order once it's
+     * done, so only {@link TiledFile#TILES_PER_THREAD} tiles for each thread are held in memory at once, and the
+     * source can be another file that is too big to load, as long as it can read parts of itself. This blocks until
+     * the whole file is written, so mustn't be called on the ComputePool.
+     *
+     * @param width             width of the level in pixels
+     * @param height            height of the level in pixels
+     * @param bytesPerPixel     number of bytes for each pixel
+     * @param source            makes the pixels of each tile
+     * @return                  the tiled file, opened
+     * @throws IOException      if there's an error writing the file
+     */
+    public static TiledFile write(final int width, final int height, final int bytesPerPixel,
+                                  final RegionSource source) throws IOException {
+        if(width <= 0 || height <= 0 || bytesPerPixel <= 0){
+            throw new IllegalArgumentException("Can't tile a " + width + "x" + height + " level with " +
+                                                bytesPerPixel + " bytes per pixel");
+        }
+        if((long) TILE_SIZE * TILE_SIZE * bytesPerPixel > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Tiles of " + bytesPerPixel + " bytes per pixel are too big");
+        }
+
+        final int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int numTiles = tilesAcross * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        final byte[][] batch = new byte[ComputePool.getParallelism() * TILES_PER_THREAD][];
+
+        File directory = TiledFile.directory;
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Couldn't make the directory for tiled files at " + directory.getPath());
+        }
+        File file = File.createTempFile("rti", ".tiles", directory);
+
+        boolean written = false;
+        try(RandomAccessFile output = new RandomAccessFile(file, "rw")){
+            FileChannel channel = output.getChannel();
+
+            for(int first = 0; first < numTiles; first += batch.length){
+                final int firstTile = first;
+                int batchTiles = Math.min(batch.length, numTiles - first);
+
+                //each thread makes its own tiles of the batch
+                ComputePool.processRows(batchTiles, new ComputePool.RowProcessor() {
+                    @Override
+                    public void processRows(int startTile, int endTile) {
+                        for(int i = startTile; i < endTile; i++){
+                            if(batch[i] == null){batch[i] = new byte[TILE_SIZE * TILE_SIZE * bytesPerPixel];}
+                            makeTile(firstTile + i, tilesAcross, width, height, bytesPerPixel, source, batch[i]);
+                        }
+                    }
+                });
+
+                for(int i = 0; i < batchTiles; i++){
+                    ByteBuffer tile = ByteBuffer.wrap(batch[i]);
+                    while(tile.hasRemaining()){
+                        channel.write(tile);
+                    }
+                }
+            }
+            written = true;
+        }finally{
+            if(!written){deleteFile(file);}
+        }
+
+        return new TiledFile(file, width, height, bytesPerPixel);
+    }
+
+
+
+
+    /**
+     * Makes one tile of a tiled file from the source. Edge tiles are padded out to the full tile size with zeros, so
+     * their rows are read into a separate array then moved to their place in the tile.
+     *
+     * @param tileIndex         index of the tile in the file
+     * @param tilesAcross       number of tiles across the level
+     * @param width             width of the level in pixels
+     * @param height            height of the level in pixels
+     * @param bytesPerPixel     number of bytes for each pixel
+     * @param source            makes the pixels of the tile
+     * @param tile              the array to make the tile in, the full tile size
+     */
+    private static void makeTile(int tileIndex, int tilesAcross, int width, int height, int bytesPerPixel,
+                                 RegionSource source, byte[] tile){
+        int x = (tileIndex % tilesAcross) * TILE_SIZE;
+        int y = (tileIndex / tilesAcross) * TILE_SIZE;
+        int regionWidth = Math.min(TILE_SIZE, width - x);
+        int regionHeight = Math.min(TILE_SIZE, height - y);
+
+        if(regionWidth == TILE_SIZE && regionHeight == TILE_SIZE){
+            source.readRegion(x, y, regionWidth, regionHeight, tile);
+            return;
+        }
+
+        byte[] region = new byte[regionWidth * regionHeight * bytesPerPixel];
+        source.readRegion(x, y, regionWidth, regionHeight, region);
+        Arrays.fill(tile, (byte) 0);
+        for(int row = 0; row < regionHeight; row++){
+            System.arraycopy(region, row * regionWidth * bytesPerPixel,
+                             tile, row * TILE_SIZE * bytesPerPixel, regionWidth * bytesPerPixel);
+        }
+    }
+
+
+
+
+    /**
+     * Gets the bytes of the tile at (tileX, tileY), from the {@link TileCache} if it's been read recently, otherwise
+     * from the mapped file. The tile is the full tile size, with the padding past the edge of the level as zeros.
+     * The returned array is shared, so mustn't be changed.
+     *
+     * @param tileX         the column of the tile
+     * @param tileY         the row of the tile
+     * @return              the bytes of the tile
+     */
+    private byte[] getTile(int tileX, int tileY){
+        int tileIndex = tileY * tilesAcross + tileX;
+        byte[] tile = TileCache.get(id, tileIndex);
+        if(tile != null){return tile;}
+
+        //the tile is read outside of the cache's lock, so other threads can use the cache while this waits on the disk
+        tile = new byte[TILE_SIZE * TILE_SIZE * bytesPerPixel];
+        try{
+            reader.read((long) tileIndex * tile.length, tile, 0, tile.length);
+        }catch(IOException e){
+            //every tile was written before the file was opened, so this can only happen if it's been truncated
+            throw new IllegalStateException("Couldn't read tile " + tileIndex + " of " + file.getPath(), e);
+        }
+
+        TileCache.put(id, tileIndex, tile);
+        return tile;
+    }
+
+
+
+
+    /**
+     * Reads the bytes of a rectangle of pixels into out, starting at offset, row by row, so that the bytes of pixel
+     * (x + i, y + j) start at offset + (j * width + i) * bytesPerPixel. Only the tiles the rectangle covers are read.
+     *
+     * @param x         x position of the top left pixel of the rectangle
+     * @param y         y position of the top left pixel of the rectangle
+     * @param width     width of the rectangle
+     * @param height    height of the rectangle
+     * @param out       the array to read the bytes into
+     * @param offset    the position in out to put the first byte
+     */
+    public void readRegion(int x, int y, int width, int height, byte[] out, int offset){
+        if(x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height){
+            throw new IndexOutOfBoundsException("Can't read a " + width + "x" + height + " region from (" + x + ", " +
+                                                y + ") of a " + this.width + "x" + this.height + " level");
+        }
+
+        int rowBytes = width * bytesPerPixel;
+        for(int tileY = y / TILE_SIZE; tileY * TILE_SIZE < y + height; tileY++){
+            for(int tileX = x / TILE_SIZE; tileX * TILE_SIZE < x + width; tileX++){
+                byte[] tile = getTile(tileX, tileY);
+
+                //the part of the region that is in this tile
+                int startX = Math.max(x, tileX * TILE_SIZE);
+                int endX = Math.min(x + width, (tileX + 1) * TILE_SIZE);
+                int startY = Math.max(y, tileY * TILE_SIZE);
+                int endY = Math.min(y + height, (tileY + 1) * TILE_SIZE);
+                int copyBytes = (endX - startX) * bytesPerPixel;
+
+                for(int row = startY; row < endY; row++){
+                    int tilePos = ((row - tileY * TILE_SIZE) * TILE_SIZE + (startX - tileX * TILE_SIZE)) *
+                                  bytesPerPixel;
+                    int outPos = offset + (row - y) * rowBytes + (startX - x) * bytesPerPixel;
+                    System.arraycopy(tile, tilePos, out, outPos, copyBytes);
+                }
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Removes this file's tiles from the {@link TileCache}, closes it and deletes it from the disk.
+     *
+     * @throws IOException      if there's an error closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        TileCache.remove(id);
+        try{
+            reader.close();
+        }finally{
+            deleteFile(file);
+        }
+    }
+
+
+
+
+    /**
+     * Deletes a tiled file, or if it can't be deleted yet, as some systems won't delete a file while it's still
+     * mapped, deletes it when the app exits.
+     *
+     * @param file      the file to delete
+     */
+    private static void deleteFile(File file){
+        if(!file.delete() && file.exists()){
+            file.deleteOnExit();
+        }
+    }
+
+
+
+
+    /**
+     * @return the number of bytes the file takes up on the disk, including the padding of the edge tiles
+     */
+    public long getFileBytes(){
+        return reader.size();
+    }
+
+
+
+
+    /**
+     * @return {@link TiledFile#width}
+     */
+    public int getWidth() {
+        return width;
+    }
+
+
+
+
+    /**
+     * @return {@link TiledFile#height}
+     */
+    public int getHeight() {
+        return height;
+    }
+
+
+
+
+    /**
+     * @return {@link TiledFile#bytesPerPixel}
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+
+
+
+    /**
+     * Sets the directory new tiled files are written to. Tiled files already open are left where they are.
+     *
+     * @param tileDirectory     the directory to write the tiled files to
+     */
+    public static void setDirectory(File tileDirectory){
+        directory = tileDirectory;
+    }
+}
@@ -0,0 +1,131 @@
+package ptmCreation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link NormalStore} that keeps the normals of a level on the disk in a {@link TiledFile}, for the levels whose
+ * coefficients are in a {@link TiledCoefficientStore}. Each pixel's normal is stored in the tiles as 3 little endian
+ * floats, 12 bytes per pixel, and is turned back into floats as it's read, so only the tiles being read are held in
+ * memory.
+ *
+ * @see TiledFile
+ * @see TiledCoefficientStore
+ *
+ * @author Jed Mills
+ */
+public class TiledNormalStore implements NormalStore, Closeable {
+
+    /** Number of bytes each pixel's normal takes in the tiled file */
+    private static final int BYTES_PER_PIXEL = 12;
+
+    /** The file the normals are kept in */
+    private final TiledFile tiledFile;
+
+
+    /**
+     * Makes the normals of each tile while the normals are written. It's called from several threads at once, each
+     * with a different tile.
+     */
+    public interface RegionSource {
+
+        /**
+         * Calculates the normals of a rectangle of pixels into out, starting at 0, row by row, so that the x of the
+         * normal of pixel (x + i, y + j) is at (j * width + i) * 3.
+         *
+         * @param x         x position of the top left pixel of the rectangle
+         * @param y         y position of the top left pixel of the rectangle
+         * @param width     width of the rectangle
+         * @param height    height of the rectangle
+         * @param out       the array to put the normals in
+         */
+        void readRegion(int x, int y, int width, int height, float[] out);
+    }
+
+
+
+
+    /**
+     * Creates a new store for the normals in the tiled file.
+     *
+     * @param tiledFile     the file with the normals
+     */
+    private TiledNormalStore(TiledFile tiledFile){
+        this.tiledFile = tiledFile;
+    }
+
+
+
+
+    /**
+     * Writes the normals of a level to a new tiled file, and opens the store for it. The normals are calculated a
+     * tile at a time on the {@link utils.ComputePool}.
+     *
+     * @param width             width of the level in pixels
+     * @param height            height of the level in pixels
+     * @param source            calculates the normals of each tile
+     * @return                  the store for the normals in the tiled file
+     * @throws IOException      if there's an error writing the file
+     */
+    public static TiledNormalStore create(int width, int height, final RegionSource source) throws IOException {
+        TiledFile tiledFile = TiledFile.write(width, height, BYTES_PER_PIXEL, new TiledFile.RegionSource() {
+            @Override
+            public void readRegion(int x, int y, int width, int height, byte[] out) {
+                float[] normals = new float[width * height * 3];
+                source.readRegion(x, y, width, height, normals);
+                ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(normals);
+            }
+        });
+
+        return new TiledNormalStore(tiledFile);
+    }
+
+
+
+
+    @Override
+    public int getWidth() {
+        return tiledFile.getWidth();
+    }
+
+
+
+
+    @Override
+    public int getHeight() {
+        return tiledFile.getHeight();
+    }
+
+
+
+
+    @Override
+    public void readRow(int y, int startX, int count, float[] dest, int offset) {
+        readRegion(startX, y, count, 1, dest, offset);
+    }
+
+
+
+
+    @Override
+    public void readRegion(int x, int y, int width, int height, float[] dest, int offset) {
+        byte[] bytes = new byte[width * height * BYTES_PER_PIXEL];
+        tiledFile.readRegion(x, y, width, height, bytes, 0);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(dest, offset, width * height * 3);
+    }
+
+
+
+
+    /**
+     * Closes and deletes the tiled file.
+     *
+     * @throws IOException      if there's an error closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        tiledFile.close();
+    }
+}
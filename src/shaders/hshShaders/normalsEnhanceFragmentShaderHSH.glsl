@@ -14,21 +14,24 @@ uniform float imageWidth;
 //texture cotainingthe single vec4, which has the basis terms in the x value
 uniform isampler2D dataTexture;
 
-//the textures containing the HSH coeffs for the red channel redCoeffs2 and redCoeffs3
-//may only by 1x1 textures if the number of basisTerms are small
+//the textures containing the HSH coeffs for the red channel, 4 terms in each, redCoeffs2 - redCoeffs4
+//are only filled if there are enough basisTerms
 uniform sampler2D redCoeffs1;
 uniform sampler2D redCoeffs2;
 uniform sampler2D redCoeffs3;
+uniform sampler2D redCoeffs4;
 
 //same for green textures
 uniform sampler2D greenCoeffs1;
 uniform sampler2D greenCoeffs2;
 uniform sampler2D greenCoeffs3;
+uniform sampler2D greenCoeffs4;
 
 //same for blue textures
 uniform sampler2D blueCoeffs1;
 uniform sampler2D blueCoeffs2;
 uniform sampler2D blueCoeffs3;
+uniform sampler2D blueCoeffs4;
 
 //texture containing the normals vector for each pixel
 uniform sampler2D normals;
@@ -42,6 +45,17 @@ uniform float diffGain;
 float gain = 1.0;
 float env = 1.5;
 
+//scale and bias for the HSH terms 0 - 3, 4 - 7, 8 - 11 and 12 - 15, to turn the 0.0 - 1.0 texture values into
+//the coeffs
+uniform vec4 scale1;
+uniform vec4 scale2;
+uniform vec4 scale3;
+uniform vec4 scale4;
+uniform vec4 bias1;
+uniform vec4 bias2;
+uniform vec4 bias3;
+uniform vec4 bias4;
+
 //coordinate on textures with the pan from the vertex shader
 in vec2 texCoordV;
 
@@ -159,70 +173,50 @@ void main() {
 
     //only get the HSH data from textures that have been filled. All HSH will have at least one term,
     //so all need the first texture
-    vec4 redVals1 = texelFetch(redCoeffs1, ptmCoords, 0);
-    vec4 redVals2;
-    vec4 redVals3;
-
-    vec4 greenVals1 = texelFetch(greenCoeffs1, ptmCoords, 0);
-    vec4 greenVals2;
-    vec4 greenVals3;
-
-    vec4 blueVals1 = texelFetch(blueCoeffs1, ptmCoords, 0);
-    vec4 blueVals2;
-    vec4 blueVals3;
-
-
-    //but only > 3 basis terms will have coefficients stored in the second texture
-    if(basisTerms > 3){
-        redVals2 = texelFetch(redCoeffs2, ptmCoords, 0);
-        greenVals2 = texelFetch(greenCoeffs2, ptmCoords, 0);
-        blueVals2 = texelFetch(blueCoeffs2, ptmCoords, 0);
+    vec4 redVals1 = texelFetch(redCoeffs1, ptmCoords, 0) * scale1 + bias1;
+    vec4 redVals2 = vec4(0.0);
+    vec4 redVals3 = vec4(0.0);
+    vec4 redVals4 = vec4(0.0);
+
+    vec4 greenVals1 = texelFetch(greenCoeffs1, ptmCoords, 0) * scale1 + bias1;
+    vec4 greenVals2 = vec4(0.0);
+    vec4 greenVals3 = vec4(0.0);
+    vec4 greenVals4 = vec4(0.0);
+
+    vec4 blueVals1 = texelFetch(blueCoeffs1, ptmCoords, 0) * scale1 + bias1;
+    vec4 blueVals2 = vec4(0.0);
+    vec4 blueVals3 = vec4(0.0);
+    vec4 blueVals4 = vec4(0.0);
+
+    //but only > 4 basis terms will have coefficients stored in the second texture
+    if(basisTerms > 4){
+        redVals2 = texelFetch(redCoeffs2, ptmCoords, 0) * scale2 + bias2;
+        greenVals2 = texelFetch(greenCoeffs2, ptmCoords, 0) * scale2 + bias2;
+        blueVals2 = texelFetch(blueCoeffs2, ptmCoords, 0) * scale2 + bias2;
     }
 
-    //and the same for 6
-    if(basisTerms > 6){
-         redVals3 = texelFetch(redCoeffs3, ptmCoords, 0);
-         greenVals3 = texelFetch(greenCoeffs3, ptmCoords, 0);
-         blueVals3 = texelFetch(blueCoeffs3, ptmCoords, 0);
+    //and the same for 8 and 12
+    if(basisTerms > 8){
+        redVals3 = texelFetch(redCoeffs3, ptmCoords, 0) * scale3 + bias3;
+        greenVals3 = texelFetch(greenCoeffs3, ptmCoords, 0) * scale3 + bias3;
+        blueVals3 = texelFetch(blueCoeffs3, ptmCoords, 0) * scale3 + bias3;
+    }
+    if(basisTerms > 12){
+        redVals4 = texelFetch(redCoeffs4, ptmCoords, 0) * scale4 + bias4;
+        greenVals4 = texelFetch(greenCoeffs4, ptmCoords, 0) * scale4 + bias4;
+        blueVals4 = texelFetch(blueCoeffs4, ptmCoords, 0) * scale4 + bias4;
     }
 
 
-    float r = 0.0;
-    float g = 0.0;
-    float b = 0.0;
-
-    //only add up HSH cciefficients multiplied by the hWeights up to the number of basis terms
-    for(int k = 0; k < basisTerms; k++){
-        if      (k == 0){r += redVals1.x   * hWeights[0][0];}
-        else if (k == 1){r += redVals1.y   * hWeights[1][0];}
-        else if (k == 2){r += redVals1.z   * hWeights[2][0];}
-        else if (k == 3){r += redVals2.x   * hWeights[3][0];}
-        else if (k == 4){r += redVals2.y   * hWeights[0][1];}
-        else if (k == 5){r += redVals2.z   * hWeights[1][1];}
-        else if (k == 6){r += redVals3.x   * hWeights[2][1];}
-        else if (k == 7){r += redVals3.y   * hWeights[3][1];}
-        else if (k == 8){r += redVals3.z   * hWeights[0][2];}
-
-        if      (k == 0){g += greenVals1.x * hWeights[0][0];}
-        else if (k == 1){g += greenVals1.y * hWeights[1][0];}
-        else if (k == 2){g += greenVals1.z * hWeights[2][0];}
-        else if (k == 3){g += greenVals2.x * hWeights[3][0];}
-        else if (k == 4){g += greenVals2.y * hWeights[0][1];}
-        else if (k == 5){g += greenVals2.z * hWeights[1][1];}
-        else if (k == 6){g += greenVals3.x * hWeights[2][1];}
-        else if (k == 7){g += greenVals3.y * hWeights[3][1];}
-        else if (k == 8){g += greenVals3.z * hWeights[0][2];}
-
-        if      (k == 0){b += blueVals1.x  * hWeights[0][0];}
-        else if (k == 1){b += blueVals1.y  * hWeights[1][0];}
-        else if (k == 2){b += blueVals1.z  * hWeights[2][0];}
-        else if (k == 3){b += blueVals2.x  * hWeights[3][0];}
-        else if (k == 4){b += blueVals2.y  * hWeights[0][1];}
-        else if (k == 5){b += blueVals2.z  * hWeights[1][1];}
-        else if (k == 6){b += blueVals3.x  * hWeights[2][1];}
-        else if (k == 7){b += blueVals3.y  * hWeights[3][1];}
-        else if (k == 8){b += blueVals3.z  * hWeights[0][2];}
-    }
+    //each texture has 4 terms in, and each row of the hWeights matrix has the hWeights for the same 4 terms, so
+    //each colour is the sum of their dot products, the terms past the basis terms have coeffs of 0
+    mat4x4 termWeights = transpose(hWeights);
+    float r = dot(redVals1, termWeights[0]) + dot(redVals2, termWeights[1])
+            + dot(redVals3, termWeights[2]) + dot(redVals4, termWeights[3]);
+    float g = dot(greenVals1, termWeights[0]) + dot(greenVals2, termWeights[1])
+            + dot(greenVals3, termWeights[2]) + dot(greenVals4, termWeights[3]);
+    float b = dot(blueVals1, termWeights[0]) + dot(blueVals2, termWeights[1])
+            + dot(blueVals3, termWeights[2]) + dot(blueVals4, termWeights[3]);
 
     //now use the enhancement algorithm to get the enhanced luminance for this pixel
     vec3 normal = texelFetch(normals, ptmCoords, 0).xyz;
@@ -10,9 +10,15 @@ uniform float imageHeight;
 uniform float imageWidth;
 
 //textures containing the first 3 and last 3 luminance coeffs, and the rgb coeffs
-uniform isampler2D lumCoeffs1;
-uniform isampler2D lumCoeffs2;
-uniform isampler2D rgbCoeffs;
+uniform usampler2D lumCoeffs1;
+uniform usampler2D lumCoeffs2;
+uniform usampler2D rgbCoeffs;
+
+//scale and bias for the first 3 and last 3 coeffs, the same for all colour channels
+uniform vec3 scale1;
+uniform vec3 scale2;
+uniform ivec3 bias1;
+uniform ivec3 bias2;
 
 //coordinate on textures with the pan from the vertex shader
 in vec2 texCoordV;
@@ -21,6 +27,12 @@ in vec2 texCoordV;
 out vec4 colorOut;
 
 
+//scale and bias the raw 0 - 255 coeffs from the textures into the real coeffs
+ivec3 scaleBias(uvec3 raw, ivec3 bias, vec3 scale){
+    return ivec3(vec3(ivec3(raw) - bias) * scale);
+}
+
+
 //convert openGL coords with (0, 0) at the center to coords with (0, 0) in the top left
 vec2 convertCoords(vec2 coords){
     return vec2((coords.x + 1) / 2, (1 - coords.y) / 2);
@@ -56,9 +68,9 @@ void main(){
     ivec2 ptmCoords = ivec2(convertToPTMCoords(coords));
 
     //aget the lum and rgb coeffs for this pixel
-    ivec4 lumVals1 = texelFetch(lumCoeffs1, ptmCoords, 0);
-    ivec4 lumVals2 = texelFetch(lumCoeffs2, ptmCoords, 0);
-    ivec4 rgbVals =  texelFetch(rgbCoeffs, ptmCoords, 0);
+    ivec4 lumVals1 = ivec4(scaleBias(texelFetch(lumCoeffs1, ptmCoords, 0).xyz, bias1, scale1), 0);
+    ivec4 lumVals2 = ivec4(scaleBias(texelFetch(lumCoeffs2, ptmCoords, 0).xyz, bias2, scale2), 0);
+    ivec4 rgbVals =  ivec4(texelFetch(rgbCoeffs, ptmCoords, 0));
 
     //apply the PTM equationto the lum coeffs to get the luminance for this pixel,
     float lum = applyPTM(lumVals1.x, lumVals1.y, lumVals1.z, lumVals2.x, lumVals2.y, lumVals2.z) / 255.0;
@@ -10,16 +10,22 @@ uniform float imageHeight;
 uniform float imageWidth;
 
 //textures contining the first 3 and last 3 coeffs for the red channel
-uniform isampler2D rVals1;
-uniform isampler2D rVals2;
+uniform usampler2D rVals1;
+uniform usampler2D rVals2;
 
 //textures contining the first 3 and last 3 coeffs for the green channel
-uniform isampler2D gVals1;
-uniform isampler2D gVals2;
+uniform usampler2D gVals1;
+uniform usampler2D gVals2;
 
 //textures contining the first 3 and last 3 coeffs for the blue channel
-uniform isampler2D bVals1;
-uniform isampler2D bVals2;
+uniform usampler2D bVals1;
+uniform usampler2D bVals2;
+
+//scale and bias for the first 3 and last 3 coeffs, the same for all colour channels
+uniform vec3 scale1;
+uniform vec3 scale2;
+uniform ivec3 bias1;
+uniform ivec3 bias2;
 
 //coordinate on textures with the pan from the vertex shader
 in vec2 texCoordV;
@@ -28,6 +34,12 @@ in vec2 texCoordV;
 out vec4 colorOut;
 
 
+//scale and bias the raw 0 - 255 coeffs from the textures into the real coeffs
+ivec3 scaleBias(uvec3 raw, ivec3 bias, vec3 scale){
+    return ivec3(vec3(ivec3(raw) - bias) * scale);
+}
+
+
 //convert openGL coords with (0, 0) at the center to coords with (0, 0) in the top left
 vec2 convertCoords(vec2 coords){
     return vec2((coords.x + 1) / 2, (1 - coords.y) / 2);
@@ -61,12 +73,12 @@ void main() {
     ivec2 ptmCoords = ivec2(convertToPTMCoords(coords));
 
     //get all the coeffs for the pixel this shader is being executed for
-    ivec3 redCoeffs1 = texelFetch(rVals1, ptmCoords, 0).xyz;
-    ivec3 redCoeffs2 = texelFetch(rVals2, ptmCoords, 0).xyz;
-    ivec3 greenCoeffs1 = texelFetch(gVals1, ptmCoords, 0).xyz;
-    ivec3 greenCoeffs2 = texelFetch(gVals2, ptmCoords, 0).xyz;
-    ivec3 blueCoeffs1 = texelFetch(bVals1, ptmCoords, 0).xyz;
-    ivec3 blueCoeffs2 = texelFetch(bVals2, ptmCoords, 0).xyz;
+    ivec3 redCoeffs1 = scaleBias(texelFetch(rVals1, ptmCoords, 0).xyz, bias1, scale1);
+    ivec3 redCoeffs2 = scaleBias(texelFetch(rVals2, ptmCoords, 0).xyz, bias2, scale2);
+    ivec3 greenCoeffs1 = scaleBias(texelFetch(gVals1, ptmCoords, 0).xyz, bias1, scale1);
+    ivec3 greenCoeffs2 = scaleBias(texelFetch(gVals2, ptmCoords, 0).xyz, bias2, scale2);
+    ivec3 blueCoeffs1 = scaleBias(texelFetch(bVals1, ptmCoords, 0).xyz, bias1, scale1);
+    ivec3 blueCoeffs2 = scaleBias(texelFetch(bVals2, ptmCoords, 0).xyz, bias2, scale2);
 
     //apply the PTM equation to the red green and blue channels
     float red = applyPTM(redCoeffs1.x, redCoeffs1.y, redCoeffs1.z, redCoeffs2.x, redCoeffs2.y, redCoeffs2.z);
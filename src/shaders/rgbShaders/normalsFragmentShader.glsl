@@ -10,16 +10,16 @@ uniform float imageHeight;
 uniform float imageWidth;
 
 //textures contining the first 3 and last 3 coeffs for the red channel
-uniform isampler2D rVals1;
-uniform isampler2D rVals2;
+uniform usampler2D rVals1;
+uniform usampler2D rVals2;
 
 //textures contining the first 3 and last 3 coeffs for the green channel
-uniform isampler2D gVals1;
-uniform isampler2D gVals2;
+uniform usampler2D gVals1;
+uniform usampler2D gVals2;
 
 //textures contining the first 3 and last 3 coeffs for the blue channel
-uniform isampler2D bVals1;
-uniform isampler2D bVals2;
+uniform usampler2D bVals1;
+uniform usampler2D bVals2;
 
 //texture continign the normal for each pixel
 uniform sampler2D normals;
@@ -23,6 +23,7 @@ import openGLWindow.RTIWindow;
 import openGLWindow.RTIWindowHSH;
 import openGLWindow.RTIWindowLRGB;
 import openGLWindow.RTIWindowRGB;
+import ptmCreation.RTIObject;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -418,9 +419,11 @@ public class BottomTabPane extends TabPane {
         currentRTIWindow = rtiWindow;
 
         //set the values displayed in the info fields
+        //the width and height are those of the level the window shows
+        RTIObject.Level level = rtiWindow.rtiObject.getLevel(rtiWindow.getMipLevel());
         setFileText(rtiWindow.rtiObject.getFilePath());
-        setWidthText(String.valueOf(rtiWindow.rtiObject.getWidth()));
-        setHeightText(String.valueOf(rtiWindow.rtiObject.getHeight()));
+        setWidthText(String.valueOf(level.getWidth()));
+        setHeightText(String.valueOf(level.getHeight()));
         setBookmarks(rtiWindow.rtiObject.getBookmarks());
 
         if(rtiWindow instanceof RTIWindowRGB){
@@ -438,6 +441,23 @@ public class BottomTabPane extends TabPane {
 
 
 
+    /**
+     * Called when the mip mapping level of the {@link BottomTabPane#currentRTIWindow} has been changed, or its
+     * RTIObject has had levels added. Updates the image width and image height boxes, and the preview image, to those
+     * of the level the window shows.
+     */
+    public void updateMipLevel(){
+        if(currentRTIWindow == null){return;}
+
+        RTIObject.Level level = currentRTIWindow.rtiObject.getLevel(currentRTIWindow.getMipLevel());
+        setWidthText(String.valueOf(level.getWidth()));
+        setHeightText(String.valueOf(level.getHeight()));
+        setPreviewImage(currentRTIWindow.rtiObject.previewImage);
+    }
+
+
+
+
     /**
      * Moves and scales the viewport rectangle in the image preview to the specified x and y coordinates,
      * which areto be given as the coordinate system of the OpenGL window.
@@ -125,6 +125,7 @@ public class BottomTabPaneListener implements EventHandler<ActionEvent> {
 
                         //and get the image creator to create an image file on the disk of that rendering mode
                         ImageCreator.saveImage(RTIViewer.selectedWindow.rtiObject,
+                                                RTIViewer.selectedWindow.getMipLevel(),
                                                 RTIViewer.globalLightPos.x, RTIViewer.globalLightPos.y,
                                                 RTIViewer.currentProgram,
                                                 bottomTabPane.redChannelButton.isSelected(),
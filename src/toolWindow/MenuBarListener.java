@@ -4,9 +4,10 @@ import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.MenuItem;
-import ptmCreation.RTICreator;
+import ptmCreation.RTILoaderPool;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Listens to inputs that the user makes in the {@link TopMenuBar} and calls the relevant action. All menu items
@@ -53,12 +54,11 @@ public class MenuBarListener implements EventHandler<ActionEvent>{
                         RTIViewer.defaultOpenDirectory.isDirectory()) {
                     RTIViewer.fileChooser.setInitialDirectory(RTIViewer.defaultOpenDirectory);
                 }
-                //open the file chooser and get the file that the user selected to open
-                File file = RTIViewer.fileChooser.showOpenDialog(RTIViewer.primaryStage);
-                //if they actually chose a file, try and read it
-                if(file != null) {
-                    Thread thread = new Thread(new RTICreator(file));
-                    thread.start();
+                //open the file chooser and get the files that the user selected to open
+                List<File> files = RTIViewer.fileChooser.showOpenMultipleDialog(RTIViewer.primaryStage);
+                //if they actually chose any files, try and read them
+                if(files != null) {
+                    RTILoaderPool.loadFiles(files);
                 }
 
             }else if(source.getId().equals("close")){
@@ -113,7 +113,17 @@ public class MenuBarListener implements EventHandler<ActionEvent>{
                     return;
                 }
 
-                new Thread(new RTICreator(file)).start();
+                RTILoaderPool.loadFile(file);
+
+            }else if(source.getId().equals("mipMapping0")){
+                //show all the open windows at the chosen mip mapping level
+                RTIViewer.setMipMapping(0);
+
+            }else if(source.getId().equals("mipMapping1")){
+                RTIViewer.setMipMapping(1);
+
+            }else if(source.getId().equals("mipMapping2")){
+                RTIViewer.setMipMapping(2);
             }
         }
     }
@@ -123,6 +123,9 @@ public class RTIViewer extends Application {
     /** Alert shown when there is an error with the bookmarks */
     public static Alert bookmarksAlert;
 
+    /** Alert shown when a file is too big to open at the selected mip level, so it's opened at a coarser one */
+    public static Alert mipLevelAlert;
+
     /** Th file chooser that can be opened when opening or saving files */
     public static final FileChooser fileChooser = new FileChooser();
 
@@ -245,7 +248,11 @@ public class RTIViewer extends Application {
         bookmarksAlert.setHeaderText("");
         bookmarksAlert.setTitle("Bookmarks error");
 
-        setThumbnails(entryAlert, fileReadingAlert, bookmarksAlert);
+        mipLevelAlert = new Alert(Alert.AlertType.INFORMATION);
+        mipLevelAlert.setHeaderText("");
+        mipLevelAlert.setTitle("Opened at a lower resolution");
+
+        setThumbnails(entryAlert, fileReadingAlert, bookmarksAlert, mipLevelAlert);
         BookmarkManager.createDialog();
     }
 
@@ -313,24 +320,25 @@ public class RTIViewer extends Application {
      * @see RTIObject
      *
      * @param RTIObject     the RTIObject to create an RTIwindow for
+     * @param mipLevel      the mip mapping level the window shows the RTIObject at
      */
-    public static void createNewPTMWindow(RTIObject RTIObject){
+    public static void createNewPTMWindow(RTIObject RTIObject, int mipLevel){
         try {
             //create the right type of window for the RTIObject given
             if(RTIObject instanceof PTMObjectRGB) {
-                RTIWindow rtiWindow = new RTIWindowRGB((PTMObjectRGB) RTIObject);
+                RTIWindow rtiWindow = new RTIWindowRGB((PTMObjectRGB) RTIObject, mipLevel);
                 Thread thread = new Thread(rtiWindow);
                 thread.start();
                 RTIWindows.add(rtiWindow);
 
             }else if(RTIObject instanceof PTMObjectLRGB){
-                RTIWindow rtiWindow = new RTIWindowLRGB((PTMObjectLRGB) RTIObject);
+                RTIWindow rtiWindow = new RTIWindowLRGB((PTMObjectLRGB) RTIObject, mipLevel);
                 Thread thread = new Thread(rtiWindow);
                 thread.start();
                 RTIWindows.add(rtiWindow);
 
             }else if(RTIObject instanceof RTIObjectHSH){
-                RTIWindow rtiWindow = new RTIWindowHSH((RTIObjectHSH) RTIObject);
+                RTIWindow rtiWindow = new RTIWindowHSH((RTIObjectHSH) RTIObject, mipLevel);
                 Thread thread = new Thread(rtiWindow);
                 thread.start();
                 RTIWindows.add(rtiWindow);
@@ -785,7 +793,7 @@ public class RTIViewer extends Application {
 
     /**
      * Called when a new RTIObject is opened to find the currently selected mip mapping level, so that the
-     * RTICreator knows whether to mip map or not.
+     * RTICreator knows which level of the RTIObject's mip pyramid to show first.
      *
      * @see RTICreator
      * @see RTIObject
@@ -799,4 +807,58 @@ public class RTIViewer extends Application {
 
         return -1;
     }
+
+
+
+
+    /**
+     * Called when the user chooses a mip mapping level from the menu. Sets all the open RTIWindows to show their
+     * RTIObject at that level, which they switch to straight away if it's been loaded. RTIObjects are only loaded down
+     * to the level they were opened at, so if the level is finer than that, the windows show the closest level they
+     * have while the finer ones are loaded, see {@link RTICreator#loadFinerLevels(RTIObject, int)}. Updates the info
+     * and preview of the selected window in the bottom tab pane.
+     *
+     * @see RTIWindow#setMipLevel(int)
+     *
+     * @param mipLevel      the mip mapping level chosen
+     */
+    public static void setMipMapping(int mipLevel){
+        for(RTIWindow rtiWindow : RTIWindows){
+            rtiWindow.setMipLevel(mipLevel);
+
+            //files are only decoded down to the level they were opened at, so the finer levels may need loading
+            RTICreator.loadFinerLevels(rtiWindow.rtiObject, mipLevel);
+        }
+
+        bottomTabPane.updateMipLevel();
+    }
+
+
+
+
+    /**
+     * Called when the finer levels of an RTIObject that was loaded progressively have been added to it. Gets the
+     * RTIWindows showing the RTIObject to show its new level, and updates the info and preview in the bottom tab
+     * pane if one of them is selected. Runs on the JavaFX thread.
+     *
+     * @see RTIObject#addLevels(RTIObject)
+     *
+     * @param rtiObject     the RTIObject that has had levels added
+     */
+    public static void updateMipLevels(final RTIObject rtiObject){
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                for(RTIWindow rtiWindow : RTIWindows){
+                    if(rtiWindow.rtiObject == rtiObject){
+                        rtiWindow.updateMipLevel();
+                    }
+                }
+
+                if(selectedWindow != null && selectedWindow.rtiObject == rtiObject){
+                    bottomTabPane.updateMipLevel();
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,169 @@
+package utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Holds the fork-join pool that the heavy per-pixel work in the app is split across, such as decoding texel data.
+ * Work is given to the pool as a range of rows, which is split into bands of rows that are processed by a
+ * {@link RowProcessor} on all the cores at once.
+ * </p>
+ * <p>
+ * Each band is only given to one thread, so a RowProcessor can write to its rows of a shared buffer without any
+ * locking, as long as it only uses absolute puts/gets and doesn't touch the buffer's position.
+ * </p>
+ * <p>
+ * The pool has one thread per core by default. The number of threads can be changed with
+ * {@link ComputePool#setParallelism(int)}, for example to leave some cores free for other work.
+ * </p>
+ *
+ * @author Jed Mills
+ */
+public class ComputePool {
+
+    /** The number of bands per thread that the rows are split into, more than one so threads can balance out */
+    private static final int BANDS_PER_THREAD = 4;
+
+    /** The pool that all the row bands are processed on */
+    private static volatile ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+
+    /**
+     * This class only has static methods so shouldn't be created.
+     */
+    private ComputePool(){}
+
+
+
+
+    /**
+     * @return {@link ComputePool#pool}
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+
+
+
+    /**
+     * Sets the number of threads the rows are processed on. A new pool is made with that many threads, and the old
+     * pool is shut down once the work already given to it has finished.
+     *
+     * @param parallelism       the number of threads to process rows on, at least 1
+     */
+    public static synchronized void setParallelism(int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if(parallelism == pool.getParallelism()){return;}
+
+        ForkJoinPool oldPool = pool;
+        pool = new ForkJoinPool(parallelism);
+        oldPool.shutdown();
+    }
+
+
+
+
+    /**
+     * @return the number of threads the rows are processed on
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+
+
+
+    /**
+     * Processes rows 0 to numRows - 1 with the processor, split into bands that are run in parallel on the pool.
+     * Returns when all the rows have been processed. If the processor throws an exception for any band, it's
+     * thrown from here.
+     *
+     * @param numRows       the number of rows to process
+     * @param processor     processes each band of rows
+     */
+    public static void processRows(int numRows, RowProcessor processor){
+        if(numRows <= 0){return;}
+
+        //the pool can be swapped while this is running, so the same pool is used for all the bands
+        ForkJoinPool currentPool = pool;
+        int bandSize = Math.max(1, numRows / (currentPool.getParallelism() * BANDS_PER_THREAD));
+        currentPool.invoke(new RowBandTask(processor, 0, numRows, bandSize));
+    }
+
+
+
+
+    /**
+     * Does the work for a band of rows. Implementations are called from many threads at once, each with a different
+     * band, so must not keep any state between calls other than read-only data.
+     */
+    public interface RowProcessor {
+
+        /**
+         * Processes the rows from startRow up to, but not including, endRow.
+         *
+         * @param startRow      first row of the band
+         * @param endRow        the row after the last row of the band
+         */
+        void processRows(int startRow, int endRow);
+    }
+
+
+
+
+    /**
+     * Splits a range of rows in half until each half is no bigger than the band size, then gives the band to the
+     * {@link RowProcessor}.
+     */
+    private static class RowBandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Processes the band when it's small enough */
+        private final RowProcessor processor;
+
+        /** First row of this task */
+        private final int startRow;
+
+        /** The row after the last row of this task */
+        private final int endRow;
+
+        /** The biggest band that is processed without splitting further */
+        private final int bandSize;
+
+
+        /**
+         * Creates a new task for the rows from startRow up to, but not including, endRow.
+         *
+         * @param processor     processes the band when it's small enough
+         * @param startRow      first row of the task
+         * @param endRow        the row after the last row of the task
+         * @param bandSize      the biggest band that is processed without splitting further
+         */
+        private RowBandTask(RowProcessor processor, int startRow, int endRow, int bandSize){
+            this.processor = processor;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.bandSize = bandSize;
+        }
+
+
+        /**
+         * Processes the band if it's small enough, otherwise splits it in two and processes both halves.
+         */
+        @Override
+        protected void compute() {
+            if(endRow - startRow <= bandSize){
+                processor.processRows(startRow, endRow);
+            }else{
+                int middle = (startRow + endRow) >>> 1;
+                invokeAll(new RowBandTask(processor, startRow, middle, bandSize),
+                          new RowBandTask(processor, middle, endRow, bandSize));
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package utils;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Allocates the native buffers that hold the coefficients and normals of an RTIObject, and frees them all as soon as
+ * the last user of the object has finished with them, rather than leaving them for the garbage collector. Direct
+ * buffers made by the JVM are only freed when the garbage collector gets round to collecting them, which can be
+ * long after a window has closed, as the heap hardly fills up when all the data is off the heap.
+ * </p>
+ * <p>
+ * Every buffer allocated by one of these is freed at once, when {@link NativeBuffers#release()} has been called once
+ * for the creator and once for every {@link NativeBuffers#retain()}. The buffers can't be used after that, so anything
+ * that reads them on another thread, like a window or an image export, retains them first. The number of bytes that
+ * are still allocated is kept for each set of buffers and for the whole app. Anything else that has to go when the
+ * buffers are freed, like the tiled files of levels paged from the disk, can be closed with them, see
+ * {@link NativeBuffers#closeOnRelease(Closeable)}.
+ * </p>
+ * <p>
+ * All the methods can be called from several threads at once.
+ * </p>
+ *
+ * @author Jed Mills
+ */
+public class NativeBuffers {
+
+    /** The number of bytes allocated by all the NativeBuffers in the app that haven't been freed yet */
+    private static final AtomicLong processBytes = new AtomicLong();
+
+    /** The buffers that have been allocated, which are all freed together */
+    private final ArrayList<Buffer> buffers = new ArrayList<>();
+
+    /** Closed when the buffers are freed, see {@link NativeBuffers#closeOnRelease(Closeable)} */
+    private final ArrayList<Closeable> closeables = new ArrayList<>();
+
+    /** The number of bytes allocated by this that haven't been freed yet */
+    private long liveBytes = 0;
+
+    /** The number of users of the buffers, the creator being the first, the buffers are freed when this gets to 0 */
+    private int references = 1;
+
+
+    /**
+     * Allocates a new native byte buffer, filled with zeros, in the native byte order.
+     *
+     * @param capacity      number of bytes in the buffer
+     * @return              the new buffer
+     */
+    public synchronized ByteBuffer allocateBytes(int capacity){
+        checkLive();
+        ByteBuffer buffer = MemoryUtil.memCalloc(capacity);
+        track(buffer, capacity);
+        return buffer;
+    }
+
+
+
+
+    /**
+     * Allocates a new native float buffer, filled with zeros, in the native byte order.
+     *
+     * @param capacity      number of floats in the buffer
+     * @return              the new buffer
+     */
+    public synchronized FloatBuffer allocateFloats(int capacity){
+        checkLive();
+        FloatBuffer buffer = MemoryUtil.memCallocFloat(capacity);
+        track(buffer, (long) capacity * 4);
+        return buffer;
+    }
+
+
+
+
+    /**
+     * Adds another user of the buffers, so that they aren't freed until it calls {@link NativeBuffers#release()}.
+     *
+     * @throws IllegalStateException    if the buffers have already been freed
+     */
+    public synchronized void retain(){
+        checkLive();
+        references++;
+    }
+
+
+
+
+    /**
+     * Removes a user of the buffers. When the last one is removed, every buffer is freed straight away.
+     */
+    public synchronized void release(){
+        if(references == 0){return;}
+
+        references--;
+        if(references > 0){return;}
+
+        for(Buffer buffer : buffers){
+            MemoryUtil.memFree(buffer);
+        }
+        buffers.clear();
+        processBytes.addAndGet(-liveBytes);
+        liveBytes = 0;
+
+        for(Closeable closeable : closeables){
+            try{
+                closeable.close();
+            }catch(IOException e){
+                //the buffers have still been freed, which is what matters
+                e.printStackTrace();
+            }
+        }
+        closeables.clear();
+    }
+
+
+
+
+    /**
+     * Closes the given resource when the buffers are freed, along with them, so that something made for the same
+     * RTIObject, but not in native memory, goes at the same time as the rest of it.
+     *
+     * @param closeable     closed once the last user has released the buffers
+     * @throws IllegalStateException    if the buffers have already been freed
+     */
+    public synchronized void closeOnRelease(Closeable closeable){
+        checkLive();
+        closeables.add(closeable);
+    }
+
+
+
+
+    /**
+     * @return {@link NativeBuffers#liveBytes}
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+
+
+
+    /**
+     * @return the number of users of the buffers that haven't released them yet, 0 once they have been freed
+     */
+    public synchronized int getReferences() {
+        return references;
+    }
+
+
+
+
+    /**
+     * @return whether the buffers have been freed
+     */
+    public synchronized boolean isReleased() {
+        return references == 0;
+    }
+
+
+
+
+    /**
+     * @return {@link NativeBuffers#processBytes}
+     */
+    public static long getProcessBytes() {
+        return processBytes.get();
+    }
+
+
+
+
+    /**
+     * Throws an exception if the buffers have been freed, so nothing is allocated that would never be freed.
+     */
+    private void checkLive(){
+        if(references == 0){
+            throw new IllegalStateException("Native buffers have already been freed");
+        }
+    }
+
+
+
+
+    /**
+     * Keeps the buffer so it's freed with the others, and adds its size to the byte counts.
+     *
+     * @param buffer        the buffer that was allocated
+     * @param bytes         its size in bytes
+     */
+    private void track(Buffer buffer, long bytes){
+        buffers.add(buffer);
+        liveBytes += bytes;
+        processBytes.addAndGet(bytes);
+    }
+}
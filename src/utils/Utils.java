@@ -2,14 +2,11 @@ package utils;
 
 import org.lwjgl.BufferUtils;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -31,6 +28,25 @@ public class Utils {
     /** Basically zero */
     public static final float ZEROTOL = 0.00001f;
 
+
+    /** The u coordinates of the points on the circle checked by {@link Utils#computeMaximumOnCircle(NormalScratch)} */
+    private static final float[] CIRCLE_U = new float[21];
+
+    /** The v coordinates of the points on the circle checked by {@link Utils#computeMaximumOnCircle(NormalScratch)} */
+    private static final float[] CIRCLE_V = new float[21];
+
+    static{
+        //these are the same for every pixel, so they're only worked out once
+        float inc, arg;
+        for(int k = 0; k <= 20; k++){
+            inc = (float) (1 / 9.0) / 20 * k;
+            arg = (float) (Math.PI * (26.0 / 18.0 + inc));
+            CIRCLE_U[k] = (float) Math.cos(arg);
+            CIRCLE_V[k] = (float) Math.sin(arg);
+        }
+    }
+
+
     /**
      * Returns true if value is in the array, false if not.
      *
@@ -93,22 +109,23 @@ public class Utils {
     /**
      * Returns the intensity calculated from the PTM polynomial:
      * I = (a0 * Lx^2) + (a1 * ly^2) + (a2 * Lx * Ly) + (a3 * Lx) + (a4 * Ly)+ a5
-     * Thresholds value between 0 and 255.
+     * Thresholds value between 0 and 255. The coeffs are the raw bytes from the file, which are scaled and biased
+     * with the lookup from {@link Utils#createScaleBiasLookup(float[], int[])} as they're read.
      *
-     * @param coeffs1   first 3 PTM polynomial coefficients a0-a2
-     * @param coeffs2   last 3 PTM polynomial coefficients a3-a5
+     * @param coeffs    raw bytes with the 6 PTM polynomial coefficients a0-a5 next to each other
+     * @param offset    position in coeffs of a0
+     * @param lookup    scaled and biased value of every byte for each of the 6 terms
      * @param lightX    light vector x pos
      * @param lightY    light vector y pos
-     * @param position  position in the flattened 2D array to get the PTM coeffs from
-     * @return
+     * @return          the intensity, 0 - 255
      */
-    public static int calcIntensity(IntBuffer coeffs1, IntBuffer coeffs2, int position, float lightX, float lightY){
+    public static int calcIntensity(byte[] coeffs, int offset, int[][] lookup, float lightX, float lightY){
         //i = (a0 * Lu^2) + (a1 * Lv^2) + (a2 * Lu * Lv) + (a3 * Lu) + (a4 * Lv) + a5
-        double intensity =  (coeffs1.get(position) * lightX * lightX) +
-                (coeffs1.get(position + 1) * lightY * lightY) +
-                (coeffs1.get(position + 2) * lightX * lightY) +
-                (coeffs2.get(position) * lightX) +
-                (coeffs2.get(position + 1) * lightY) + coeffs2.get(position + 2);
+        double intensity =  (lookup[0][coeffs[offset] & 0xFF] * lightX * lightX) +
+                (lookup[1][coeffs[offset + 1] & 0xFF] * lightY * lightY) +
+                (lookup[2][coeffs[offset + 2] & 0xFF] * lightX * lightY) +
+                (lookup[3][coeffs[offset + 3] & 0xFF] * lightX) +
+                (lookup[4][coeffs[offset + 4] & 0xFF] * lightY) + lookup[5][coeffs[offset + 5] & 0xFF];
 
         //threshold these to an unsigned byte for RGB
         if(intensity > 255){intensity = 255;}
@@ -120,6 +137,49 @@ public class Utils {
 
 
 
+    /**
+     * Makes a lookup table of the scaled and biased value of every possible byte, for each of the 6 PTM terms, so the
+     * coefficients can be kept as the raw bytes from the file and only scaled and biased when they're used.
+     * lookup[i][b] is the value of byte b for term i.
+     *
+     * @param scaleCoeffs       the 6 scale coeffs from the header
+     * @param biasCoeffs        the 6 bias coeffs from the header
+     * @return                  the lookup table
+     */
+    public static int[][] createScaleBiasLookup(float[] scaleCoeffs, int[] biasCoeffs){
+        int[][] lookup = new int[6][256];
+        for(int i = 0; i < 6; i++){
+            for(int b = 0; b < 256; b++){
+                lookup[i][b] = (int) ((b - biasCoeffs[i]) * scaleCoeffs[i]);
+            }
+        }
+        return lookup;
+    }
+
+
+
+
+    /**
+     * Makes a lookup table of the scaled and biased value of every possible byte, for each of the HSH basis terms.
+     * lookup[k][b] is the value of byte b for term k, which is (b / 255) * scale[k] + bias[k].
+     *
+     * @param scale         the scale for each basis term from the header
+     * @param bias          the bias for each basis term from the header
+     * @return              the lookup table
+     */
+    public static float[][] createScaleBiasLookup(float[] scale, float[] bias){
+        float[][] lookup = new float[scale.length][256];
+        for(int k = 0; k < scale.length; k++){
+            for(int b = 0; b < 256; b++){
+                lookup[k][b] = (b / 255.0f) * scale[k] + bias[k];
+            }
+        }
+        return lookup;
+    }
+
+
+
+
     /**
      * All the 3D vectors needed in this program are from here!
      *
@@ -335,6 +395,33 @@ public class Utils {
     }
 
 
+    /**
+     * Holds the arrays that are used while calculating a normal from PTM coefficients in
+     * {@link Utils#computeMaximumOnCircle(NormalScratch)}, so they can be reused for every pixel rather than being
+     * allocated again each time. Each thread calculating normals needs its own NormalScratch.
+     */
+    public static class NormalScratch{
+
+        /** The six PTM coefficients as floats, a0-a5 */
+        public final float[] a = new float[6];
+
+        /** The (x, y, z) components of the normal being calculated */
+        public final float[] lengths = new float[3];
+
+        /** The roots of the polynomial solved on the circle */
+        public final float[] roots = new float[4];
+
+        /** The coefficients of the polynomial solved on the circle, in ascending order */
+        public final float[] poly = new float[5];
+
+        /** The coefficients of the cubic and quadratics used by {@link Utils#solveQuartic(float[], float[], float[])} */
+        public final float[] quarticCoeffs = new float[4];
+
+        /** The value of the PTM polynomial at each root */
+        public final float[] vals = new float[4];
+    }
+
+
     /**
      * The maths for this method comes from the original viewer. It is used in computing the normal vectors for the
      * RTIObject from the coefficients.
@@ -344,9 +431,35 @@ public class Utils {
      * @return          the maximum on...the..circle...?
      */
     public static int computeMaximumOnCircle(float[] a, Vector3f lengths){
+        NormalScratch scratch = new NormalScratch();
+        System.arraycopy(a, 0, scratch.a, 0, 6);
+        scratch.lengths[0] = lengths.x;
+        scratch.lengths[1] = lengths.y;
+        scratch.lengths[2] = lengths.z;
+
+        int stat = computeMaximumOnCircle(scratch);
+
+        lengths.x = scratch.lengths[0];
+        lengths.y = scratch.lengths[1];
+        return stat;
+    }
+
+
+    /**
+     * The same as {@link Utils#computeMaximumOnCircle(float[], Vector3f)}, but doesn't allocate anything, using the
+     * arrays in the scratch instead. The coefficients are read from {@link NormalScratch#a}, and the x and y
+     * components of the result are written to {@link NormalScratch#lengths}.
+     *
+     * @param scratch   the coefficients, the lengths to write to, and the arrays to work in
+     * @return          the maximum on...the..circle...?
+     */
+    public static int computeMaximumOnCircle(NormalScratch scratch){
+        float[] a = scratch.a;
+        float[] lengths = scratch.lengths;
+        float[] roots = scratch.roots;
+        float[] c = scratch.poly;
         float db0, db1, db2, db3, db4;
-        float[] roots = new float[4];
-        float u, v, maxval, maxu = - 1, maxv = -1, inc, arg, polyval;
+        float u, v, maxval, maxu = - 1, maxv = -1, polyval;
         int index, nroots;
 
         index = -1;
@@ -360,19 +473,22 @@ public class Utils {
 
         if(Math.abs(db0) < ZEROTOL && Math.abs(db1) < ZEROTOL &&
                 Math.abs(db2) < ZEROTOL && Math.abs(db3) < ZEROTOL){
-            lengths.x = 0.0f;
-            lengths.y = 1.0f;
+            lengths[0] = 0.0f;
+            lengths[1] = 1.0f;
             return 1;
         }
 
+        //the solvers only look at the coefficients up to their order, so the same array does for all of them
+        c[0] = db4;
+        c[1] = db3;
+        c[2] = db2;
+        c[3] = db1;
+        c[4] = db0;
         if(db0 != 0){
-            float[] c = new float[]{db4, db3, db2, db1, db0};
-            nroots = solveQuartic(c, roots);
+            nroots = solveQuartic(c, roots, scratch.quarticCoeffs);
         }else if(db1 != 0){
-            float[] c = new float[]{db4, db3, db2, db1};
             nroots = solveCubic(c, roots);
         }else{
-            float[] c = new float[]{db4, db3, db2};
             nroots = solveQuadratic(c, roots);
         }
 
@@ -385,7 +501,7 @@ public class Utils {
                 index = 0;
                 break;
             default:
-                float[] vals = new float[nroots];
+                float[] vals = scratch.vals;
                 index = 0;
                 for(int i = 0; i < nroots; i ++){
                     u = 2 * roots[i] / (1 + roots[i] * roots[i]);
@@ -395,18 +511,15 @@ public class Utils {
                         index = 1;
                     }
                 }
-                vals = null;
         }
 
-        lengths.x = 2 * roots[index] / (1 + roots[index] * roots[index]);
-        lengths.y = (1 - roots[index] * roots[index])/ (1 + roots[index] * roots[index]);
+        lengths[0] = 2 * roots[index] / (1 + roots[index] * roots[index]);
+        lengths[1] = (1 - roots[index] * roots[index])/ (1 + roots[index] * roots[index]);
 
         maxval = -1000;
         for(int k = 0; k <= 20; k++){
-            inc = (float) (1 / 9.0) / 20 * k;
-            arg = (float) (Math.PI * (26.0 / 18.0 + inc));
-            u = (float) Math.cos(arg);
-            v = (float) Math.sin(arg);
+            u = CIRCLE_U[k];
+            v = CIRCLE_V[k];
             polyval = a[0] * u * u + a[1] * v * v + a[2] * u * v + a[3] * u	+ a[4] * v + a[5];
             if (maxval < polyval) {
                 maxval = polyval;
@@ -419,8 +532,8 @@ public class Utils {
         v = (1 - roots[index] * roots[index]) / (1 + roots[index] * roots[index]);
         float val1 = a[0] * u * u + a[1] * v * v + a[2] * u * v + a[3] * u + a[4] * v + a[5];
         if (maxval > val1) {
-            lengths.x = maxu;
-            lengths.y = maxv;
+            lengths[0] = maxu;
+            lengths[1] = maxv;
         }
         return 1;
     }
@@ -434,7 +547,19 @@ public class Utils {
      * @return          the number of unique solutions to the quadratic
      */
     public static int solveQuartic(float[] c, float[] solutions){
-        float[] coeffs = new float[4];
+        return solveQuartic(c, solutions, new float[4]);
+    }
+
+
+    /**
+     * Solves a quartic equation. The maths for this comes from the original viewer.
+     *
+     * @param c         the coeffs of the quartic in descending polynomial order
+     * @param solutions the array to write the solutions to
+     * @param coeffs    an array of at least 4 floats to hold the coefficients of the cubic and quadratics solved
+     * @return          the number of unique solutions to the quadratic
+     */
+    public static int solveQuartic(float[] c, float[] solutions, float[] coeffs){
         float z, u, v, sub;
         float A, B, C, D;
         float sq_A, p, q, r;
@@ -653,6 +778,37 @@ public class Utils {
     }
 
 
+    /**
+     * Packs a colour with red, green and blue in the range 0.0 - 1.0 into an opaque ARGB int, rounding each component
+     * the same way JavaFX does when a Color is written to an image, so images written in bulk with the ARGB values
+     * look exactly the same as those written a Color at a time.
+     *
+     * @param red       red component, 0.0 - 1.0
+     * @param green     green component, 0.0 - 1.0
+     * @param blue      blue component, 0.0 - 1.0
+     * @return          the colour as an ARGB int
+     */
+    public static int toArgb(float red, float green, float blue){
+        return 0xFF000000 | ((int) Math.round(red * 255.0) << 16)
+                          | ((int) Math.round(green * 255.0) << 8)
+                          | (int) Math.round(blue * 255.0);
+    }
+
+
+    /**
+     * Packs a colour with red, green and blue in the range 0 - 255 into an opaque ARGB int, the same as writing
+     * Color.rgb(red, green, blue) to an image.
+     *
+     * @param red       red component, 0 - 255
+     * @param green     green component, 0 - 255
+     * @param blue      blue component, 0 - 255
+     * @return          the colour as an ARGB int
+     */
+    public static int toArgb(int red, int green, int blue){
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+
     /**
      * Converts a float in the range 0.0 - 255.0 to its int value. If the value is not in the range it will
      * be clamped to this range.
@@ -829,22 +985,6 @@ public class Utils {
     }
 
 
-    /**
-     * Flips a buffered image vertically, used for decompressing jpegs.
-     *
-     * @param image image to flip vertically
-     */
-    public static void flip(BufferedImage image){
-        for (int i=0;i<image.getWidth();i++)
-            for (int j=0;j<image.getHeight()/2;j++)
-            {
-                int tmp = image.getRGB(i, j);
-                image.setRGB(i, j, image.getRGB(i, image.getHeight()-j-1));
-                image.setRGB(i, image.getHeight()-j-1, tmp);
-            }
-    }
-
-
     /**
      * Convertes the image file at the given location to a ByteBuffer. This is used to put the thumbnails of the RTI
      * logo in the GLFW windows.
@@ -902,30 +1042,41 @@ public class Utils {
 
 
     /**
-     * Applies the diffuse gain function to the 6 PTM coefficients at given position. See the original PTM paper for
+     * Applies the diffuse gain function to the 6 PTM coefficients at given offset. See the original PTM paper for
      * details about the function, the link for which is given in the user guide for this app.
      *
-     * @param coeffs1       flattened array containing the the first 3 coeffs for all pixels in the ptm
-     * @param coeffs2       flattened array containing the the last 3 coeffs for all pixels in the ptm
-     * @param position      position in the flattened array to get the 6 coeffs from
-     * @param normals       flattened array containing the normals for all pixels in the ptm
+     * @param coeffs        raw bytes with the 6 PTM polynomial coefficients a0-a5 next to each other
+     * @param offset        position in coeffs of a0
+     * @param lookup        scaled and biased value of every byte for each of the 6 terms
+     * @param normals       array containing the (x, y, z) normals of the pixels
+     * @param position      position in the normals of the pixel's normal
      * @param lightX        light x position
      * @param lightY        light y position
      * @param gain          diffuse gain to apply
      * @return              the colour of the pixel, diffuse gain value
      */
-    public static float applyDiffGain(IntBuffer coeffs1, IntBuffer coeffs2, int position, FloatBuffer normals, float lightX, float lightY, float gain){
+    public static float applyDiffGain(byte[] coeffs, int offset, int[][] lookup, float[] normals, int position,
+                                      float lightX, float lightY, float gain){
+        //scale and bias the raw coeffs
+        int c0 = lookup[0][coeffs[offset] & 0xFF];
+        int c1 = lookup[1][coeffs[offset + 1] & 0xFF];
+        int c2 = lookup[2][coeffs[offset + 2] & 0xFF];
+        int c3 = lookup[3][coeffs[offset + 3] & 0xFF];
+        int c4 = lookup[4][coeffs[offset + 4] & 0xFF];
+        int c5 = lookup[5][coeffs[offset + 5] & 0xFF];
+
         //calculate the modified PTM polynomial coefficients
-        float a0 = gain * coeffs1.get(position);
-        float a1 = gain * coeffs1.get(position + 1);
-        float a2 = gain * coeffs1.get(position + 2);
-        float a3t =  ((coeffs1.get(position)<<1)*normals.get(position) + coeffs1.get(position + 2)*normals.get(position + 1));
-        float a3 = (1.0f - gain) * a3t + coeffs2.get(position);
-        float a4t = ((coeffs1.get(position + 1)<<1)*normals.get(position + 1) + coeffs1.get(position + 2)*normals.get(position));
-        float a4 = (1.0f - gain) * a4t + coeffs2.get(position + 1);
-        float a5 = (1.0f - gain) * (coeffs1.get(position)*normals.get(position)*normals.get(position) + coeffs1.get(position + 1)*normals.get(position + 1)*normals.get(position + 1)
-                + coeffs1.get(position + 2)*normals.get(position)*normals.get(position + 1)) + (coeffs2.get(position) - a3) * normals.get(position)
-                + (coeffs2.get(position + 1) - a4) * normals.get(position + 1) + coeffs2.get(position + 2);
+        float a0 = gain * c0;
+        float a1 = gain * c1;
+        float a2 = gain * c2;
+        float a3t =  ((c0<<1)*normals[position] + c2*normals[position + 1]);
+        float a3 = (1.0f - gain) * a3t + c3;
+        float a4t = ((c1<<1)*normals[position + 1] + c2*normals[position]);
+        float a4 = (1.0f - gain) * a4t + c4;
+        float a5 = (1.0f - gain) * (c0*normals[position]*normals[position]
+                + c1*normals[position + 1]*normals[position + 1]
+                + c2*normals[position]*normals[position + 1]) + (c3 - a3) * normals[position]
+                + (c4 - a4) * normals[position + 1] + c5;
 
         //modified PTM polynomial
         return a0*lightX*lightX + a1*lightY*lightY + a2*lightX*lightY + a3*lightX + a4*lightY + a5;
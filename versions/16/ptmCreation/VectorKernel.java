@@ -0,0 +1,230 @@
+package ptmCreation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * The {@link RelightKernel} that does the maths for a row of pixels with the Vector API, as many pixels at a time as
+ * fit in the CPU's widest vectors. Like the batched kernel, the scaled and biased coefficients of the row are read
+ * first, but into one array for each term, so a vector of neighbouring pixels' values for a term can be loaded in one
+ * go. Each term is added in the same order and with the same precision as the per pixel methods, so the results are
+ * exactly the same. The HSH sums are done in doubles, rounded back to floats after every term, just like the float
+ * += double of {@link HSHKernel#evaluate}.
+ * </p>
+ * <p>
+ * This class is in the Java 16 source set of the multi release jar, in META-INF/versions/16, as the Vector API isn't in
+ * Java 8. It's compiled with <code>-source 16 -target 16 --add-modules jdk.incubator.vector</code>, against the
+ * classes of the main source set, as the incubator module can't be compiled against with --release.
+ * {@link RelightKernel#create} finds it by reflection, and only uses it if the JVM has been started with
+ * <code>--add-modules jdk.incubator.vector</code>, otherwise the batched kernel is used.
+ * </p>
+ *
+ * @see RelightKernel
+ *
+ * @author Jed Mills
+ */
+final class VectorKernel extends RelightKernel {
+
+    /** The widest float vectors the CPU has, used for the PTM maths */
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    /** Int vectors the same width as {@link VectorKernel#FLOATS}, for writing the intensities */
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /** The widest double vectors the CPU has, used for the HSH sums */
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    /** Float vectors with the same number of lanes as {@link VectorKernel#DOUBLES}, for loading the HSH terms */
+    private static final VectorSpecies<Float> HALF_FLOATS = FloatVector.SPECIES_PREFERRED.withShape(
+                                                    VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    /** The scaled and biased PTM coefficients of the row, one array for each of the 6 terms */
+    private final float[][] ptmTerms;
+
+    /** The x of the normal of each pixel in the row */
+    private final float[] normalX;
+
+    /** The y of the normal of each pixel in the row */
+    private final float[] normalY;
+
+    /** The scaled and biased HSH coefficients of the row, with pixel i's block at i * the kernel's block size */
+    private final float[] hshBlocks;
+
+    /** The scaled and biased HSH coefficients of the row, one array for each term of each colour in the block */
+    private final float[][] hshTerms;
+
+
+    /**
+     * Creates a new kernel, called by reflection from {@link RelightKernel#create}.
+     *
+     * @param maxPixels     the most pixels that will be in a row
+     */
+    VectorKernel(int maxPixels){
+        ptmTerms = new float[6][maxPixels];
+        normalX = new float[maxPixels];
+        normalY = new float[maxPixels];
+        hshBlocks = new float[HSHKernel.BLOCK_SIZE * maxPixels];
+        hshTerms = new float[HSHKernel.BLOCK_SIZE][maxPixels];
+    }
+
+
+
+
+    /**
+     * Reads the scaled and biased PTM coefficients of each pixel in the row into {@link VectorKernel#ptmTerms}. The
+     * lookup values are small ints, so they're exactly the same as floats.
+     *
+     * @param coeffs        interleaved raw coefficients of the row, with a0-a5 next to each other for each pixel
+     * @param offset        position in coeffs of a0 of the first pixel
+     * @param stride        number of coefficients each pixel has
+     * @param lookup        scaled and biased value of every byte for each of the 6 terms
+     * @param count         number of pixels in the row
+     */
+    private void loadPTMTerms(byte[] coeffs, int offset, int stride, int[][] lookup, int count){
+        for(int term = 0; term < 6; term++){
+            int[] termLookup = lookup[term];
+            float[] values = ptmTerms[term];
+            int position = offset + term;
+            for(int i = 0; i < count; i++){
+                values[i] = termLookup[coeffs[position + i * stride] & 0xFF];
+            }
+        }
+    }
+
+
+
+
+    @Override
+    public void calcIntensities(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                                float lightX, float lightY, int[] intensities) {
+        loadPTMTerms(coeffs, offset, stride, lookup, count);
+
+        float[] c0 = ptmTerms[0], c1 = ptmTerms[1], c2 = ptmTerms[2];
+        float[] c3 = ptmTerms[3], c4 = ptmTerms[4], c5 = ptmTerms[5];
+        for(int i = 0; i < count; i += FLOATS.length()){
+            VectorMask<Float> mask = FLOATS.indexInRange(i, count);
+
+            //i = (a0 * Lu^2) + (a1 * Lv^2) + (a2 * Lu * Lv) + (a3 * Lu) + (a4 * Lv) + a5
+            FloatVector intensity = FloatVector.fromArray(FLOATS, c0, i, mask).mul(lightX).mul(lightX)
+                    .add(FloatVector.fromArray(FLOATS, c1, i, mask).mul(lightY).mul(lightY))
+                    .add(FloatVector.fromArray(FLOATS, c2, i, mask).mul(lightX).mul(lightY))
+                    .add(FloatVector.fromArray(FLOATS, c3, i, mask).mul(lightX))
+                    .add(FloatVector.fromArray(FLOATS, c4, i, mask).mul(lightY))
+                    .add(FloatVector.fromArray(FLOATS, c5, i, mask));
+
+            //threshold these to an unsigned byte for RGB
+            intensity = intensity.max(0.0f).min(255.0f);
+            IntVector clamped = (IntVector) intensity.convertShape(VectorOperators.F2I, INTS, 0);
+            clamped.intoArray(intensities, i, mask.cast(INTS));
+        }
+    }
+
+
+
+
+    @Override
+    public void applyDiffGains(byte[] coeffs, int offset, int stride, int[][] lookup, int count,
+                               float[] normals, int position, float lightX, float lightY, float gain,
+                               float[] colours) {
+        loadPTMTerms(coeffs, offset, stride, lookup, count);
+        for(int i = 0; i < count; i++){
+            normalX[i] = normals[position + i * 3];
+            normalY[i] = normals[position + i * 3 + 1];
+        }
+
+        float[] c0 = ptmTerms[0], c1 = ptmTerms[1], c2 = ptmTerms[2];
+        float[] c3 = ptmTerms[3], c4 = ptmTerms[4], c5 = ptmTerms[5];
+        float rest = 1.0f - gain;
+        for(int i = 0; i < count; i += FLOATS.length()){
+            VectorMask<Float> mask = FLOATS.indexInRange(i, count);
+            FloatVector nx = FloatVector.fromArray(FLOATS, normalX, i, mask);
+            FloatVector ny = FloatVector.fromArray(FLOATS, normalY, i, mask);
+            FloatVector v0 = FloatVector.fromArray(FLOATS, c0, i, mask);
+            FloatVector v1 = FloatVector.fromArray(FLOATS, c1, i, mask);
+            FloatVector v2 = FloatVector.fromArray(FLOATS, c2, i, mask);
+            FloatVector v3 = FloatVector.fromArray(FLOATS, c3, i, mask);
+            FloatVector v4 = FloatVector.fromArray(FLOATS, c4, i, mask);
+            FloatVector v5 = FloatVector.fromArray(FLOATS, c5, i, mask);
+
+            //calculate the modified PTM polynomial coefficients, doubling a coefficient is exact like the << 1
+            FloatVector a0 = v0.mul(gain);
+            FloatVector a1 = v1.mul(gain);
+            FloatVector a2 = v2.mul(gain);
+            FloatVector a3 = v0.mul(2.0f).mul(nx).add(v2.mul(ny)).mul(rest).add(v3);
+            FloatVector a4 = v1.mul(2.0f).mul(ny).add(v2.mul(nx)).mul(rest).add(v4);
+            FloatVector a5 = v0.mul(nx).mul(nx).add(v1.mul(ny).mul(ny)).add(v2.mul(nx).mul(ny)).mul(rest)
+                    .add(v3.sub(a3).mul(nx)).add(v4.sub(a4).mul(ny)).add(v5);
+
+            //modified PTM polynomial
+            a0.mul(lightX).mul(lightX)
+                    .add(a1.mul(lightY).mul(lightY))
+                    .add(a2.mul(lightX).mul(lightY))
+                    .add(a3.mul(lightX))
+                    .add(a4.mul(lightY))
+                    .add(a5)
+                    .intoArray(colours, i, mask);
+        }
+    }
+
+
+
+
+    @Override
+    public void evaluateHSH(HSHKernel kernel, byte[] coeffs, float[][] lookup, int count,
+                            double[] hWeights, float[] red, float[] green, float[] blue) {
+        int terms = kernel.getBlockSize() / 3;
+        int blockSize = kernel.getBlockSize();
+        int pixelSize = kernel.getBasisTerms() * 3;
+
+        //scale and bias the whole row into the interleaved blocks, then split them into an array for each term
+        for(int i = 0; i < count; i++){
+            kernel.loadBlock(coeffs, i * pixelSize, lookup, hshBlocks, i * blockSize);
+        }
+        for(int term = 0; term < blockSize; term++){
+            float[] values = hshTerms[term];
+            for(int i = 0; i < count; i++){
+                values[i] = hshBlocks[i * blockSize + term];
+            }
+        }
+
+        for(int i = 0; i < count; i += DOUBLES.length()){
+            VectorMask<Float> mask = HALF_FLOATS.indexInRange(i, count);
+            sumColour(0, terms, hWeights, i, mask).intoArray(red, i, mask);
+            sumColour(terms, terms, hWeights, i, mask).intoArray(green, i, mask);
+            sumColour(terms * 2, terms, hWeights, i, mask).intoArray(blue, i, mask);
+        }
+    }
+
+
+
+
+    /**
+     * Sums one colour's terms times the hWeights for a vector of pixels, the same as the float += term * hWeight of
+     * {@link HSHKernel#evaluate}. Each product is added in double precision, then the sum is rounded back to a
+     * float before the next term is added.
+     *
+     * @param firstTerm     position of the colour's first term in the block
+     * @param terms         number of terms for each colour
+     * @param hWeights      the hWeights for the light direction
+     * @param start         the first pixel of the vector
+     * @param mask          which of the pixels from start are in the row
+     * @return              the colour of each of the pixels
+     */
+    private FloatVector sumColour(int firstTerm, int terms, double[] hWeights, int start, VectorMask<Float> mask){
+        FloatVector colour = FloatVector.zero(HALF_FLOATS);
+        for(int k = 0; k < terms; k++){
+            DoubleVector term = (DoubleVector) FloatVector.fromArray(HALF_FLOATS, hshTerms[firstTerm + k], start, mask)
+                                                          .convertShape(VectorOperators.F2D, DOUBLES, 0);
+            DoubleVector sum = ((DoubleVector) colour.convertShape(VectorOperators.F2D, DOUBLES, 0))
+                                                          .add(term.mul(hWeights[k]));
+            colour = (FloatVector) sum.convertShape(VectorOperators.D2F, HALF_FLOATS, 0);
+        }
+        return colour;
+    }
+}